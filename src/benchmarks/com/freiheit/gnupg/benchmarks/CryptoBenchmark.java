@@ -0,0 +1,120 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.freiheit.gnupg.GnuPGContext;
+import com.freiheit.gnupg.GnuPGData;
+import com.freiheit.gnupg.GnuPGKey;
+import com.freiheit.gnupg.GnuPGVerifyResult;
+
+/**
+   Measures complete engine round-trips: encrypt, decrypt, sign and
+   verify with a one-key fixture. For small payloads this is mostly
+   the cost of starting gpg, for large payloads the cost of moving
+   the data through gpgme.
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class CryptoBenchmark{
+    /** payload size in bytes: 1 KB to 1 GB */
+    @Param({"1024", "65536", "1048576", "16777216", "268435456", "1073741824"})
+    public int size;
+
+    private GnuPGContext _ctx;
+    private GnuPGKey[] _recipients;
+    private GnuPGData _plain;
+    private GnuPGData _cipher;
+    private GnuPGData _signature;
+
+    @Setup
+    public void setUp() throws IOException{
+        GnuPGBenchmarkFixture fixture = new GnuPGBenchmarkFixture(1);
+        _ctx = fixture.newContext();
+        _recipients = _ctx.searchKeys(GnuPGBenchmarkFixture.getEmail(0));
+        _ctx.addSigner(_recipients[0]);
+
+        _plain = _ctx.createDataObject(GnuPGBenchmarkFixture.payload(size));
+        _cipher = _ctx.createDataObject();
+        _ctx.encrypt(_recipients, _plain, _cipher);
+        _signature = _ctx.createDataObject();
+        _ctx.sign(_plain, _signature);
+    }
+
+    @TearDown
+    public void tearDown(){
+        _plain.destroy();
+        _cipher.destroy();
+        _signature.destroy();
+        _recipients[0].destroy();
+        _ctx.destroy();
+    }
+
+    @Benchmark
+    public void encrypt(){
+        try(GnuPGData out = _ctx.createDataObject()){
+            _ctx.encrypt(_recipients, _plain, out);
+        }
+    }
+
+    @Benchmark
+    public void decrypt(){
+        try(GnuPGData out = _ctx.createDataObject()){
+            _ctx.decrypt(_cipher, out);
+        }
+    }
+
+    @Benchmark
+    public void sign(){
+        try(GnuPGData out = _ctx.createDataObject()){
+            _ctx.sign(_plain, out);
+        }
+    }
+
+    @Benchmark
+    public GnuPGVerifyResult verify(){
+        try(GnuPGData out = _ctx.createDataObject()){
+            //normal signatures contain the signed text
+            return _ctx.verify(_signature, null, out);
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
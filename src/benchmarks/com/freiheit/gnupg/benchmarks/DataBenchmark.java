@@ -0,0 +1,95 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg.benchmarks;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.freiheit.gnupg.GnuPGContext;
+import com.freiheit.gnupg.GnuPGData;
+
+/**
+   Measures the copy overhead between the Java heap and gpgme:
+   creating a data object from a byte array and writing a data
+   object to a stream or a direct ByteBuffer. No engine is involved.
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class DataBenchmark{
+    /** payload size in bytes: 1 KB to 1 GB */
+    @Param({"1024", "65536", "1048576", "16777216", "268435456", "1073741824"})
+    public int size;
+
+    private GnuPGContext _ctx;
+    private byte[] _payload;
+    private GnuPGData _data;
+    private ByteBuffer _direct;
+
+    @Setup
+    public void setUp(){
+        _ctx = new GnuPGContext();
+        _payload = GnuPGBenchmarkFixture.payload(size);
+        _data = _ctx.createDataObject(_payload);
+        _direct = ByteBuffer.allocateDirect(size);
+    }
+
+    @TearDown
+    public void tearDown(){
+        _data.destroy();
+        _ctx.destroy();
+    }
+
+    @Benchmark
+    public void createDataObject(){
+        _ctx.createDataObject(_payload).destroy();
+    }
+
+    @Benchmark
+    public void writeToStream() throws Exception{
+        _data.write(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void writeToDirectBuffer(){
+        _direct.clear();
+        _data.write(_direct);
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
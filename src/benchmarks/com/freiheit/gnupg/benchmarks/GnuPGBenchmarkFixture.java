@@ -0,0 +1,176 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+
+import com.freiheit.gnupg.GnuPGContext;
+import com.freiheit.gnupg.GnuPGPassphraseListener;
+
+/**
+   Generates throwaway GnuPG home directories for the benchmarks.
+   A fixture is described completely by its number of keys: the
+   user-ids, key types and payloads are always the same, so two runs
+   (or two releases) work on comparable keyrings. The key material
+   itself is random, like every GnuPG key.
+   <p>
+   Generating keys is slow, so a fixture is generated once and reused
+   by all later runs. Delete the directory to start from scratch. The
+   base directory is the system property <em>javagnupg.bench.dir</em>
+   (default: java.io.tmpdir).
+   <p>
+   <em>How to generate fixtures in advance?</em>
+   <pre>
+   {@code
+     java com.freiheit.gnupg.benchmarks.GnuPGBenchmarkFixture 1 1000 10000
+   }
+   </pre>
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGBenchmarkFixture{
+    private static final String FIXTURE_VERSION = "1";
+    private static final String MARKER = "javagnupg-fixture";
+
+    private final Path _home;
+    private final int _keys;
+
+    /**
+       Generates the fixture, if it does not exist yet.
+
+       @param keys number of keys in the keyring, at least 1
+     */
+    public GnuPGBenchmarkFixture(int keys) throws IOException{
+        if(keys < 1){
+            throw new IllegalArgumentException("A fixture needs at least one key.");
+        }
+        _keys = keys;
+        String base = System.getProperty("javagnupg.bench.dir", System.getProperty("java.io.tmpdir"));
+        _home = Paths.get(base, "javagnupg-bench-" + keys);
+        if(!isComplete()){
+            generate();
+        }
+    }
+
+    /**
+       @return the GnuPG home directory of this fixture
+     */
+    public String getHome(){
+        return _home.toString();
+    }
+
+    /**
+       @return user-id of key number i (starting at 0)
+     */
+    public static String getEmail(int i){
+        return String.format("bench%06d@bench.invalid", i);
+    }
+
+    /**
+       Creates a context working on this fixture. The keys have no
+       passphrase, the listener only satisfies GnuPGContext.
+
+       @return GnuPGContext for the home directory of this fixture
+     */
+    public GnuPGContext newContext(){
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setEngineInfo(ctx.getProtocol(), ctx.getFilename(), getHome());
+        ctx.setPassphraseListener(new GnuPGPassphraseListener(){
+                public String getPassphrase(String hint, String passphraseInfo, long wasBad){
+                    return "\n";
+                }
+            });
+        return ctx;
+    }
+
+    /**
+       Returns the same pseudo random payload for the same size,
+       in every run.
+
+       @param size number of bytes
+       @return byte[] the payload
+     */
+    public static byte[] payload(int size){
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private boolean isComplete() throws IOException{
+        Path marker = _home.resolve(MARKER);
+        return Files.exists(marker)
+            && new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).equals(FIXTURE_VERSION + " " + _keys);
+    }
+
+    private void generate() throws IOException{
+        deleteRecursively(_home.toFile());
+        Files.createDirectories(_home);
+        Files.setPosixFilePermissions(_home, PosixFilePermissions.fromString("rwx------"));
+
+        GnuPGContext ctx = newContext();
+        try{
+            for(int i = 0; i < _keys; i++){
+                ctx.genKey(" <GnupgKeyParms format=\"internal\">\n"+
+                           "Key-Type: RSA\n"+
+                           "Key-Length: 1024\n"+
+                           "Subkey-Type: RSA\n"+
+                           "Subkey-Length: 1024\n"+
+                           "Name-Real: bench " + i + "\n"+
+                           "Name-Comment: throwaway benchmark key\n"+
+                           "Name-Email: " + getEmail(i) + "\n"+
+                           "Expire-Date: 0\n"+
+                           "%no-protection\n"+
+                           "</GnupgKeyParms>", null, null);
+            }
+        }
+        finally{
+            ctx.destroy();
+        }
+        Files.write(_home.resolve(MARKER), (FIXTURE_VERSION + " " + _keys).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void deleteRecursively(File file){
+        File[] children = file.listFiles();
+        if(children != null){
+            for(File child : children){
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+       Generates the fixtures for the given numbers of keys.
+     */
+    public static void main(String[] args) throws IOException{
+        for(String keys : args){
+            GnuPGBenchmarkFixture fixture = new GnuPGBenchmarkFixture(Integer.parseInt(keys));
+            System.out.println(fixture.getHome());
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -0,0 +1,106 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.freiheit.gnupg.GnuPGContext;
+import com.freiheit.gnupg.GnuPGKey;
+import com.freiheit.gnupg.GnuPGKeyIterator;
+
+/**
+   Measures key searches on generated keyrings of different sizes:
+   listing the whole keyring (as array and streamed) and looking up
+   one key by its email-address.
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class KeylistBenchmark{
+    /** number of keys in the keyring */
+    @Param({"100", "1000", "10000"})
+    public int keys;
+
+    private GnuPGContext _ctx;
+    private String _email;
+
+    @Setup
+    public void setUp() throws IOException{
+        _ctx = new GnuPGBenchmarkFixture(keys).newContext();
+        _email = GnuPGBenchmarkFixture.getEmail(keys / 2);
+    }
+
+    @TearDown
+    public void tearDown(){
+        _ctx.destroy();
+    }
+
+    @Benchmark
+    public int searchAllKeys(){
+        return release(_ctx.searchKeys(""));
+    }
+
+    @Benchmark
+    public int searchOneKey(){
+        return release(_ctx.searchKeys(_email));
+    }
+
+    @Benchmark
+    public int iterateAllKeys(){
+        int count = 0;
+        try(GnuPGKeyIterator iter = _ctx.keyIterator("")){
+            while(iter.hasNext()){
+                iter.next().destroy();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int release(GnuPGKey[] found){
+        if(found == null){
+            return 0;
+        }
+        for(GnuPGKey key : found){
+            key.destroy();
+        }
+        return found.length;
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
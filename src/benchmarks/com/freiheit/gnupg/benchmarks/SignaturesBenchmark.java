@@ -0,0 +1,89 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg.benchmarks;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.freiheit.gnupg.GnuPGContext;
+import com.freiheit.gnupg.GnuPGKey;
+import com.freiheit.gnupg.GnuPGSignature;
+
+/**
+   Measures walking the signatures of already loaded keys. This is
+   pure JNI work, one roundtrip per signature attribute.
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignaturesBenchmark{
+    /** number of keys, whose signatures are read */
+    @Param({"100", "1000"})
+    public int keys;
+
+    private GnuPGContext _ctx;
+    private GnuPGKey[] _keys;
+
+    @Setup
+    public void setUp() throws IOException{
+        _ctx = new GnuPGBenchmarkFixture(keys).newContext();
+        _keys = _ctx.searchKeys("");
+    }
+
+    @TearDown
+    public void tearDown(){
+        for(GnuPGKey key : _keys){
+            key.destroy();
+        }
+        _ctx.destroy();
+    }
+
+    @Benchmark
+    public int getSignatures(){
+        int length = 0;
+        for(GnuPGKey key : _keys){
+            Iterator iter = key.getSignatures();
+            while(iter.hasNext()){
+                length += ((GnuPGSignature)iter.next()).getKeyID().length();
+            }
+        }
+        return length;
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
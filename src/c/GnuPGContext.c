@@ -1,6 +1,8 @@
 #include <jni.h>
 #include <stdio.h>
+#include <stdlib.h>
 #include <string.h>
+#include <errno.h>
 #include <unistd.h>
 
 #include <locale.h>
@@ -10,70 +12,143 @@
 #include "com_freiheit_gnupg_GnuPGContext.h"
 #include "gpgmeutils.h"
 
-JavaVM *_jvm;
+/*
+ * Encodes the UTF-16 passphrase as UTF-8 into buf, which must have
+ * room for 3 bytes per char. Returns the number of bytes.
+ */
+static size_t utf8_encode(const jchar * chars, jsize len, unsigned char *buf)
+{
+    size_t n = 0;
+    jsize i;
+    for (i = 0; i < len; i++) {
+	unsigned long c = chars[i];
+	if (c >= 0xD800 && c <= 0xDBFF && i + 1 < len
+	    && chars[i + 1] >= 0xDC00 && chars[i + 1] <= 0xDFFF) {
+	    c = 0x10000 + ((c - 0xD800) << 10) + (chars[++i] - 0xDC00);
+	}
+	if (c < 0x80) {
+	    buf[n++] = (unsigned char) c;
+	} else if (c < 0x800) {
+	    buf[n++] = (unsigned char) (0xC0 | (c >> 6));
+	    buf[n++] = (unsigned char) (0x80 | (c & 0x3F));
+	} else if (c < 0x10000) {
+	    buf[n++] = (unsigned char) (0xE0 | (c >> 12));
+	    buf[n++] = (unsigned char) (0x80 | ((c >> 6) & 0x3F));
+	    buf[n++] = (unsigned char) (0x80 | (c & 0x3F));
+	} else {
+	    //a surrogate pair: 2 chars, 4 bytes
+	    buf[n++] = (unsigned char) (0xF0 | (c >> 18));
+	    buf[n++] = (unsigned char) (0x80 | ((c >> 12) & 0x3F));
+	    buf[n++] = (unsigned char) (0x80 | ((c >> 6) & 0x3F));
+	    buf[n++] = (unsigned char) (0x80 | (c & 0x3F));
+	}
+    }
+    return n;
+}
 
+/* memset may be optimized away on memory that is freed afterwards */
+static void wipe(void *mem, size_t len)
+{
+    volatile unsigned char *p = (volatile unsigned char *) mem;
+    while (len--) {
+	*p++ = 0;
+    }
+}
+
+static int write_all(int fd, const unsigned char *buf, size_t len)
+{
+    while (len > 0) {
+	ssize_t written = write(fd, buf, len);
+	if (written == -1) {
+	    if (errno == EINTR) {
+		continue;
+	    }
+	    return -1;
+	}
+	buf += written;
+	len -= (size_t) written;
+    }
+    return 0;
+}
+
+/*
+ * Asks the GnuPGPassphraseListener for the passphrase as a char[] and
+ * writes it UTF-8 encoded, followed by a newline, to gpgme. The
+ * char[] and the native buffer are zeroed afterwards, the passphrase
+ * never becomes a java String.
+ */
 gpgme_error_t
 passphrase_cb(void *hook, const char *uid_hint, const char *passphrase_info,
 	      int prev_was_bad, int fd)
 {
-    jobject self = (jobject) hook;
+    gpgme_error_t result = GPG_ERR_GENERAL;
+    jstring hint = NULL;
+    jstring pphrinfo = NULL;
+    jcharArray pphr = NULL;
 
-    if (self == NULL) {
+    if (hook == NULL) {
 	return GPG_ERR_GENERAL;
     }
 
-    JNIEnv *env;
-    (*_jvm)->AttachCurrentThread(_jvm, (void **) &env, NULL);
-
-    jclass cls = (*env)->GetObjectClass(env, self);
-
-    if (cls == NULL) {
+    JNIEnv *env = UTILS_callbackEnv();
+    if (env == NULL) {
 	return GPG_ERR_GENERAL;
     }
 
-    char methodDescr[] =
-	"(Ljava/lang/String;Ljava/lang/String;I)Ljava/lang/String;";
-    jmethodID mid =
-	(*env)->GetMethodID(env, cls, "passphraseCallback", methodDescr);
-
-    if (mid == NULL) {
+    //the hook is a weak global ref, see gpgmeNew()
+    jobject self = (*env)->NewLocalRef(env, (jweak) hook);
+    if (self == NULL) {
 	return GPG_ERR_GENERAL;
     }
 
-    //jbyte *hint = (*env)->NewStringUTF(env, uid_hint);
-    jstring hint = (*env)->NewStringUTF(env, uid_hint);
-    if (hint == NULL) {
-	return GPG_ERR_GENERAL;
+    //gpgme passes NULL e.g. for symmetric encryption
+    if (uid_hint != NULL
+	&& (hint = (*env)->NewStringUTF(env, uid_hint)) == NULL) {
+	goto out;
     }
-
-    jstring pphrinfo = (*env)->NewStringUTF(env, passphrase_info);
-    if (pphrinfo == NULL) {
-	return GPG_ERR_GENERAL;
+    if (passphrase_info != NULL
+	&& (pphrinfo = (*env)->NewStringUTF(env, passphrase_info)) == NULL) {
+	goto out;
     }
 
-    //jbyte *pphr;//passphrase is return value from callback to Java
-    jstring pphr;		//passphrase is return value from callback to Java
-    pphr = (*env)->CallObjectMethod(env, self, mid, hint, pphrinfo, (jlong)0);
-
-    if (pphr == NULL) {
-	return GPG_ERR_CANCELED;
+    pphr = (jcharArray) (*env)->CallObjectMethod(env, self,
+						 UTILS_jni.passphraseCallback,
+						 hint, pphrinfo,
+						 (jlong) prev_was_bad);
+    if ((*env)->ExceptionCheck(env) || pphr == NULL) {
+	//an exception of the listener stays pending for the java caller
+	result = GPG_ERR_CANCELED;
+	goto out;
     }
 
-    int len = (*env)->GetStringLength(env, pphr);
-    char buf[len + 1];		//leave the last char for newline
-
-    //TODO: Check for errors after the next call?!
-    (*env)->GetStringUTFRegion(env, pphr, 0, len, buf);
-
-    buf[len] = '\n';		//add the newline to the end...
+    jsize len = (*env)->GetArrayLength(env, pphr);
+    jchar *chars = (*env)->GetCharArrayElements(env, pphr, NULL);
+    if (chars == NULL) {
+	goto out;
+    }
 
-    ssize_t written;
-    written = write(fd, buf, len);
-    if (written == -1) {
-	return GPG_ERR_GENERAL;
+    //up to 3 bytes per char (4 per surrogate pair) and the newline
+    unsigned char *buf = (unsigned char *) malloc((size_t) len * 3 + 1);
+    if (buf != NULL) {
+	size_t n = utf8_encode(chars, len, buf);
+	buf[n++] = '\n';
+	if (write_all(fd, buf, n) == 0) {
+	    result = GPG_ERR_NO_ERROR;
+	}
+	wipe(buf, n);
+	free(buf);
     }
 
-    return GPG_ERR_NO_ERROR;
+    //zero the java array, too: mode 0 copies the zeros back
+    wipe(chars, (size_t) len * sizeof(jchar));
+    (*env)->ReleaseCharArrayElements(env, pphr, chars, 0);
+
+  out:
+    (*env)->DeleteLocalRef(env, pphr);
+    (*env)->DeleteLocalRef(env, pphrinfo);
+    (*env)->DeleteLocalRef(env, hint);
+    (*env)->DeleteLocalRef(env, self);
+    return result;
 }
 
 JNIEXPORT void JNICALL
@@ -95,13 +170,14 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeGetEngineInfo(JNIEnv * env,
     gpgme_engine_info_t engineInfo;
     gpgme_get_engine_info(&engineInfo);
 
-    jclass cls = (*env)->GetObjectClass(env, self);
-
-    UTILS_setStringMember(env, self, cls, "_version", engineInfo->version);
-    UTILS_setStringMember(env, self, cls, "_filename", engineInfo->file_name);
-    UTILS_setStringMember(env, self, cls, "_reqversion",
-			  engineInfo->req_version);
-    UTILS_setIntMember(env, self, cls, "_protocol", engineInfo->protocol);
+    UTILS_setStringField(env, self, UTILS_jni.contextVersion,
+			 engineInfo->version);
+    UTILS_setStringField(env, self, UTILS_jni.contextFilename,
+			 engineInfo->file_name);
+    UTILS_setStringField(env, self, UTILS_jni.contextReqversion,
+			 engineInfo->req_version);
+    UTILS_setIntField(env, self, UTILS_jni.contextProtocol,
+		      engineInfo->protocol);
 }
 
 JNIEXPORT jlong JNICALL
@@ -114,8 +190,15 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeNew(JNIEnv * env, jobject self)
     gpgme_set_keylist_mode(ctx,
 			   GPGME_KEYLIST_MODE_LOCAL | GPGME_KEYLIST_MODE_SIGS);
 
-    //store a handle to this jvm in a global variable
-    (*env)->GetJavaVM(env, &_jvm);
+    //the callback may run later on another thread (asynchronous
+    //operations), so it needs a global ref. A weak one, otherwise
+    //the context could never be garbage collected.
+    jweak hook = (*env)->NewWeakGlobalRef(env, self);
+    if (hook == NULL) {
+	gpgme_release(ctx);
+	return LNG(NULL);
+    }
+    gpgme_set_passphrase_cb(ctx, passphrase_cb, (void *) hook);
 
     return LNG(ctx);
 }
@@ -170,6 +253,72 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncrypt(JNIEnv * env, jobject self,
 
 }
 
+/*
+ * A native recipient array, that can be used for many encryptions.
+ * It holds its own reference on every key.
+ */
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeRecipientsNew(JNIEnv * env,
+							jclass cls,
+							jlongArray recipients)
+{
+    jsize len = (*env)->GetArrayLength(env, recipients);
+    gpgme_key_t *keys = (gpgme_key_t *) malloc((len + 1) * sizeof(gpgme_key_t));
+    if (keys == NULL) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(ENOMEM));
+	return LNG(NULL);
+    }
+
+    if (UTILS_copyRecipientsFromJvm(env, recipients, keys) < 1) {
+	free(keys);
+	return LNG(NULL);
+    }
+
+    gpgme_key_t *key;
+    for (key = keys; *key != NULL; key++) {
+	gpgme_key_ref(*key);
+    }
+    return LNG(keys);
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeRecipientsRelease(JNIEnv * env,
+							    jclass cls,
+							    jlong recipients)
+{
+    gpgme_key_t *key;
+    for (key = RECIPIENTS(recipients); *key != NULL; key++) {
+	gpgme_key_release(*key);
+    }
+    free(RECIPIENTS(recipients));
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncryptRecipients(JNIEnv * env,
+							      jobject self,
+							      jlong context,
+							      jlong recipients,
+							      jlong plain,
+							      jlong cipher)
+{
+    gpgme_error_t err;
+
+    err = gpgme_data_rewind(DATA(plain));	//TODO: Use seek instead of rewind
+    if (UTILS_onErrorThrowException(env, err)) {
+	return;
+    }
+
+    err = gpgme_data_rewind(DATA(cipher));	//TODO: Use seek instead of rewind
+    if (UTILS_onErrorThrowException(env, err)) {
+	return;
+    }
+
+    err = gpgme_op_encrypt(CONTEXT(context), RECIPIENTS(recipients),
+			   GPGME_ENCRYPT_ALWAYS_TRUST, DATA(plain),
+			   DATA(cipher));
+    UTILS_onErrorThrowException(env, err);
+}
+
 JNIEXPORT void JNICALL
 Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDecrypt(JNIEnv * env, jobject self,
 						    jlong context, jlong cipher,
@@ -177,8 +326,6 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDecrypt(JNIEnv * env, jobject self,
 {
     gpgme_error_t err;
 
-    gpgme_set_passphrase_cb(CONTEXT(context), passphrase_cb, (void *)self);
-
     err = gpgme_data_rewind(DATA(cipher));	//TODO: Use seek instead of rewind
     if (UTILS_onErrorThrowException(env, err)) {
 	return;
@@ -268,7 +415,6 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpChangePassphrase(JNIEnv * env,
 
     gpgme_data_t out = NULL;
 
-    gpgme_set_passphrase_cb(CONTEXT(context), passphrase_cb, self);
 
     err = gpgme_data_new(&out);
     if (UTILS_onErrorThrowException(env, err)) {
@@ -296,10 +442,17 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpChangePassphrase(JNIEnv * env,
 }
 
 JNIEXPORT void JNICALL
-Java_com_freiheit_gnupg_GnuPGContext_gpgmeRelease(JNIEnv * env, jobject self,
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeRelease(JNIEnv * env, jclass cls,
 						  jlong context)
 {
+    gpgme_passphrase_cb_t cb;
+    void *hook = NULL;
+
+    gpgme_get_passphrase_cb(CONTEXT(context), &cb, &hook);
     gpgme_release(CONTEXT(context));
+    if (hook != NULL) {
+	(*env)->DeleteWeakGlobalRef(env, (jweak) hook);
+    }
 }
 
 JNIEXPORT void JNICALL
@@ -312,8 +465,6 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncryptSign(JNIEnv * env,
 {
     gpgme_error_t err;
 
-    gpgme_set_passphrase_cb(CONTEXT(context), passphrase_cb, self);
-
     jsize len = (*env)->GetArrayLength(env, recipients);
     gpgme_key_t keys[len + 1];
     if (UTILS_copyRecipientsFromJvm(env, recipients, keys) < 1) {
@@ -346,7 +497,7 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncryptSign(JNIEnv * env,
 /*   } */
 }
 
-JNIEXPORT void JNICALL
+JNIEXPORT jobject JNICALL
 Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDecryptVerify(JNIEnv * env,
 							  jobject self,
 							  jlong context,
@@ -355,30 +506,22 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDecryptVerify(JNIEnv * env,
 {
     gpgme_error_t err;
 
-    gpgme_set_passphrase_cb(CONTEXT(context), passphrase_cb, self);
-
     err = gpgme_data_rewind(DATA(cipher));	//TODO: Use seek instead of rewind
     if (UTILS_onErrorThrowException(env, err)) {
-	return;
+	return NULL;
     }
 
     err = gpgme_data_rewind(DATA(plain));	//TODO: Use seek instead of rewind
     if (UTILS_onErrorThrowException(env, err)) {
-	return;
+	return NULL;
     }
 
     err = gpgme_op_decrypt_verify(CONTEXT(context), DATA(cipher), DATA(plain));
     if (UTILS_onErrorThrowException(env, err)) {
-	return;
+	return NULL;
     }
-/*   err = gpgme_op_decrypt_verify_start(CONTEXT(context), (gpgme_data_t)cipher, (gpgme_data_t)plain); */
-/*   if(UTILS_onErrorThrowException(env, err)){ */
-/*     return; */
-/*   } */
-/*   gpgme_ctx_t waitedOn = gpgme_wait(CONTEXT(context), err, 1);//HANG UNTIL COMPLETED! */
-/*   if(waitedOn != NULL && UTILS_onErrorThrowException(env, err)){ */
-/*     return; */
-/*   } */
+
+    return UTILS_newVerifyResult(env, CONTEXT(context));
 }
 
 JNIEXPORT void JNICALL
@@ -388,8 +531,6 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpSign(JNIEnv * env, jobject self,
 {
     gpgme_error_t err;
 
-    gpgme_set_passphrase_cb(CONTEXT(context), passphrase_cb, (void *) self);
-
     err = gpgme_data_rewind(DATA(plain));	//TODO: Use seek instead of rewind
     if (UTILS_onErrorThrowException(env, err)) {
 	return;
@@ -417,7 +558,11 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpSign(JNIEnv * env, jobject self,
 
 }
 
-JNIEXPORT void JNICALL
+/*
+ * signedtxt is 0 for normal and cleartext signatures, plain is 0 for
+ * detached signatures. gpgme ignores signedtxt, if plain is given.
+ */
+JNIEXPORT jobject JNICALL
 Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpVerify(JNIEnv * env, jobject self,
 						   jlong context,
 						   jlong signature,
@@ -425,36 +570,227 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpVerify(JNIEnv * env, jobject self,
 {
     gpgme_error_t err;
 
-    gpgme_set_passphrase_cb(CONTEXT(context), passphrase_cb, self);
-
     err = gpgme_data_rewind(DATA(signature));	//TODO: Use seek instead of rewind
     if (UTILS_onErrorThrowException(env, err)) {
+	return NULL;
+    }
+
+    if (signedtxt != 0) {
+	err = gpgme_data_rewind(DATA(signedtxt));	//TODO: Use seek instead of rewind
+	if (UTILS_onErrorThrowException(env, err)) {
+	    return NULL;
+	}
+    }
+
+    if (plain != 0) {
+	err = gpgme_data_rewind(DATA(plain));	//TODO: Use seek instead of rewind
+	if (UTILS_onErrorThrowException(env, err)) {
+	    return NULL;
+	}
+    }
+
+    err = gpgme_op_verify(CONTEXT(context), DATA(signature), DATA(signedtxt),
+			  DATA(plain));
+    if (UTILS_onErrorThrowException(env, err)) {
+	return NULL;
+    }
+
+    return UTILS_newVerifyResult(env, CONTEXT(context));
+}
+
+/*
+ * The *Start functions only start an operation. The result is
+ * collected by GnuPGEventLoop with gpgme_wait() on the global event
+ * loop.
+ */
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncryptStart(JNIEnv * env,
+							 jobject self,
+							 jlong context,
+							 jlongArray recipients,
+							 jlong plain,
+							 jlong cipher)
+{
+    gpgme_error_t err;
+
+    jsize len = (*env)->GetArrayLength(env, recipients);
+    gpgme_key_t keys[len + 1];
+    if (UTILS_copyRecipientsFromJvm(env, recipients, keys) < 1) {
 	return;
     }
 
-    err = gpgme_data_rewind(DATA(signedtxt));	//TODO: Use seek instead of rewind
+    err = gpgme_data_rewind(DATA(plain));
     if (UTILS_onErrorThrowException(env, err)) {
 	return;
     }
 
-    err = gpgme_data_rewind(DATA(plain));	//TODO: Use seek instead of rewind
+    err = gpgme_data_rewind(DATA(cipher));
     if (UTILS_onErrorThrowException(env, err)) {
 	return;
     }
 
-    err = gpgme_op_verify(CONTEXT(context), DATA(signature), DATA(signedtxt),
-			  DATA(plain));
+    //the engine copies the recipients here, the caller keeps the keys alive until then
+    err = gpgme_op_encrypt_start(CONTEXT(context), keys,
+				 GPGME_ENCRYPT_ALWAYS_TRUST, DATA(plain),
+				 DATA(cipher));
+    UTILS_onErrorThrowException(env, err);
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDecryptStart(JNIEnv * env,
+							 jobject self,
+							 jlong context,
+							 jlong cipher,
+							 jlong plain)
+{
+    gpgme_error_t err;
+
+    err = gpgme_data_rewind(DATA(cipher));
     if (UTILS_onErrorThrowException(env, err)) {
 	return;
     }
-/*   err = gpgme_op_verify_start(CONTEXT(context), (gpgme_data_t)signature, (gpgme_data_t)signedtxt, (gpgme_data_t)plain); */
-/*   if(UTILS_onErrorThrowException(env, err)){ */
-/*     return; */
-/*   } */
-/*   gpgme_ctx_t waitedOn = gpgme_wait(CONTEXT(context), err, 0); */
-/*   if(waitedOn != NULL && UTILS_onErrorThrowException(env, err)){ */
-/*     return; */
-/*   } */
+
+    err = gpgme_data_rewind(DATA(plain));
+    if (UTILS_onErrorThrowException(env, err)) {
+	return;
+    }
+
+    err = gpgme_op_decrypt_start(CONTEXT(context), DATA(cipher), DATA(plain));
+    UTILS_onErrorThrowException(env, err);
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpSignStart(JNIEnv * env,
+						      jobject self,
+						      jlong context,
+						      jlong plain,
+						      jlong signature)
+{
+    gpgme_error_t err;
+
+    err = gpgme_data_rewind(DATA(plain));
+    if (UTILS_onErrorThrowException(env, err)) {
+	return;
+    }
+
+    err = gpgme_data_rewind(DATA(signature));
+    if (UTILS_onErrorThrowException(env, err)) {
+	return;
+    }
+
+    err = gpgme_op_sign_start(CONTEXT(context), DATA(plain), DATA(signature),
+			      GPGME_SIG_MODE_CLEAR);
+    UTILS_onErrorThrowException(env, err);
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpVerifyStart(JNIEnv * env,
+							jobject self,
+							jlong context,
+							jlong signature,
+							jlong signedtxt,
+							jlong plain)
+{
+    gpgme_error_t err;
+
+    err = gpgme_data_rewind(DATA(signature));
+    if (UTILS_onErrorThrowException(env, err)) {
+	return;
+    }
+
+    if (signedtxt != 0) {
+	err = gpgme_data_rewind(DATA(signedtxt));
+	if (UTILS_onErrorThrowException(env, err)) {
+	    return;
+	}
+    }
+
+    if (plain != 0) {
+	err = gpgme_data_rewind(DATA(plain));
+	if (UTILS_onErrorThrowException(env, err)) {
+	    return;
+	}
+    }
+
+    err = gpgme_op_verify_start(CONTEXT(context), DATA(signature),
+				DATA(signedtxt), DATA(plain));
+    UTILS_onErrorThrowException(env, err);
+}
+
+/*
+ * The result of the last verify operation, used after verifyAsync()
+ * has completed.
+ */
+JNIEXPORT jobject JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeVerifyResult(JNIEnv * env,
+						       jobject self,
+						       jlong context)
+{
+    return UTILS_newVerifyResult(env, CONTEXT(context));
+}
+
+/*
+ * Copies a java String[] into a NULL terminated array of UTF-8
+ * strings for gpgme. A null array gives *p == NULL. Returns 0 with
+ * a pending exception on failure; release with patterns_release()
+ * in any case.
+ */
+static int patterns_get(JNIEnv * env, jobjectArray patterns,
+			const char ***p, jstring ** strs, jsize * copied)
+{
+    jsize len;
+
+    *p = NULL;
+    *strs = NULL;
+    *copied = 0;
+    if (patterns == NULL) {
+	return 1;
+    }
+    len = (*env)->GetArrayLength(env, patterns);
+    *p = (const char **) calloc(len + 1, sizeof(char *));
+    *strs = (jstring *) calloc(len + 1, sizeof(jstring));
+    if (*p == NULL || *strs == NULL) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(ENOMEM));
+	return 0;
+    }
+    for (*copied = 0; *copied < len; (*copied)++) {
+	(*strs)[*copied] =
+	    (jstring) (*env)->GetObjectArrayElement(env, patterns, *copied);
+	if ((*strs)[*copied] == NULL) {
+	    UTILS_onErrorThrowException(env, gpg_error(GPG_ERR_INV_VALUE));
+	    return 0;
+	}
+	(*p)[*copied] =
+	    (*env)->GetStringUTFChars(env, (*strs)[*copied], NULL);
+	if ((*p)[*copied] == NULL) {
+	    return 0;
+	}
+    }
+    return 1;
+}
+
+static void patterns_release(JNIEnv * env, jobjectArray patterns,
+			     const char **p, jstring * strs, jsize copied)
+{
+    jsize i, len;
+
+    len = (patterns == NULL) ? 0 : (*env)->GetArrayLength(env, patterns);
+    for (i = 0; p != NULL && strs != NULL && i <= copied && i < len; i++) {
+	if (p[i] != NULL) {
+	    (*env)->ReleaseStringUTFChars(env, strs[i], p[i]);
+	}
+	(*env)->DeleteLocalRef(env, strs[i]);
+    }
+    free(p);
+    free(strs);
+}
+
+static void release_keys(gpgme_key_t * keys, size_t from, size_t to)
+{
+    size_t i;
+    for (i = from; i < to; i++) {
+	gpgme_key_release(keys[i]);
+    }
 }
 
 JNIEXPORT jobjectArray JNICALL
@@ -463,75 +799,201 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylist(JNIEnv * env, jobject self,
 {
     gpgme_error_t err;
     gpgme_key_t key;
-    jlong num_keys_found = 0;
+    gpgme_key_t *keys = NULL;
+    size_t num_keys_found = 0;
+    size_t capacity = 0;
     jobjectArray result = NULL;
     jobject keyObj = NULL;
 
+    //the constructor, that accepts a long as param (that is a ptr to a key)..
+    jclass keyClass = UTILS_jni.key;
+    jmethodID cid = UTILS_jni.keyInit;
+
     //copy string object from java to native string
-    const jbyte *query_str = (jbyte *)(*env)->GetStringUTFChars(env, query,
-								NULL);
+    const char *query_str = (*env)->GetStringUTFChars(env, query, NULL);
+    if (query_str == NULL) {
+	return NULL;
+    }
 
-    //get the right constructor to invoke for every key in result set
-    jclass keyClass;
-    keyClass = (*env)->FindClass(env, "com/freiheit/gnupg/GnuPGKey");
-    if (keyClass == NULL) {
+    //only one pass: collect the keys and build the array afterwards
+    err = gpgme_op_keylist_start(CONTEXT(context), query_str, 0);
+    (*env)->ReleaseStringUTFChars(env, query, query_str);
+    if (UTILS_onErrorThrowException(env, err)) {
 	return NULL;
     }
-    jmethodID cid;
-    //get the constructor, that accepts a long as param (that is a ptr to a key)..
-    cid = (*env)->GetMethodID(env, keyClass, "<init>", "(J)V");
-    if (cid == NULL) {
+
+    while (!(err = gpgme_op_keylist_next(CONTEXT(context), &key))) {
+	if (num_keys_found == capacity) {
+	    capacity = (capacity == 0) ? 16 : capacity * 2;
+	    gpgme_key_t *grown = (gpgme_key_t *) realloc(keys,
+							 capacity *
+							 sizeof(gpgme_key_t));
+	    if (grown == NULL) {
+		err = gpg_error_from_errno(errno);
+		gpgme_key_release(key);
+		gpgme_op_keylist_end(CONTEXT(context));
+		break;
+	    }
+	    keys = grown;
+	}
+	keys[num_keys_found++] = key;
+    }
+
+    if (gpg_err_code(err) != GPG_ERR_EOF) {
+	release_keys(keys, 0, num_keys_found);
+	free(keys);
+	UTILS_onErrorThrowException(env, err);
 	return NULL;
     }
-    //loop two times: one for counting, second for generating result array
-    int is_counting = 0;	//loop 1: counting number of keys in result
-    int is_working = 1;		//loop 2: generating result array
 
-    int i = 0;			//loop counter
-    int j = 0;			//index in result array, used only in second loop run...
-    for (i = 0; i < 2; i++) {	//loops [0..1]
-	err = gpgme_op_keylist_start(CONTEXT(context),
-				     (const char *)query_str,
-				     0);
-	if (UTILS_onErrorThrowException(env, err)) {
-	    (*env)->ReleaseStringUTFChars(env, query, (const char *)query_str);
-	    return NULL;
+    if (num_keys_found > 0) {
+	result = (*env)->NewObjectArray(env, (jsize) num_keys_found,
+					keyClass, NULL);
+    }
+
+    size_t j;
+    for (j = 0; result != NULL && j < num_keys_found; j++) {
+	keyObj = (*env)->NewObject(env, keyClass, cid, LNG(keys[j]));
+	if (keyObj == NULL) {
+	    result = NULL;
+	    break;
 	}
+	(*env)->SetObjectArrayElement(env, result, (jsize) j, keyObj);
+	(*env)->DeleteLocalRef(env, keyObj);
+    }
+    if (result == NULL) {
+	//the keys from j on have no owner on the java side
+	release_keys(keys, j, num_keys_found);
+    }
+    free(keys);
 
-	while (!err) {
-	    err = gpgme_op_keylist_next(CONTEXT(context), &key);
-	    if ((gpg_err_code(err) != GPG_ERR_EOF) 
-		&& UTILS_onErrorThrowException(env, err)) {
-		return NULL;
-	    }
+    return result;
+}
 
-	    if (is_counting == i && key != NULL) {	//only true in first loop: i=0
-		num_keys_found++;	//increment result count
+JNIEXPORT jobjectArray JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylistSnapshots(JNIEnv * env,
+							   jobject self,
+							   jlong context,
+							   jobjectArray patterns,
+							   jint projection)
+{
+    gpgme_error_t err;
+    gpgme_key_t key;
+    gpgme_key_t *keys = NULL;
+    size_t num_keys_found = 0;
+    size_t capacity = 0;
+    jobjectArray result = NULL;
+    jobject snapshot;
+    const char **p;
+    jstring *strs;
+    jsize copied;
+
+    //a null array lists all keys, several patterns are listed in one pass
+    if (!patterns_get(env, patterns, &p, &strs, &copied)) {
+	patterns_release(env, patterns, p, strs, copied);
+	return NULL;
+    }
+    err = gpgme_op_keylist_ext_start(CONTEXT(context), p, 0, 0);
+    patterns_release(env, patterns, p, strs, copied);
+    if (UTILS_onErrorThrowException(env, err)) {
+	return NULL;
+    }
+
+    //collect the keys first, the array needs its length in advance
+    while (!(err = gpgme_op_keylist_next(CONTEXT(context), &key))) {
+	if (num_keys_found == capacity) {
+	    capacity = (capacity == 0) ? 16 : capacity * 2;
+	    gpgme_key_t *grown = (gpgme_key_t *) realloc(keys,
+							 capacity *
+							 sizeof(gpgme_key_t));
+	    if (grown == NULL) {
+		err = gpg_error_from_errno(errno);
 		gpgme_key_release(key);
-	    } else if (is_working == i && key != NULL) {	//only true in second loop: i=1
-		if (result == NULL) {
-		    result = (*env)->NewObjectArray(env,
-						    num_keys_found,
-						    keyClass,
-						    NULL);
-		}
-		keyObj = (*env)->NewObject(env, keyClass, cid, LNG(key));
-		(*env)->SetObjectArrayElement(env, result, j++, keyObj);
-	    } else {
-		//FIXME: Can not happen...but should be checked -> throwing exception?
+		gpgme_op_keylist_end(CONTEXT(context));
+		break;
 	    }
-	    key = NULL;
-
-	}			//end while
+	    keys = grown;
+	}
+	keys[num_keys_found++] = key;
+    }
 
-    }				//end for
+    if (gpg_err_code(err) == GPG_ERR_EOF) {
+	result = (*env)->NewObjectArray(env, (jsize) num_keys_found,
+					UTILS_jni.keySnapshot, NULL);
+    } else {
+	UTILS_onErrorThrowException(env, err);
+    }
 
-    //..and release the query string for gc..
-    (*env)->ReleaseStringUTFChars(env, query, (const char *) query_str);
+    size_t j;
+    for (j = 0; result != NULL && j < num_keys_found; j++) {
+	snapshot = UTILS_newKeySnapshot(env, keys[j], (int) projection);
+	if (snapshot == NULL) {
+	    result = NULL;
+	    break;
+	}
+	(*env)->SetObjectArrayElement(env, result, (jsize) j, snapshot);
+	(*env)->DeleteLocalRef(env, snapshot);
+    }
+    //the snapshots are copies, no key is owned by the java side
+    release_keys(keys, 0, num_keys_found);
+    free(keys);
 
     return result;
 }
 
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylistStart(JNIEnv * env,
+						       jobject self,
+						       jlong context,
+						       jstring query)
+{
+    gpgme_error_t err;
+    const char *query_str = NULL;
+
+    //a null query lists all keys
+    if (query != NULL) {
+	query_str = (*env)->GetStringUTFChars(env, query, NULL);
+	if (query_str == NULL) {
+	    return;
+	}
+    }
+
+    err = gpgme_op_keylist_start(CONTEXT(context), query_str, 0);
+
+    if (query_str != NULL) {
+	(*env)->ReleaseStringUTFChars(env, query, query_str);
+    }
+    UTILS_onErrorThrowException(env, err);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylistNext(JNIEnv * env,
+						      jobject self,
+						      jlong context)
+{
+    gpgme_key_t key = NULL;
+    gpgme_error_t err = gpgme_op_keylist_next(CONTEXT(context), &key);
+
+    if (gpg_err_code(err) == GPG_ERR_EOF) {
+	return LNG(NULL);
+    }
+    if (err) {
+	gpgme_op_keylist_end(CONTEXT(context));
+	UTILS_onErrorThrowException(env, err);
+	return LNG(NULL);
+    }
+    return LNG(key);
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylistEnd(JNIEnv * env,
+						     jobject self,
+						     jlong context)
+{
+    gpgme_error_t err = gpgme_op_keylist_end(CONTEXT(context));
+    UTILS_onErrorThrowException(env, err);
+}
+
 JNIEXPORT void JNICALL
 Java_com_freiheit_gnupg_GnuPGContext_gpgmeAddSigners(JNIEnv * env, jobject self,
 						     jlong context, jlong key)
@@ -719,6 +1181,57 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpImport(JNIEnv * env, jobject self,
     //check_result (result, "ADAB7FCC1F4DE2616ECFA402AF82244F9CD9FD55", 0);
 }
 
+/*
+ * Imports all keys from keydata. Keys, that can't be imported, are
+ * reported in the result, not as an exception.
+ */
+JNIEXPORT jobject JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpImportKeys(JNIEnv * env,
+						       jobject self,
+						       jlong context,
+						       jlong keydata)
+{
+    gpgme_error_t err;
+    gpgme_import_result_t result;
+
+    err = gpgme_data_rewind(DATA(keydata));	//TODO: Use seek instead of rewind
+    if (UTILS_onErrorThrowException(env, err)) {
+	return NULL;
+    }
+
+    err = gpgme_op_import(CONTEXT(context), DATA(keydata));
+    if (UTILS_onErrorThrowException(env, err)) {
+	return NULL;
+    }
+
+    result = gpgme_op_import_result(CONTEXT(context));
+    if (result == NULL) {
+	UTILS_onErrorThrowException(env, GPG_ERR_NO_DATA);
+	return NULL;
+    }
+    return UTILS_newImportResult(env, result);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeGetKeylistMode(JNIEnv * env,
+							 jobject self,
+							 jlong context)
+{
+    return (jint) gpgme_get_keylist_mode(CONTEXT(context));
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeSetKeylistMode(JNIEnv * env,
+							 jobject self,
+							 jlong context,
+							 jint mode)
+{
+    gpgme_error_t err;
+
+    err = gpgme_set_keylist_mode(CONTEXT(context), (gpgme_keylist_mode_t) mode);
+    UTILS_onErrorThrowException(env, err);
+}
+
 JNIEXPORT jlong JNICALL
 Java_com_freiheit_gnupg_GnuPGContext_gpgmeGetArmor(JNIEnv * env, jobject self,
 						   jlong context)
@@ -788,13 +1301,34 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpExport(JNIEnv * env, jobject self,
     gpgme_data_t data = DATA(keydata);
     gpgme_error_t err;
 
-
     p = (char *) (*env)->GetStringUTFChars(env, pattern, NULL);
     err = gpgme_op_export(ctx, p, 0, data);
-    if (UTILS_onErrorThrowException(env, err)) {
-	return;
-    }
     (*env)->ReleaseStringUTFChars(env, pattern, p);
+    UTILS_onErrorThrowException(env, err);
+}
+
+/*
+ * Exports the keys matching any of the patterns in one run of the
+ * engine. patterns NULL exports all keys.
+ */
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpExportExt(JNIEnv * env,
+						      jobject self,
+						      jlong context,
+						      jobjectArray patterns,
+						      jint mode, jlong keydata)
+{
+    gpgme_error_t err;
+    const char **p;
+    jstring *strs;
+    jsize copied;
+
+    if (patterns_get(env, patterns, &p, &strs, &copied)) {
+	err = gpgme_op_export_ext(CONTEXT(context), p,
+				  (gpgme_export_mode_t) mode, DATA(keydata));
+	UTILS_onErrorThrowException(env, err);
+    }
+    patterns_release(env, patterns, p, strs, copied);
 }
 
 JNIEXPORT void JNICALL
@@ -808,19 +1342,36 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeCtxSetEngineInfo(JNIEnv * env,
 
     gpgme_ctx_t context = CONTEXT(ctx);
     gpgme_protocol_t protocol = (gpgme_protocol_t) proto;
-    char *file_name;
-    char *home_dir;
+    char *file_name = NULL;
+    char *home_dir = NULL;
     gpgme_error_t err;
 
-    file_name = (char *) (*env)->GetStringUTFChars(env, fileName, NULL);
-    home_dir = (char *) (*env)->GetStringUTFChars(env, homeDir, NULL);
-
+    //null selects the default of gpgme
+    if (fileName != NULL) {
+	file_name = (char *) (*env)->GetStringUTFChars(env, fileName, NULL);
+	if (file_name == NULL) {
+	    return;
+	}
+    }
+    if (homeDir != NULL) {
+	home_dir = (char *) (*env)->GetStringUTFChars(env, homeDir, NULL);
+	if (home_dir == NULL) {
+	    if (file_name != NULL) {
+		(*env)->ReleaseStringUTFChars(env, fileName, file_name);
+	    }
+	    return;
+	}
+    }
 
     /*fprintf(stderr, "set engine info: proto: %d, fileName: %s, homeDir: %s\n", proto, file_name, home_dir);*/
     err = gpgme_ctx_set_engine_info(context, protocol, file_name, home_dir);
 
-    (*env)->ReleaseStringUTFChars(env, fileName, file_name);
-    (*env)->ReleaseStringUTFChars(env, homeDir, home_dir);
+    if (file_name != NULL) {
+	(*env)->ReleaseStringUTFChars(env, fileName, file_name);
+    }
+    if (home_dir != NULL) {
+	(*env)->ReleaseStringUTFChars(env, homeDir, home_dir);
+    }
 
     if (UTILS_onErrorThrowException(env, err)) {
 	return;
@@ -842,27 +1393,18 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpGenkeyResult(JNIEnv * env,
     if (result == NULL) {
 	return NULL;
     }
-    //get the right constructor to invoke for every key in result set
-    jclass resultClass;
-    resultClass =
-	(*env)->FindClass(env, "com/freiheit/gnupg/GnuPGGenkeyResult");
-
-    if (resultClass == NULL) {
-	return NULL;
-    }
-
-    jmethodID cid;
-    cid = (*env)->GetMethodID(env, resultClass, "<init>", "()V");
-    if (cid == NULL) {
+    resultObj = (*env)->NewObject(env, UTILS_jni.genkeyResult,
+				  UTILS_jni.genkeyResultInit);
+    if (resultObj == NULL) {
 	return NULL;
     }
 
-    resultObj = (*env)->NewObject(env, resultClass, cid);
-
-    UTILS_setStringMember(env, resultObj, resultClass, "_fpr", result->fpr);
-    UTILS_setBooleanMember(env, resultObj, resultClass, "_primary",
-			   result->primary);
-    UTILS_setBooleanMember(env, resultObj, resultClass, "_sub", result->sub);
+    UTILS_setStringField(env, resultObj, UTILS_jni.genkeyResultFpr,
+			 result->fpr);
+    UTILS_setBooleanField(env, resultObj, UTILS_jni.genkeyResultPrimary,
+			  result->primary);
+    UTILS_setBooleanField(env, resultObj, UTILS_jni.genkeyResultSub,
+			  result->sub);
 
     return resultObj;
 }
@@ -878,7 +1420,6 @@ Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDelete(JNIEnv * env, jobject self,
     unsigned int sec = (unsigned int) allowSecret;
     gpgme_error_t err;
 
-
     err = gpgme_op_delete(context, deletekey, sec);
 
     if (UTILS_onErrorThrowException(env, err)) {
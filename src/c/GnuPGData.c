@@ -1,12 +1,325 @@
 #include <jni.h>
 #include <stdio.h>
+#include <stdlib.h>
+#include <errno.h>
+#include <string.h>
+#include <sys/mman.h>
 
 #include "com_freiheit_gnupg_GnuPGData.h"
 #include "gpgmeutils.h"
 
 #include <gpgme.h>
 
-#define BUFSIZE 1024
+#define BUFSIZE 8192
+#define STREAM_BUFSIZE 8192
+
+/*
+ * State of a data object, that is backed by a java.io.InputStream or
+ * java.io.OutputStream. gpgme calls the callbacks below from the thread,
+ * that runs the crypto operation, so this is always a java thread.
+ */
+typedef struct {
+    jobject stream;		//global ref to the Input- or OutputStream
+    jbyteArray buf;		//global ref, reused for every chunk
+    jmethodID transfer;		//InputStream.read([BII)I or OutputStream.write([BII)V
+    off_t pos;			//number of bytes moved through the stream so far
+} stream_handle_t;
+
+static ssize_t stream_read_cb(void *handle, void *buffer, size_t size)
+{
+    stream_handle_t *h = (stream_handle_t *) handle;
+    JNIEnv *env = UTILS_callbackEnv();
+    if (env == NULL || (*env)->ExceptionCheck(env)) {
+	errno = EIO;
+	return -1;
+    }
+
+    jint len = (jint) (size < STREAM_BUFSIZE ? size : STREAM_BUFSIZE);
+    jint nread = (*env)->CallIntMethod(env, h->stream, h->transfer, h->buf,
+				       (jint) 0, len);
+    if ((*env)->ExceptionCheck(env)) {
+	//leave the exception pending, it is thrown when the operation returns
+	errno = EIO;
+	return -1;
+    }
+    if (nread < 0) {
+	return 0;		//end of stream
+    }
+
+    (*env)->GetByteArrayRegion(env, h->buf, 0, nread, (jbyte *) buffer);
+    h->pos += nread;
+    return nread;
+}
+
+static ssize_t stream_write_cb(void *handle, const void *buffer, size_t size)
+{
+    stream_handle_t *h = (stream_handle_t *) handle;
+    JNIEnv *env = UTILS_callbackEnv();
+    if (env == NULL || (*env)->ExceptionCheck(env)) {
+	errno = EIO;
+	return -1;
+    }
+
+    jint len = (jint) (size < STREAM_BUFSIZE ? size : STREAM_BUFSIZE);
+    (*env)->SetByteArrayRegion(env, h->buf, 0, len, (const jbyte *) buffer);
+    (*env)->CallVoidMethod(env, h->stream, h->transfer, h->buf, (jint) 0, len);
+    if ((*env)->ExceptionCheck(env)) {
+	//leave the exception pending, it is thrown when the operation returns
+	errno = EIO;
+	return -1;
+    }
+
+    h->pos += len;
+    return len;
+}
+
+/*
+ * A stream can not be repositioned. But every operation rewinds its data
+ * objects first, so a "seek" to the current position must succeed.
+ */
+static off_t stream_seek_cb(void *handle, off_t offset, int whence)
+{
+    stream_handle_t *h = (stream_handle_t *) handle;
+    off_t target;
+
+    switch (whence) {
+    case SEEK_SET:
+	target = offset;
+	break;
+    case SEEK_CUR:
+	target = h->pos + offset;
+	break;
+    default:
+	errno = ESPIPE;
+	return -1;
+    }
+
+    if (target != h->pos) {
+	errno = ESPIPE;
+	return -1;
+    }
+    return h->pos;
+}
+
+static void stream_release_cb(void *handle)
+{
+    stream_handle_t *h = (stream_handle_t *) handle;
+    UTILS_deleteGlobalRef(h->stream);
+    UTILS_deleteGlobalRef(h->buf);
+    free(h);
+}
+
+/*
+ * State of a data object, that works directly on a fixed region of
+ * native memory, like the storage of a direct ByteBuffer. Reading and
+ * writing is a plain memcpy, no java objects are involved.
+ */
+typedef struct {
+    char *base;
+    size_t capacity;		//size of the region
+    size_t length;		//number of valid bytes in the region
+    size_t pos;
+    int mapped;			//region is a read only mapping of a file
+} region_handle_t;
+
+static ssize_t region_read_cb(void *handle, void *buffer, size_t size)
+{
+    region_handle_t *h = (region_handle_t *) handle;
+    size_t n = h->length - h->pos;
+    if (n > size) {
+	n = size;
+    }
+    memcpy(buffer, h->base + h->pos, n);
+    h->pos += n;
+    return n;
+}
+
+/*
+ * Operations write their result sequentially from the start, so the
+ * data always ends where the last write ended.
+ */
+static ssize_t region_write_cb(void *handle, const void *buffer, size_t size)
+{
+    region_handle_t *h = (region_handle_t *) handle;
+    if (h->mapped) {
+	errno = EBADF;
+	return -1;
+    }
+    size_t n = h->capacity - h->pos;
+    if (n == 0 && size > 0) {
+	errno = ENOSPC;
+	return -1;
+    }
+    if (n > size) {
+	n = size;
+    }
+    memcpy(h->base + h->pos, buffer, n);
+    h->pos += n;
+    h->length = h->pos;
+    return n;
+}
+
+static off_t region_seek_cb(void *handle, off_t offset, int whence)
+{
+    region_handle_t *h = (region_handle_t *) handle;
+    off_t target;
+
+    switch (whence) {
+    case SEEK_SET:
+	target = offset;
+	break;
+    case SEEK_CUR:
+	target = (off_t) h->pos + offset;
+	break;
+    case SEEK_END:
+	target = (off_t) h->length + offset;
+	break;
+    default:
+	errno = EINVAL;
+	return -1;
+    }
+
+    if (target < 0 || target > (off_t) h->length) {
+	errno = EINVAL;
+	return -1;
+    }
+    h->pos = (size_t) target;
+    return target;
+}
+
+static void region_release_cb(void *handle)
+{
+    region_handle_t *h = (region_handle_t *) handle;
+    if (h->mapped) {
+	munmap(h->base, h->capacity);
+    }
+    free(h);
+}
+
+/*
+ * State of a data object, that is backed by a java.nio.channels.FileChannel.
+ * The memory gpgme passes in is wrapped in a direct ByteBuffer, so the
+ * channel reads and writes it in place.
+ */
+typedef struct {
+    jobject channel;		//global ref to the FileChannel
+    jlong start;		//position of the channel at creation: offset 0 of the data
+} channel_handle_t;
+
+static ssize_t channel_transfer(channel_handle_t * h, jmethodID transfer,
+				void *buffer, size_t size)
+{
+    JNIEnv *env = UTILS_callbackEnv();
+    if (env == NULL || (*env)->ExceptionCheck(env)) {
+	errno = EIO;
+	return -1;
+    }
+
+    jobject view = (*env)->NewDirectByteBuffer(env, buffer, (jlong) size);
+    if (view == NULL) {
+	errno = ENOMEM;
+	return -1;
+    }
+    jint n = (*env)->CallIntMethod(env, h->channel, transfer, view);
+    (*env)->DeleteLocalRef(env, view);
+    if ((*env)->ExceptionCheck(env)) {
+	//leave the exception pending, it is thrown when the operation returns
+	errno = EIO;
+	return -1;
+    }
+    return (n < 0) ? 0 : n;	//-1 means end of file
+}
+
+static ssize_t channel_read_cb(void *handle, void *buffer, size_t size)
+{
+    channel_handle_t *h = (channel_handle_t *) handle;
+    return channel_transfer(h, UTILS_jni.channelRead, buffer, size);
+}
+
+static ssize_t channel_write_cb(void *handle, const void *buffer, size_t size)
+{
+    channel_handle_t *h = (channel_handle_t *) handle;
+    //the channel only reads from the buffer
+    return channel_transfer(h, UTILS_jni.channelWrite, (void *) buffer, size);
+}
+
+static off_t channel_seek_cb(void *handle, off_t offset, int whence)
+{
+    channel_handle_t *h = (channel_handle_t *) handle;
+    JNIEnv *env = UTILS_callbackEnv();
+    jlong target;
+
+    if (env == NULL || (*env)->ExceptionCheck(env)) {
+	errno = EIO;
+	return -1;
+    }
+
+    //gpgme rewinds to offset 0, which is the start position in the channel
+    switch (whence) {
+    case SEEK_SET:
+	target = h->start + offset;
+	break;
+    case SEEK_CUR:
+	target = (*env)->CallLongMethod(env, h->channel, UTILS_jni.channelPosition) + offset;
+	break;
+    case SEEK_END:
+	target = (*env)->CallLongMethod(env, h->channel, UTILS_jni.channelSize) + offset;
+	break;
+    default:
+	errno = EINVAL;
+	return -1;
+    }
+    if ((*env)->ExceptionCheck(env)) {
+	errno = EIO;
+	return -1;
+    }
+    if (target < h->start) {
+	errno = EINVAL;
+	return -1;
+    }
+
+    jobject self = (*env)->CallObjectMethod(env, h->channel,
+					    UTILS_jni.channelSetPosition,
+					    target);
+    (*env)->DeleteLocalRef(env, self);
+    if ((*env)->ExceptionCheck(env)) {
+	errno = EIO;
+	return -1;
+    }
+    return (off_t) (target - h->start);
+}
+
+static void channel_release_cb(void *handle)
+{
+    channel_handle_t *h = (channel_handle_t *) handle;
+    UTILS_deleteGlobalRef(h->channel);
+    free(h);
+}
+
+/*
+ * Returns the native file descriptor of a java.io.FileDescriptor or -1.
+ */
+static int file_descriptor(JNIEnv * env, jobject fd)
+{
+    return (int) (*env)->GetIntField(env, fd, UTILS_jni.fileDescriptorFd);
+}
+
+//gpgme keeps a pointer to these, so they must live as long as the lib
+static struct gpgme_data_cbs input_stream_cbs = {
+    stream_read_cb, NULL, stream_seek_cb, stream_release_cb
+};
+
+static struct gpgme_data_cbs output_stream_cbs = {
+    NULL, stream_write_cb, stream_seek_cb, stream_release_cb
+};
+
+static struct gpgme_data_cbs region_cbs = {
+    region_read_cb, region_write_cb, region_seek_cb, region_release_cb
+};
+
+static struct gpgme_data_cbs channel_cbs = {
+    channel_read_cb, channel_write_cb, channel_seek_cb, channel_release_cb
+};
 
 JNIEXPORT jlong JNICALL
 Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromMem(JNIEnv * env,
@@ -52,102 +365,283 @@ JNIEXPORT void JNICALL
 Java_com_freiheit_gnupg_GnuPGData_gpgmeDataWrite(JNIEnv * env, jobject self,
 						 jlong data, jobject out)
 {
-    gpgme_error_t err;
-
     jbyte buf[BUFSIZE];
-    size_t nread;
+    ssize_t nread;
 
-    jclass outputStream = (*env)->GetObjectClass(env, out);
-    if (outputStream == NULL) {
-        fprintf(stderr, "output stream NULL! abort.\n");
-	return;
-    }
+    jmethodID writeMethod = UTILS_jni.outputStreamWrite;
 
-    jmethodID writeMethod =
-	(*env)->GetMethodID(env, outputStream, "write", "([BII)V");
-    if (writeMethod == NULL) {
-        fprintf(stderr, "write method NULL! abort.\n");
+    if (gpgme_data_seek(DATA(data), (off_t) 0, SEEK_SET) < 0) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
 	return;
     }
 
-    jbyteArray jbuf;
-
-    err = (gpgme_data_seek ( DATA(data), (off_t)0, SEEK_SET ) < 0);
-    if (UTILS_onErrorThrowException(env, err)) {
-	fprintf(stderr, "error throw exception! abort.\n");
+    //one java array for all chunks
+    jbyteArray jbuf = (*env)->NewByteArray(env, BUFSIZE);
+    if (jbuf == NULL) {
 	return;
     }
 
-    int size = 0;
-    while ((nread = gpgme_data_read(DATA(data), buf, BUFSIZE)) != 0) {
-        size += nread;
-	jbuf = (*env)->NewByteArray(env, nread);
-	if (jbuf == NULL) {
-	    fprintf(stderr, "jbuf is NULL! abort.\n");
-	    return;
-	}
+    while ((nread = gpgme_data_read(DATA(data), buf, BUFSIZE)) > 0) {
 	(*env)->SetByteArrayRegion(env, jbuf, 0, nread, buf);
 	(*env)->CallVoidMethod(env, out, writeMethod, jbuf, (jint)0,
 			       (jint)nread);
 	if ((*env)->ExceptionCheck(env)) {
-	    (*env)->DeleteLocalRef(env, jbuf);
-	    return;
+	    break;
 	}
-	(*env)->DeleteLocalRef(env, jbuf);
     }
+    (*env)->DeleteLocalRef(env, jbuf);
 
+    if (nread < 0) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+    }
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataReadToBuffer(JNIEnv * env,
+							jobject self,
+							jlong data,
+							jobject out,
+							jint position,
+							jint limit)
+{
+    char *base = (char *) (*env)->GetDirectBufferAddress(env, out);
+    if (base == NULL) {
+	UTILS_onErrorThrowException(env, gpg_error(GPG_ERR_INV_VALUE));
+	return 0;
+    }
+
+    if (gpgme_data_seek(DATA(data), (off_t) 0, SEEK_SET) < 0) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	return 0;
+    }
+
+    //gpgme copies straight into the memory of the buffer
+    size_t pos = (size_t) position;
+    ssize_t nread = 0;
+    while (pos < (size_t) limit
+	   && (nread = gpgme_data_read(DATA(data), base + pos,
+				       (size_t) limit - pos)) > 0) {
+	pos += nread;
+    }
+    if (nread < 0) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	return 0;
+    }
+
+    //buffer is full: is there more data, that did not fit?
+    if (pos == (size_t) limit) {
+	char probe;
+	if (gpgme_data_read(DATA(data), &probe, 1) > 0) {
+	    return -1;
+	}
+    }
+    return (jlong) (pos - (size_t) position);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataLength(JNIEnv * env, jobject self,
+						  jlong data)
+{
+    off_t current = gpgme_data_seek(DATA(data), (off_t) 0, SEEK_CUR);
+    off_t end = gpgme_data_seek(DATA(data), (off_t) 0, SEEK_END);
+    if (current < 0 || end < 0
+	|| gpgme_data_seek(DATA(data), current, SEEK_SET) < 0) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	return 0;
+    }
+    return (jlong) end;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataPosition(JNIEnv * env, jobject self,
+						    jlong data)
+{
+    //no exception: streams without a position just answer -1
+    return (jlong) gpgme_data_seek(DATA(data), (off_t) 0, SEEK_CUR);
 }
 
 JNIEXPORT void JNICALL
-Java_com_freiheit_gnupg_GnuPGData_gpgmeDataRelease(JNIEnv * env, jobject self,
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataRelease(JNIEnv * env, jclass cls,
 						   jlong data)
 {
     gpgme_data_release(DATA(data));
 }
 
-JNIEXPORT void JNICALL
-Java_com_freiheit_gnupg_GnuPGData_gpgmeDataRead(JNIEnv * env, jobject self,
-						jlong data, jobject in)
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromCbs(JNIEnv * env,
+						      jobject self,
+						      jobject in, jobject out)
 {
     gpgme_error_t err;
+    gpgme_data_t data;
+    jobject stream = (in != NULL) ? in : out;
 
-    jclass inputStream = (*env)->GetObjectClass(env, in);
-    if (inputStream == NULL) {
-        fprintf(stderr, "input stream NULL! abort.\n");
-	return;
+    jmethodID transfer = (in != NULL)
+	? UTILS_jni.inputStreamRead : UTILS_jni.outputStreamWrite;
+
+    jbyteArray buf = (*env)->NewByteArray(env, STREAM_BUFSIZE);
+    if (buf == NULL) {
+	return LNG(NULL);
     }
 
-    jmethodID readMethod = (*env)->GetMethodID(env, inputStream,
-					       "read", "([BII)I");
-    if (readMethod == NULL) {
-        fprintf(stderr, "read method NULL! abort.\n");
-	return;
+    stream_handle_t *h = (stream_handle_t *) malloc(sizeof(stream_handle_t));
+    if (h == NULL) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	return LNG(NULL);
+    }
+    h->stream = (*env)->NewGlobalRef(env, stream);
+    h->buf = (*env)->NewGlobalRef(env, buf);
+    h->transfer = transfer;
+    h->pos = 0;
+    (*env)->DeleteLocalRef(env, buf);
+
+    err = gpgme_data_new_from_cbs(&data,
+				  (in != NULL) ? &input_stream_cbs
+				  : &output_stream_cbs, h);
+    if (UTILS_onErrorThrowException(env, err)) {
+	stream_release_cb(h);
+	return LNG(NULL);
+    }
+
+    return LNG(data);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromBuffer(JNIEnv * env,
+							 jobject self,
+							 jobject buffer,
+							 jint position,
+							 jint limit,
+							 jboolean output)
+{
+    gpgme_error_t err;
+    gpgme_data_t data;
+
+    char *base = (char *) (*env)->GetDirectBufferAddress(env, buffer);
+    if (base == NULL) {
+	UTILS_onErrorThrowException(env, gpg_error(GPG_ERR_INV_VALUE));
+	return LNG(NULL);
     }
 
-    jbyteArray jbuf = (*env)->NewByteArray(env, BUFSIZE);	//GETMEM(0)
-    jlong nread;
+    region_handle_t *h = (region_handle_t *) malloc(sizeof(region_handle_t));
+    if (h == NULL) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	return LNG(NULL);
+    }
+    h->base = base + position;
+    h->capacity = (size_t) (limit - position);
+    //an output starts empty, region_write_cb advances the length
+    h->length = output ? 0 : h->capacity;
+    h->pos = 0;
+    h->mapped = 0;
 
-    err = (gpgme_data_seek (DATA(data), (off_t)0, SEEK_SET) < 0);
+    err = gpgme_data_new_from_cbs(&data, &region_cbs, h);
     if (UTILS_onErrorThrowException(env, err)) {
-	return;
+	free(h);
+	return LNG(NULL);
     }
 
-    ssize_t written;
-    while ((nread = (*env)->CallIntMethod(env, in, readMethod,
-					  jbuf, (jint)0, BUFSIZE)) != -1) {
+    return LNG(data);
+}
 
-	jbyte *buf = (*env)->GetByteArrayElements(env, jbuf, NULL);
-	if (buf == NULL) {
-	    return;
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromFd(JNIEnv * env,
+						     jobject self, jobject fd)
+{
+    gpgme_error_t err;
+    gpgme_data_t data;
+
+    int nativeFd = file_descriptor(env, fd);
+    if (nativeFd < 0) {
+	if (!(*env)->ExceptionCheck(env)) {
+	    UTILS_onErrorThrowException(env, gpg_error(GPG_ERR_INV_VALUE));
 	}
+	return LNG(NULL);
+    }
 
-	written = gpgme_data_write(DATA(data), buf, nread);
-	if ((*env)->ExceptionCheck(env)) {
-	    (*env)->DeleteLocalRef(env, jbuf);
-	    return;
+    //gpgme reads and writes the descriptor directly, no copy in between
+    err = gpgme_data_new_from_fd(&data, nativeFd);
+    if (UTILS_onErrorThrowException(env, err)) {
+	return LNG(NULL);
+    }
+
+    return LNG(data);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromMappedFd(JNIEnv * env,
+							   jobject self,
+							   jobject fd,
+							   jlong length)
+{
+    gpgme_error_t err;
+    gpgme_data_t data;
+
+    int nativeFd = file_descriptor(env, fd);
+    if (nativeFd < 0) {
+	if (!(*env)->ExceptionCheck(env)) {
+	    UTILS_onErrorThrowException(env, gpg_error(GPG_ERR_INV_VALUE));
 	}
+	return LNG(NULL);
+    }
+
+    void *base = mmap(NULL, (size_t) length, PROT_READ, MAP_PRIVATE,
+		      nativeFd, 0);
+    if (base == MAP_FAILED) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	return LNG(NULL);
+    }
+    //plaintext is read once from start to end
+    madvise(base, (size_t) length, MADV_SEQUENTIAL);
+
+    region_handle_t *h = (region_handle_t *) malloc(sizeof(region_handle_t));
+    if (h == NULL) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	munmap(base, (size_t) length);
+	return LNG(NULL);
+    }
+    h->base = (char *) base;
+    h->capacity = (size_t) length;
+    //never an output: region_write_cb refuses to write to a mapping
+    h->length = h->capacity;
+    h->pos = 0;
+    h->mapped = 1;
+
+    err = gpgme_data_new_from_cbs(&data, &region_cbs, h);
+    if (UTILS_onErrorThrowException(env, err)) {
+	region_release_cb(h);
+	return LNG(NULL);
+    }
+
+    return LNG(data);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromChannel(JNIEnv * env,
+							  jobject self,
+							  jobject channel)
+{
+    gpgme_error_t err;
+    gpgme_data_t data;
+
+    channel_handle_t *h =
+	(channel_handle_t *) malloc(sizeof(channel_handle_t));
+    if (h == NULL) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	return LNG(NULL);
+    }
+    h->start = (*env)->CallLongMethod(env, channel, UTILS_jni.channelPosition);
+    if ((*env)->ExceptionCheck(env)) {
+	free(h);
+	return LNG(NULL);
+    }
+    h->channel = (*env)->NewGlobalRef(env, channel);
 
+    err = gpgme_data_new_from_cbs(&data, &channel_cbs, h);
+    if (UTILS_onErrorThrowException(env, err)) {
+	channel_release_cb(h);
+	return LNG(NULL);
     }
-    (*env)->DeleteLocalRef(env, jbuf);	//RELMEM(0)
 
+    return LNG(data);
 }
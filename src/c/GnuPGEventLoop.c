@@ -0,0 +1,278 @@
+#include <jni.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <stdlib.h>
+#include <unistd.h>
+
+#include <gpg-error.h>
+#include <gpgme.h>
+
+#include "com_freiheit_gnupg_GnuPGEventLoop.h"
+#include "gpgmeutils.h"
+
+/*
+ * The event loop of the asynchronous operations. The contexts
+ * register their file descriptors with add_io_cb() (gpgme_set_io_cbs),
+ * the dispatcher thread polls them together with a wakeup pipe, so
+ * it can start new operations at any time. All functions below are
+ * only called on the dispatcher thread.
+ */
+
+typedef struct io_cb {
+    gpgme_ctx_t ctx;
+    int fd;
+    int dir;
+    gpgme_io_cb_t fnc;
+    void *fnc_data;
+    int removed;
+    struct io_cb *next;
+} io_cb_t;
+
+typedef struct done_op {
+    gpgme_ctx_t ctx;
+    gpgme_error_t err;
+    //exception of a data callback of this operation, a global ref
+    jthrowable failure;
+    struct done_op *next;
+} done_op_t;
+
+static io_cb_t *io_cbs = NULL;
+//finished operations and failures of running ones (err not yet known)
+static done_op_t *done_ops = NULL;
+static done_op_t *failures = NULL;
+static int wake_fds[2] = { -1, -1 };
+
+static gpgme_error_t
+add_io_cb(void *data, int fd, int dir, gpgme_io_cb_t fnc, void *fnc_data,
+	  void **tag)
+{
+    io_cb_t *cb = (io_cb_t *) calloc(1, sizeof(io_cb_t));
+    if (cb == NULL) {
+	return gpg_error_from_errno(ENOMEM);
+    }
+    cb->ctx = (gpgme_ctx_t) data;
+    cb->fd = fd;
+    cb->dir = dir;
+    cb->fnc = fnc;
+    cb->fnc_data = fnc_data;
+    cb->next = io_cbs;
+    io_cbs = cb;
+    *tag = cb;
+    return 0;
+}
+
+static void remove_io_cb(void *tag)
+{
+    //freed before the next poll, the current round may still see it
+    ((io_cb_t *) tag)->removed = 1;
+}
+
+static done_op_t *take_op(done_op_t ** list, gpgme_ctx_t ctx)
+{
+    done_op_t **p;
+    for (p = list; *p != NULL; p = &(*p)->next) {
+	if (ctx == NULL || (*p)->ctx == ctx) {
+	    done_op_t *op = *p;
+	    *p = op->next;
+	    op->next = NULL;
+	    return op;
+	}
+    }
+    return NULL;
+}
+
+static void event_cb(void *data, gpgme_event_io_t type, void *type_data)
+{
+    done_op_t *op;
+    gpgme_io_event_done_data_t done;
+
+    if (type != GPGME_EVENT_DONE) {
+	return;
+    }
+    done = (gpgme_io_event_done_data_t) type_data;
+    op = take_op(&failures, (gpgme_ctx_t) data);
+    if (op == NULL) {
+	op = (done_op_t *) calloc(1, sizeof(done_op_t));
+	if (op == NULL) {
+	    //nothing we can do: the operation never completes
+	    return;
+	}
+	op->ctx = (gpgme_ctx_t) data;
+    }
+    op->err = (done == NULL) ? 0 : (done->err ? done->err : done->op_err);
+    op->next = done_ops;
+    done_ops = op;
+}
+
+static void prune_io_cbs(void)
+{
+    io_cb_t **p = &io_cbs;
+    while (*p != NULL) {
+	if ((*p)->removed) {
+	    io_cb_t *cb = *p;
+	    *p = cb->next;
+	    free(cb);
+	} else {
+	    p = &(*p)->next;
+	}
+    }
+}
+
+/*
+ * Keeps the exception of a data callback for the operation of ctx.
+ */
+static void keep_failure(JNIEnv * env, gpgme_ctx_t ctx, jthrowable cause)
+{
+    done_op_t *op = take_op(&failures, ctx);
+    if (op == NULL) {
+	op = (done_op_t *) calloc(1, sizeof(done_op_t));
+	if (op == NULL) {
+	    return;
+	}
+	op->ctx = ctx;
+    }
+    if (op->failure == NULL) {
+	op->failure = (jthrowable) (*env)->NewGlobalRef(env, cause);
+    }
+    op->next = failures;
+    failures = op;
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeLoopInit(JNIEnv * env, jclass cls)
+{
+    if (pipe(wake_fds) != 0) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+	return;
+    }
+    fcntl(wake_fds[0], F_SETFL, O_NONBLOCK);
+    fcntl(wake_fds[1], F_SETFL, O_NONBLOCK);
+    fcntl(wake_fds[0], F_SETFD, FD_CLOEXEC);
+    fcntl(wake_fds[1], F_SETFD, FD_CLOEXEC);
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeWakeUp(JNIEnv * env, jclass cls)
+{
+    char c = 0;
+    //a full pipe wakes the dispatcher, too
+    if (write(wake_fds[1], &c, 1) < 0 && errno != EAGAIN) {
+	UTILS_onErrorThrowException(env, gpg_error_from_errno(errno));
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeSetIoCbs(JNIEnv * env, jclass cls,
+						     jlong context)
+{
+    struct gpgme_io_cbs cbs;
+    cbs.add = add_io_cb;
+    cbs.add_priv = CONTEXT(context);
+    cbs.remove = remove_io_cb;
+    cbs.event = event_cb;
+    cbs.event_priv = CONTEXT(context);
+    //only used by the asynchronous operations, the others have their own loop
+    gpgme_set_io_cbs(CONTEXT(context), &cbs);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeWaitAny(JNIEnv * env, jclass cls,
+						    jlongArray status,
+						    jobjectArray failure)
+{
+    struct pollfd *fds = NULL;
+    io_cb_t **polled = NULL;
+    size_t capacity = 0;
+    jlong result = 0;
+    jlong code = 0;
+
+    //hangs until an operation has finished or the loop is woken up
+    while (1) {
+	done_op_t *op = take_op(&done_ops, NULL);
+	if (op != NULL) {
+	    code = (jlong) op->err;
+	    if (op->failure != NULL) {
+		(*env)->SetObjectArrayElement(env, failure, 0, op->failure);
+		(*env)->DeleteGlobalRef(env, op->failure);
+	    }
+	    result = LNG(op->ctx);
+	    free(op);
+	    break;
+	}
+
+	prune_io_cbs();
+	size_t n = 1, i;
+	io_cb_t *cb;
+	for (cb = io_cbs; cb != NULL; cb = cb->next) {
+	    n++;
+	}
+	if (n > capacity) {
+	    free(fds);
+	    free(polled);
+	    capacity = n * 2;
+	    fds = (struct pollfd *) calloc(capacity, sizeof(struct pollfd));
+	    polled = (io_cb_t **) calloc(capacity, sizeof(io_cb_t *));
+	    if (fds == NULL || polled == NULL) {
+		code = (jlong) gpg_error_from_errno(ENOMEM);
+		break;
+	    }
+	}
+	fds[0].fd = wake_fds[0];
+	fds[0].events = POLLIN;
+	fds[0].revents = 0;
+	for (i = 1, cb = io_cbs; cb != NULL; cb = cb->next, i++) {
+	    //dir 1: gpgme reads from fd, dir 0: gpgme writes to fd
+	    fds[i].fd = cb->fd;
+	    fds[i].events = cb->dir ? POLLIN : POLLOUT;
+	    fds[i].revents = 0;
+	    polled[i] = cb;
+	}
+
+	if (poll(fds, n, -1) < 0) {
+	    if (errno == EINTR) {
+		continue;
+	    }
+	    code = (jlong) gpg_error_from_errno(errno);
+	    break;
+	}
+
+	for (i = 1; i < n; i++) {
+	    cb = polled[i];
+	    if (fds[i].revents == 0 || cb->removed) {
+		continue;
+	    }
+	    cb->fnc(cb->fnc_data, cb->fd);
+	    //a data callback (e.g. stream backed data) may have thrown
+	    jthrowable cause = (*env)->ExceptionOccurred(env);
+	    if (cause != NULL) {
+		(*env)->ExceptionClear(env);
+		keep_failure(env, cb->ctx, cause);
+		(*env)->DeleteLocalRef(env, cause);
+	    }
+	}
+
+	if (fds[0].revents != 0) {
+	    char buf[64];
+	    while (read(wake_fds[0], buf, sizeof(buf)) > 0) {
+	    }
+	    //new operations to start: back to java
+	    if (done_ops == NULL) {
+		break;
+	    }
+	}
+    }
+
+    free(fds);
+    free(polled);
+    (*env)->SetLongArrayRegion(env, status, 0, 1, &code);
+    return result;
+}
+
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeCheckStatus(JNIEnv * env,
+							jclass cls,
+							jlong status)
+{
+    UTILS_onErrorThrowException(env, (gpgme_error_t) status);
+}
@@ -25,8 +25,15 @@ Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetKey(JNIEnv * env, jobject self,
     return LNG(key);
 }
 
+JNIEXPORT void JNICALL
+Java_com_freiheit_gnupg_GnuPGKey_gpgmeKeyRef(JNIEnv * env, jobject self,
+					     jlong key)
+{
+    gpgme_key_ref(KEY(key));
+}
+
 JNIEXPORT jlong JNICALL
-Java_com_freiheit_gnupg_GnuPGKey_gpgmeKeyUnref(JNIEnv * env, jobject self,
+Java_com_freiheit_gnupg_GnuPGKey_gpgmeKeyUnref(JNIEnv * env, jclass cls,
 					       jlong key)
 {
     gpgme_key_unref(KEY(key));
@@ -82,11 +89,94 @@ Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetUserID(JNIEnv * env, jobject self,
 }
 
 
-JNIEXPORT jlong JNICALL
-Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetSignature(JNIEnv * env, jobject self,
-						   jlong key)
+/* NewStringUTF does not accept NULL, gpgme leaves missing details NULL */
+static jstring new_string(JNIEnv * env, const char *str)
+{
+    return (*env)->NewStringUTF(env, (str != NULL) ? str : "");
+}
+
+static jobject
+new_signature_snapshot(JNIEnv * env, gpgme_user_id_t signed_uid,
+		       gpgme_key_sig_t sig)
+{
+    jobject result = NULL;
+    jstring signed_str = new_string(env, signed_uid->uid);
+    jstring keyid = new_string(env, sig->keyid);
+    jstring uid = new_string(env, sig->uid);
+    jstring name = new_string(env, sig->name);
+    jstring email = new_string(env, sig->email);
+    jstring comment = new_string(env, sig->comment);
+
+    if (!(*env)->ExceptionCheck(env)) {
+	//gpgme uses -1 for an unknown creation time
+	result = (*env)->NewObject(env, UTILS_jni.signatureSnapshot,
+				   UTILS_jni.signatureSnapshotInit,
+				   signed_str, keyid, uid, name, email,
+				   comment, (jboolean) sig->revoked,
+				   (jboolean) sig->expired,
+				   (jboolean) sig->invalid,
+				   (jboolean) sig->exportable,
+				   (jlong) (sig->timestamp <
+					    0 ? 0 : sig->timestamp),
+				   (jlong) sig->expires,
+				   (jint) sig->sig_class);
+    }
+    (*env)->DeleteLocalRef(env, signed_str);
+    (*env)->DeleteLocalRef(env, keyid);
+    (*env)->DeleteLocalRef(env, uid);
+    (*env)->DeleteLocalRef(env, name);
+    (*env)->DeleteLocalRef(env, email);
+    (*env)->DeleteLocalRef(env, comment);
+    return result;
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetSignatureSnapshots(JNIEnv * env,
+							    jobject self,
+							    jlong key,
+							    jboolean
+							    allUserIDs)
+{
+    gpgme_user_id_t uid;
+    gpgme_key_sig_t sig;
+    jsize count = 0;
+    jsize i = 0;
+    jobject elem;
+
+    //a key without user-ids has no signatures
+    gpgme_user_id_t last = (allUserIDs || KEY(key)->uids == NULL)
+	? NULL : KEY(key)->uids->next;
+
+    for (uid = KEY(key)->uids; uid != last; uid = uid->next) {
+	for (sig = uid->signatures; sig != NULL; sig = sig->next) {
+	    count++;
+	}
+    }
+
+    jobjectArray result = (*env)->NewObjectArray(env, count,
+						 UTILS_jni.signatureSnapshot,
+						 NULL);
+    if (result == NULL) {
+	return NULL;
+    }
+
+    for (uid = KEY(key)->uids; uid != last; uid = uid->next) {
+	for (sig = uid->signatures; sig != NULL; sig = sig->next) {
+	    if ((elem = new_signature_snapshot(env, uid, sig)) == NULL) {
+		return NULL;
+	    }
+	    (*env)->SetObjectArrayElement(env, result, i++, elem);
+	    (*env)->DeleteLocalRef(env, elem);
+	}
+    }
+    return result;
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetSnapshot(JNIEnv * env, jobject self,
+						  jlong key)
 {
-    return LNG((KEY(key))->uids->signatures);
+    return UTILS_newKeySnapshot(env, KEY(key), PROJECT_ALL);
 }
 
 /* void */
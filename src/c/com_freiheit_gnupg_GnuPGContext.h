@@ -7,6 +7,18 @@
 #ifdef __cplusplus
 extern "C" {
 #endif
+#undef com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_LOCAL
+#define com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_LOCAL 1L
+#undef com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_EXTERN
+#define com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_EXTERN 2L
+#undef com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_SIGS
+#define com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_SIGS 4L
+#undef com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_SIG_NOTATIONS
+#define com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_SIG_NOTATIONS 8L
+#undef com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_VALIDATE
+#define com_freiheit_gnupg_GnuPGContext_KEYLIST_MODE_VALIDATE 256L
+#undef com_freiheit_gnupg_GnuPGContext_EXPORT_BATCH_SIZE
+#define com_freiheit_gnupg_GnuPGContext_EXPORT_BATCH_SIZE 1024L
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeCheckVersion
@@ -39,6 +51,30 @@ JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeNew
 JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncrypt
   (JNIEnv *, jobject, jlong, jlongArray, jlong, jlong);
 
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeOpEncryptRecipients
+ * Signature: (JJJJ)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncryptRecipients
+  (JNIEnv *, jobject, jlong, jlong, jlong, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeRecipientsNew
+ * Signature: ([J)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeRecipientsNew
+  (JNIEnv *, jclass, jlongArray);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeRecipientsRelease
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeRecipientsRelease
+  (JNIEnv *, jclass, jlong);
+
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeOpDecrypt
@@ -61,22 +97,22 @@ JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpChangePassphr
  * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeRelease
-  (JNIEnv *, jobject, jlong);
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeOpEncryptSign
- * Signature: (J[IJJ)V
+ * Signature: (J[JJJ)V
  */
 JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncryptSign
-  (JNIEnv *, jobject, jlong, jintArray, jlong, jlong);
+  (JNIEnv *, jobject, jlong, jlongArray, jlong, jlong);
 
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeOpDecryptVerify
- * Signature: (JJJ)V
+ * Signature: (JJJ)Lcom/freiheit/gnupg/GnuPGVerifyResult;
  */
-JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDecryptVerify
+JNIEXPORT jobject JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDecryptVerify
   (JNIEnv *, jobject, jlong, jlong, jlong);
 
 /*
@@ -90,11 +126,51 @@ JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpSign
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeOpVerify
+ * Signature: (JJJJ)Lcom/freiheit/gnupg/GnuPGVerifyResult;
+ */
+JNIEXPORT jobject JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpVerify
+  (JNIEnv *, jobject, jlong, jlong, jlong, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeOpEncryptStart
+ * Signature: (J[JJJ)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpEncryptStart
+  (JNIEnv *, jobject, jlong, jlongArray, jlong, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeOpDecryptStart
+ * Signature: (JJJ)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpDecryptStart
+  (JNIEnv *, jobject, jlong, jlong, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeOpSignStart
+ * Signature: (JJJ)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpSignStart
+  (JNIEnv *, jobject, jlong, jlong, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeOpVerifyStart
  * Signature: (JJJJ)V
  */
-JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpVerify
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpVerifyStart
   (JNIEnv *, jobject, jlong, jlong, jlong, jlong);
 
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeVerifyResult
+ * Signature: (J)Lcom/freiheit/gnupg/GnuPGVerifyResult;
+ */
+JNIEXPORT jobject JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeVerifyResult
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeKeylist
@@ -103,6 +179,54 @@ JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpVerify
 JNIEXPORT jobjectArray JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylist
   (JNIEnv *, jobject, jlong, jstring);
 
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeKeylistSnapshots
+ * Signature: (J[Ljava/lang/String;I)[Lcom/freiheit/gnupg/GnuPGKeySnapshot;
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylistSnapshots
+  (JNIEnv *, jobject, jlong, jobjectArray, jint);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeGetKeylistMode
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeGetKeylistMode
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeSetKeylistMode
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeSetKeylistMode
+  (JNIEnv *, jobject, jlong, jint);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeKeylistStart
+ * Signature: (JLjava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylistStart
+  (JNIEnv *, jobject, jlong, jstring);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeKeylistNext
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylistNext
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeKeylistEnd
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeKeylistEnd
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeAddSigners
@@ -127,6 +251,14 @@ JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeClearSigners
 JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpImport
   (JNIEnv *, jobject, jlong, jlong);
 
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeOpImportKeys
+ * Signature: (JJ)Lcom/freiheit/gnupg/GnuPGImportResult;
+ */
+JNIEXPORT jobject JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpImportKeys
+  (JNIEnv *, jobject, jlong, jlong);
+
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeOpExport
@@ -135,6 +267,14 @@ JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpImport
 JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpExport
   (JNIEnv *, jobject, jlong, jstring, jlong, jlong);
 
+/*
+ * Class:     com_freiheit_gnupg_GnuPGContext
+ * Method:    gpgmeOpExportExt
+ * Signature: (J[Ljava/lang/String;IJ)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGContext_gpgmeOpExportExt
+  (JNIEnv *, jobject, jlong, jobjectArray, jint, jlong);
+
 /*
  * Class:     com_freiheit_gnupg_GnuPGContext
  * Method:    gpgmeOpGenKey
@@ -33,19 +33,75 @@ JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataWrite
 
 /*
  * Class:     com_freiheit_gnupg_GnuPGData
- * Method:    gpgmeDataRelease
- * Signature: (J)V
+ * Method:    gpgmeDataNewFromCbs
+ * Signature: (Ljava/io/InputStream;Ljava/io/OutputStream;)J
  */
-JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataRelease
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromCbs
+  (JNIEnv *, jobject, jobject, jobject);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGData
+ * Method:    gpgmeDataNewFromBuffer
+ * Signature: (Ljava/nio/ByteBuffer;IIZ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromBuffer
+  (JNIEnv *, jobject, jobject, jint, jint, jboolean);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGData
+ * Method:    gpgmeDataNewFromFd
+ * Signature: (Ljava/io/FileDescriptor;)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromFd
+  (JNIEnv *, jobject, jobject);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGData
+ * Method:    gpgmeDataNewFromMappedFd
+ * Signature: (Ljava/io/FileDescriptor;J)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromMappedFd
+  (JNIEnv *, jobject, jobject, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGData
+ * Method:    gpgmeDataNewFromChannel
+ * Signature: (Ljava/nio/channels/FileChannel;)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataNewFromChannel
+  (JNIEnv *, jobject, jobject);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGData
+ * Method:    gpgmeDataLength
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataLength
   (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     com_freiheit_gnupg_GnuPGData
- * Method:    gpgmeDataRead
- * Signature: (JLjava/io/InputStream;)V
+ * Method:    gpgmeDataPosition
+ * Signature: (J)J
  */
-JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataRead
-  (JNIEnv *, jobject, jlong, jobject);
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataPosition
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGData
+ * Method:    gpgmeDataReadToBuffer
+ * Signature: (JLjava/nio/ByteBuffer;II)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataReadToBuffer
+  (JNIEnv *, jobject, jlong, jobject, jint, jint);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGData
+ * Method:    gpgmeDataRelease
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGData_gpgmeDataRelease
+  (JNIEnv *, jclass, jlong);
 
 #ifdef __cplusplus
 }
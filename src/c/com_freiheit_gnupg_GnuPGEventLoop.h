@@ -0,0 +1,55 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class com_freiheit_gnupg_GnuPGEventLoop */
+
+#ifndef _Included_com_freiheit_gnupg_GnuPGEventLoop
+#define _Included_com_freiheit_gnupg_GnuPGEventLoop
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef com_freiheit_gnupg_GnuPGEventLoop_COMPLETION_THREADS
+#define com_freiheit_gnupg_GnuPGEventLoop_COMPLETION_THREADS 2L
+/*
+ * Class:     com_freiheit_gnupg_GnuPGEventLoop
+ * Method:    gpgmeLoopInit
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeLoopInit
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGEventLoop
+ * Method:    gpgmeWakeUp
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeWakeUp
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGEventLoop
+ * Method:    gpgmeSetIoCbs
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeSetIoCbs
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGEventLoop
+ * Method:    gpgmeWaitAny
+ * Signature: ([J[Ljava/lang/Throwable;)J
+ */
+JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeWaitAny
+  (JNIEnv *, jclass, jlongArray, jobjectArray);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGEventLoop
+ * Method:    gpgmeCheckStatus
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGEventLoop_gpgmeCheckStatus
+  (JNIEnv *, jclass, jlong);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
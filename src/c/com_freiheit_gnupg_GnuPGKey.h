@@ -15,13 +15,21 @@ extern "C" {
 JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetKey
   (JNIEnv *, jobject, jlong, jstring);
 
+/*
+ * Class:     com_freiheit_gnupg_GnuPGKey
+ * Method:    gpgmeKeyRef
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_freiheit_gnupg_GnuPGKey_gpgmeKeyRef
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     com_freiheit_gnupg_GnuPGKey
  * Method:    gpgmeKeyUnref
  * Signature: (J)J
  */
 JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGKey_gpgmeKeyUnref
-  (JNIEnv *, jobject, jlong);
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     com_freiheit_gnupg_GnuPGKey
@@ -73,10 +81,18 @@ JNIEXPORT jstring JNICALL Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetUserID
 
 /*
  * Class:     com_freiheit_gnupg_GnuPGKey
- * Method:    gpgmeGetSignature
- * Signature: (J)J
+ * Method:    gpgmeGetSignatureSnapshots
+ * Signature: (JZ)[Lcom/freiheit/gnupg/GnuPGSignatureSnapshot;
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetSignatureSnapshots
+  (JNIEnv *, jobject, jlong, jboolean);
+
+/*
+ * Class:     com_freiheit_gnupg_GnuPGKey
+ * Method:    gpgmeGetSnapshot
+ * Signature: (J)Lcom/freiheit/gnupg/GnuPGKeySnapshot;
  */
-JNIEXPORT jlong JNICALL Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetSignature
+JNIEXPORT jobject JNICALL Java_com_freiheit_gnupg_GnuPGKey_gpgmeGetSnapshot
   (JNIEnv *, jobject, jlong);
 
 #ifdef __cplusplus
@@ -3,79 +3,592 @@
 
 #define BUF_LEN 1024
 
-jboolean
-UTILS_setStringMember(JNIEnv * env, jobject self, jclass selfclass,
-		      const char *fieldname, const char *fieldvalue)
-{
-    //get the field from the class
-    jfieldID fld =
-	(*env)->GetFieldID(env, selfclass, fieldname, "Ljava/lang/String;");
-    if (fld == NULL) {
-	return JNI_FALSE;
+jni_cache_t UTILS_jni;
+
+static jclass global_class(JNIEnv * env, const char *name)
+{
+    jclass local = (*env)->FindClass(env, name);
+    if (local == NULL) {
+	return NULL;
     }
+    jclass global = (jclass) (*env)->NewGlobalRef(env, local);
+    (*env)->DeleteLocalRef(env, local);
+    return global;
+}
 
-    jstring jval = (*env)->NewStringUTF(env, fieldvalue);
-    if (jval == NULL) {
-	return JNI_FALSE;
+/* leaves JNI_OnLoad, if a class, method or field does not exist */
+#define REQUIRE(x) if ((x) == NULL) { return JNI_ERR; }
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM * jvm, void *reserved)
+{
+    JNIEnv *env;
+    jclass cls;
+
+    if ((*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_4) != JNI_OK) {
+	return JNI_ERR;
     }
-    (*env)->SetObjectField(env, self, fld, jval);
-    return JNI_TRUE;
+    UTILS_jni.jvm = jvm;
+
+    REQUIRE(UTILS_jni.exception =
+	    global_class(env, "com/freiheit/gnupg/GnuPGException"));
+    REQUIRE(UTILS_jni.exceptionInit =
+	    (*env)->GetMethodID(env, UTILS_jni.exception, "<init>",
+				"(Ljava/lang/String;I)V"));
+    REQUIRE(UTILS_jni.exceptionWrap =
+	    (*env)->GetMethodID(env, UTILS_jni.exception, "<init>",
+				"(Ljava/lang/String;ILjava/lang/Throwable;)V"));
+
+    REQUIRE(UTILS_jni.key = global_class(env, "com/freiheit/gnupg/GnuPGKey"));
+    REQUIRE(UTILS_jni.keyInit =
+	    (*env)->GetMethodID(env, UTILS_jni.key, "<init>", "(J)V"));
+
+    cls = UTILS_jni.keySnapshot =
+	global_class(env, "com/freiheit/gnupg/GnuPGKeySnapshot");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.keySnapshotInit =
+	    (*env)->GetMethodID(env, cls, "<init>",
+				"(III[Lcom/freiheit/gnupg/GnuPGKeySnapshot$UserID;"
+				"[Lcom/freiheit/gnupg/GnuPGKeySnapshot$Subkey;)V"));
+    cls = UTILS_jni.userIDSnapshot =
+	global_class(env, "com/freiheit/gnupg/GnuPGKeySnapshot$UserID");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.userIDSnapshotInit =
+	    (*env)->GetMethodID(env, cls, "<init>",
+				"(Ljava/lang/String;Ljava/lang/String;"
+				"Ljava/lang/String;Ljava/lang/String;II)V"));
+    cls = UTILS_jni.subkeySnapshot =
+	global_class(env, "com/freiheit/gnupg/GnuPGKeySnapshot$Subkey");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.subkeySnapshotInit =
+	    (*env)->GetMethodID(env, cls, "<init>",
+				"(Ljava/lang/String;Ljava/lang/String;IIJJI)V"));
+
+    cls = UTILS_jni.signatureSnapshot =
+	global_class(env, "com/freiheit/gnupg/GnuPGSignatureSnapshot");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.signatureSnapshotInit =
+	    (*env)->GetMethodID(env, cls, "<init>",
+				"(Ljava/lang/String;Ljava/lang/String;"
+				"Ljava/lang/String;Ljava/lang/String;"
+				"Ljava/lang/String;Ljava/lang/String;ZZZZJJI)V"));
+
+    cls = UTILS_jni.verifyResult =
+	global_class(env, "com/freiheit/gnupg/GnuPGVerifyResult");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.verifyResultInit =
+	    (*env)->GetMethodID(env, cls, "<init>",
+				"(Ljava/lang/String;"
+				"[Lcom/freiheit/gnupg/GnuPGVerifyResult$Signature;)V"));
+
+    cls = UTILS_jni.verifySignature =
+	global_class(env, "com/freiheit/gnupg/GnuPGVerifyResult$Signature");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.verifySignatureInit =
+	    (*env)->GetMethodID(env, cls, "<init>",
+				"(Ljava/lang/String;ILjava/lang/String;IJJIIIIZ)V"));
+
+    cls = UTILS_jni.importResult =
+	global_class(env, "com/freiheit/gnupg/GnuPGImportResult");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.importResultInit =
+	    (*env)->GetMethodID(env, cls, "<init>",
+				"([I[Lcom/freiheit/gnupg/GnuPGImportResult$Status;)V"));
+
+    cls = UTILS_jni.importStatus =
+	global_class(env, "com/freiheit/gnupg/GnuPGImportResult$Status");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.importStatusInit =
+	    (*env)->GetMethodID(env, cls, "<init>",
+				"(Ljava/lang/String;ILjava/lang/String;I)V"));
+
+    cls = UTILS_jni.genkeyResult =
+	global_class(env, "com/freiheit/gnupg/GnuPGGenkeyResult");
+    REQUIRE(cls);
+    REQUIRE(UTILS_jni.genkeyResultInit =
+	    (*env)->GetMethodID(env, cls, "<init>", "()V"));
+    REQUIRE(UTILS_jni.genkeyResultFpr =
+	    (*env)->GetFieldID(env, cls, "_fpr", "Ljava/lang/String;"));
+    REQUIRE(UTILS_jni.genkeyResultPrimary =
+	    (*env)->GetFieldID(env, cls, "_primary", "Z"));
+    REQUIRE(UTILS_jni.genkeyResultSub =
+	    (*env)->GetFieldID(env, cls, "_sub", "Z"));
+
+    REQUIRE(cls = (*env)->FindClass(env, "com/freiheit/gnupg/GnuPGContext"));
+    REQUIRE(UTILS_jni.passphraseCallback =
+	    (*env)->GetMethodID(env, cls, "passphraseCallback",
+				"(Ljava/lang/String;Ljava/lang/String;J)[C"));
+    REQUIRE(UTILS_jni.contextVersion =
+	    (*env)->GetFieldID(env, cls, "_version", "Ljava/lang/String;"));
+    REQUIRE(UTILS_jni.contextFilename =
+	    (*env)->GetFieldID(env, cls, "_filename", "Ljava/lang/String;"));
+    REQUIRE(UTILS_jni.contextReqversion =
+	    (*env)->GetFieldID(env, cls, "_reqversion", "Ljava/lang/String;"));
+    REQUIRE(UTILS_jni.contextProtocol =
+	    (*env)->GetFieldID(env, cls, "_protocol", "I"));
+    (*env)->DeleteLocalRef(env, cls);
+
+    REQUIRE(cls = (*env)->FindClass(env, "java/io/InputStream"));
+    REQUIRE(UTILS_jni.inputStreamRead =
+	    (*env)->GetMethodID(env, cls, "read", "([BII)I"));
+    (*env)->DeleteLocalRef(env, cls);
+
+    REQUIRE(cls = (*env)->FindClass(env, "java/io/OutputStream"));
+    REQUIRE(UTILS_jni.outputStreamWrite =
+	    (*env)->GetMethodID(env, cls, "write", "([BII)V"));
+    (*env)->DeleteLocalRef(env, cls);
+
+    REQUIRE(cls = (*env)->FindClass(env, "java/io/FileDescriptor"));
+    REQUIRE(UTILS_jni.fileDescriptorFd =
+	    (*env)->GetFieldID(env, cls, "fd", "I"));
+    (*env)->DeleteLocalRef(env, cls);
+
+    REQUIRE(cls = (*env)->FindClass(env, "java/nio/channels/FileChannel"));
+    REQUIRE(UTILS_jni.channelRead =
+	    (*env)->GetMethodID(env, cls, "read", "(Ljava/nio/ByteBuffer;)I"));
+    REQUIRE(UTILS_jni.channelWrite =
+	    (*env)->GetMethodID(env, cls, "write", "(Ljava/nio/ByteBuffer;)I"));
+    REQUIRE(UTILS_jni.channelPosition =
+	    (*env)->GetMethodID(env, cls, "position", "()J"));
+    REQUIRE(UTILS_jni.channelSetPosition =
+	    (*env)->GetMethodID(env, cls, "position",
+				"(J)Ljava/nio/channels/FileChannel;"));
+    REQUIRE(UTILS_jni.channelSize =
+	    (*env)->GetMethodID(env, cls, "size", "()J"));
+    (*env)->DeleteLocalRef(env, cls);
+
+    return JNI_VERSION_1_4;
 }
 
-jboolean
-UTILS_setIntMember(JNIEnv * env, jobject self, jclass selfclass,
-		   const char *fieldname, int fieldvalue)
+JNIEXPORT void JNICALL JNI_OnUnload(JavaVM * jvm, void *reserved)
 {
-    //get the field from the class
+    JNIEnv *env;
 
-    jlong jval = (jlong) fieldvalue;
+    if ((*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_4) != JNI_OK) {
+	return;
+    }
+    (*env)->DeleteGlobalRef(env, UTILS_jni.exception);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.key);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.keySnapshot);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.userIDSnapshot);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.subkeySnapshot);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.signatureSnapshot);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.verifyResult);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.verifySignature);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.importResult);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.importStatus);
+    (*env)->DeleteGlobalRef(env, UTILS_jni.genkeyResult);
+}
 
-    jfieldID fld = (*env)->GetFieldID(env, selfclass, fieldname, "I");
-    if (fld == NULL) {
-	return JNI_FALSE;
+/*
+ * The environment of the current thread for callbacks from gpgme.
+ * gpgme calls back on the thread running the operation, which is
+ * always a java thread.
+ */
+JNIEnv *UTILS_callbackEnv(void)
+{
+    JNIEnv *env = NULL;
+    if ((*UTILS_jni.jvm)->GetEnv(UTILS_jni.jvm, (void **) &env,
+				 JNI_VERSION_1_4) != JNI_OK) {
+	return NULL;
     }
+    return env;
+}
 
-    if (jval == 0) {
-	return JNI_FALSE;
+/*
+ * Deletes a global ref from any thread. gpgme may release a data
+ * object on a thread, that is not attached to the jvm.
+ */
+void UTILS_deleteGlobalRef(jobject ref)
+{
+    JNIEnv *env = UTILS_callbackEnv();
+    if (env != NULL) {
+	(*env)->DeleteGlobalRef(env, ref);
+    } else if ((*UTILS_jni.jvm)->AttachCurrentThread(UTILS_jni.jvm,
+						      (void **) &env,
+						      NULL) == JNI_OK) {
+	(*env)->DeleteGlobalRef(env, ref);
+	(*UTILS_jni.jvm)->DetachCurrentThread(UTILS_jni.jvm);
     }
-    (*env)->SetIntField(env, self, fld, jval);
-    return JNI_TRUE;
 }
 
-void
-UTILS_setBooleanMember(JNIEnv * env, jobject self, jclass selfclass,
-		       const char *fieldname, unsigned int fieldvalue)
+/* the flag bits of GnuPGKeySnapshot */
+#define SNAPSHOT_REVOKED 1
+#define SNAPSHOT_EXPIRED 2
+#define SNAPSHOT_DISABLED 4
+#define SNAPSHOT_INVALID 8
+#define SNAPSHOT_CAN_ENCRYPT 16
+#define SNAPSHOT_CAN_SIGN 32
+#define SNAPSHOT_CAN_CERTIFY 64
+#define SNAPSHOT_CAN_AUTHENTICATE 128
+#define SNAPSHOT_SECRET 256
+
+/* NewStringUTF does not accept NULL, gpgme leaves missing parts NULL */
+static jstring new_string(JNIEnv * env, const char *str, jboolean * failed)
 {
-    //get the field from the class
+    jstring jstr = NULL;
+    if (str != NULL && (jstr = (*env)->NewStringUTF(env, str)) == NULL) {
+	*failed = JNI_TRUE;
+    }
+    return jstr;
+}
 
-    jboolean jval = (jboolean) fieldvalue;
+static jobject new_userid_snapshot(JNIEnv * env, gpgme_user_id_t uid)
+{
+    jboolean failed = JNI_FALSE;
+    jobject result = NULL;
+    jint flags = (uid->revoked ? SNAPSHOT_REVOKED : 0)
+	| (uid->invalid ? SNAPSHOT_INVALID : 0);
 
-    jfieldID fld = (*env)->GetFieldID(env, selfclass, fieldname, "Z");
-    if (fld == NULL) {
-	return;
+    jstring juid = new_string(env, uid->uid, &failed);
+    jstring name = new_string(env, uid->name, &failed);
+    jstring email = new_string(env, uid->email, &failed);
+    jstring comment = new_string(env, uid->comment, &failed);
+    if (!failed) {
+	result = (*env)->NewObject(env, UTILS_jni.userIDSnapshot,
+				   UTILS_jni.userIDSnapshotInit, juid, name,
+				   email, comment, (jint) uid->validity,
+				   flags);
+    }
+    (*env)->DeleteLocalRef(env, juid);
+    (*env)->DeleteLocalRef(env, name);
+    (*env)->DeleteLocalRef(env, email);
+    (*env)->DeleteLocalRef(env, comment);
+    return result;
+}
+
+static jobject new_subkey_snapshot(JNIEnv * env, gpgme_subkey_t sub)
+{
+    jboolean failed = JNI_FALSE;
+    jobject result = NULL;
+    jint flags = (sub->revoked ? SNAPSHOT_REVOKED : 0)
+	| (sub->expired ? SNAPSHOT_EXPIRED : 0)
+	| (sub->disabled ? SNAPSHOT_DISABLED : 0)
+	| (sub->invalid ? SNAPSHOT_INVALID : 0)
+	| (sub->can_encrypt ? SNAPSHOT_CAN_ENCRYPT : 0)
+	| (sub->can_sign ? SNAPSHOT_CAN_SIGN : 0)
+	| (sub->can_certify ? SNAPSHOT_CAN_CERTIFY : 0)
+	| (sub->can_authenticate ? SNAPSHOT_CAN_AUTHENTICATE : 0)
+	| (sub->secret ? SNAPSHOT_SECRET : 0);
+
+    jstring keyid = new_string(env, sub->keyid, &failed);
+    jstring fpr = new_string(env, sub->fpr, &failed);
+    if (!failed) {
+	//gpgme uses -1 for an unknown creation time
+	result = (*env)->NewObject(env, UTILS_jni.subkeySnapshot,
+				   UTILS_jni.subkeySnapshotInit, keyid, fpr,
+				   (jint) sub->pubkey_algo, (jint) sub->length,
+				   (jlong) (sub->timestamp < 0 ? 0 : sub->timestamp),
+				   (jlong) sub->expires, flags);
+    }
+    (*env)->DeleteLocalRef(env, keyid);
+    (*env)->DeleteLocalRef(env, fpr);
+    return result;
+}
+
+static int keep_uid(gpgme_user_id_t uid, gpgme_user_id_t first, int projection)
+{
+    return (projection & PROJECT_ALL_UIDS)
+	|| ((projection & PROJECT_PRIMARY_UID) && uid == first);
+}
+
+static int keep_subkey(gpgme_subkey_t sub, gpgme_subkey_t primary,
+		       int projection)
+{
+    return sub == primary || (projection & PROJECT_ALL_SUBKEYS)
+	|| ((projection & PROJECT_ENCRYPT_SUBKEYS) && sub->can_encrypt);
+}
+
+/*
+ * Copies the attributes of the key into a new GnuPGKeySnapshot. The
+ * projection (PROJECT_* in gpgmeutils.h) selects the user ids and
+ * subkeys to copy, the primary key is always copied. This is the
+ * only crossing into java for the whole key, apart from the
+ * constructors. Returns NULL with a pending exception on failure.
+ */
+jobject UTILS_newKeySnapshot(JNIEnv * env, gpgme_key_t key, int projection)
+{
+    gpgme_user_id_t uid;
+    gpgme_subkey_t sub;
+    jsize num_uids = 0, num_subkeys = 0, i;
+    jobject elem;
+    jobject result = NULL;
+    jobjectArray uids = NULL;
+    jobjectArray subkeys = NULL;
+
+    for (uid = key->uids; uid != NULL; uid = uid->next) {
+	if (keep_uid(uid, key->uids, projection)) {
+	    num_uids++;
+	}
+    }
+    for (sub = key->subkeys; sub != NULL; sub = sub->next) {
+	if (keep_subkey(sub, key->subkeys, projection)) {
+	    num_subkeys++;
+	}
+    }
+
+    uids = (*env)->NewObjectArray(env, num_uids, UTILS_jni.userIDSnapshot,
+				  NULL);
+    if (uids == NULL) {
+	goto out;
+    }
+    for (i = 0, uid = key->uids; uid != NULL; uid = uid->next) {
+	if (!keep_uid(uid, key->uids, projection)) {
+	    continue;
+	}
+	if ((elem = new_userid_snapshot(env, uid)) == NULL) {
+	    goto out;
+	}
+	(*env)->SetObjectArrayElement(env, uids, i++, elem);
+	(*env)->DeleteLocalRef(env, elem);
     }
 
-    if (jval == 0) {
+    subkeys = (*env)->NewObjectArray(env, num_subkeys,
+				     UTILS_jni.subkeySnapshot, NULL);
+    if (subkeys == NULL) {
+	goto out;
+    }
+    for (i = 0, sub = key->subkeys; sub != NULL; sub = sub->next) {
+	if (!keep_subkey(sub, key->subkeys, projection)) {
+	    continue;
+	}
+	if ((elem = new_subkey_snapshot(env, sub)) == NULL) {
+	    goto out;
+	}
+	(*env)->SetObjectArrayElement(env, subkeys, i++, elem);
+	(*env)->DeleteLocalRef(env, elem);
+    }
+
+    jint flags = (key->revoked ? SNAPSHOT_REVOKED : 0)
+	| (key->expired ? SNAPSHOT_EXPIRED : 0)
+	| (key->disabled ? SNAPSHOT_DISABLED : 0)
+	| (key->invalid ? SNAPSHOT_INVALID : 0)
+	| (key->can_encrypt ? SNAPSHOT_CAN_ENCRYPT : 0)
+	| (key->can_sign ? SNAPSHOT_CAN_SIGN : 0)
+	| (key->can_certify ? SNAPSHOT_CAN_CERTIFY : 0)
+	| (key->can_authenticate ? SNAPSHOT_CAN_AUTHENTICATE : 0)
+	| (key->secret ? SNAPSHOT_SECRET : 0);
+    result = (*env)->NewObject(env, UTILS_jni.keySnapshot,
+			       UTILS_jni.keySnapshotInit, flags,
+			       (jint) key->protocol, (jint) key->owner_trust,
+			       uids, subkeys);
+
+  out:
+    (*env)->DeleteLocalRef(env, uids);
+    (*env)->DeleteLocalRef(env, subkeys);
+    return result;
+}
+
+static jobject new_verify_signature(JNIEnv * env, gpgme_signature_t sig)
+{
+    jboolean failed = JNI_FALSE;
+    jobject result = NULL;
+    gpg_err_code_t status = gpg_err_code(sig->status);
+
+    jstring fpr = new_string(env, sig->fpr, &failed);
+    jstring text = new_string(env, status == 0 ? NULL : gpgme_strerror(sig->status),
+			      &failed);
+    if (!failed) {
+	result = (*env)->NewObject(env, UTILS_jni.verifySignature,
+				   UTILS_jni.verifySignatureInit, fpr,
+				   (jint) status, text, (jint) sig->summary,
+				   (jlong) sig->timestamp,
+				   (jlong) sig->exp_timestamp,
+				   (jint) sig->validity,
+				   (jint) gpg_err_code(sig->validity_reason),
+				   (jint) sig->pubkey_algo,
+				   (jint) sig->hash_algo,
+				   sig->wrong_key_usage ? JNI_TRUE : JNI_FALSE);
+    }
+    (*env)->DeleteLocalRef(env, fpr);
+    (*env)->DeleteLocalRef(env, text);
+    return result;
+}
+
+/*
+ * Copies the result of the last verify (or decrypt_verify) operation
+ * of the context into a new GnuPGVerifyResult. Returns NULL with a
+ * pending exception on failure.
+ */
+jobject UTILS_newVerifyResult(JNIEnv * env, gpgme_ctx_t ctx)
+{
+    gpgme_verify_result_t res = gpgme_op_verify_result(ctx);
+    gpgme_signature_t sig;
+    jboolean failed = JNI_FALSE;
+    jsize num_sigs = 0, i;
+    jobject elem;
+    jobject result = NULL;
+    jobjectArray sigs = NULL;
+    jstring filename = NULL;
+
+    if (res != NULL) {
+	for (sig = res->signatures; sig != NULL; sig = sig->next) {
+	    num_sigs++;
+	}
+    }
+
+    sigs = (*env)->NewObjectArray(env, num_sigs, UTILS_jni.verifySignature,
+				  NULL);
+    if (sigs == NULL) {
+	goto out;
+    }
+    for (i = 0, sig = res == NULL ? NULL : res->signatures; sig != NULL;
+	 i++, sig = sig->next) {
+	if ((elem = new_verify_signature(env, sig)) == NULL) {
+	    goto out;
+	}
+	(*env)->SetObjectArrayElement(env, sigs, i, elem);
+	(*env)->DeleteLocalRef(env, elem);
+    }
+
+    filename = new_string(env, res == NULL ? NULL : res->file_name, &failed);
+    if (!failed) {
+	result = (*env)->NewObject(env, UTILS_jni.verifyResult,
+				   UTILS_jni.verifyResultInit, filename, sigs);
+    }
+
+  out:
+    (*env)->DeleteLocalRef(env, sigs);
+    (*env)->DeleteLocalRef(env, filename);
+    return result;
+}
+
+static jobject new_import_status(JNIEnv * env, gpgme_import_status_t imp)
+{
+    jboolean failed = JNI_FALSE;
+    jobject result = NULL;
+    gpg_err_code_t code = gpg_err_code(imp->result);
+
+    jstring fpr = new_string(env, imp->fpr, &failed);
+    jstring text = new_string(env, code == 0 ? NULL : gpgme_strerror(imp->result),
+			      &failed);
+    if (!failed) {
+	result = (*env)->NewObject(env, UTILS_jni.importStatus,
+				   UTILS_jni.importStatusInit, fpr,
+				   (jint) code, text, (jint) imp->status);
+    }
+    (*env)->DeleteLocalRef(env, fpr);
+    (*env)->DeleteLocalRef(env, text);
+    return result;
+}
+
+/*
+ * Copies an import result into a new GnuPGImportResult. The counts
+ * are passed in the order of the constants in GnuPGImportResult.
+ * Returns NULL with a pending exception on failure.
+ */
+jobject UTILS_newImportResult(JNIEnv * env, gpgme_import_result_t res)
+{
+    gpgme_import_status_t imp;
+    jsize num_imports = 0, i;
+    jobject elem;
+    jobject result = NULL;
+    jintArray counts = NULL;
+    jobjectArray imports = NULL;
+
+    jint c[] = {
+	res->considered, res->no_user_id, res->imported, res->imported_rsa,
+	res->unchanged, res->new_user_ids, res->new_sub_keys,
+	res->new_signatures, res->new_revocations, res->secret_read,
+	res->secret_imported, res->secret_unchanged, res->skipped_new_keys,
+	res->not_imported
+    };
+    counts = (*env)->NewIntArray(env, sizeof(c) / sizeof(c[0]));
+    if (counts == NULL) {
+	goto out;
+    }
+    (*env)->SetIntArrayRegion(env, counts, 0, sizeof(c) / sizeof(c[0]), c);
+
+    for (imp = res->imports; imp != NULL; imp = imp->next) {
+	num_imports++;
+    }
+    imports = (*env)->NewObjectArray(env, num_imports, UTILS_jni.importStatus,
+				     NULL);
+    if (imports == NULL) {
+	goto out;
+    }
+    for (i = 0, imp = res->imports; imp != NULL; i++, imp = imp->next) {
+	if ((elem = new_import_status(env, imp)) == NULL) {
+	    goto out;
+	}
+	(*env)->SetObjectArrayElement(env, imports, i, elem);
+	(*env)->DeleteLocalRef(env, elem);
+    }
+
+    result = (*env)->NewObject(env, UTILS_jni.importResult,
+			       UTILS_jni.importResultInit, counts, imports);
+
+  out:
+    (*env)->DeleteLocalRef(env, counts);
+    (*env)->DeleteLocalRef(env, imports);
+    return result;
+}
+
+void
+UTILS_setStringField(JNIEnv * env, jobject obj, jfieldID fld,
+		     const char *fieldvalue)
+{
+    jstring jval = (*env)->NewStringUTF(env, fieldvalue);
+    if (jval == NULL) {
 	return;
     }
-    (*env)->SetBooleanField(env, self, fld, jval);
+    (*env)->SetObjectField(env, obj, fld, jval);
+    (*env)->DeleteLocalRef(env, jval);
+}
+
+void UTILS_setIntField(JNIEnv * env, jobject obj, jfieldID fld, int fieldvalue)
+{
+    (*env)->SetIntField(env, obj, fld, (jint) fieldvalue);
+}
+
+void
+UTILS_setBooleanField(JNIEnv * env, jobject obj, jfieldID fld,
+		      unsigned int fieldvalue)
+{
+    (*env)->SetBooleanField(env, obj, fld, fieldvalue ? JNI_TRUE : JNI_FALSE);
 }
 
 jboolean UTILS_onErrorThrowException(JNIEnv * env, gpgme_error_t err)
 {
+    jthrowable cause = NULL;
+    if (err && (*env)->ExceptionCheck(env)) {
+	//e.g. an IOException from a stream callback: this is the real cause
+	cause = (*env)->ExceptionOccurred(env);
+	if ((*env)->IsInstanceOf(env, cause, UTILS_jni.exception)) {
+	    (*env)->DeleteLocalRef(env, cause);
+	    return JNI_TRUE;
+	}
+	//the operations only declare GnuPGException: wrap it
+	(*env)->ExceptionClear(env);
+    }
     if (err) {
 	char exceptionString[BUF_LEN];	/* this is enough */
 	int spaceUsed;
-	jclass exception =
-	    (*env)->FindClass(env, "com/freiheit/gnupg/GnuPGException");
 
-	if (exception == NULL) {
-	    return JNI_TRUE;
-	}
 	spaceUsed = snprintf(exceptionString, BUF_LEN, "%u: ", err);
 	gpgme_strerror_r(err, exceptionString + spaceUsed, BUF_LEN - spaceUsed);
-	(*env)->ThrowNew(env, exception, exceptionString);
-	(*env)->DeleteLocalRef(env, exception);
+
+	//the error code is kept, e.g. for GnuPGMetricsListener
+	jstring msg = (*env)->NewStringUTF(env, exceptionString);
+	if (msg == NULL) {
+	    return JNI_TRUE;
+	}
+	jthrowable ex;
+	if (cause != NULL) {
+	    ex = (jthrowable) (*env)->NewObject(env, UTILS_jni.exception,
+						UTILS_jni.exceptionWrap,
+						msg, (jint) gpg_err_code(err),
+						cause);
+	    (*env)->DeleteLocalRef(env, cause);
+	} else {
+	    ex = (jthrowable) (*env)->NewObject(env, UTILS_jni.exception,
+						UTILS_jni.exceptionInit,
+						msg, (jint) gpg_err_code(err));
+	}
+	(*env)->DeleteLocalRef(env, msg);
+	if (ex != NULL) {
+	    (*env)->Throw(env, ex);
+	    (*env)->DeleteLocalRef(env, ex);
+	}
 	return JNI_TRUE;
     } else {
 	return JNI_FALSE;
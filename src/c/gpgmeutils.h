@@ -5,14 +5,91 @@
 #include <gpg-error.h>
 #include <gpgme.h>
 
-jboolean UTILS_setStringMember(JNIEnv * env, jobject self, jclass selfclass,
-			       const char *fieldname, const char *fieldvalue);
+/*
+ * Classes (as global refs), method and field IDs used by the native
+ * code. They are resolved only once in JNI_OnLoad (see gpgmeutils.c),
+ * so the native calls never look them up by name.
+ */
+typedef struct {
+    JavaVM *jvm;
 
-jboolean UTILS_setIntMember(JNIEnv * env, jobject self, jclass selfclass,
-			    const char *fieldname, int fieldvalue);
+    jclass exception;		//com.freiheit.gnupg.GnuPGException
+    jmethodID exceptionInit;	//GnuPGException(String, int)
+    jmethodID exceptionWrap;	//GnuPGException(String, int, Throwable)
 
-void UTILS_setBooleanMember(JNIEnv * env, jobject self, jclass selfclass,
-			    const char *fieldname, unsigned int fieldvalue);
+    jclass key;			//com.freiheit.gnupg.GnuPGKey
+    jmethodID keyInit;		//GnuPGKey(long)
+
+    jclass keySnapshot;		//com.freiheit.gnupg.GnuPGKeySnapshot
+    jmethodID keySnapshotInit;	//GnuPGKeySnapshot(int, int, int, UserID[], Subkey[])
+    jclass userIDSnapshot;	//com.freiheit.gnupg.GnuPGKeySnapshot$UserID
+    jmethodID userIDSnapshotInit;	//UserID(String, String, String, String, int, int)
+    jclass subkeySnapshot;	//com.freiheit.gnupg.GnuPGKeySnapshot$Subkey
+    jmethodID subkeySnapshotInit;	//Subkey(String, String, int, int, long, long, int)
+
+    jclass signatureSnapshot;	//com.freiheit.gnupg.GnuPGSignatureSnapshot
+    jmethodID signatureSnapshotInit;	//GnuPGSignatureSnapshot(String x6, boolean x4, long, long, int)
+
+    jclass verifyResult;	//com.freiheit.gnupg.GnuPGVerifyResult
+    jmethodID verifyResultInit;	//GnuPGVerifyResult(String, Signature[])
+    jclass verifySignature;	//com.freiheit.gnupg.GnuPGVerifyResult$Signature
+    jmethodID verifySignatureInit;	//Signature(String, int, String, int, long, long, int x4, boolean)
+
+    jclass importResult;	//com.freiheit.gnupg.GnuPGImportResult
+    jmethodID importResultInit;	//GnuPGImportResult(int[], Status[])
+    jclass importStatus;	//com.freiheit.gnupg.GnuPGImportResult$Status
+    jmethodID importStatusInit;	//Status(String, int, String, int)
+
+    jclass genkeyResult;	//com.freiheit.gnupg.GnuPGGenkeyResult
+    jmethodID genkeyResultInit;	//GnuPGGenkeyResult()
+    jfieldID genkeyResultFpr;	//GnuPGGenkeyResult._fpr
+    jfieldID genkeyResultPrimary;	//GnuPGGenkeyResult._primary
+    jfieldID genkeyResultSub;	//GnuPGGenkeyResult._sub
+
+    jmethodID passphraseCallback;	//char[] GnuPGContext.passphraseCallback(String, String, long)
+    jfieldID contextVersion;	//GnuPGContext._version
+    jfieldID contextFilename;	//GnuPGContext._filename
+    jfieldID contextReqversion;	//GnuPGContext._reqversion
+    jfieldID contextProtocol;	//GnuPGContext._protocol
+
+    jmethodID inputStreamRead;	//InputStream.read(byte[], int, int)
+    jmethodID outputStreamWrite;	//OutputStream.write(byte[], int, int)
+    jfieldID fileDescriptorFd;	//FileDescriptor.fd
+
+    jmethodID channelRead;	//FileChannel.read(ByteBuffer)
+    jmethodID channelWrite;	//FileChannel.write(ByteBuffer)
+    jmethodID channelPosition;	//FileChannel.position()
+    jmethodID channelSetPosition;	//FileChannel.position(long)
+    jmethodID channelSize;	//FileChannel.size()
+} jni_cache_t;
+
+extern jni_cache_t UTILS_jni;
+
+JNIEnv *UTILS_callbackEnv(void);
+
+void UTILS_deleteGlobalRef(jobject ref);
+
+void UTILS_setStringField(JNIEnv * env, jobject obj, jfieldID fld,
+			  const char *fieldvalue);
+
+void UTILS_setIntField(JNIEnv * env, jobject obj, jfieldID fld,
+		       int fieldvalue);
+
+void UTILS_setBooleanField(JNIEnv * env, jobject obj, jfieldID fld,
+			   unsigned int fieldvalue);
+
+/* parts of a key copied by UTILS_newKeySnapshot, keep them in sync with GnuPGKeyProjection */
+#define PROJECT_PRIMARY_UID 1
+#define PROJECT_ALL_UIDS 2
+#define PROJECT_ENCRYPT_SUBKEYS 4
+#define PROJECT_ALL_SUBKEYS 8
+#define PROJECT_ALL (PROJECT_ALL_UIDS | PROJECT_ALL_SUBKEYS)
+
+jobject UTILS_newKeySnapshot(JNIEnv * env, gpgme_key_t key, int projection);
+
+jobject UTILS_newVerifyResult(JNIEnv * env, gpgme_ctx_t ctx);
+
+jobject UTILS_newImportResult(JNIEnv * env, gpgme_import_result_t res);
 
 jboolean UTILS_onErrorThrowException(JNIEnv * env, gpgme_error_t err);
 
@@ -28,6 +105,8 @@ int UTILS_copyRecipientsFromJvm(JNIEnv * env, jlongArray recipients, gpgme_key_t
 #define KEYSIG(c) ((gpgme_key_sig_t)_ptrFromJLong(c))
 /* use this macro to convert a jlong variable to a pointer to a gpgme key in a safe and portable way */
 #define KEY(c) ((gpgme_key_t)_ptrFromJLong(c))
+/* use this macro to convert a jlong variable to a pointer to a NULL terminated array of gpgme keys in a safe and portable way */
+#define RECIPIENTS(c) ((gpgme_key_t *)_ptrFromJLong(c))
 
 /* use this macro to convert a pointer variable back to a jlong in a safe and portable way */
 #define LNG(a) (_jlongFromPtr(a))
@@ -0,0 +1,137 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+   Encrypts many messages for the same fixed set of recipients. The
+   native recipient array is built once and reused for every message,
+   and the messages are encrypted in parallel on several contexts.
+   The ciphertexts are returned in the order of the plaintexts.
+   <p>
+   <em>How to encrypt a batch?</em>
+   <pre>
+   {@code
+     try(GnuPGBatchEncryptor batch = new GnuPGBatchEncryptor(recipients, 4)){
+         List<byte[]> ciphers = batch.encrypt(plains);
+     }
+   }
+   </pre>
+   A batch encryptor is safe to share between threads.
+
+   @see com.freiheit.gnupg.GnuPGContext#encrypt(GnuPGKey[], GnuPGData, GnuPGData)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGBatchEncryptor implements AutoCloseable{
+    private final GnuPGOrderedExecutor<byte[], byte[]> _executor;
+    private final long _recipients;
+    private final GnuPGNativeHandles.Handle _recipientsHandle;
+
+    /**
+       Creates a batch encryptor with its own pool of default contexts
+       (ASCII armor, text mode).
+
+       @param recipients public keys of all recipients, you may destroy them afterwards
+       @param parallelism number of messages encrypted at the same time
+     */
+    public GnuPGBatchEncryptor(GnuPGKey[] recipients, int parallelism) throws GnuPGException{
+        this(new GnuPGContextPool(Math.max(1, parallelism)), true, recipients, parallelism);
+    }
+
+    /**
+       Creates a batch encryptor, that borrows its contexts from the
+       given pool. Use this to configure the contexts (e.g. no armor).
+
+       @param pool lends the contexts, must not be smaller than parallelism to be useful
+       @param recipients public keys of all recipients, you may destroy them afterwards
+       @param parallelism number of messages encrypted at the same time
+     */
+    public GnuPGBatchEncryptor(GnuPGContextPool pool, GnuPGKey[] recipients, int parallelism) throws GnuPGException{
+        this(pool, false, recipients, parallelism);
+    }
+
+    private GnuPGBatchEncryptor(GnuPGContextPool pool, boolean ownPool, GnuPGKey[] recipients, int parallelism){
+        if(pool == null || recipients == null || recipients.length == 0){
+            throw new GnuPGException("Encryption-Arguments not complete.");
+        }
+        _executor = new GnuPGOrderedExecutor<byte[], byte[]>("GnuPGBatchEncryptor", pool, ownPool, parallelism,
+                                                             this::encryptOne);
+        _recipients = GnuPGContext.newRecipients(recipients);
+        _recipientsHandle = GnuPGNativeHandles.register(this, GnuPGNativeHandles.Kind.RECIPIENTS,
+                                                        _recipients, GnuPGContext::releaseRecipients);
+    }
+
+    /**
+       Encrypts all plaintexts.
+
+       @param plaintexts messages to encrypt
+       @return List the ciphertexts, in the order of the plaintexts
+     */
+    public List<byte[]> encrypt(List<byte[]> plaintexts) throws GnuPGException{
+        return _executor.runAll(plaintexts);
+    }
+
+    /**
+       Encrypts the plaintexts while the returned stream is consumed.
+       At most twice the parallelism of messages are in flight. Close
+       the returned stream, if you don't consume it completely.
+
+       @param plaintexts messages to encrypt
+       @return Stream the ciphertexts, in the order of the plaintexts
+     */
+    public Stream<byte[]> encrypt(Stream<byte[]> plaintexts) throws GnuPGException{
+        return _executor.runAll(plaintexts);
+    }
+
+    private byte[] encryptOne(GnuPGContext ctx, byte[] plain){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length * 2 + 512);
+        GnuPGData plainData = GnuPGOrderedExecutor.newData(ctx, plain);
+        GnuPGData cipherData = null;
+        try{
+            cipherData = ctx.createDataObject(out);
+            ctx.encrypt(_recipients, plainData, cipherData);
+        }
+        finally{
+            plainData.destroy();
+            if(cipherData != null){
+                cipherData.destroy();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+       Waits for running encryptions and releases the recipient keys.
+       A pool created by this batch encryptor is closed, too. If the
+       wait is interrupted, the running encryptions still use the
+       recipient keys: they are released by the Cleaner, once this
+       batch encryptor is garbage collected.
+     */
+    public void close(){
+        if(_executor.close()){
+            _recipientsHandle.close();
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -0,0 +1,257 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+   Verifies many signatures in parallel on several contexts. Each
+   item is verified on its own: a bad signature or a broken item is
+   reported in its Outcome and does not stop the others. The outcomes
+   are returned in the order of the items.
+   <p>
+   <em>How to verify a nightly batch?</em>
+   <pre>
+   {@code
+     try(GnuPGBulkVerifier verifier = new GnuPGBulkVerifier(8);
+         Stream<GnuPGBulkVerifier.Outcome> outcomes = verifier.verify(items)){
+         outcomes.filter(o -> !o.isValid()).forEach(o -> report(o));
+     }
+   }
+   </pre>
+   A bulk verifier is safe to share between threads. It counts the
+   valid, invalid and failed items of all batches.
+
+   @see com.freiheit.gnupg.GnuPGContext#verify(GnuPGData, GnuPGData, GnuPGData)
+   @see com.freiheit.gnupg.GnuPGBatchEncryptor
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGBulkVerifier implements AutoCloseable{
+    private final GnuPGOrderedExecutor<Item, Outcome> _executor;
+    private final AtomicLong _valid = new AtomicLong();
+    private final AtomicLong _invalid = new AtomicLong();
+    private final AtomicLong _failed = new AtomicLong();
+
+    /**
+       Creates a bulk verifier with its own pool of default contexts.
+
+       @param parallelism number of signatures verified at the same time, e.g. the number of cores
+     */
+    public GnuPGBulkVerifier(int parallelism) throws GnuPGException{
+        this(new GnuPGContextPool(Math.max(1, parallelism)), true, parallelism);
+    }
+
+    /**
+       Creates a bulk verifier, that borrows its contexts from the
+       given pool. Use this to configure the contexts (e.g. another
+       keyring).
+
+       @param pool lends the contexts, must not be smaller than parallelism to be useful
+       @param parallelism number of signatures verified at the same time
+     */
+    public GnuPGBulkVerifier(GnuPGContextPool pool, int parallelism) throws GnuPGException{
+        this(pool, false, parallelism);
+    }
+
+    private GnuPGBulkVerifier(GnuPGContextPool pool, boolean ownPool, int parallelism){
+        _executor = new GnuPGOrderedExecutor<Item, Outcome>("GnuPGBulkVerifier", pool, ownPool, parallelism,
+                                                            this::verifyOne);
+    }
+
+    /**
+       Verifies all items.
+
+       @param items signatures to verify
+       @return List the outcomes, in the order of the items
+     */
+    public List<Outcome> verify(List<Item> items) throws GnuPGException{
+        return _executor.runAll(items);
+    }
+
+    /**
+       Verifies the items while the returned stream is consumed. At
+       most twice the parallelism of items are in flight, so the
+       items are read only as fast as they are verified. Close the
+       returned stream, if you don't consume it completely.
+
+       @param items signatures to verify
+       @return Stream the outcomes, in the order of the items
+     */
+    public Stream<Outcome> verify(Stream<Item> items) throws GnuPGException{
+        return _executor.runAll(items);
+    }
+
+    /**
+       @return number of items with only good signatures
+     */
+    public long getValidCount(){
+        return _valid.get();
+    }
+
+    /**
+       @return number of items with a bad signature, an unknown key or no signature at all
+     */
+    public long getInvalidCount(){
+        return _invalid.get();
+    }
+
+    /**
+       @return number of items, that could not be verified at all
+     */
+    public long getFailedCount(){
+        return _failed.get();
+    }
+
+    private Outcome verifyOne(GnuPGContext ctx, Item item){
+        GnuPGData signature = null;
+        GnuPGData signed = null;
+        GnuPGData plain = null;
+        try{
+            //a failure to create the data is a failure of this item only
+            signature = GnuPGOrderedExecutor.newData(ctx, item.getSignature());
+            if(item.getSigned() != null){
+                signed = GnuPGOrderedExecutor.newData(ctx, item.getSigned());
+            }
+            else{
+                //a normal signature needs somewhere to put the signed text
+                plain = ctx.createDataObject();
+            }
+            GnuPGVerifyResult result = ctx.verify(signature, signed, plain);
+            (result.isValid() ? _valid : _invalid).incrementAndGet();
+            return new Outcome(item, result, null);
+        }
+        catch(GnuPGException e){
+            _failed.incrementAndGet();
+            return new Outcome(item, null, e);
+        }
+        finally{
+            if(signature != null){
+                signature.destroy();
+            }
+            if(signed != null){
+                signed.destroy();
+            }
+            if(plain != null){
+                plain.destroy();
+            }
+        }
+    }
+
+    /**
+       Waits for running verifications. A pool created by this bulk
+       verifier is closed, too.
+     */
+    public void close(){
+        _executor.close();
+    }
+
+    /**
+       One signature to verify.
+     */
+    public static final class Item{
+        private final byte[] _signature;
+        private final byte[] _signed;
+
+        /**
+           A detached signature and the data it signs.
+
+           @param signature the detached signature
+           @param signed the signed data
+         */
+        public Item(byte[] signature, byte[] signed){
+            if(signature == null){
+                throw new GnuPGException("Signature is null.");
+            }
+            _signature = signature;
+            _signed = signed;
+        }
+
+        /**
+           A normal or cleartext signature, that contains the signed data.
+
+           @param signature the signed message
+         */
+        public Item(byte[] signature){
+            this(signature, null);
+        }
+
+        /**
+           @return the signature
+         */
+        public byte[] getSignature(){
+            return _signature;
+        }
+
+        /**
+           @return the signed data of a detached signature, otherwise null
+         */
+        public byte[] getSigned(){
+            return _signed;
+        }
+    }
+
+    /**
+       The outcome of one item: either the result of the verification
+       or the failure, why it could not be verified.
+     */
+    public static final class Outcome{
+        private final Item _item;
+        private final GnuPGVerifyResult _result;
+        private final GnuPGException _failure;
+
+        Outcome(Item item, GnuPGVerifyResult result, GnuPGException failure){
+            _item = item;
+            _result = result;
+            _failure = failure;
+        }
+
+        /**
+           @return the verified item
+         */
+        public Item getItem(){
+            return _item;
+        }
+
+        /**
+           @return the result of the verification, null if it failed
+         */
+        public GnuPGVerifyResult getResult(){
+            return _result;
+        }
+
+        /**
+           @return why the item could not be verified, null if it was verified
+         */
+        public GnuPGException getFailure(){
+            return _failure;
+        }
+
+        /**
+           @return true, if the item was verified and all its signatures are good
+         */
+        public boolean isValid(){
+            return _result != null && _result.isValid();
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
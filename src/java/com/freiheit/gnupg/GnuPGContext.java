@@ -14,17 +14,36 @@
 
 package com.freiheit.gnupg;
 
-import java.io.BufferedReader;
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
    Start here, because for all operations, you first need to create a
    GnuPGContext. Use one context object for every single thread or
    (really) take care about synchronizing access to the context from
-   different threads.
+   different threads. Multithreaded programs can borrow contexts
+   from a GnuPGContextPool instead.
    <p>
    <em>How to create a context?</em>
    <pre>
@@ -58,17 +77,41 @@ import java.io.InputStreamReader;
    @author Stefan Richter, stefan@freiheit.com
  */
 
-public class GnuPGContext extends GnuPGPeer{
+public class GnuPGContext extends GnuPGPeer implements AutoCloseable{
+    /** list the keys in the local keyring */
+    public static final int KEYLIST_MODE_LOCAL = 1;
+    /** list the keys on the keyserver */
+    public static final int KEYLIST_MODE_EXTERN = 2;
+    /** load the signatures (certifications) of the user-ids */
+    public static final int KEYLIST_MODE_SIGS = 4;
+    /** load the notations of the signatures, needs KEYLIST_MODE_SIGS */
+    public static final int KEYLIST_MODE_SIG_NOTATIONS = 8;
+    /** check the validity of the keys (S/MIME only) */
+    public static final int KEYLIST_MODE_VALIDATE = 256;
+
+    /** Maximum number of patterns exportKeys() passes to one run of gpg. */
+    public static final int EXPORT_BATCH_SIZE = 1024;
+
     private String _version;
     private String _filename;
     private String _reqversion;
     private int _protocol;
+    private String _homeDir = null;
     private GnuPGPassphraseListener _passphraseListener = null;
+    private GnuPGKeyCache _keyCache = null;
+    private GnuPGMetricsListener _metricsListener = null;
+    // written by the thread running the operation (the dispatcher for the async ones), read by the reporting one
+    private volatile long _passphraseNanos = 0;
+    private GnuPGNativeHandles.Handle _handle = null;
 
     /** Creates a new Context (use on context for one thread!)*/
     public GnuPGContext(){
         gpgmeGetEngineInfo();
-        setInternalRepresentation(gpgmeNew());
+        long ptr = gpgmeNew();
+        setInternalRepresentation(ptr);
+        if(ptr != 0){
+            _handle = GnuPGNativeHandles.register(this, GnuPGNativeHandles.Kind.CONTEXT, ptr, GnuPGContext::gpgmeRelease);
+        }
     }
 
     /**
@@ -114,8 +157,13 @@ public class GnuPGContext extends GnuPGPeer{
        @return boolean true if results will be ASCII armored, if false binary
      */
     public boolean isArmor(){
-        long armorState = gpgmeGetArmor(getInternalRepresentation());
-        return (armorState == 1);
+        try{
+            long armorState = gpgmeGetArmor(getInternalRepresentation());
+            return (armorState == 1);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -127,7 +175,12 @@ public class GnuPGContext extends GnuPGPeer{
      */
     public void setArmor(boolean state){
         long armorState = (state ? 1 : 0);
-        gpgmeSetArmor(getInternalRepresentation(), armorState);
+        try{
+            gpgmeSetArmor(getInternalRepresentation(), armorState);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -138,9 +191,14 @@ public class GnuPGContext extends GnuPGPeer{
      */
     public boolean isTextmode(){
         boolean result = false;
-        long mode = gpgmeGetTextmode(getInternalRepresentation());
-        if(mode == 1){
-            result = true;
+        try{
+            long mode = gpgmeGetTextmode(getInternalRepresentation());
+            if(mode == 1){
+                result = true;
+            }
+        }
+        finally{
+            Reference.reachabilityFence(this);
         }
         return result;
     }
@@ -153,7 +211,62 @@ public class GnuPGContext extends GnuPGPeer{
      */
     public void setTextmode(boolean state){
         long mode = (state ? 1 : 0);
-        gpgmeSetTextmode(getInternalRepresentation(), mode);
+        try{
+            gpgmeSetTextmode(getInternalRepresentation(), mode);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+       Tells you, what a key listing loads from the keyring.
+
+       @return the KEYLIST_MODE_ flags, a new context has KEYLIST_MODE_LOCAL | KEYLIST_MODE_SIGS
+     */
+    public int getKeylistMode(){
+        try{
+            return gpgmeGetKeylistMode(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+       Tells gpgme, what key listings (searchKeys(), keyIterator(),
+       getKeyByFingerprint(), ...) load from the keyring. Without
+       KEYLIST_MODE_SIGS, the certifications of the keys are not
+       loaded, which is much faster for keys with many signatures,
+       but GnuPGKey.getSignatures() is empty then.
+
+       @param mode the KEYLIST_MODE_ flags
+     */
+    public void setKeylistMode(int mode){
+        try{
+            gpgmeSetKeylistMode(getInternalRepresentation(), mode);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+       Runs the call with another keylist mode and restores the
+       mode of the context afterwards.
+     */
+    private <T> T withKeylistMode(int mode, NativeCall<T> call) throws GnuPGException{
+        int saved = getKeylistMode();
+        if(saved == mode){
+            return call.run();
+        }
+        setKeylistMode(mode);
+        try{
+            return call.run();
+        }
+        finally{
+            setKeylistMode(saved);
+        }
     }
 
     /**
@@ -175,8 +288,161 @@ public class GnuPGContext extends GnuPGPeer{
         _passphraseListener = l;
     }
 
-    public String passphraseCallback(String hint, String passphraseInfo, long wasBad){
-        return _passphraseListener.getPassphrase(hint, passphraseInfo, wasBad);
+    /**
+       Called by the native passphrase callback. The returned array
+       is zeroed by the native code after use.
+     */
+    char[] passphraseCallback(String hint, String passphraseInfo, long wasBad){
+        GnuPGPassphraseListener l = _passphraseListener;
+        if(l == null){
+            return null;
+        }
+        long start = System.nanoTime();
+        try{
+            return l.getPassphraseChars(hint, passphraseInfo, wasBad);
+        }
+        finally{
+            //only one operation at a time: no concurrent writer
+            _passphraseNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+       Attaches a listener, that is told about the duration, the bytes
+       and the errors of every encrypt(), decrypt(), sign(), verify(),
+       searchKeys() and importKey() on this context, also of the
+       asynchronous variants. Without a listener, nothing is measured.
+
+       @param l listener or null to stop measuring
+
+       @see com.freiheit.gnupg.GnuPGMetrics
+     */
+    public void setMetricsListener(GnuPGMetricsListener l){
+        _metricsListener = l;
+    }
+
+    /**
+       Returns the listener set with setMetricsListener().
+
+       @return listener or null
+     */
+    public GnuPGMetricsListener getMetricsListener(){
+        return _metricsListener;
+    }
+
+    /**
+       A native call measured by measure().
+     */
+    private interface NativeCall<T>{
+        T run() throws GnuPGException;
+    }
+
+    /**
+       Runs the call and reports it to the metrics listener, if any.
+
+       @param operation reported operation
+       @param in data objects read by the operation (null entries are skipped)
+       @param out data object written by the operation, may be null
+       @param call the native call
+       @return result of the call
+     */
+    private <T> T measure(GnuPGMetricsListener.Operation operation, GnuPGData[] in, GnuPGData out,
+                          NativeCall<T> call) throws GnuPGException{
+        GnuPGMetricsListener l = _metricsListener;
+        if(l == null){
+            try{
+                return call.run();
+            }
+            finally{
+                //the Cleaner must not release them during the native call
+                Reference.reachabilityFence(this);
+                Reference.reachabilityFence(in);
+                Reference.reachabilityFence(out);
+            }
+        }
+        _passphraseNanos = 0;
+        int errorCode = -1;
+        long start = System.nanoTime();
+        try{
+            T result = call.run();
+            errorCode = 0;
+            return result;
+        }
+        catch(GnuPGException e){
+            if(e.getErrorCode() != 0){
+                errorCode = e.getErrorCode();
+            }
+            throw e;
+        }
+        finally{
+            report(l, operation, System.nanoTime() - start, in, out, errorCode);
+            Reference.reachabilityFence(this);
+            Reference.reachabilityFence(in);
+            Reference.reachabilityFence(out);
+        }
+    }
+
+    /**
+       Queues an asynchronous operation with the event loop and reports
+       it to the metrics listener, if any, before the returned future
+       completes. The duration is measured from the start call on the
+       dispatcher thread.
+
+       @param operation reported operation
+       @param in data objects read by the operation (null entries are skipped)
+       @param out data object written by the operation, may be null
+       @param starter calls the gpgme_op_*_start function
+       @param result value of the future on success
+       @return future of the operation
+     */
+    private <T> CompletableFuture<T> submit(final GnuPGMetricsListener.Operation operation, final GnuPGData[] in, final GnuPGData out,
+                                            final Runnable starter, T result) throws GnuPGException{
+        //the event loop holds all of them until the operation is done
+        GnuPGData[] data = Arrays.copyOf(in, in.length + 1);
+        data[in.length] = out;
+        final GnuPGMetricsListener l = _metricsListener;
+        if(l == null){
+            return GnuPGEventLoop.getInstance().submit(this, starter, result, data);
+        }
+        //written on the dispatcher, read on the completion thread after it
+        final long[] start = new long[]{System.nanoTime()};
+        return GnuPGEventLoop.getInstance().submit(this, new Runnable(){
+                public void run(){
+                    _passphraseNanos = 0;
+                    start[0] = System.nanoTime();
+                    starter.run();
+                }
+            }, result, data)
+            .whenComplete((r, e) -> {
+                    int errorCode = 0;
+                    if(e != null){
+                        errorCode = (e instanceof GnuPGException && ((GnuPGException)e).getErrorCode() != 0)
+                            ? ((GnuPGException)e).getErrorCode() : -1;
+                    }
+                    report(l, operation, System.nanoTime() - start[0], in, out, errorCode);
+                });
+    }
+
+    /**
+       Tells the metrics listener about a finished operation.
+     */
+    private void report(GnuPGMetricsListener l, GnuPGMetricsListener.Operation operation, long wall,
+                        GnuPGData[] in, GnuPGData out, int errorCode){
+        long bytesIn = -1;
+        for(int i = 0; in != null && i < in.length; i++){
+            long pos = (in[i] == null) ? -1 : in[i].position();
+            if(pos >= 0){
+                bytesIn = Math.max(bytesIn, 0) + pos;
+            }
+        }
+        long bytesOut = (out == null) ? -1 : out.position();
+        try{
+            l.operationCompleted(operation, wall, _passphraseNanos, bytesIn, bytesOut, errorCode);
+        }
+        catch(RuntimeException e){
+            //metrics must never break an operation
+            Logger.getLogger(GnuPGContext.class.getName()).log(Level.WARNING, "GnuPGMetricsListener failed", e);
+        }
     }
 
     private long[] getInternalRepresentationFromRecipients(GnuPGKey[] recipients) {
@@ -209,11 +475,37 @@ public class GnuPGContext extends GnuPGPeer{
         if(fingerprint == null || fingerprint.length() < 1) {
             return null;
         }
+        else if(_keyCache != null){
+            return _keyCache.getKey(this, fingerprint);
+        }
         else{
             return new GnuPGKey(this, fingerprint);
         }
     }
 
+    /**
+       Attaches a key cache to this context. Afterwards, getKeyByFingerprint()
+       answers from the cache and only asks the gpg engine on a miss.
+       The cache must belong to the same home directory as this context.
+       A cache can be shared by many contexts.
+
+       @param cache the cache to use, null to switch caching off
+
+       @see com.freiheit.gnupg.GnuPGKeyCache
+     */
+    public void setKeyCache(GnuPGKeyCache cache){
+        _keyCache = cache;
+    }
+
+    /**
+       Returns the key cache attached to this context.
+
+       @return GnuPGKeyCache or null, if no cache is attached
+     */
+    public GnuPGKeyCache getKeyCache(){
+        return _keyCache;
+    }
+
     /**
        Factory method to generate a GnuPGData-Object from a String.
 
@@ -244,6 +536,181 @@ public class GnuPGContext extends GnuPGPeer{
         }
     }
 
+    /**
+       Factory method to generate a GnuPGData-Object, that reads its
+       content from an InputStream while an operation is running.
+       Use this for large payloads: the data is pulled chunk by chunk
+       and never held completely in memory.
+       Any IOException from the stream aborts the operation. The
+       operation throws a GnuPGException with the IOException as its
+       cause.
+
+       @param in should not be null
+       @return GnuPGData null if in is null, otherwise a GnuPGData-Object
+     */
+    public GnuPGData createDataObject(InputStream in) throws GnuPGException{
+        if(in == null){
+            return null;
+        }
+        else{
+            return new GnuPGData(in);
+        }
+    }
+
+    /**
+       Factory method to generate a GnuPGData-Object, that writes the
+       result of an operation to an OutputStream while the operation is
+       running. Use this for large results: the data is pushed chunk by
+       chunk and never held completely in memory.
+       Any IOException from the stream aborts the operation. The
+       operation throws a GnuPGException with the IOException as its
+       cause.
+
+       @param out should not be null
+       @return GnuPGData null if out is null, otherwise a GnuPGData-Object
+     */
+    public GnuPGData createDataObject(OutputStream out) throws GnuPGException{
+        if(out == null){
+            return null;
+        }
+        else{
+            return new GnuPGData(out);
+        }
+    }
+
+    /**
+       Factory method to generate a GnuPGData-Object, that reads its
+       input directly from the memory of a direct ByteBuffer. Nothing
+       is copied to the Java heap or to gpgme memory: gpgme reads the
+       bytes between position and limit.
+
+       @param buffer a direct ByteBuffer, should not be null and should have remaining bytes
+       @return GnuPGData null if buffer is null or has no remaining bytes, otherwise a GnuPGData-Object
+       @see #createOutputDataObject(ByteBuffer)
+     */
+    public GnuPGData createDataObject(ByteBuffer buffer) throws GnuPGException{
+        if(buffer == null || !buffer.hasRemaining()){
+            return null;
+        }
+        else{
+            return new GnuPGData(buffer, false);
+        }
+    }
+
+    /**
+       Factory method to generate an empty GnuPGData-Object, that
+       receives the result of an operation directly in the memory of a
+       direct ByteBuffer. gpgme writes into the space between position
+       and limit, the operation fails if the space is too small. Use
+       GnuPGData.getByteBuffer() to see the result.
+
+       @param buffer a direct ByteBuffer, should not be null and should have remaining bytes
+       @return GnuPGData null if buffer is null or has no remaining bytes, otherwise a GnuPGData-Object
+     */
+    public GnuPGData createOutputDataObject(ByteBuffer buffer) throws GnuPGException{
+        if(buffer == null || !buffer.hasRemaining()){
+            return null;
+        }
+        else{
+            return new GnuPGData(buffer, true);
+        }
+    }
+
+    /**
+       Factory method to generate a GnuPGData-Object, that reads its
+       content from a file. gpgme reads directly from the file
+       descriptor, so even very large files never pass the Java heap.
+       The file is closed, when the data object is destroyed.
+
+       @param file should not be null and must be readable
+       @return GnuPGData null if file is null, otherwise a GnuPGData-Object
+     */
+    public GnuPGData createDataObject(Path file) throws IOException, GnuPGException{
+        if(file == null){
+            return null;
+        }
+        FileInputStream in = new FileInputStream(file.toFile());
+        try{
+            return new GnuPGData(in, in.getFD());
+        }
+        catch(RuntimeException e){
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+       Factory method to generate a GnuPGData-Object, that reads its
+       content from a file mapped into memory (read only). This is
+       usually the fastest way to feed a large plaintext into an
+       operation. The mapping is removed, when the data object is
+       destroyed.
+
+       @param file should not be null and must be readable
+       @return GnuPGData null if file is null, otherwise a GnuPGData-Object
+     */
+    public GnuPGData createMappedDataObject(Path file) throws IOException, GnuPGException{
+        if(file == null){
+            return null;
+        }
+        FileInputStream in = new FileInputStream(file.toFile());
+        try{
+            long length = in.getChannel().size();
+            if(length == 0){
+                //an empty file can not be mapped
+                return createDataObject(file);
+            }
+            return new GnuPGData(in.getFD(), length);
+        }
+        finally{
+            in.close();
+        }
+    }
+
+    /**
+       Factory method to generate a GnuPGData-Object, that writes the
+       result of an operation to a file. An existing file is truncated.
+       gpgme writes directly to the file descriptor, so even very large
+       results never pass the Java heap. The file is closed, when the
+       data object is destroyed.
+
+       @param file should not be null and must be writable
+       @return GnuPGData null if file is null, otherwise a GnuPGData-Object
+     */
+    public GnuPGData createOutputDataObject(Path file) throws IOException, GnuPGException{
+        if(file == null){
+            return null;
+        }
+        FileOutputStream out = new FileOutputStream(file.toFile());
+        try{
+            return new GnuPGData(out, out.getFD());
+        }
+        catch(RuntimeException e){
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+       Factory method to generate a GnuPGData-Object, that reads from or
+       writes to a FileChannel, starting at its current position. This
+       position is the start of the data: gpgme never reads or writes
+       before it, even when it rewinds the data. The data is moved
+       between gpgme and the channel without passing the Java heap. The
+       channel is not closed by the data object.
+
+       @param channel should not be null
+       @return GnuPGData null if channel is null, otherwise a GnuPGData-Object
+     */
+    public GnuPGData createDataObject(FileChannel channel) throws GnuPGException{
+        if(channel == null){
+            return null;
+        }
+        else{
+            return new GnuPGData(channel);
+        }
+    }
+
     /**
        Factory method to generate an empty GnuPGData-Object.
 
@@ -286,7 +753,142 @@ public class GnuPGContext extends GnuPGPeer{
         if (query == null || query.length() < 1) {
             return null;
         } else{
-            return gpgmeKeylist(getInternalRepresentation(), query);
+            return measure(GnuPGMetricsListener.Operation.SEARCH_KEYS, null, null,
+                           () -> gpgmeKeylist(getInternalRepresentation(), query));
+        }
+    }
+
+    /**
+       Same as searchKeys(String), but with the given keylist mode
+       for this search only.
+
+       @param query allows the same expressions as gpg on command line
+       @param keylistMode the KEYLIST_MODE_ flags, e.g. KEYLIST_MODE_LOCAL to skip the signatures
+       @return GnuPGKey array of key objects with all matching keys
+
+       @see #setKeylistMode(int)
+     */
+    public GnuPGKey[] searchKeys(String query, int keylistMode) throws GnuPGException{
+        return withKeylistMode(keylistMode, () -> searchKeys(query));
+    }
+
+    /**
+       Find all keys matching <em>query</em> in keyring and copy
+       them into snapshots. Every key is copied in a single native
+       call and released at once, so there are no native keys to
+       destroy afterwards.
+
+       @param query allows the same expressions as gpg on command line, null lists all keys
+       @return GnuPGKeySnapshot array with all matching keys, empty if nothing matches
+
+       @see com.freiheit.gnupg.GnuPGKeySnapshot
+     */
+    public GnuPGKeySnapshot[] searchKeySnapshots(String query) throws GnuPGException{
+        return searchKeySnapshots(query, GnuPGKeyProjection.ALL);
+    }
+
+    /**
+       Same as searchKeySnapshots(String), but copies only the parts
+       of the keys, that you need. Snapshots have no signatures, so
+       the signatures are never loaded, whatever the keylist mode of
+       the context is.
+
+       @param query allows the same expressions as gpg on command line, null lists all keys
+       @param projection the parts of the keys to copy
+       @return GnuPGKeySnapshot array with all matching keys, empty if nothing matches
+
+       @see com.freiheit.gnupg.GnuPGKeyProjection
+     */
+    public GnuPGKeySnapshot[] searchKeySnapshots(String query, GnuPGKeyProjection projection) throws GnuPGException{
+        return keylistSnapshots((query == null) ? null : new String[]{query}, projection);
+    }
+
+    /**
+       Find all keys matching any of the <em>queries</em> in a single
+       pass over the keyring, instead of one pass per query. A key
+       matching several queries is returned once.
+
+       @param queries each allows the same expressions as gpg on command line
+       @param projection the parts of the keys to copy
+       @return GnuPGKeySnapshot array with all matching keys, empty if nothing matches
+     */
+    public GnuPGKeySnapshot[] searchKeySnapshotsAny(Collection<String> queries, GnuPGKeyProjection projection) throws GnuPGException{
+        if(queries == null) throw new GnuPGException("Parameters not complete or null.");
+        if(queries.isEmpty()){
+            //gpgme would list all keys
+            return new GnuPGKeySnapshot[0];
+        }
+        return keylistSnapshots(queries.toArray(new String[queries.size()]), projection);
+    }
+
+    private GnuPGKeySnapshot[] keylistSnapshots(String[] patterns, GnuPGKeyProjection projection) throws GnuPGException{
+        if(projection == null) throw new GnuPGException("Parameters not complete or null.");
+        int mode = getKeylistMode() & ~(KEYLIST_MODE_SIGS | KEYLIST_MODE_SIG_NOTATIONS);
+        return withKeylistMode(mode, () -> measure(GnuPGMetricsListener.Operation.SEARCH_KEYS, null, null,
+                                                   () -> gpgmeKeylistSnapshots(getInternalRepresentation(), patterns,
+                                                                               projection.getFlags())));
+    }
+
+    /**
+       Find all keys matching <em>query</em> in keyring, one by one.
+       Other than searchKeys(), this does not build the complete
+       result in advance: each key is fetched from gpgme when you
+       advance the iterator. Use this for large keyrings or if you
+       only need the first few matches.
+       <p>
+       The context is busy until the iterator is exhausted or closed.
+
+       @param query allows the same expressions as gpg on command line, null lists all keys
+       @return GnuPGKeyIterator iterator over all matching keys
+
+       @see com.freiheit.gnupg.GnuPGKeyIterator
+     */
+    public GnuPGKeyIterator keyIterator(String query) throws GnuPGException{
+        try{
+            gpgmeKeylistStart(getInternalRepresentation(), query);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+        return new GnuPGKeyIterator(this);
+    }
+
+    /**
+       Same as keyIterator(), but as a Stream. Close the stream
+       (or use try-with-resources) if you don't consume it completely.
+
+       @param query allows the same expressions as gpg on command line, null lists all keys
+       @return Stream of all matching keys
+     */
+    public Stream<GnuPGKey> keyStream(String query) throws GnuPGException{
+        GnuPGKeyIterator iter = keyIterator(query);
+        Spliterator<GnuPGKey> keys = Spliterators.spliteratorUnknownSize(iter,
+                                                                          Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(keys, false).onClose(iter::close);
+    }
+
+    /**
+       Used by GnuPGKeyIterator: next key of the running key listing.
+       @return pointer to the key or 0 at the end of the listing
+     */
+    long keylistNext(){
+        try{
+            return gpgmeKeylistNext(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+       Used by GnuPGKeyIterator: ends the running key listing.
+     */
+    void keylistEnd(){
+        try{
+            gpgmeKeylistEnd(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
         }
     }
 
@@ -306,21 +908,84 @@ public class GnuPGContext extends GnuPGPeer{
 
         // note that these are pointers to addresses in the javagnupg shared lib
         long recipientsInternals[] = getInternalRepresentationFromRecipients(recipients);
-        gpgmeOpEncrypt(this.getInternalRepresentation(), recipientsInternals,
-                       plain.getInternalRepresentation(), cipher.getInternalRepresentation());
+        try{
+            measure(GnuPGMetricsListener.Operation.ENCRYPT, new GnuPGData[]{plain}, cipher, () -> {
+                    gpgmeOpEncrypt(this.getInternalRepresentation(), recipientsInternals,
+                                   plain.getInternalRepresentation(), cipher.getInternalRepresentation());
+                    return null;
+                });
+        }
+        finally{
+            Reference.reachabilityFence(recipients);
+        }
     }
 
-    /*
-       Not finished.
+    /**
+       Encrypts with a native recipient array from newRecipients().
+       Used by GnuPGBatchEncryptor.
      */
-//     public void encryptAndSign(GnuPGKey[] recipients, GnuPGData plain, GnuPGData cipher) throws GnuPGException{
-//         if (hasNoRecipients(recipients) || plain == null || cipher == null) throw new GnuPGException("Encryption-Arguments not complete.");
+    void encrypt(long recipients, GnuPGData plain, GnuPGData cipher) throws GnuPGException{
+        measure(GnuPGMetricsListener.Operation.ENCRYPT, new GnuPGData[]{plain}, cipher, () -> {
+                gpgmeOpEncryptRecipients(getInternalRepresentation(), recipients,
+                                         plain.getInternalRepresentation(), cipher.getInternalRepresentation());
+                return null;
+            });
+    }
 
-//         long recipientsInternals[] = getInternalRepresentationFromRecipients(recipients);
+    /**
+       Builds a native recipient array, that holds its own reference
+       on every key. Free it with releaseRecipients().
+     */
+    static long newRecipients(GnuPGKey[] recipients) throws GnuPGException{
+        long recipientsInternals[] = new long[recipients.length];
+        for (int i=0; i < recipients.length; i++) {
+            if (recipients[i] == null || recipients[i].getInternalRepresentation() == 0)
+                throw new GnuPGException("Recipient " + i + " is null or destroyed.");
+            recipientsInternals[i] = recipients[i].getInternalRepresentation();
+        }
+        try{
+            return gpgmeRecipientsNew(recipientsInternals);
+        }
+        finally{
+            Reference.reachabilityFence(recipients);
+        }
+    }
 
-//         gpgmeOpEncryptSign(this.getInternalRepresentation(), recipientsInternals,
-//                            plain.getInternalRepresentation(), cipher.getInternalRepresentation());
-//     }
+    static void releaseRecipients(long recipients){
+        gpgmeRecipientsRelease(recipients);
+    }
+
+    /**
+       Signs the data from <em>plain</em> with the signers of this
+       context and encrypts it with the public key of each recipient
+       in one pass. The result is stored in <em>cipher</em>.
+       <p>
+       This needs only one run of the engine and no intermediate
+       buffer, other than sign() followed by encrypt().
+
+       @param recipients Array with the public keys of all recipients
+       @param plain text, that should be signed and encrypted
+       @param cipher text, the signed and encrypted plain text after method call
+
+       @see com.freiheit.gnupg.GnuPGContext#addSigner(GnuPGKey)
+       @see com.freiheit.gnupg.GnuPGContext#decryptAndVerify(GnuPGData, GnuPGData)
+     */
+    public void encryptAndSign(GnuPGKey[] recipients, GnuPGData plain, GnuPGData cipher) throws GnuPGException{
+        if(_passphraseListener == null) throw new GnuPGException("Aborting: No GnuPGPassphraseListener set.");
+        if (hasNoRecipients(recipients) || plain == null || cipher == null) throw new GnuPGException("Encryption-Arguments not complete.");
+
+        long recipientsInternals[] = getInternalRepresentationFromRecipients(recipients);
+        try{
+            measure(GnuPGMetricsListener.Operation.ENCRYPT_SIGN, new GnuPGData[]{plain}, cipher, () -> {
+                    gpgmeOpEncryptSign(this.getInternalRepresentation(), recipientsInternals,
+                                       plain.getInternalRepresentation(), cipher.getInternalRepresentation());
+                    return null;
+                });
+        }
+        finally{
+            Reference.reachabilityFence(recipients);
+        }
+    }
 
     /**
        Decrypts the data from <em>cipher</em> and stores the result
@@ -335,8 +1000,11 @@ public class GnuPGContext extends GnuPGPeer{
         if(_passphraseListener == null) throw new GnuPGException("Aborting: No GnuPGPassphraseListener set.");
         if (cipher == null || plain == null) return;
 
-        gpgmeOpDecrypt(this.getInternalRepresentation(),
-                       cipher.getInternalRepresentation(), plain.getInternalRepresentation());
+        measure(GnuPGMetricsListener.Operation.DECRYPT, new GnuPGData[]{cipher}, plain, () -> {
+                gpgmeOpDecrypt(this.getInternalRepresentation(),
+                               cipher.getInternalRepresentation(), plain.getInternalRepresentation());
+                return null;
+            });
     }
 
     public void changePassphrase( GnuPGKey key ) throws GnuPGException {
@@ -344,25 +1012,41 @@ public class GnuPGContext extends GnuPGPeer{
 
         if ( key == null ) return;
 
-        gpgmeOpChangePassphrase( this.getInternalRepresentation(), key.getInternalRepresentation() );
+        try{
+            gpgmeOpChangePassphrase( this.getInternalRepresentation(), key.getInternalRepresentation() );
+        }
+        finally{
+            Reference.reachabilityFence(this);
+            Reference.reachabilityFence(key);
+        }
 
     }
 
 
-    /*
-      Not finished.
-       Decrypts the data in <em>cipher</em> and verfies the signature on the <em>cipher</em>.
+    /**
+       Decrypts the data in <em>cipher</em> and verifies the
+       signatures in it in one pass. The decrypted text is stored in
+       <em>plain</em>.
+       <p>
+       A bad or missing signature does not throw an exception: check
+       the returned result. Unsigned data gives a result without
+       signatures.
 
        @param cipher encrypted and signed data
        @param plain will contain the result after the method call
+       @return GnuPGVerifyResult the signatures found in <em>cipher</em>
+
+       @see com.freiheit.gnupg.GnuPGVerifyResult
      */
-//     public void decryptAndVerify(GnuPGData cipher, GnuPGData plain) throws GnuPGException{
-//         if(_passphraseListener == null) throw new GnuPGException("Aborting: No GnuPGPassphraseListener set.");
-//         if (cipher == null || plain == null) return;
+    public GnuPGVerifyResult decryptAndVerify(GnuPGData cipher, GnuPGData plain) throws GnuPGException{
+        if(_passphraseListener == null) throw new GnuPGException("Aborting: No GnuPGPassphraseListener set.");
+        if (cipher == null || plain == null) throw new GnuPGException("Parameters not complete or null.");
 
-//         gpgmeOpDecryptVerify(this.getInternalRepresentation(),
-//                              cipher.getInternalRepresentation(), plain.getInternalRepresentation());
-//     }
+        return measure(GnuPGMetricsListener.Operation.DECRYPT_VERIFY, new GnuPGData[]{cipher}, plain,
+                       () -> gpgmeOpDecryptVerify(this.getInternalRepresentation(),
+                                                  cipher.getInternalRepresentation(),
+                                                  plain.getInternalRepresentation()));
+    }
 
     /**
        Signs the data in <em>plain</em> and stores the result in <em>signature</em>.
@@ -374,23 +1058,170 @@ public class GnuPGContext extends GnuPGPeer{
         if(_passphraseListener == null) throw new GnuPGException("Aborting: No GnuPGPassphraseListener set.");
         if (plain == null || signature == null) throw new GnuPGException("Parameters not complete or null.");
 
-        gpgmeOpSign(this.getInternalRepresentation(),
-                    plain.getInternalRepresentation(), signature.getInternalRepresentation());
+        measure(GnuPGMetricsListener.Operation.SIGN, new GnuPGData[]{plain}, signature, () -> {
+                gpgmeOpSign(this.getInternalRepresentation(),
+                            plain.getInternalRepresentation(), signature.getInternalRepresentation());
+                return null;
+            });
     }
 
     /**
-       Verifies a signature.
+       Verifies a signature. For a normal or cleartext signature,
+       pass <em>signed</em> as null: the signed text is extracted
+       into <em>plain</em>. For a detached signature pass the signed
+       text as <em>signed</em> and <em>plain</em> as null (or use
+       verifyDetached()). If both are given, <em>signed</em> is
+       ignored.
+       <p>
+       A bad signature or an unknown signing key does not throw an
+       exception: check the returned result. Exceptions are left for
+       failures of the operation itself, e.g. data, that is no
+       OpenPGP data at all.
+
+       @param signature the signature or the signed message
+       @param signed the signed text of a detached signature, or null
+       @param plain receives the signed text of a normal signature, or null
+       @return GnuPGVerifyResult the signatures found in <em>signature</em>
+
+       @see com.freiheit.gnupg.GnuPGVerifyResult
+     */
+    public GnuPGVerifyResult verify(GnuPGData signature, GnuPGData signed, GnuPGData plain) throws GnuPGException{
+        if (signature == null || (signed == null && plain == null))  throw new GnuPGException("Parameters not complete or null.");
+        return measure(GnuPGMetricsListener.Operation.VERIFY, new GnuPGData[]{signature, signed}, plain,
+                       () -> gpgmeOpVerify(this.getInternalRepresentation(),
+                                           signature.getInternalRepresentation(),
+                                           internalOrNull(signed),
+                                           internalOrNull(plain)));
+    }
+
+    /**
+       Verifies a detached signature of <em>signed</em>.
 
-       @param signature TODO
-       @param signed TODO
-       @param plain TODO
+       @param signature the detached signature
+       @param signed the signed text
+       @return GnuPGVerifyResult the signatures found in <em>signature</em>
+
+       @see #verify(GnuPGData, GnuPGData, GnuPGData)
      */
-    public void verify(GnuPGData signature, GnuPGData signed, GnuPGData plain) throws GnuPGException{
-        if (signature == null || signed == null|| plain == null)  throw new GnuPGException("Parameters not complete or null.");
-        gpgmeOpVerify(this.getInternalRepresentation(),
-                      signature.getInternalRepresentation(),
-                      signed.getInternalRepresentation(),
-                      plain.getInternalRepresentation());
+    public GnuPGVerifyResult verifyDetached(GnuPGData signature, GnuPGData signed) throws GnuPGException{
+        if (signed == null)  throw new GnuPGException("Parameters not complete or null.");
+        return verify(signature, signed, null);
+    }
+
+    private static long internalOrNull(GnuPGData data){
+        return (data == null) ? 0 : data.getInternalRepresentation();
+    }
+
+    /**
+       Starts to encrypt the data from <em>plain</em> with the public
+       key of each recipient and returns immediately. The result is
+       stored in <em>cipher</em>. The context and both data objects
+       must not be used until the returned future is done.
+       <p>
+       Asynchronous operations are started and driven by one shared
+       thread for all contexts, so a few threads can wait for
+       many concurrent gpg processes. Use one context per concurrent
+       operation (e.g. from a GnuPGContextPool).
+
+       @param recipients Array with the public keys of all recipients
+       @param plain text, that should be encrypted
+       @param cipher text, the encrypted plain text after completion
+       @return future, completed with <em>cipher</em> or with the GnuPGException of the operation
+
+       @see #encrypt(GnuPGKey[], GnuPGData, GnuPGData)
+     */
+    public CompletableFuture<GnuPGData> encryptAsync(final GnuPGKey[] recipients, final GnuPGData plain, final GnuPGData cipher) throws GnuPGException{
+        if (hasNoRecipients(recipients) || plain == null || cipher == null) throw new GnuPGException("Encryption-Arguments not complete.");
+
+        //the starter holds the keys until it runs on the dispatcher thread
+        return submit(GnuPGMetricsListener.Operation.ENCRYPT, new GnuPGData[]{plain}, cipher, new Runnable(){
+                public void run(){
+                    try{
+                        gpgmeOpEncryptStart(getInternalRepresentation(), getInternalRepresentationFromRecipients(recipients),
+                                            plain.getInternalRepresentation(), cipher.getInternalRepresentation());
+                    }
+                    finally{
+                        Reference.reachabilityFence(recipients);
+                    }
+                }
+            }, cipher);
+    }
+
+    /**
+       Starts to decrypt the data from <em>cipher</em> and returns
+       immediately. The result is stored in <em>plain</em>. The
+       passphrase listener is called from the dispatcher thread.
+
+       @param cipher text, holds the cipher to be decrypted
+       @param plain text, holds the decrypted text after completion
+       @return future, completed with <em>plain</em> or with the GnuPGException of the operation
+
+       @see #encryptAsync(GnuPGKey[], GnuPGData, GnuPGData)
+     */
+    public CompletableFuture<GnuPGData> decryptAsync(final GnuPGData cipher, final GnuPGData plain) throws GnuPGException{
+        if(_passphraseListener == null) throw new GnuPGException("Aborting: No GnuPGPassphraseListener set.");
+        if (cipher == null || plain == null) throw new GnuPGException("Parameters not complete or null.");
+
+        return submit(GnuPGMetricsListener.Operation.DECRYPT, new GnuPGData[]{cipher}, plain, new Runnable(){
+                public void run(){
+                    gpgmeOpDecryptStart(getInternalRepresentation(),
+                                        cipher.getInternalRepresentation(), plain.getInternalRepresentation());
+                }
+            }, plain);
+    }
+
+    /**
+       Starts to sign the data in <em>plain</em> and returns
+       immediately. The result is stored in <em>signature</em>.
+
+       @param plain data that you want to sign
+       @param signature result of the operation
+       @return future, completed with <em>signature</em> or with the GnuPGException of the operation
+
+       @see #encryptAsync(GnuPGKey[], GnuPGData, GnuPGData)
+     */
+    public CompletableFuture<GnuPGData> signAsync(final GnuPGData plain, final GnuPGData signature) throws GnuPGException{
+        if(_passphraseListener == null) throw new GnuPGException("Aborting: No GnuPGPassphraseListener set.");
+        if (plain == null || signature == null) throw new GnuPGException("Parameters not complete or null.");
+
+        return submit(GnuPGMetricsListener.Operation.SIGN, new GnuPGData[]{plain}, signature, new Runnable(){
+                public void run(){
+                    gpgmeOpSignStart(getInternalRepresentation(),
+                                     plain.getInternalRepresentation(), signature.getInternalRepresentation());
+                }
+            }, signature);
+    }
+
+    /**
+       Starts to verify a signature and returns immediately.
+
+       @param signature see verify()
+       @param signed see verify()
+       @param plain see verify()
+       @return future, completed with the GnuPGVerifyResult or with the GnuPGException of the operation
+
+       @see #verify(GnuPGData, GnuPGData, GnuPGData)
+     */
+    public CompletableFuture<GnuPGVerifyResult> verifyAsync(final GnuPGData signature, final GnuPGData signed, final GnuPGData plain) throws GnuPGException{
+        if (signature == null || (signed == null && plain == null))  throw new GnuPGException("Parameters not complete or null.");
+
+        //the result is copied before the caller sees the future, so the context can't be reused earlier
+        return submit(GnuPGMetricsListener.Operation.VERIFY, new GnuPGData[]{signature, signed}, plain, new Runnable(){
+                public void run(){
+                    gpgmeOpVerifyStart(getInternalRepresentation(),
+                                       signature.getInternalRepresentation(),
+                                       internalOrNull(signed),
+                                       internalOrNull(plain));
+                }
+            }, (Void)null)
+            .thenApply(v -> {
+                    try{
+                        return gpgmeVerifyResult(getInternalRepresentation());
+                    }
+                    finally{
+                        Reference.reachabilityFence(this);
+                    }
+                });
     }
 
     /**
@@ -404,41 +1235,144 @@ public class GnuPGContext extends GnuPGPeer{
      */
     public void addSigner(GnuPGKey key) throws GnuPGException{
         if(key == null)  throw new GnuPGException("Parameters not complete or null.");
-        gpgmeAddSigners(getInternalRepresentation(), key.getInternalRepresentation());
+        try{
+            gpgmeAddSigners(getInternalRepresentation(), key.getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+            Reference.reachabilityFence(key);
+        }
     }
 
     /**
        Removes all signers from this context. You add Signers with addSigner().
      */
     public void clearSigners() throws GnuPGException{
-        gpgmeClearSigners(getInternalRepresentation());
+        try{
+            gpgmeClearSigners(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
        Imports a Key (private or public). You can supply the key in ASCII armor.
+       Use importKeys() to get the statistics of the import.
      */
     public void importKey(GnuPGData keydata) throws GnuPGException{
-        gpgmeOpImport(getInternalRepresentation(), keydata.getInternalRepresentation());
+        try{
+            measure(GnuPGMetricsListener.Operation.IMPORT, new GnuPGData[]{keydata}, null, () -> {
+                    gpgmeOpImport(getInternalRepresentation(), keydata.getInternalRepresentation());
+                    return null;
+                });
+        }
+        finally{
+            //even a failed import may have changed some keys
+            keyringChanged(_homeDir, null);
+        }
+    }
+
+    /**
+       Imports all keys (private or public) from <em>keydata</em>,
+       binary or in ASCII armor. Keys, that can't be imported, don't
+       fail the operation: they are counted in the result.
+
+       @param keydata one or more keys
+       @return GnuPGImportResult the counts and the status of each key
+
+       @see com.freiheit.gnupg.GnuPGImportResult
+     */
+    public GnuPGImportResult importKeys(GnuPGData keydata) throws GnuPGException{
+        if(keydata == null) throw new GnuPGException("Parameters not complete or null.");
+        try{
+            return measure(GnuPGMetricsListener.Operation.IMPORT, new GnuPGData[]{keydata}, null,
+                           () -> gpgmeOpImportKeys(getInternalRepresentation(), keydata.getInternalRepresentation()));
+        }
+        finally{
+            keyringChanged(_homeDir, null);
+        }
+    }
+
+    /**
+       Imports all keys from a stream. The keys are pulled from the
+       stream while gpg imports them, so even a keyserver dump of
+       several GB is never held in memory. The stream is not closed.
+
+       @param in one or more keys, binary or in ASCII armor
+       @return GnuPGImportResult the counts and the status of each key
+
+       @see #importKeys(InputStream, int, GnuPGImportListener)
+     */
+    public GnuPGImportResult importKeys(InputStream in) throws GnuPGException{
+        if(in == null) throw new GnuPGException("Parameters not complete or null.");
+        try(GnuPGData keydata = createDataObject(in)){
+            return importKeys(keydata);
+        }
+    }
+
+    /**
+       Imports all keys from a stream in batches of
+       <em>keysPerBatch</em> keys, one gpg run for each batch. The
+       keys of a batch are in the keyring as soon as the listener is
+       told about the batch, so a failure later on (or a crash) does
+       not lose them. Only one batch is held in memory at a time.
+       <p>
+       Binary dumps are split between keys. ASCII armored dumps are
+       split between armor blocks, so an armor block with many keys
+       counts as one key here.
+
+       @param in one or more keys, binary or in ASCII armor
+       @param keysPerBatch number of keys imported in one gpg run
+       @param listener is told about each batch, may be null
+       @return GnuPGImportResult sums of all batches, without the statuses of the keys
+
+       @see com.freiheit.gnupg.GnuPGImportListener
+     */
+    public GnuPGImportResult importKeys(InputStream in, int keysPerBatch, GnuPGImportListener listener)
+        throws IOException, GnuPGException{
+        if(in == null) throw new GnuPGException("Parameters not complete or null.");
+        if(keysPerBatch < 1) throw new GnuPGException("Batch size must be positive.");
+
+        GnuPGKeyBatchReader reader = new GnuPGKeyBatchReader(in, keysPerBatch);
+        GnuPGImportResult total = new GnuPGImportResult();
+        int batch = 0;
+        byte[] keys;
+        while((keys = reader.next()) != null){
+            GnuPGImportResult result;
+            try(GnuPGData keydata = createDataObject(keys)){
+                result = importKeys(keydata);
+            }
+            total = total.sum(result);
+            batch++;
+            if(listener != null){
+                listener.batchImported(batch, result, total);
+            }
+        }
+        return total;
     }
 
     /**
        This calls immediately the release method for the context
-       in the underlying gpgme library. This method is called by
-       the finalizer of the class anyway, but you can call it yourself
-       if you want to get rid of a context at once and don't want to
-       wait for the non-deterministic garbage-collector of the JVM.
+       in the underlying gpgme library. If you don't call it, the
+       context is released some time after this object was garbage
+       collected.
+
+       @see com.freiheit.gnupg.GnuPGNativeHandles
     */
     public void destroy(){
-        if(getInternalRepresentation() != 0){
-            gpgmeRelease(getInternalRepresentation());
+        if(_handle != null){
+            GnuPGNativeHandles.Handle handle = _handle;
+            _handle = null;
             setInternalRepresentation(0);
+            handle.close();
         }
     }
 
     /**
-       Releases underlying datastructures. Simple calls the destroy() method.
+       Same as destroy().
      */
-    protected void finalize(){
+    public void close(){
         destroy();
     }
 
@@ -446,7 +1380,12 @@ public class GnuPGContext extends GnuPGPeer{
     Generates a new Key.
     */
     public void genKey(String params,GnuPGData pub, GnuPGData secret) throws GnuPGException{
-        gpgmeOpGenKey(getInternalRepresentation(),params);
+        try{
+            gpgmeOpGenKey(getInternalRepresentation(),params);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -456,7 +1395,22 @@ public class GnuPGContext extends GnuPGPeer{
 
         // note that this is a pointer to and address in the javagnupg shared lib
         long ctx = getInternalRepresentation();
-        gpgmeCtxSetEngineInfo(ctx,proto,fileName,homeDir);
+        try{
+            gpgmeCtxSetEngineInfo(ctx,proto,fileName,homeDir);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+        _homeDir = homeDir;
+    }
+
+    /**
+       Returns the home directory set with setEngineInfo().
+
+       @return home directory or null, if the default home directory is used
+     */
+    public String getHomeDir(){
+        return _homeDir;
     }
 
     /**
@@ -465,7 +1419,12 @@ public class GnuPGContext extends GnuPGPeer{
      * @return the result of a key generation
      */
     public GnuPGGenkeyResult getGenkeyResult(){
-        return gpgmeOpGenkeyResult(getInternalRepresentation());
+        try{
+            return gpgmeOpGenkeyResult(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
 
     }
 
@@ -476,9 +1435,66 @@ public class GnuPGContext extends GnuPGPeer{
      * @param data empty data object. Will be filled with the keys.
      */
     public void export(String pattern, long reserved, GnuPGData data){
-        gpgmeOpExport(getInternalRepresentation(), pattern, 0, data.getInternalRepresentation());
+        try{
+            gpgmeOpExport(getInternalRepresentation(), pattern, 0, data.getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+            Reference.reachabilityFence(data);
+        }
+    }
+
+
+    /**
+       Exports the keys with the given fingerprints (or any other
+       pattern gpg accepts) and writes them to <em>out</em> while gpg
+       is running, so the keys are never held in memory. The stream
+       is not closed.
+       <p>
+       Pass null to export the whole keyring in a single run of gpg.
+       The patterns are given to gpg on its command line, so a large
+       collection is exported in several runs of EXPORT_BATCH_SIZE
+       patterns each. Armored output then has one armor block per
+       run, which importers read like one.
+
+       @param fingerprints keys to export, null for all keys
+       @param out receives the keys
+       @param mode binary or armor, complete or minimal
+
+       @see com.freiheit.gnupg.GnuPGExportMode
+     */
+    public void exportKeys(Collection<String> fingerprints, OutputStream out, GnuPGExportMode mode) throws GnuPGException{
+        if(out == null || mode == null) throw new GnuPGException("Parameters not complete or null.");
+        if(fingerprints != null && fingerprints.isEmpty()) return;
+
+        boolean armor = isArmor();
+        setArmor(mode.isArmor());
+        try{
+            if(fingerprints == null){
+                exportKeys((String[])null, out, mode);
+                return;
+            }
+            String[] patterns = fingerprints.toArray(new String[fingerprints.size()]);
+            for(int from = 0; from < patterns.length; from += EXPORT_BATCH_SIZE){
+                exportKeys(Arrays.copyOfRange(patterns, from, Math.min(patterns.length, from + EXPORT_BATCH_SIZE)),
+                           out, mode);
+            }
+        }
+        finally{
+            setArmor(armor);
+        }
     }
 
+    private void exportKeys(String[] patterns, OutputStream out, GnuPGExportMode mode){
+        //a stream can't be rewound, so every run needs its own data object
+        try(GnuPGData keydata = createDataObject(out)){
+            measure(GnuPGMetricsListener.Operation.EXPORT, null, keydata, () -> {
+                    gpgmeOpExportExt(getInternalRepresentation(), patterns, mode.getFlags(),
+                                     keydata.getInternalRepresentation());
+                    return null;
+                });
+        }
+    }
 
     /**
      * Deletes a Key from key ring. When allowSecret, a secret Key will be deleted
@@ -486,7 +1502,63 @@ public class GnuPGContext extends GnuPGPeer{
      * @param allowSecret if a secret key shall be deleted.
      */
     public void delete(GnuPGKey key, boolean allowSecret){
-        gpgmeOpDelete(getInternalRepresentation(),key.getInternalRepresentation(),allowSecret);
+        String fingerprint = key.getFingerprint();
+        try{
+            gpgmeOpDelete(getInternalRepresentation(),key.getInternalRepresentation(),allowSecret);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+            Reference.reachabilityFence(key);
+        }
+        keyringChanged(_homeDir, fingerprint);
+    }
+
+    /**
+       Told about the changes, that any context makes to a keyring.
+       GnuPGKeyCache, GnuPGKeyIndex and GnuPGRecipientResolver drop
+       what they know about their keyring.
+     */
+    interface KeyringListener{
+        /**
+           @param deleted fingerprint of the deleted key, null if any key may have changed
+         */
+        void keyringChanged(String deleted);
+    }
+
+    // listener -> home directory; weak: the owner of a listener holds it
+    private static final Map<KeyringListener, String> KEYRING_LISTENERS =
+        Collections.synchronizedMap(new WeakHashMap<KeyringListener, String>());
+
+    /**
+       Registers a listener for the changes of the keyring in the given
+       home directory, as long as the listener is reachable.
+
+       @param homeDir the GnuPG home directory (null is the default home directory)
+       @param l the listener, must be strongly held by its owner
+     */
+    static void addKeyringListener(String homeDir, KeyringListener l){
+        KEYRING_LISTENERS.put(l, homeDir);
+    }
+
+    /**
+       Tells all listeners of the keyring in homeDir about a change.
+
+       @param homeDir the changed keyring
+       @param deleted fingerprint of the deleted key, null if any key may have changed
+     */
+    static void keyringChanged(String homeDir, String deleted){
+        List<KeyringListener> matching = new ArrayList<KeyringListener>();
+        synchronized(KEYRING_LISTENERS){
+            for(Map.Entry<KeyringListener, String> e : KEYRING_LISTENERS.entrySet()){
+                if(homeDir == null ? e.getValue() == null : homeDir.equals(e.getValue())){
+                    matching.add(e.getKey());
+                }
+            }
+        }
+        //outside the lock: the listeners lock their owners
+        for(KeyringListener l : matching){
+            l.keyringChanged(deleted);
+        }
     }
     /* Native methods:
        All these methods are implemented as JNI calls in:
@@ -499,20 +1571,39 @@ public class GnuPGContext extends GnuPGPeer{
     private native void gpgmeGetEngineInfo();
     private native long gpgmeNew();
     private native void gpgmeOpEncrypt(long l, long[] recipientsInternals, long m, long n);
+    private native void gpgmeOpEncryptRecipients(long context, long recipients, long plain, long cipher);
+    private native static long gpgmeRecipientsNew(long[] recipients);
+    private native static void gpgmeRecipientsRelease(long recipients);
     private native void gpgmeOpDecrypt(long l, long m, long n);
     private native void gpgmeOpChangePassphrase(long l, long m );
-    private native void gpgmeRelease(long l);
-    @SuppressWarnings("unused")
-    private native void gpgmeOpEncryptSign(long context, int[] recipients, long plain, long cipher);
-    @SuppressWarnings("unused")
-    private native void gpgmeOpDecryptVerify(long context, long cipher, long plain);
+    private static native void gpgmeRelease(long l);
+    private native void gpgmeOpEncryptSign(long context, long[] recipients, long plain, long cipher);
+    private native GnuPGVerifyResult gpgmeOpDecryptVerify(long context, long cipher, long plain);
     private native void gpgmeOpSign(long context, long l, long m);
-    private native void gpgmeOpVerify(long context, long l, long m, long n);
+    private native GnuPGVerifyResult gpgmeOpVerify(long context, long signature, long signed, long plain);
+    private native void gpgmeOpEncryptStart(long context, long[] recipients, long plain, long cipher);
+    private native void gpgmeOpDecryptStart(long context, long cipher, long plain);
+    private native void gpgmeOpSignStart(long context, long plain, long signature);
+    private native void gpgmeOpVerifyStart(long context, long signature, long signed, long plain);
+
+    private native GnuPGVerifyResult gpgmeVerifyResult(long context);
     private native GnuPGKey[] gpgmeKeylist(long l, String query);
+    private native GnuPGKeySnapshot[] gpgmeKeylistSnapshots(long context, String[] patterns, int projection);
+
+    private native int gpgmeGetKeylistMode(long context);
+
+    private native void gpgmeSetKeylistMode(long context, int mode);
+    private native void gpgmeKeylistStart(long context, String query);
+    private native long gpgmeKeylistNext(long context);
+    private native void gpgmeKeylistEnd(long context);
     private native void gpgmeAddSigners(long l, long m);
     private native void gpgmeClearSigners(long context);
     private native void gpgmeOpImport(long context, long l);
+
+    private native GnuPGImportResult gpgmeOpImportKeys(long context, long keydata);
     private native void gpgmeOpExport(long context, String pattern, long reserved, long l);
+
+    private native void gpgmeOpExportExt(long context, String[] patterns, int mode, long keydata);
     private native void gpgmeOpGenKey(long context,String params);
     private native void gpgmeCtxSetEngineInfo(long context,int proto,String fileName,String homeDir);
     private native GnuPGGenkeyResult gpgmeOpGenkeyResult(long context);
@@ -524,123 +1615,21 @@ public class GnuPGContext extends GnuPGPeer{
     private native long gpgmeGetTextmode(long l);
     private native void gpgmeSetTextmode(long l, long state);
 
-    private static final String NATIVE_LIBRARY_BASENAME = "libjavagnupg";
-
     /*
-      It is not possible, to load a shared library directly
-      from a Jar-Archive. But there is an acceptable workaround:
-      - Put the shared library in the Jar-Archive
-      - When the classes get loaded:
-        - read the shared library from the Jar-Archive
-        - save it to the standard temp location in the file systems on this platform
-        - load it from there
-        - tell java, to automatically get rid of the lib, when the JVM exits (deleteOnExit)
-
-      This way, the library containing the JNI calls must not be installed extra.
-      It is delivered inside the Jar-Archive, stored temporarily and disappears on exit.
+      Loads the native library, see GnuPGLibraryLoader. If this
+      fails, the reason is logged and the first native call throws an
+      UnsatisfiedLinkError. Call GnuPGLibraryLoader.load() yourself to
+      get the failure as a checked exception.
      */
     static {
-        // TODO all this guessing is still rather rough, however it will work
-        // with most *ix systems and *MAY* work with Windows once we've come
-        // to test such a setup...
-        String nativeLibraryExtension = getNativeLibraryExtension();
-
-        System.out.println("guessed native library extension " + nativeLibraryExtension);
-
-        String libName = getNativeLibraryName();
-
-        System.out.println("guessed native library name " + libName);
-
         try{
-            InputStream in = GnuPGContext.class.getResource(libName).openStream();
-            File tempLib = File.createTempFile(NATIVE_LIBRARY_BASENAME, "." + nativeLibraryExtension);
-            FileOutputStream out = new FileOutputStream(tempLib);
-            byte[] buf = new byte[4096];
-            for (int i = in.read(buf); i != -1; i = in.read(buf)){
-                out.write(buf, 0, i);
-            }
-            out.close();
-            tempLib.deleteOnExit();
-            System.out.println("Trying to load temporary library: " +  tempLib.getPath());
-            System.load(tempLib.getPath());
+            GnuPGLibraryLoader.load();
             //This call is really important, as it initializes the GPGME thread system!!!!
-            gpgmeCheckVersion();//FIXME: But: This is NOT working correctly!!!
-            //----------------------------------------------------------------------------
-        }
-        catch(Throwable e){
-            System.out.println("Unable to load shared library from Jar-File.");
-            System.out.println("Maybe GnuPG for Java is not allowed to write to your disk? (Access problems?)");
-            System.out.println("Or the used GnuPG jar-file is not compiled for the current environment/architecture (JavaGnuPG is platform dependent!).");
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-
-
-    /**
-     * Determines the native library name for the system this is running on.
-     * If running on unix, we also try to guess the architecture's bit-ness
-     * which has an impact on the library's name
-     * @return the name
-     */
-    private static String getNativeLibraryName() {
-
-        // if all fails we assume windblows
-        String libName = "/c/javagnupg";
-
-        try {
-            ProcessBuilder pb = new ProcessBuilder(new String[] { "/bin/uname", "-m" });
-            pb.redirectErrorStream(true);
-            Process p = pb.start();
-            InputStreamReader isr = new InputStreamReader(p.getInputStream());
-            BufferedReader br = new BufferedReader(isr);
-
-            StringBuilder sb = new StringBuilder();
-            String line = null;
-
-            while ((line = br.readLine()) != null) {
-                //System.out.println(line);
-                sb.append(line + "\n");
-            }
-
-            String uName = sb.toString().trim();
-            libName = uName.endsWith("_64") ? "/c/libjavagnupg.64" : "/c/libjavagnupg.32";
-        } catch (Exception e) {
-            System.err.println("Cannot execute 'uname'. Probably running on a non unix environment.");
-            /* nothing here, may add some debug output */
-            e.printStackTrace();
+            gpgmeCheckVersion();
         }
-
-        return libName + "." + getNativeLibraryExtension();
-    }
-
-    /**
-     * Guesses the native library extension for the system this is running on.
-     * On unix systems, the extension is "so", on windows it is "dll".
-     * @return the extension
-     */
-    private static String getNativeLibraryExtension() {
-
-        // try to detect a unix system
-        File libDir = null;
-        for (String dirName : new String[] { "/lib", "/usr/lib" }) {
-            libDir = new File(dirName);
-            if (libDir.exists() && libDir.isDirectory()) {
-                String[] found = libDir.list();
-                if (found != null && found.length > 0) {
-                    for (String file : found) {
-                        // if we find any file matching lib*.so, we assume unix
-                        if (file.startsWith("lib") && file.endsWith(".so")) {
-                            return "so";
-                        }
-                    }
-                }
-            }
+        catch(GnuPGLibraryException e){
+            //already logged by the loader
         }
-
-        // could not detect a unix system? assume winblows...
-        return "dll";
     }
 }
 
@@ -0,0 +1,461 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+   A pool of preconfigured GnuPGContexts for multithreaded programs
+   (like servlets). A GnuPGContext must only be used by one thread at
+   a time, but creating a new context for every request is expensive.
+   The pool lends contexts to threads and takes them back afterwards.
+   <p>
+   All contexts of a pool share the same configuration (armor, text
+   mode, keylist mode, engine info, signers, passphrase listener, key cache and
+   metrics listener).
+   Configure the pool before you borrow the first context. When a
+   context is returned, the configuration is restored, so changes a
+   borrower made don't leak to the next one.
+   <p>
+   <em>How to use a pool?</em>
+   <pre>
+   {@code
+     GnuPGContextPool pool = new GnuPGContextPool(8);
+     pool.setEngineInfo(GnuPGContextPool.OPENPGP, null, "/var/lib/gnupg");
+     pool.addSigner(fingerprint);
+
+     try(GnuPGContextPool.Lease lease = pool.borrow()){
+         GnuPGContext ctx = lease.getContext();
+         ctx.sign(plain, signature);
+     }
+   }
+   </pre>
+
+   @see com.freiheit.gnupg.GnuPGContext
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGContextPool{
+    /** The OpenPGP protocol, use it with setEngineInfo(). */
+    public static final int OPENPGP = 0;
+
+    private final int _maxSize;
+    private final Semaphore _permits;
+    private final LinkedBlockingDeque<GnuPGContext> _idle = new LinkedBlockingDeque<GnuPGContext>();
+    private volatile boolean _closed = false;
+
+    //configuration of every context
+    private volatile boolean _armor = true;
+    private volatile boolean _textmode = true;
+    private volatile int _keylistMode = GnuPGContext.KEYLIST_MODE_LOCAL | GnuPGContext.KEYLIST_MODE_SIGS;
+    private volatile int _protocol = OPENPGP;
+    private volatile String _fileName = null;
+    private volatile String _homeDir = null;
+    private final List<GnuPGKey> _signers = new ArrayList<GnuPGKey>();
+    private volatile GnuPGPassphraseListener _passphraseListener = null;
+    private volatile GnuPGKeyCache _keyCache = null;
+    private volatile GnuPGMetricsListener _metricsListener = null;
+
+    //metrics
+    private final AtomicInteger _active = new AtomicInteger();
+    private final AtomicLong _borrowCount = new AtomicLong();
+    private final AtomicLong _totalWaitNanos = new AtomicLong();
+    private final AtomicLong _maxWaitNanos = new AtomicLong();
+    private final AtomicLong _createdCount = new AtomicLong();
+    private final AtomicLong _discardedCount = new AtomicLong();
+
+    /**
+       Creates an empty pool. Contexts are created on demand.
+
+       @param maxSize maximum number of contexts, that exist at the same time
+     */
+    public GnuPGContextPool(int maxSize){
+        if(maxSize < 1){
+            throw new GnuPGException("Pool size must be positive.");
+        }
+        _maxSize = maxSize;
+        _permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+       Use ASCII armor for all contexts (default: true).
+
+       @param state see GnuPGContext.setArmor()
+     */
+    public void setArmor(boolean state){
+        _armor = state;
+    }
+
+    /**
+       Use text mode for all contexts (default: true).
+
+       @param state see GnuPGContext.setTextmode()
+     */
+    public void setTextmode(boolean state){
+        _textmode = state;
+    }
+
+    /**
+       Sets the keylist mode of all contexts (default:
+       KEYLIST_MODE_LOCAL | KEYLIST_MODE_SIGS).
+
+       @param mode see GnuPGContext.setKeylistMode()
+     */
+    public void setKeylistMode(int mode){
+        _keylistMode = mode;
+    }
+
+    /**
+       Sets the engine info for all contexts.
+
+       @param proto protocol, see GnuPGContext.getProtocol()
+       @param fileName gpg executable, null for the default
+       @param homeDir GnuPG home directory, null for the default
+
+       @see com.freiheit.gnupg.GnuPGContext#setEngineInfo(int, String, String)
+     */
+    public void setEngineInfo(int proto, String fileName, String homeDir){
+        _protocol = proto;
+        _fileName = fileName;
+        _homeDir = homeDir;
+    }
+
+    /**
+       @return the GnuPG home directory of the contexts, null for the default
+     */
+    String getHomeDir(){
+        return _homeDir;
+    }
+
+    /**
+       Adds a signer to all contexts. The key is looked up once, now:
+       call setEngineInfo() first, if the key is in another keyring.
+
+       @param fingerprint fingerprint of the signing key
+     */
+    public void addSigner(String fingerprint){
+        if(fingerprint == null) throw new GnuPGException("Parameters not complete or null.");
+        GnuPGContext ctx = new GnuPGContext();
+        try{
+            ctx.setEngineInfo(_protocol, _fileName, _homeDir);
+            GnuPGKey key = ctx.getKeyByFingerprint(fingerprint);
+            synchronized(_signers){
+                _signers.add(key);
+            }
+        }
+        finally{
+            //the key doesn't need the context
+            ctx.destroy();
+        }
+    }
+
+    /**
+       Sets the passphrase listener of all contexts.
+
+       @param l listener, see GnuPGContext.setPassphraseListener()
+     */
+    public void setPassphraseListener(GnuPGPassphraseListener l){
+        _passphraseListener = l;
+    }
+
+    /**
+       Attaches a key cache to all contexts.
+
+       @param cache key cache, see GnuPGContext.setKeyCache()
+     */
+    public void setKeyCache(GnuPGKeyCache cache){
+        _keyCache = cache;
+    }
+
+    /**
+       Attaches a metrics listener to all contexts.
+
+       @param l listener, see GnuPGContext.setMetricsListener()
+     */
+    public void setMetricsListener(GnuPGMetricsListener l){
+        _metricsListener = l;
+    }
+
+    /**
+       Borrows a context. Waits, until a context is available.
+       Return the context with Lease.close().
+
+       @return Lease holding the borrowed context
+     */
+    public Lease borrow() throws InterruptedException, GnuPGException{
+        long start = System.nanoTime();
+        _permits.acquire();
+        return lend(start);
+    }
+
+    /**
+       Borrows a context. Waits at most <em>timeout</em> until a
+       context is available. Return the context with Lease.close().
+
+       @param timeout how long to wait
+       @param unit unit of timeout
+       @return Lease holding the borrowed context
+       @throws GnuPGException if no context was available in time
+     */
+    public Lease borrow(long timeout, TimeUnit unit) throws InterruptedException, GnuPGException{
+        long start = System.nanoTime();
+        if(!_permits.tryAcquire(timeout, unit)){
+            throw new GnuPGException("No GnuPGContext available within " + timeout + " " + unit + ".");
+        }
+        return lend(start);
+    }
+
+    private Lease lend(long start){
+        try{
+            if(_closed){
+                throw new GnuPGException("GnuPGContextPool is closed.");
+            }
+            GnuPGContext ctx = _idle.pollFirst();
+            if(ctx == null){
+                ctx = createContext();
+            }
+            recordWait(System.nanoTime() - start);
+            _active.incrementAndGet();
+            return new Lease(ctx);
+        }
+        catch(RuntimeException e){
+            _permits.release();
+            throw e;
+        }
+    }
+
+    private GnuPGContext createContext(){
+        GnuPGContext ctx = new GnuPGContext();
+        try{
+            configure(ctx);
+        }
+        catch(RuntimeException e){
+            ctx.destroy();
+            throw e;
+        }
+        _createdCount.incrementAndGet();
+        return ctx;
+    }
+
+    /**
+       Applies the pool configuration to a context.
+     */
+    private void configure(GnuPGContext ctx){
+        //a borrower may have switched to another keyring
+        ctx.setEngineInfo(_protocol, _fileName, _homeDir);
+        ctx.setArmor(_armor);
+        ctx.setTextmode(_textmode);
+        ctx.setKeylistMode(_keylistMode);
+        ctx.setPassphraseListener(_passphraseListener);
+        ctx.setKeyCache(_keyCache);
+        ctx.setMetricsListener(_metricsListener);
+        ctx.clearSigners();
+        synchronized(_signers){
+            for(GnuPGKey key : _signers){
+                //gpgme holds its own reference for the signer
+                ctx.addSigner(key);
+            }
+        }
+    }
+
+    /**
+       Takes a context back. Broken contexts are thrown away.
+     */
+    private void giveBack(GnuPGContext ctx, boolean broken){
+        _active.decrementAndGet();
+        try{
+            if(broken || _closed || ctx.getInternalRepresentation() == 0){
+                discard(ctx);
+            }
+            else{
+                try{
+                    configure(ctx);
+                    _idle.offerFirst(ctx);
+                }
+                catch(RuntimeException e){
+                    discard(ctx);
+                }
+            }
+        }
+        finally{
+            _permits.release();
+        }
+    }
+
+    private void discard(GnuPGContext ctx){
+        ctx.destroy();
+        _discardedCount.incrementAndGet();
+    }
+
+    private void recordWait(long nanos){
+        _borrowCount.incrementAndGet();
+        _totalWaitNanos.addAndGet(nanos);
+        long max = _maxWaitNanos.get();
+        while(nanos > max && !_maxWaitNanos.compareAndSet(max, nanos)){
+            max = _maxWaitNanos.get();
+        }
+    }
+
+    /**
+       Destroys all idle contexts. Borrowed contexts are destroyed,
+       when they are returned. Afterwards, nothing can be borrowed.
+     */
+    public void close(){
+        _closed = true;
+        GnuPGContext ctx;
+        while((ctx = _idle.pollFirst()) != null){
+            discard(ctx);
+        }
+        //borrowed contexts hold their own references on the signers
+        synchronized(_signers){
+            for(GnuPGKey key : _signers){
+                key.destroy();
+            }
+            _signers.clear();
+        }
+    }
+
+    /**
+       @return maximum number of contexts in this pool
+     */
+    public int getMaxSize(){
+        return _maxSize;
+    }
+
+    /**
+       @return number of contexts currently borrowed
+     */
+    public int getActiveCount(){
+        return _active.get();
+    }
+
+    /**
+       @return number of contexts waiting to be borrowed
+     */
+    public int getIdleCount(){
+        return _idle.size();
+    }
+
+    /**
+       @return fraction of the pool currently borrowed (0.0 to 1.0)
+     */
+    public double getUtilization(){
+        return (double)_active.get() / _maxSize;
+    }
+
+    /**
+       @return number of threads currently waiting for a context
+     */
+    public int getWaitingCount(){
+        return _permits.getQueueLength();
+    }
+
+    /**
+       @return number of successful borrows since the pool was created
+     */
+    public long getBorrowCount(){
+        return _borrowCount.get();
+    }
+
+    /**
+       @return sum of the time all borrowers waited for a context, in nanoseconds
+     */
+    public long getTotalWaitTime(){
+        return _totalWaitNanos.get();
+    }
+
+    /**
+       @return average time a borrower waited for a context, in nanoseconds
+     */
+    public long getAverageWaitTime(){
+        long count = _borrowCount.get();
+        return (count == 0) ? 0 : _totalWaitNanos.get() / count;
+    }
+
+    /**
+       @return longest time a borrower waited for a context, in nanoseconds
+     */
+    public long getMaxWaitTime(){
+        return _maxWaitNanos.get();
+    }
+
+    /**
+       @return number of contexts created since the pool was created
+     */
+    public long getCreatedCount(){
+        return _createdCount.get();
+    }
+
+    /**
+       @return number of contexts thrown away because they were broken or the pool was closed
+     */
+    public long getDiscardedCount(){
+        return _discardedCount.get();
+    }
+
+    /**
+       A borrowed context. Closing the lease returns the context to
+       the pool. Don't use the context after closing its lease.
+     */
+    public class Lease implements AutoCloseable{
+        private GnuPGContext _context;
+        private boolean _broken = false;
+
+        private Lease(GnuPGContext context){
+            _context = context;
+        }
+
+        /**
+           @return the borrowed context
+         */
+        public GnuPGContext getContext(){
+            if(_context == null){
+                throw new GnuPGException("Lease is already closed.");
+            }
+            return _context;
+        }
+
+        /**
+           Marks the context as broken. It is destroyed instead of
+           being returned to the pool, when the lease is closed.
+         */
+        public void invalidate(){
+            _broken = true;
+        }
+
+        /**
+           Returns the context to the pool. Closing twice does no harm.
+         */
+        public void close(){
+            if(_context != null){
+                GnuPGContext ctx = _context;
+                _context = null;
+                giveBack(ctx, _broken);
+            }
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
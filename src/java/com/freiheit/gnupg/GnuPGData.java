@@ -15,17 +15,30 @@
 package com.freiheit.gnupg;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
    Holds the data that you want to work on and stores the results
-   of crypto operations.
+   of crypto operations. Close a data object, when you don't need
+   it anymore (or use try-with-resources).
 
    @author Stefan Richter, stefan@freiheit.com
  */
-public class GnuPGData extends GnuPGPeer{
+public class GnuPGData extends GnuPGPeer implements AutoCloseable{
+    // gpgme works directly on the memory of this buffer, so it must not be gc'ed before us
+    private ByteBuffer _buffer = null;
+    private int _bufferOffset = 0;
+    // the file, that gpgme reads from or writes to, closed in destroy()
+    private Closeable _file = null;
+    private GnuPGNativeHandles.Handle _handle = null;
 
     /**
        Use the factory methods from GnuPGContext to
@@ -35,22 +48,9 @@ public class GnuPGData extends GnuPGPeer{
        operation.
      */
     protected GnuPGData(){
-        setInternalRepresentation(gpgmeDataNew());
+        track(gpgmeDataNew());
     }
 
-    /*
-       Use the factory methods from GnuPGContext to
-       generate GnuPGData-Objects.
-       FIXME: This is not working! Use it, and it will crash the JVM.
-    */
-//     public GnuPGData(File f) throws IOException{
-//         this();
-//         if(f != null && f.exists() && !f.isDirectory() && f.canRead()){
-//             FileInputStream fin = new FileInputStream(f);
-//             this.read(fin);
-//         }
-//     }
-
     /**
        Use the factory methods from GnuPGContext to
        generate GnuPGData-Objects.
@@ -70,19 +70,162 @@ public class GnuPGData extends GnuPGPeer{
        @param data your data
      */
     protected GnuPGData(byte[] data){
-        long gpgmeDataNewFromMem = gpgmeDataNewFromMem(data);
-        setInternalRepresentation(gpgmeDataNewFromMem);
+        track(gpgmeDataNewFromMem(data));
     }
 
+    /**
+       Use the factory methods from GnuPGContext to
+       generate GnuPGData-Objects.
+       Generates a data object, that pulls its content from the given
+       InputStream while a crypto operation is running. The stream is
+       read in small chunks, so the data is never held completely in
+       memory. The stream is not closed by this object.
+       <p>
+       Such a data object can only be consumed once, because a stream
+       can not be rewound.
 
-    /*
-       FIXME: This is not working! Use it, and it will crash the JVM.
-    */
-//     public void read(InputStream in) throws IOException{
-//         if(in != null){
-//             gpgmeDataRead(getInternalRepresentation(), in);
-//         }
-//     }
+       @param in stream to read the data from
+     */
+    protected GnuPGData(InputStream in){
+        track(gpgmeDataNewFromCbs(in, null));
+    }
+
+    /**
+       Use the factory methods from GnuPGContext to
+       generate GnuPGData-Objects.
+       Generates a data object, that pushes the result of a crypto
+       operation chunk by chunk to the given OutputStream while the
+       operation is running. The stream is neither flushed nor closed
+       by this object.
+
+       @param out stream to write the result to
+     */
+    protected GnuPGData(OutputStream out){
+        track(gpgmeDataNewFromCbs(null, out));
+    }
+
+
+    /**
+       Use the factory methods from GnuPGContext to
+       generate GnuPGData-Objects.
+       Generates a data object, that works directly on the memory of
+       the given direct ByteBuffer. Nothing is copied: as input, gpgme
+       reads the bytes between position and limit; as output, the data
+       starts empty and gpgme writes the result of an operation into
+       the space between position and limit.
+       Use getByteBuffer() to see the result.
+
+       @param buffer a direct ByteBuffer
+       @param output true, if the data object receives the result of an operation
+     */
+    protected GnuPGData(ByteBuffer buffer, boolean output){
+        if(!buffer.isDirect()){
+            throw new GnuPGException("Only direct ByteBuffers can be used as GnuPGData.");
+        }
+        _buffer = buffer;
+        _bufferOffset = buffer.position();
+        track(gpgmeDataNewFromBuffer(buffer, buffer.position(), buffer.limit(), output));
+    }
+
+    /**
+       Use the factory methods from GnuPGContext to
+       generate GnuPGData-Objects.
+       Generates a data object, that reads from or writes to the given
+       file descriptor. gpgme accesses the file directly, the data never
+       passes the Java heap. This data object takes ownership of the
+       file and closes it in destroy().
+
+       @param file the open file (for example a FileInputStream)
+       @param fd the descriptor of file
+     */
+    protected GnuPGData(Closeable file, FileDescriptor fd){
+        _file = file;
+        track(gpgmeDataNewFromFd(fd));
+    }
+
+    /**
+       Use the factory methods from GnuPGContext to
+       generate GnuPGData-Objects.
+       Generates a read only data object, that maps the first
+       <em>length</em> bytes of the given file into memory. gpgme reads
+       directly from the mapping. The mapping stays valid after the file
+       is closed and is removed in destroy().
+
+       @param fd a file opened for reading
+       @param length number of bytes to map, must be greater than 0
+     */
+    protected GnuPGData(FileDescriptor fd, long length){
+        track(gpgmeDataNewFromMappedFd(fd, length));
+    }
+
+    /**
+       Use the factory methods from GnuPGContext to
+       generate GnuPGData-Objects.
+       Generates a data object, that reads from or writes to the given
+       FileChannel at its current position. gpgme hands its own buffers
+       to the channel, so the data never passes the Java heap.
+       The channel is not closed by this object.
+
+       @param channel an open FileChannel
+     */
+    protected GnuPGData(FileChannel channel){
+        track(gpgmeDataNewFromChannel(channel));
+    }
+
+    /**
+       Returns the content of a data object, that was generated from a
+       direct ByteBuffer. The returned buffer is a view on the original
+       buffer: its position is the start of the data, its limit the end
+       of the data (for example the end of an encryption result). An
+       output data object, that nothing was written to, is empty.
+
+       @return ByteBuffer view on the data or null, if this data object is not backed by a ByteBuffer
+     */
+    public ByteBuffer getByteBuffer(){
+        if(_buffer == null){
+            return null;
+        }
+        long length;
+        try{
+            length = gpgmeDataLength(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+        ByteBuffer result = _buffer.duplicate();
+        result.limit(_bufferOffset + (int)length);
+        result.position(_bufferOffset);
+        return result;
+    }
+
+    /**
+       Writes the data/string contained in this data object
+       directly into the memory of the given direct ByteBuffer,
+       starting at its position. The position is advanced by the
+       number of bytes written. No Java objects are allocated for this.
+
+       @param out a direct ByteBuffer with enough space for the data
+       @throws BufferOverflowException if the data does not fit into out
+     */
+    public void write(ByteBuffer out){
+        if(out == null){
+            return;
+        }
+        if(!out.isDirect()){
+            throw new GnuPGException("Only direct ByteBuffers can be written to.");
+        }
+        long written;
+        try{
+            written = gpgmeDataReadToBuffer(getInternalRepresentation(), out, out.position(), out.limit());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+        if(written < 0){
+            throw new BufferOverflowException();
+        }
+        out.position(out.position() + (int)written);
+    }
 
     /**
        Writes the data/string contained in this data object
@@ -92,7 +235,12 @@ public class GnuPGData extends GnuPGPeer{
      */
     public void write(OutputStream out) throws IOException{
         if (out != null) {
-            gpgmeDataWrite(getInternalRepresentation(), out);
+            try{
+                gpgmeDataWrite(getInternalRepresentation(), out);
+            }
+            finally{
+                Reference.reachabilityFence(this);
+            }
         }
     }
 
@@ -116,31 +264,89 @@ public class GnuPGData extends GnuPGPeer{
 
     /**
        This calls immediately the release method for the datastructure
-       in the underlying gpgme library. This method is called by
-       the finalizer of the class anyway, but you can call it yourself
-       if you want to get rid of this datastructure at once and don't want to
-       wait for the non-deterministic garbage-collector of the JVM.
+       in the underlying gpgme library. If you don't call it, the
+       datastructure is released some time after this object was
+       garbage collected.
+
+       @see com.freiheit.gnupg.GnuPGNativeHandles
     */
     public void destroy(){
-        if(getInternalRepresentation() != 0){
-            gpgmeDataRelease(getInternalRepresentation());
+        if(_handle != null){
+            GnuPGNativeHandles.Handle handle = _handle;
+            _handle = null;
+            _file = null;
             setInternalRepresentation(0);
+            handle.close();
         }
     }
 
     /**
-       Releases underlying datastructures. Simple calls the destroy() method.
+       Same as destroy().
      */
-    protected void finalize(){
+    public void close(){
         destroy();
     }
 
+    private void track(long ptr){
+        setInternalRepresentation(ptr);
+        if(ptr != 0){
+            _handle = GnuPGNativeHandles.register(this, GnuPGNativeHandles.Kind.DATA, ptr, new Release(_file));
+        }
+    }
+
+    /**
+       Releases the datastructure and closes the file. Must not
+       reference the data object, see GnuPGNativeHandles.
+     */
+    private static class Release implements GnuPGNativeHandles.Release{
+        private final Closeable _file;
+
+        Release(Closeable file){
+            _file = file;
+        }
+
+        public void release(long ptr){
+            gpgmeDataRelease(ptr);
+            if(_file != null){
+                try{
+                    _file.close();
+                }
+                catch(IOException e){
+                    // nothing left to do with the file, gpgme is done with it
+                }
+            }
+        }
+    }
+
+    /**
+       Used by GnuPGContext to count the bytes of an operation: after
+       the operation, the position is the number of bytes read from
+       or written to this data object.
+
+       @return current read/write position, -1 if unknown
+     */
+    long position(){
+        long ptr = getInternalRepresentation();
+        try{
+            return (ptr == 0) ? -1 : gpgmeDataPosition(ptr);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+    }
+
     private native long gpgmeDataNewFromMem(byte[] plain);
     private native long gpgmeDataNew();
     private native void gpgmeDataWrite(long l, OutputStream out) throws IOException;
-    private native void gpgmeDataRelease(long l);
-    @SuppressWarnings("unused")
-    private native void gpgmeDataRead(long data, InputStream in) throws IOException;
+    private native long gpgmeDataNewFromCbs(InputStream in, OutputStream out);
+    private native long gpgmeDataNewFromBuffer(ByteBuffer buffer, int position, int limit, boolean output);
+    private native long gpgmeDataNewFromFd(FileDescriptor fd);
+    private native long gpgmeDataNewFromMappedFd(FileDescriptor fd, long length);
+    private native long gpgmeDataNewFromChannel(FileChannel channel);
+    private native long gpgmeDataLength(long l);
+    private native long gpgmeDataPosition(long l);
+    private native long gpgmeDataReadToBuffer(long l, ByteBuffer out, int position, int limit);
+    private static native void gpgmeDataRelease(long l);
 }
 /*
  * Local variables:
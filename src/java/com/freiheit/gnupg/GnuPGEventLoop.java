@@ -0,0 +1,248 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+   Drives the asynchronous operations of all contexts. One dispatcher
+   thread starts the operations and polls the file descriptors of all
+   running ones, and a small pool of completion threads completes the
+   futures, so dependent stages never block the dispatcher. submit()
+   only queues the operation and wakes the dispatcher up, so a new
+   operation is picked up at once, even while the others are idle.
+   <p>
+   All gpgme callbacks of running operations (passphrase listener,
+   stream backed data) are called from the dispatcher thread. Don't
+   block in them for long, it stalls all other operations.
+
+   @see com.freiheit.gnupg.GnuPGContext#encryptAsync(GnuPGKey[], GnuPGData, GnuPGData)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+class GnuPGEventLoop implements Runnable{
+    private static final Logger LOG = Logger.getLogger(GnuPGEventLoop.class.getName());
+    private static final int COMPLETION_THREADS = 2;
+    private static GnuPGEventLoop _instance = null;
+
+    // running operations by gpgme context pointer
+    private final Map<Long, Operation<?>> _pending = new ConcurrentHashMap<Long, Operation<?>>();
+    // operations, that the dispatcher has to start
+    private final Queue<Operation<?>> _starts = new ConcurrentLinkedQueue<Operation<?>>();
+    private final ExecutorService _completion;
+
+    private GnuPGEventLoop(){
+        gpgmeLoopInit();
+        _completion = Executors.newFixedThreadPool(COMPLETION_THREADS, new DaemonThreadFactory("gnupg-completion-"));
+        Thread dispatcher = new DaemonThreadFactory("gnupg-dispatcher-").newThread(this);
+        dispatcher.start();
+    }
+
+    /**
+       The dispatcher thread is started with the first asynchronous operation.
+     */
+    static synchronized GnuPGEventLoop getInstance(){
+        if(_instance == null){
+            _instance = new GnuPGEventLoop();
+        }
+        return _instance;
+    }
+
+    /**
+       Queues an operation and returns the future for its result.
+       The context and the data objects are held until the operation
+       is done, so they are not cleaned up while gpgme uses them.
+       If the operation can't be started, the future fails.
+
+       @param context runs the operation, must not be busy
+       @param starter calls the gpgme_op_*_start function, runs on the dispatcher thread
+       @param result value of the future on success
+       @param data all data objects of the operation
+     */
+    <T> CompletableFuture<T> submit(GnuPGContext context, Runnable starter, T result, GnuPGData... data){
+        long ptr = context.getInternalRepresentation();
+        if(ptr == 0){
+            throw new GnuPGException("GnuPGContext is already destroyed.");
+        }
+        Operation<T> op = new Operation<T>(ptr, starter, context, result, data);
+        synchronized(this){
+            if(_pending.putIfAbsent(ptr, op) != null){
+                throw new GnuPGException("GnuPGContext is busy with another asynchronous operation.");
+            }
+            _starts.add(op);
+            notifyAll();
+        }
+        //the dispatcher may hang in poll() on the fds of the running operations
+        gpgmeWakeUp();
+        return op.future;
+    }
+
+    /**
+       Starts the queued operations, called on the dispatcher thread.
+       The contexts get the io callbacks of our event loop first, so
+       gpgme registers their file descriptors with it.
+     */
+    private void startQueued(){
+        Operation<?> op;
+        while((op = _starts.poll()) != null){
+            try{
+                gpgmeSetIoCbs(op.ptr);
+                op.starter.run();
+            }
+            catch(Throwable t){
+                _pending.remove(op.ptr);
+                complete(op, 0, t);
+            }
+        }
+    }
+
+    /**
+       The dispatcher thread.
+     */
+    public void run(){
+        long[] status = new long[1];
+        Throwable[] failure = new Throwable[1];
+        while(true){
+            try{
+                synchronized(this){
+                    while(_pending.isEmpty() && _starts.isEmpty()){
+                        wait();
+                    }
+                }
+                startQueued();
+                if(_pending.isEmpty()){
+                    continue;
+                }
+                status[0] = 0;
+                failure[0] = null;
+                long ptr = gpgmeWaitAny(status, failure);
+                if(ptr == 0){
+                    //woken up to start new operations
+                    if(status[0] != 0){
+                        //the event loop itself is broken: nobody will finish
+                        failAll(status[0]);
+                    }
+                    continue;
+                }
+                Operation<?> op = _pending.remove(ptr);
+                if(op != null){
+                    complete(op, status[0], failure[0]);
+                }
+            }
+            catch(InterruptedException e){
+                return;
+            }
+            catch(Throwable t){
+                //keep dispatching, the other operations still need us
+                LOG.log(Level.SEVERE, "Error in the gnupg event loop.", t);
+            }
+        }
+    }
+
+    private void complete(final Operation<?> op, final long status, final Throwable failure){
+        _completion.execute(new Runnable(){
+                public void run(){
+                    op.complete(status, failure);
+                }
+            });
+    }
+
+    private void failAll(long status){
+        for(Long ptr : _pending.keySet()){
+            Operation<?> op = _pending.remove(ptr);
+            if(op != null){
+                complete(op, status, null);
+            }
+        }
+    }
+
+    private static class Operation<T>{
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        final long ptr;
+        // holds everything the start call needs (e.g. the recipient keys) until it ran
+        final Runnable starter;
+        // only held to keep them reachable while gpgme uses them
+        final GnuPGContext context;
+        final T result;
+        final GnuPGData[] data;
+
+        Operation(long ptr, Runnable starter, GnuPGContext context, T result, GnuPGData[] data){
+            this.ptr = ptr;
+            this.starter = starter;
+            this.context = context;
+            this.result = result;
+            this.data = data;
+        }
+
+        void complete(long status, Throwable failure){
+            if(failure instanceof GnuPGException){
+                future.completeExceptionally(failure);
+                return;
+            }
+            if(failure != null){
+                //e.g. an IOException of a stream: like the synchronous operations
+                future.completeExceptionally(new GnuPGException("Operation failed: " + failure, 0, failure));
+                return;
+            }
+            try{
+                gpgmeCheckStatus(status);
+                future.complete(result);
+            }
+            catch(GnuPGException e){
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+       Threads, that don't keep the JVM alive. Also used by GnuPGOrderedExecutor.
+     */
+    static class DaemonThreadFactory implements ThreadFactory{
+        private final String _prefix;
+        private final AtomicInteger _count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix){
+            _prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r){
+            Thread t = new Thread(r, _prefix + _count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    private static native void gpgmeLoopInit();
+    private static native void gpgmeWakeUp();
+    private static native void gpgmeSetIoCbs(long context);
+    private static native long gpgmeWaitAny(long[] status, Throwable[] failure);
+    private static native void gpgmeCheckStatus(long status);
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -24,6 +24,8 @@ public class GnuPGException extends RuntimeException{
 
     private static final long serialVersionUID = -775599686124698560L;
 
+    private final int _errorCode;
+
     /**
        This Exception is normally only thrown from 
        within the native part of this library. 
@@ -31,7 +33,42 @@ public class GnuPGException extends RuntimeException{
        @param msg is an error message text from gpgme
      */
     GnuPGException(String msg) {
+        this(msg, 0);
+    }
+
+    /**
+       Thrown from within the native part of this library.
+
+       @param msg is an error message text from gpgme
+       @param errorCode the gpgme error code
+     */
+    GnuPGException(String msg, int errorCode) {
         super(msg);
+        _errorCode = errorCode;
+    }
+
+    /**
+       Thrown from within the native part of this library, if a
+       callback of the operation failed, e.g. with an IOException of
+       a stream.
+
+       @param msg is an error message text from gpgme
+       @param errorCode the gpgme error code
+       @param cause the exception of the callback
+     */
+    GnuPGException(String msg, int errorCode, Throwable cause) {
+        super(msg, cause);
+        _errorCode = errorCode;
+    }
+
+    /**
+       Returns the error code reported by gpgme (gpg_err_code()),
+       e.g. 99 for GPG_ERR_CANCELED.
+
+       @return gpgme error code, 0 if the error was detected by the java side
+     */
+    public int getErrorCode(){
+        return _errorCode;
     }
 }
 /*
@@ -0,0 +1,74 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+/**
+   How GnuPGContext.exportKeys() writes the keys: binary or in ASCII
+   armor, complete or minimal. A minimal export has only the newest
+   self-signature of each user id and no other signatures, which is
+   much smaller for keys with many certifications.
+
+   @see com.freiheit.gnupg.GnuPGContext#exportKeys(java.util.Collection, java.io.OutputStream, GnuPGExportMode)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public enum GnuPGExportMode{
+    /** complete keys, binary */
+    BINARY(0, false),
+    /** complete keys, ASCII armor */
+    ARMOR(0, true),
+    /** minimal keys, binary */
+    MINIMAL(GnuPGExportMode.GPGME_EXPORT_MODE_MINIMAL, false),
+    /** minimal keys, ASCII armor */
+    MINIMAL_ARMOR(GnuPGExportMode.GPGME_EXPORT_MODE_MINIMAL, true);
+
+    //from gpgme.h
+    private static final int GPGME_EXPORT_MODE_MINIMAL = 4;
+
+    private final int _flags;
+    private final boolean _armor;
+
+    private GnuPGExportMode(int flags, boolean armor){
+        _flags = flags;
+        _armor = armor;
+    }
+
+    /**
+       @return the gpgme_export_mode_t flags
+     */
+    int getFlags(){
+        return _flags;
+    }
+
+    /**
+       @return true, if the keys are written in ASCII armor
+     */
+    public boolean isArmor(){
+        return _armor;
+    }
+
+    /**
+       @return true, if the keys are exported without third-party signatures
+     */
+    public boolean isMinimal(){
+        return (_flags & GPGME_EXPORT_MODE_MINIMAL) != 0;
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
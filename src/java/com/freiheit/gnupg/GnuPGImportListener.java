@@ -0,0 +1,41 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+/**
+   Reports the progress of a batched key import. It is called on the
+   importing thread after each batch has been imported into the
+   keyring.
+
+   @see com.freiheit.gnupg.GnuPGContext#importKeys(java.io.InputStream, int, GnuPGImportListener)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public interface GnuPGImportListener{
+    /**
+       Called after each batch.
+
+       @param batch number of the batch, starting with 1
+       @param result result of this batch, with the status of each key
+       @param total sums of all batches so far, without statuses
+     */
+    public void batchImported(int batch, GnuPGImportResult result, GnuPGImportResult total);
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -0,0 +1,243 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+   The statistics of a key import, copied from gpgme when the
+   import completes: how many keys were read, imported or unchanged,
+   and a status for each key, that gpg looked at.
+   <p>
+   A key, that could not be imported, is not an error of the
+   operation: check getNotImported() and the statuses.
+
+   @see com.freiheit.gnupg.GnuPGContext#importKeys(java.io.InputStream)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public final class GnuPGImportResult{
+    //the order of the counts, as filled in by the JNI routines
+    private static final int CONSIDERED = 0;
+    private static final int NO_USER_ID = 1;
+    private static final int IMPORTED = 2;
+    private static final int IMPORTED_RSA = 3;
+    private static final int UNCHANGED = 4;
+    private static final int NEW_USER_IDS = 5;
+    private static final int NEW_SUB_KEYS = 6;
+    private static final int NEW_SIGNATURES = 7;
+    private static final int NEW_REVOCATIONS = 8;
+    private static final int SECRET_READ = 9;
+    private static final int SECRET_IMPORTED = 10;
+    private static final int SECRET_UNCHANGED = 11;
+    private static final int SKIPPED_NEW_KEYS = 12;
+    private static final int NOT_IMPORTED = 13;
+    private static final int COUNTS = 14;
+
+    private static final Status[] NO_STATUS = new Status[0];
+
+    private final int[] _counts;
+    private final List<Status> _imports;
+
+    /**
+       This constructor is only called from within the JNI routines.
+     */
+    GnuPGImportResult(int[] counts, Status[] imports){
+        _counts = counts;
+        _imports = Collections.unmodifiableList(Arrays.asList(imports));
+    }
+
+    /**
+       An empty result, the start for sum().
+     */
+    GnuPGImportResult(){
+        this(new int[COUNTS], NO_STATUS);
+    }
+
+    /**
+       Adds the counts of both results. The statuses are not kept,
+       so a total over many batches does not grow with the keys.
+
+       @return a new result with the sums of the counts and no statuses
+     */
+    GnuPGImportResult sum(GnuPGImportResult other){
+        int[] counts = new int[COUNTS];
+        for(int i = 0; i < COUNTS; i++){
+            counts[i] = _counts[i] + other._counts[i];
+        }
+        return new GnuPGImportResult(counts, NO_STATUS);
+    }
+
+    /** @return number of keys read */
+    public int getConsidered(){
+        return _counts[CONSIDERED];
+    }
+
+    /** @return number of keys without a user id, that were skipped */
+    public int getNoUserId(){
+        return _counts[NO_USER_ID];
+    }
+
+    /** @return number of new keys */
+    public int getImported(){
+        return _counts[IMPORTED];
+    }
+
+    /** @return number of new RSA keys, included in getImported() */
+    public int getImportedRsa(){
+        return _counts[IMPORTED_RSA];
+    }
+
+    /** @return number of keys, that were already in the keyring and did not change */
+    public int getUnchanged(){
+        return _counts[UNCHANGED];
+    }
+
+    /** @return number of user ids added to keys already in the keyring */
+    public int getNewUserIds(){
+        return _counts[NEW_USER_IDS];
+    }
+
+    /** @return number of subkeys added to keys already in the keyring */
+    public int getNewSubKeys(){
+        return _counts[NEW_SUB_KEYS];
+    }
+
+    /** @return number of signatures added to keys already in the keyring */
+    public int getNewSignatures(){
+        return _counts[NEW_SIGNATURES];
+    }
+
+    /** @return number of revocations added to keys already in the keyring */
+    public int getNewRevocations(){
+        return _counts[NEW_REVOCATIONS];
+    }
+
+    /** @return number of secret keys read */
+    public int getSecretRead(){
+        return _counts[SECRET_READ];
+    }
+
+    /** @return number of new secret keys */
+    public int getSecretImported(){
+        return _counts[SECRET_IMPORTED];
+    }
+
+    /** @return number of secret keys, that were already in the keyring */
+    public int getSecretUnchanged(){
+        return _counts[SECRET_UNCHANGED];
+    }
+
+    /** @return number of new keys, that were skipped (e.g. because of import filters) */
+    public int getSkippedNewKeys(){
+        return _counts[SKIPPED_NEW_KEYS];
+    }
+
+    /** @return number of keys, that could not be imported */
+    public int getNotImported(){
+        return _counts[NOT_IMPORTED];
+    }
+
+    /**
+       @return status of each key, in the order gpg reported them (empty for the total of a batched import)
+     */
+    public List<Status> getImports(){
+        return _imports;
+    }
+
+    public String toString(){
+        return "considered " + getConsidered() + ", imported " + getImported()
+            + ", unchanged " + getUnchanged() + ", secret read " + getSecretRead()
+            + ", not imported " + getNotImported();
+    }
+
+    /**
+       What happened to one key.
+     */
+    public static final class Status{
+        /** the key is new */
+        public static final int NEW = 1;
+        /** the key has new user ids */
+        public static final int UID = 2;
+        /** the key has new signatures */
+        public static final int SIG = 4;
+        /** the key has new subkeys */
+        public static final int SUBKEY = 8;
+        /** the key is a secret key */
+        public static final int SECRET = 16;
+
+        private final String _fpr;
+        private final int _result;
+        private final String _resultText;
+        private final int _status;
+
+        /**
+           This constructor is only called from within the JNI routines.
+         */
+        Status(String fpr, int result, String resultText, int status){
+            _fpr = fpr;
+            _result = result;
+            _resultText = resultText;
+            _status = status;
+        }
+
+        /**
+           @return fingerprint of the key, may be null if it could not be read
+         */
+        public String getFingerprint(){
+            return _fpr;
+        }
+
+        /**
+           @return true, if the key was imported (or was already there)
+         */
+        public boolean isOk(){
+            return _result == 0;
+        }
+
+        /**
+           @return gpgme error code, why the key was not imported, 0 if it was
+         */
+        public int getResult(){
+            return _result;
+        }
+
+        /**
+           @return gpgme error message of the result, null if the key was imported
+         */
+        public String getResultText(){
+            return _resultText;
+        }
+
+        /**
+           @return the flags NEW, UID, SIG, SUBKEY and SECRET, 0 if nothing changed
+         */
+        public int getStatus(){
+            return _status;
+        }
+
+        public String toString(){
+            return _fpr + ": " + (isOk() ? "status 0x" + Integer.toHexString(_status) : _resultText);
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -13,20 +13,23 @@
  */
 package com.freiheit.gnupg;
 
+import java.lang.ref.Reference;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
    Represents a key.
    You can manage and find keys using GnuPGContext. You can not
    instantiate a key by yourself. You always need a context.
+   Close a key, when you don't need it anymore.
 
    @see com.freiheit.gnupg.GnuPGContext
 
    @author Stefan Richter, stefan@freiheit.com
  */
-public class GnuPGKey extends GnuPGPeer{
+public class GnuPGKey extends GnuPGPeer implements AutoCloseable{
+    private GnuPGNativeHandles.Handle _handle = null;
+
     /**
        This constructor is only called from within the JNI routines.
        This is for example used, when a keylist search returns keys.
@@ -34,53 +37,124 @@ public class GnuPGKey extends GnuPGPeer{
      */
     protected GnuPGKey(long ptr) {
         // note that this is a pointer to an address in the javagnupg shared lib
-         setInternalRepresentation(ptr);
+        track(ptr);
     }
 
     protected GnuPGKey(GnuPGContext context, String fingerprint){
-         setInternalRepresentation(gpgmeGetKey(context.getInternalRepresentation(), fingerprint));
+        try{
+            track(gpgmeGetKey(context.getInternalRepresentation(), fingerprint));
+        }
+        finally{
+            Reference.reachabilityFence(context);
+        }
+    }
+
+    /**
+       Returns a new key object for the same gpgme key. The reference
+       count of the gpgme key is increased, so both objects can be
+       destroyed independently.
+
+       @return GnuPGKey new reference on this key
+     */
+    GnuPGKey newReference(){
+        try{
+            gpgmeKeyRef(getInternalRepresentation());
+            return new GnuPGKey(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
        Get the Name of the default key/userid.
      */
     public String getName(){
-        return gpgmeGetName(getInternalRepresentation());
+        try{
+            return gpgmeGetName(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
        Get the Email-Address of the default key/userid.
      */
     public String getEmail(){
-        return gpgmeGetEmail(getInternalRepresentation());
+        try{
+            return gpgmeGetEmail(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
        Get the Key-ID of the default key/userid.
      */
     public String getKeyID(){
-        return gpgmeGetKeyID(getInternalRepresentation());
+        try{
+            return gpgmeGetKeyID(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
        Get the Fingerprint of the default key/userid.
      */
     public String getFingerprint(){
-        return gpgmeGetFingerprint(getInternalRepresentation());
+        try{
+            return gpgmeGetFingerprint(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
        Get the Comment of the default key/userid.
      */
     public String getComment(){
-        return gpgmeGetComment(getInternalRepresentation());
+        try{
+            return gpgmeGetComment(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
        Get the User-ID of the default key/userid.
      */
     public String getUserID(){
-        return gpgmeGetUserID(getInternalRepresentation());
+        try{
+            return gpgmeGetUserID(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+       Copies all attributes of this key (user-ids, subkeys,
+       capabilities, validity) in a single native call. Use this
+       instead of the single getters, if you need more than one
+       attribute of many keys.
+
+       @return GnuPGKeySnapshot immutable copy of this key
+
+       @see com.freiheit.gnupg.GnuPGKeySnapshot
+     */
+    public GnuPGKeySnapshot getSnapshot(){
+        try{
+            return gpgmeGetSnapshot(getInternalRepresentation());
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -91,58 +165,55 @@ public class GnuPGKey extends GnuPGPeer{
        the key-id of the signature. Use GnuPG to --refresh-keys if you
        want to see all signature details.
        <p>
-       Currently I am not supporting java generics for a type safe iterator,
-       because there are to many people still using jdk-1.4.x without generics support.
-       This will be changed on increasing demand.
+       The signatures are copied in a single native call, see
+       getSignatureSnapshots().
        <p>
-       @return Iterator of GnuPGSignature objects
+       @return Iterator of GnuPGSignature objects, empty if the key has no signatures
 
        @see com.freiheit.gnupg.GnuPGSignature
      */
-    public Iterator/*<GnuPGSignatures>*/ getSignatures(){
-        List<GnuPGSignature> siglist = null;
-        GnuPGSignature sig = getSignature();
-        while (sig != null){
-            if (siglist == null){
-                siglist = new ArrayList<GnuPGSignature>();
-            }
-            siglist.add(sig);
-            sig = sig.getNextSignature();
+    public Iterator<GnuPGSignature> getSignatures(){
+        GnuPGSignature[] sigs;
+        try{
+            sigs = gpgmeGetSignatureSnapshots(getInternalRepresentation(), false);
+        }
+        finally{
+            Reference.reachabilityFence(this);
         }
-        return siglist.listIterator();
+        return Arrays.<GnuPGSignature>asList(sigs).iterator();
     }
 
     /**
-       Helper to list signatures in the toString()-method.
-     */
-    private String listSignatures(){
-        Iterator iter = getSignatures();
-        GnuPGSignature sig;
-        StringBuffer buf = new StringBuffer();
+       Copies the signatures on <em>all</em> user-ids of this key in
+       a single native call. Use getSignedUserID() of a signature to
+       see, which user-id it signs. The snapshots stay valid after
+       this key was destroyed.
 
-        while(iter != null && iter.hasNext()){
-            sig = (GnuPGSignature)iter.next();
-            buf.append("\t").append(sig).append("\n");
-        }
+       @return GnuPGSignatureSnapshot array, empty if the key has no signatures
 
-        return buf.toString();
+       @see com.freiheit.gnupg.GnuPGSignatureSnapshot
+     */
+    public GnuPGSignatureSnapshot[] getSignatureSnapshots(){
+        try{
+            return gpgmeGetSignatureSnapshots(getInternalRepresentation(), true);
+        }
+        finally{
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
-       Helper to get the head of the linked list
-       of signatures from the native space.
+       Helper to list signatures in the toString()-method.
      */
-    private GnuPGSignature getSignature(){
-        GnuPGSignature result = null;
-
-        // note that thhis is a pointer to an address in the javagnupg shared lib
-        long ptr = gpgmeGetSignature(getInternalRepresentation());
+    private String listSignatures(){
+        Iterator<GnuPGSignature> iter = getSignatures();
+        StringBuffer buf = new StringBuffer();
 
-        if (ptr != 0){
-            result = new GnuPGSignature(ptr);
+        while(iter.hasNext()){
+            buf.append("\t").append(iter.next()).append("\n");
         }
 
-        return result;
+        return buf.toString();
     }
 
     /**
@@ -169,34 +240,46 @@ public class GnuPGKey extends GnuPGPeer{
 
     /**
        This calls immediately the release method for the datastructure
-       in the underlying gpgme library. This method is called by
-       the finalizer of the class anyway, but you can call it yourself
-       if you want to get rid of this datastructure at once and don't want to
-       wait for the non-deterministic garbage-collector of the JVM.
+       in the underlying gpgme library. If you don't call it, the
+       datastructure is released some time after this object was
+       garbage collected.
+
+       @see com.freiheit.gnupg.GnuPGNativeHandles
     */
     public void destroy(){
-        if(getInternalRepresentation() != 0){
-            gpgmeKeyUnref(getInternalRepresentation());
+        if(_handle != null){
+            GnuPGNativeHandles.Handle handle = _handle;
+            _handle = null;
             setInternalRepresentation(0);
+            handle.close();
         }
     }
 
     /**
-       Releases underlying datastructures. Simple calls the destroy() method.
+       Same as destroy().
      */
-    protected void finalize(){
+    public void close(){
         destroy();
     }
 
+    private void track(long ptr){
+        setInternalRepresentation(ptr);
+        if(ptr != 0){
+            _handle = GnuPGNativeHandles.register(this, GnuPGNativeHandles.Kind.KEY, ptr, GnuPGKey::gpgmeKeyUnref);
+        }
+    }
+
     private native long gpgmeGetKey(long context, String fingerprint);
-    private native long gpgmeKeyUnref(long keyptr);
+    private native void gpgmeKeyRef(long keyptr);
+    private static native long gpgmeKeyUnref(long keyptr);
     private native String gpgmeGetName(long keyptr);
     private native String gpgmeGetEmail(long keyptr);
     private native String gpgmeGetKeyID(long keyptr);
     private native String gpgmeGetFingerprint(long keyptr);
     private native String gpgmeGetComment(long keyptr);
     private native String gpgmeGetUserID(long keyptr);
-    private native long gpgmeGetSignature(long keyptr);
+    private native GnuPGSignatureSnapshot[] gpgmeGetSignatureSnapshots(long keyptr, boolean allUserIDs);
+    private native GnuPGKeySnapshot gpgmeGetSnapshot(long keyptr);
 }
 /*
  * Local variables:
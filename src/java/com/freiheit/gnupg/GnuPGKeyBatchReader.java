@@ -0,0 +1,213 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+   Splits a keyring dump into batches of whole keys, so a batched
+   import holds only one batch in memory. Binary dumps are split at
+   the public and secret key packets, ASCII armored dumps at the
+   BEGIN lines of the armor (one armor block counts as one key).
+   <p>
+   Used by GnuPGContext.importKeys(InputStream, int, GnuPGImportListener).
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+class GnuPGKeyBatchReader{
+    private static final int TAG_SECRET_KEY = 5;
+    private static final int TAG_PUBLIC_KEY = 6;
+    private static final String ARMOR_BEGIN = "-----BEGIN PGP ";
+
+    private final InputStream _in;
+    private final int _keysPerBatch;
+    private Boolean _armored = null;
+    //the first packet or line of the next batch, already read
+    private byte[] _pending = null;
+
+    GnuPGKeyBatchReader(InputStream in, int keysPerBatch){
+        _in = new BufferedInputStream(in, 64 * 1024);
+        _keysPerBatch = keysPerBatch;
+    }
+
+    /**
+       @return the next batch, null at the end of the stream
+     */
+    byte[] next() throws IOException{
+        if(_armored == null){
+            _armored = isArmored();
+        }
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        int keys = 0;
+        if(_pending != null){
+            batch.write(_pending);
+            _pending = null;
+            keys++;
+        }
+        byte[] unit;
+        while((unit = _armored ? readLine() : readPacket()) != null){
+            if(startsKey(unit)){
+                if(keys == _keysPerBatch){
+                    _pending = unit;
+                    break;
+                }
+                keys++;
+            }
+            batch.write(unit);
+        }
+        return (batch.size() == 0) ? null : batch.toByteArray();
+    }
+
+    private boolean isArmored() throws IOException{
+        _in.mark(1);
+        int first = _in.read();
+        _in.reset();
+        //every binary packet starts with the high bit set
+        return first >= 0 && (first & 0x80) == 0;
+    }
+
+    private boolean startsKey(byte[] unit){
+        if(_armored){
+            return startsWith(unit, ARMOR_BEGIN);
+        }
+        int header = unit[0] & 0xff;
+        int tag = ((header & 0x40) != 0) ? (header & 0x3f) : ((header >> 2) & 0x0f);
+        return tag == TAG_PUBLIC_KEY || tag == TAG_SECRET_KEY;
+    }
+
+    private static boolean startsWith(byte[] line, String prefix){
+        if(line.length < prefix.length()){
+            return false;
+        }
+        for(int i = 0; i < prefix.length(); i++){
+            if(line[i] != prefix.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] readLine() throws IOException{
+        ByteArrayOutputStream line = new ByteArrayOutputStream(80);
+        int c;
+        while((c = _in.read()) >= 0){
+            line.write(c);
+            if(c == '\n'){
+                break;
+            }
+        }
+        return (line.size() == 0) ? null : line.toByteArray();
+    }
+
+    /**
+       Reads one OpenPGP packet (RFC 4880, 4.2) with its header.
+     */
+    private byte[] readPacket() throws IOException{
+        int header = _in.read();
+        if(header < 0){
+            return null;
+        }
+        if((header & 0x80) == 0){
+            throw new IOException("Not an OpenPGP packet: 0x" + Integer.toHexString(header));
+        }
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        packet.write(header);
+        if((header & 0x40) == 0){
+            //old format
+            switch(header & 0x03){
+            case 0:
+                copy(packet, readLength(packet, 1));
+                break;
+            case 1:
+                copy(packet, readLength(packet, 2));
+                break;
+            case 2:
+                copy(packet, readLength(packet, 4));
+                break;
+            default:
+                //indeterminate length: the rest of the stream
+                copy(packet, -1);
+            }
+            return packet.toByteArray();
+        }
+        //new format, maybe in several partial bodies
+        while(true){
+            int first = readByte(packet);
+            if(first < 192){
+                copy(packet, first);
+                break;
+            }
+            else if(first < 224){
+                copy(packet, ((first - 192) << 8) + readByte(packet) + 192);
+                break;
+            }
+            else if(first == 255){
+                copy(packet, readLength(packet, 4));
+                break;
+            }
+            else{
+                copy(packet, 1L << (first & 0x1f));
+            }
+        }
+        return packet.toByteArray();
+    }
+
+    private int readByte(ByteArrayOutputStream packet) throws IOException{
+        int b = _in.read();
+        if(b < 0){
+            throw new EOFException("Truncated OpenPGP packet.");
+        }
+        packet.write(b);
+        return b;
+    }
+
+    private long readLength(ByteArrayOutputStream packet, int octets) throws IOException{
+        long length = 0;
+        for(int i = 0; i < octets; i++){
+            length = (length << 8) | readByte(packet);
+        }
+        return length;
+    }
+
+    /**
+       Copies length bytes of the packet body, or up to the end of
+       the stream, if length is negative.
+     */
+    private void copy(ByteArrayOutputStream packet, long length) throws IOException{
+        boolean toEnd = length < 0;
+        byte[] buf = new byte[8192];
+        while(toEnd || length > 0){
+            int n = _in.read(buf, 0, toEnd ? buf.length : (int)Math.min(buf.length, length));
+            if(n < 0){
+                if(toEnd){
+                    return;
+                }
+                throw new EOFException("Truncated OpenPGP packet.");
+            }
+            packet.write(buf, 0, n);
+            length -= n;
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
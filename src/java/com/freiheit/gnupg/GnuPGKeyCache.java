@@ -0,0 +1,331 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+   Caches keys of one keyring (GnuPG home directory), so that
+   repeated lookups of the same keys don't need a roundtrip to the
+   gpg engine. Keys are indexed by fingerprint, key-id and email-address.
+   <p>
+   The cache holds its own reference on every gpgme key. Each lookup
+   returns a new GnuPGKey with its own reference, so you can destroy()
+   a returned key without affecting the cache, and an evicted key stays
+   valid for everybody who still uses it.
+   <p>
+   The cache is bounded: if it is full, the least recently used key is
+   evicted. Keys are also evicted after a time to live. If importKey()
+   or delete() runs on any context using the same home directory, the
+   affected keys are invalidated.
+   <p>
+   <em>How to use a cache?</em>
+   <pre>
+   {@code
+     GnuPGKeyCache cache = new GnuPGKeyCache(null, 1000, 10 * 60 * 1000);
+     ctx.setKeyCache(cache);
+     GnuPGKey key = ctx.getKeyByFingerprint(fpr); //now answered from the cache
+   }
+   </pre>
+   A cache is safe to share between contexts and threads.
+
+   @see com.freiheit.gnupg.GnuPGContext#setKeyCache(GnuPGKeyCache)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGKeyCache{
+    private final String _homeDir;
+    private final int _maxSize;
+    private final long _timeToLive;
+
+    // access ordered: the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> _byFingerprint;
+    private final Map<String, Entry> _byKeyID = new HashMap<String, Entry>();
+    private final Map<String, Entry> _byEmail = new HashMap<String, Entry>();
+
+    private long _hits = 0;
+    private long _misses = 0;
+
+    // registered with GnuPGContext, lives as long as this cache
+    private final GnuPGContext.KeyringListener _keyringListener = deleted -> {
+        if(deleted == null){
+            invalidateAll();
+        }
+        else{
+            invalidate(deleted);
+        }
+    };
+
+    /**
+       Creates a new cache for the keys in the given home directory.
+
+       @param homeDir the GnuPG home directory of the contexts using this cache (null is the default home directory)
+       @param maxSize maximum number of keys in the cache
+       @param timeToLive milliseconds a key stays in the cache after it was loaded
+     */
+    public GnuPGKeyCache(String homeDir, int maxSize, long timeToLive){
+        if(maxSize < 1 || timeToLive < 1){
+            throw new GnuPGException("Cache size and time to live must be positive.");
+        }
+        _homeDir = homeDir;
+        _maxSize = maxSize;
+        _timeToLive = timeToLive;
+        _byFingerprint = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest){
+                if(size() > _maxSize){
+                    unindex(eldest.getValue());
+                    eldest.getValue().key.destroy();
+                    return true;
+                }
+                return false;
+            }
+        };
+        GnuPGContext.addKeyringListener(homeDir, _keyringListener);
+    }
+
+    /**
+       Returns the home directory of the keyring this cache belongs to.
+
+       @return home directory or null for the default home directory
+     */
+    public String getHomeDir(){
+        return _homeDir;
+    }
+
+    /**
+       Returns the key with the given fingerprint or key-id. On a miss,
+       the key is loaded with the given context and added to the cache.
+
+       @param context used to load the key on a miss
+       @param id fingerprint or key-id (spaces and a leading 0x are ignored)
+       @return GnuPGKey a new reference on the key
+
+       @see com.freiheit.gnupg.GnuPGContext#getKeyByFingerprint(String)
+     */
+    public GnuPGKey getKey(GnuPGContext context, String id) throws GnuPGException{
+        String normalized = normalizeID(id);
+        synchronized(this){
+            Entry entry = _byFingerprint.get(normalized);
+            if(entry == null){
+                entry = _byKeyID.get(normalized);
+                if(entry != null){
+                    //keeps the LRU order correct
+                    _byFingerprint.get(entry.fingerprint);
+                }
+            }
+            if(isAlive(entry)){
+                _hits++;
+                return entry.key.newReference();
+            }
+            _misses++;
+        }
+
+        //load outside of the lock, the engine is slow
+        return add(new GnuPGKey(context, normalized));
+    }
+
+    /**
+       Returns a key with the given email-address in its default user-id.
+       On a miss, the keyring is searched with the given context and the
+       first key with exactly this email-address is added to the cache.
+
+       @param context used to search the key on a miss
+       @param email email-address (case is ignored)
+       @return GnuPGKey a new reference on the key or null, if there is no such key
+     */
+    public GnuPGKey getKeyByEmail(GnuPGContext context, String email) throws GnuPGException{
+        if(email == null){
+            return null;
+        }
+        String normalized = normalizeEmail(email);
+        synchronized(this){
+            Entry entry = _byEmail.get(normalized);
+            if(entry != null){
+                _byFingerprint.get(entry.fingerprint);
+            }
+            if(isAlive(entry)){
+                _hits++;
+                return entry.key.newReference();
+            }
+            _misses++;
+        }
+
+        GnuPGKey found = null;
+        try(GnuPGKeyIterator iter = context.keyIterator(email)){
+            while(found == null && iter.hasNext()){
+                GnuPGKey key = iter.next();
+                if(normalized.equals(normalizeEmail(key.getEmail()))){
+                    found = key;
+                }
+                else{
+                    key.destroy();
+                }
+            }
+        }
+        return (found == null) ? null : add(found);
+    }
+
+    /**
+       Removes the key with the given fingerprint from the cache.
+
+       @param fingerprint fingerprint of the key
+     */
+    public synchronized void invalidate(String fingerprint){
+        Entry entry = _byFingerprint.remove(normalizeID(fingerprint));
+        if(entry != null){
+            unindex(entry);
+            entry.key.destroy();
+        }
+    }
+
+    /**
+       Removes all keys from the cache.
+     */
+    public synchronized void invalidateAll(){
+        for(Entry entry : _byFingerprint.values()){
+            entry.key.destroy();
+        }
+        _byFingerprint.clear();
+        _byKeyID.clear();
+        _byEmail.clear();
+    }
+
+    /**
+       Returns the number of keys in the cache.
+
+       @return number of keys
+     */
+    public synchronized int size(){
+        return _byFingerprint.size();
+    }
+
+    /**
+       Returns the number of lookups answered from the cache.
+
+       @return number of hits
+     */
+    public synchronized long getHits(){
+        return _hits;
+    }
+
+    /**
+       Returns the number of lookups, that needed the gpg engine.
+
+       @return number of misses
+     */
+    public synchronized long getMisses(){
+        return _misses;
+    }
+
+    /**
+       Adds a freshly loaded key. The cache takes over the reference
+       of the given key and returns a new one to the caller.
+     */
+    private synchronized GnuPGKey add(GnuPGKey key){
+        String fingerprint = normalizeID(key.getFingerprint());
+        Entry entry = _byFingerprint.get(fingerprint);
+        if(isAlive(entry)){
+            //somebody else was faster
+            key.destroy();
+            return entry.key.newReference();
+        }
+        entry = new Entry(key, fingerprint, normalizeID(key.getKeyID()),
+                          key.getEmail() == null ? null : normalizeEmail(key.getEmail()),
+                          System.currentTimeMillis());
+        _byFingerprint.put(fingerprint, entry);
+        index(entry);
+        return key.newReference();
+    }
+
+    /**
+       Checks the time to live. Expired entries are evicted.
+     */
+    private boolean isAlive(Entry entry){
+        if(entry == null){
+            return false;
+        }
+        if(System.currentTimeMillis() - entry.loadedAt <= _timeToLive){
+            return true;
+        }
+        _byFingerprint.remove(entry.fingerprint);
+        unindex(entry);
+        entry.key.destroy();
+        return false;
+    }
+
+    private void index(Entry entry){
+        _byKeyID.put(entry.keyID, entry);
+        _byKeyID.put(shortKeyID(entry.keyID), entry);
+        if(entry.email != null && entry.email.length() > 0){
+            _byEmail.put(entry.email, entry);
+        }
+    }
+
+    private void unindex(Entry entry){
+        removeIfMapped(_byKeyID, entry.keyID, entry);
+        removeIfMapped(_byKeyID, shortKeyID(entry.keyID), entry);
+        removeIfMapped(_byEmail, entry.email, entry);
+    }
+
+    private static void removeIfMapped(Map<String, Entry> index, String id, Entry entry){
+        if(id != null && index.get(id) == entry){
+            index.remove(id);
+        }
+    }
+
+    // the short key-id are the last 8 digits of the key-id
+    private static String shortKeyID(String keyID){
+        return (keyID.length() > 8) ? keyID.substring(keyID.length() - 8) : keyID;
+    }
+
+    private static String normalizeID(String id){
+        String result = id.replace(" ", "").toUpperCase(Locale.ROOT);
+        if(result.startsWith("0X")){
+            result = result.substring(2);
+        }
+        return result;
+    }
+
+    private static String normalizeEmail(String email){
+        return (email == null) ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static class Entry{
+        final GnuPGKey key;
+        final String fingerprint;
+        final String keyID;
+        final String email;
+        final long loadedAt;
+
+        Entry(GnuPGKey key, String fingerprint, String keyID, String email, long loadedAt){
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.keyID = keyID;
+            this.email = email;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
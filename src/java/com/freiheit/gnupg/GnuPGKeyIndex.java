@@ -0,0 +1,778 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+   A persistent index of the key metadata of one keyring, stored in
+   a memory-mapped file next to the keyring. It maps the fingerprints
+   and key-ids of the keys and their subkeys and the email-addresses
+   of the user-ids, that are not revoked, to the validity, expiration and
+   capabilities of the keys, so a program can check a recipient in
+   microseconds right after startup, without running gpg.
+   <p>
+   The index remembers the size and modification time of the keyring
+   files it was built from. When they change (or keys are imported
+   or deleted through a GnuPGContext of the same home directory), the
+   index is rebuilt from a single key listing on the next lookup.
+   A key, that is not in the index, is searched with gpg.
+   <p>
+   The index holds metadata only. Use getKeyByFingerprint() with the
+   fingerprint from the index to get a GnuPGKey for an operation.
+   <p>
+   <em>How to check a recipient?</em>
+   <pre>
+   {@code
+     GnuPGKeyIndex index = new GnuPGKeyIndex(null);
+     GnuPGKeyIndex.Entry entry = index.getEntryByEmail(ctx, "alice@example.com");
+     if(entry != null && entry.isUsableForEncryption()){
+         GnuPGKey key = ctx.getKeyByFingerprint(entry.getFingerprint());
+     }
+   }
+   </pre>
+   An index is safe to share between contexts and threads.
+
+   @see com.freiheit.gnupg.GnuPGKeyCache
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGKeyIndex{
+    /** name of the index file in the GnuPG home directory */
+    public static final String FILE_NAME = "javagnupg-keyindex.bin";
+
+    // the files, that change with the keyring
+    private static final String[] KEYRING_FILES = {
+        "pubring.kbx", "pubring.gpg", "secring.gpg", "trustdb.gpg", "private-keys-v1.d"
+    };
+
+    private static final int MAGIC = 0x4A474B49; // "JGKI"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 48;
+    private static final int SLOT_SIZE = 16;
+    private static final long STAMP_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    // the flag bits of a record
+    private static final int REVOKED = 1;
+    private static final int EXPIRED = 2;
+    private static final int DISABLED = 4;
+    private static final int INVALID = 8;
+    private static final int CAN_ENCRYPT = 16;
+    private static final int CAN_SIGN = 32;
+    private static final int CAN_CERTIFY = 64;
+    private static final int CAN_AUTHENTICATE = 128;
+    private static final int SECRET = 256;
+
+    private static final Logger LOG = Logger.getLogger(GnuPGKeyIndex.class.getName());
+
+    private final String _homeDir;
+    private final Path _keyringDir;
+    private final Path _file;
+
+    private volatile Mapping _mapping = null;
+    private volatile boolean _stale = true;
+    private volatile long _checkedAt = 0;
+    private volatile boolean _loaded = false;
+
+    private long _rebuilds = 0;
+
+    // registered with GnuPGContext, lives as long as this index
+    private final GnuPGContext.KeyringListener _keyringListener = deleted -> _stale = true;
+
+    /**
+       Creates an index for the keys in the given home directory. The
+       index file is stored in the home directory.
+
+       @param homeDir the GnuPG home directory (null is the default home directory)
+     */
+    public GnuPGKeyIndex(String homeDir){
+        this(homeDir, null);
+    }
+
+    /**
+       Creates an index for the keys in the given home directory.
+
+       @param homeDir the GnuPG home directory (null is the default home directory)
+       @param file the index file, null for FILE_NAME in the home directory
+     */
+    public GnuPGKeyIndex(String homeDir, Path file){
+        _homeDir = homeDir;
+        _keyringDir = keyringDir(homeDir);
+        _file = (file == null) ? _keyringDir.resolve(FILE_NAME) : file;
+        GnuPGContext.addKeyringListener(homeDir, _keyringListener);
+    }
+
+    /**
+       Returns the home directory of the keyring this index belongs to.
+
+       @return home directory or null for the default home directory
+     */
+    public String getHomeDir(){
+        return _homeDir;
+    }
+
+    /**
+       @return the index file
+     */
+    public Path getFile(){
+        return _file;
+    }
+
+    /**
+       Returns the metadata of the key with the given fingerprint or
+       key-id. The index is rebuilt with the given context first, if
+       the keyring changed. If the key is not in the index, it is
+       searched with gpg.
+
+       @param context used to rebuild the index or to search the key
+       @param id fingerprint or key-id of the key or of a subkey (spaces and a leading 0x are ignored)
+       @return Entry the metadata or null, if there is no such key
+     */
+    public Entry getEntry(GnuPGContext context, String id) throws GnuPGException{
+        if(id == null){
+            return null;
+        }
+        String normalized = normalizeID(id);
+        Mapping mapping = current(context);
+        Entry entry = mapping.find(Table.ID, normalized);
+        if(entry == null){
+            //gpg also matches user-ids: accept only what the index would have found
+            for(GnuPGKeySnapshot key : context.searchKeySnapshots(normalized, GnuPGKeyProjection.ALL)){
+                Entry candidate = new Entry(key);
+                if(candidate._ids.contains(normalized)){
+                    entry = candidate;
+                    break;
+                }
+            }
+            checkMissing(mapping, entry);
+        }
+        return entry;
+    }
+
+    /**
+       Returns the metadata of a key with the given email-address in
+       one of its user-ids. If several keys have this address, a key
+       usable for encryption is preferred, then the newest one.
+
+       @param context used to rebuild the index or to search the key
+       @param email email-address (case is ignored)
+       @return Entry the metadata or null, if there is no such key
+     */
+    public Entry getEntryByEmail(GnuPGContext context, String email) throws GnuPGException{
+        if(email == null){
+            return null;
+        }
+        String normalized = normalizeEmail(email);
+        Mapping mapping = current(context);
+        Entry entry = mapping.find(Table.EMAIL, normalized);
+        if(entry == null){
+            //like the index, ignore the addresses of revoked user-ids
+            for(GnuPGKeySnapshot key : context.searchKeySnapshots(normalized, GnuPGKeyProjection.ALL)){
+                Entry candidate = new Entry(key);
+                if(candidate._emails.contains(normalized)
+                   && (entry == null || PREFERENCE.compare(candidate, entry) < 0)){
+                    entry = candidate;
+                }
+            }
+            checkMissing(mapping, entry);
+        }
+        return entry;
+    }
+
+    /**
+       Marks the index stale, if gpg found a key, that is not in the
+       index at all: the keyring changed behind our back.
+     */
+    private void checkMissing(Mapping mapping, Entry found){
+        if(found != null && mapping.find(Table.ID, normalizeID(found.getFingerprint())) == null){
+            _stale = true;
+        }
+    }
+
+    /**
+       Looks up a key in the index only, without checking the keyring
+       and without running gpg. Use this, if a slightly outdated
+       answer is good enough.
+
+       @param id fingerprint or key-id of the key or of a subkey
+       @return Entry the metadata or null, if the key is not in the index
+     */
+    public Entry lookup(String id){
+        Mapping mapping = loaded();
+        return (mapping == null || id == null) ? null : mapping.find(Table.ID, normalizeID(id));
+    }
+
+    /**
+       Looks up an email-address in the index only, see lookup().
+
+       @param email email-address (case is ignored)
+       @return Entry the metadata or null, if the address is not in the index
+     */
+    public Entry lookupByEmail(String email){
+        Mapping mapping = loaded();
+        return (mapping == null || email == null) ? null : mapping.find(Table.EMAIL, normalizeEmail(email));
+    }
+
+    /**
+       Rebuilds the index, if the keyring changed since it was built.
+
+       @param context used to list the keys
+       @return true, if the index was rebuilt
+     */
+    public boolean refresh(GnuPGContext context) throws GnuPGException{
+        long stamp = keyringStamp();
+        synchronized(this){
+            Mapping mapping = loaded();
+            if(!_stale && mapping != null && mapping.stamp == stamp){
+                return false;
+            }
+            rebuild(context, stamp);
+            return true;
+        }
+    }
+
+    /**
+       Rebuilds the index from a listing of all keys, whether the
+       keyring changed or not.
+
+       @param context used to list the keys
+     */
+    public synchronized void rebuild(GnuPGContext context) throws GnuPGException{
+        rebuild(context, keyringStamp());
+    }
+
+    /**
+       @return number of keys in the index
+     */
+    public int size(){
+        Mapping mapping = loaded();
+        return (mapping == null) ? 0 : mapping.records;
+    }
+
+    /**
+       @return number of times the index was rebuilt by this object
+     */
+    public synchronized long getRebuildCount(){
+        return _rebuilds;
+    }
+
+    /**
+       Returns the mapping, after checking the keyring stamp at most
+       once per STAMP_CHECK_INTERVAL.
+     */
+    private Mapping current(GnuPGContext context) throws GnuPGException{
+        Mapping mapping = loaded();
+        long now = System.nanoTime();
+        if(mapping != null && !_stale && now - _checkedAt < STAMP_CHECK_INTERVAL){
+            return mapping;
+        }
+        refresh(context);
+        _checkedAt = now;
+        return _mapping;
+    }
+
+    /**
+       Maps the index file once. A missing or broken file is no error:
+       the index is empty until it is rebuilt.
+     */
+    private Mapping loaded(){
+        if(!_loaded){
+            synchronized(this){
+                if(!_loaded){
+                    _mapping = map(_file);
+                    _stale = (_mapping == null);
+                    _loaded = true;
+                }
+            }
+        }
+        return _mapping;
+    }
+
+    private void rebuild(GnuPGContext context, long stamp) throws GnuPGException{
+        GnuPGKeySnapshot[] keys = context.searchKeySnapshots(null, GnuPGKeyProjection.ALL);
+        try{
+            write(_file, stamp, keys);
+        }
+        catch(IOException e){
+            throw new GnuPGException("Unable to write the key index " + _file + ": " + e.getMessage());
+        }
+        _mapping = map(_file);
+        _loaded = true;
+        _stale = false;
+        _checkedAt = System.nanoTime();
+        _rebuilds++;
+    }
+
+    private long keyringStamp(){
+        long stamp = 17;
+        for(String name : KEYRING_FILES){
+            try{
+                BasicFileAttributes attrs = Files.readAttributes(_keyringDir.resolve(name), BasicFileAttributes.class);
+                stamp = 31 * stamp + attrs.size();
+                stamp = 31 * stamp + attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            }
+            catch(IOException e){
+                //not every keyring has all files
+                stamp = 31 * stamp;
+            }
+        }
+        return stamp;
+    }
+
+    private static Path keyringDir(String homeDir){
+        if(homeDir != null){
+            return Paths.get(homeDir);
+        }
+        String env = System.getenv("GNUPGHOME");
+        if(env != null && env.length() > 0){
+            return Paths.get(env);
+        }
+        return Paths.get(System.getProperty("user.home"), ".gnupg");
+    }
+
+    /*
+     * The file format (big endian):
+     *
+     *   header:  magic, version, stamp (long), records, id slots, email slots, string bytes
+     *   records: RECORD_SIZE bytes each, see Entry(Mapping, int)
+     *   id table, email table: SLOT_SIZE bytes each, (hash (long), record (int), key (int))
+     *                          sorted by hash, the key is the offset of the normalized id or email
+     *   strings: (length (int), UTF-8 bytes) each, referenced by their offset
+     */
+
+    private enum Table{ ID, EMAIL }
+
+    private static void write(Path file, long stamp, GnuPGKeySnapshot[] keys) throws IOException{
+        List<Entry> entries = new ArrayList<Entry>(keys.length);
+        for(GnuPGKeySnapshot key : keys){
+            if(key.getFingerprint() != null){
+                entries.add(new Entry(key));
+            }
+        }
+        //the preferred key for an email comes first, so it is found first
+        Collections.sort(entries, PREFERENCE);
+
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream strings = new DataOutputStream(stringBytes);
+        Map<String, Integer> offsets = new HashMap<String, Integer>();
+        List<long[]> ids = new ArrayList<long[]>();
+        List<long[]> emails = new ArrayList<long[]>();
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(entries.size() * RECORD_SIZE);
+        DataOutputStream records = new DataOutputStream(recordBytes);
+
+        for(int i = 0; i < entries.size(); i++){
+            Entry e = entries.get(i);
+            records.writeInt(string(strings, offsets, e._fingerprint));
+            records.writeInt(string(strings, offsets, e._keyID));
+            records.writeInt(string(strings, offsets, e._userID));
+            records.writeInt(string(strings, offsets, e._email));
+            records.writeInt(e._flags);
+            records.writeInt(e._validity);
+            records.writeInt(e._ownerTrust);
+            records.writeInt(0);
+            records.writeLong(e._timestamp);
+            records.writeLong(e._expires);
+
+            for(String id : e._ids){
+                ids.add(new long[]{hash(id), i, string(strings, offsets, id)});
+            }
+            for(String email : e._emails){
+                emails.add(new long[]{hash(email), i, string(strings, offsets, email)});
+            }
+        }
+        Comparator<long[]> bySlot = new Comparator<long[]>(){
+                public int compare(long[] a, long[] b){
+                    int c = Long.compare(a[0], b[0]);
+                    //same hash: keep the preferred record first
+                    return (c != 0) ? c : Long.compare(a[1], b[1]);
+                }
+            };
+        Collections.sort(ids, bySlot);
+        Collections.sort(emails, bySlot);
+
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), FILE_NAME, ".tmp");
+        try{
+            try(OutputStream fileOut = Files.newOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(stamp);
+                out.writeInt(entries.size());
+                out.writeInt(ids.size());
+                out.writeInt(emails.size());
+                out.writeInt(stringBytes.size());
+                recordBytes.writeTo(out);
+                for(long[] slot : ids){
+                    writeSlot(out, slot);
+                }
+                for(long[] slot : emails){
+                    writeSlot(out, slot);
+                }
+                stringBytes.writeTo(out);
+            }
+            //readers see either the old or the new file, never a partial one
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally{
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeSlot(DataOutputStream out, long[] slot) throws IOException{
+        out.writeLong(slot[0]);
+        out.writeInt((int)slot[1]);
+        out.writeInt((int)slot[2]);
+    }
+
+    private static int string(DataOutputStream strings, Map<String, Integer> offsets, String s) throws IOException{
+        if(s == null){
+            return -1;
+        }
+        Integer offset = offsets.get(s);
+        if(offset == null){
+            offset = strings.size();
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            strings.writeInt(utf8.length);
+            strings.write(utf8);
+            offsets.put(s, offset);
+        }
+        return offset;
+    }
+
+    private static Mapping map(Path file){
+        if(!Files.isRegularFile(file)){
+            return null;
+        }
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            //the mapping stays valid after the channel is closed
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Mapping(buf);
+        }
+        catch(IOException | RuntimeException e){
+            LOG.log(Level.INFO, "Ignoring broken key index " + file, e);
+            return null;
+        }
+    }
+
+    /**
+       A mapped index file. Only absolute reads are used, so it can
+       be read by many threads at once.
+     */
+    private static final class Mapping{
+        final ByteBuffer buf;
+        final long stamp;
+        final int records;
+        final int idSlots;
+        final int emailSlots;
+        final int recordsAt;
+        final int idsAt;
+        final int emailsAt;
+        final int stringsAt;
+
+        Mapping(ByteBuffer buf){
+            if(buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION){
+                throw new IllegalStateException("Not a key index.");
+            }
+            this.buf = buf;
+            stamp = buf.getLong(8);
+            records = buf.getInt(16);
+            idSlots = buf.getInt(20);
+            emailSlots = buf.getInt(24);
+            int stringBytes = buf.getInt(28);
+            recordsAt = HEADER_SIZE;
+            idsAt = recordsAt + records * RECORD_SIZE;
+            emailsAt = idsAt + idSlots * SLOT_SIZE;
+            stringsAt = emailsAt + emailSlots * SLOT_SIZE;
+            if(records < 0 || idSlots < 0 || emailSlots < 0 || stringsAt + stringBytes != buf.limit()){
+                throw new IllegalStateException("Truncated key index.");
+            }
+        }
+
+        Entry find(Table table, String key){
+            int at = (table == Table.ID) ? idsAt : emailsAt;
+            int slots = (table == Table.ID) ? idSlots : emailSlots;
+            long hash = hash(key);
+            //binary search for the first slot with this hash
+            int lo = 0;
+            int hi = slots;
+            while(lo < hi){
+                int mid = (lo + hi) >>> 1;
+                if(buf.getLong(at + mid * SLOT_SIZE) < hash){
+                    lo = mid + 1;
+                }
+                else{
+                    hi = mid;
+                }
+            }
+            for(int i = lo; i < slots && buf.getLong(at + i * SLOT_SIZE) == hash; i++){
+                //different keys may have the same hash
+                if(key.equals(string(buf.getInt(at + i * SLOT_SIZE + 12)))){
+                    return new Entry(this, buf.getInt(at + i * SLOT_SIZE + 8));
+                }
+            }
+            return null;
+        }
+
+        String string(int offset){
+            if(offset < 0){
+                return null;
+            }
+            int length = buf.getInt(stringsAt + offset);
+            byte[] utf8 = new byte[length];
+            for(int i = 0; i < length; i++){
+                utf8[i] = buf.get(stringsAt + offset + 4 + i);
+            }
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+
+    // usable keys first, then the newest
+    private static final Comparator<Entry> PREFERENCE = new Comparator<Entry>(){
+            public int compare(Entry a, Entry b){
+                if(a.isUsableForEncryption() != b.isUsableForEncryption()){
+                    return a.isUsableForEncryption() ? -1 : 1;
+                }
+                return Long.compare(b._timestamp, a._timestamp);
+            }
+        };
+
+    // 64 bit FNV-1a
+    private static long hash(String s){
+        long h = 0xcbf29ce484222325L;
+        for(byte b : s.getBytes(StandardCharsets.UTF_8)){
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // the short key-id are the last 8 digits of the key-id
+    private static String shortKeyID(String keyID){
+        return (keyID.length() > 8) ? keyID.substring(keyID.length() - 8) : keyID;
+    }
+
+    private static String normalizeID(String id){
+        String result = id.replace(" ", "").toUpperCase(Locale.ROOT);
+        if(result.startsWith("0X")){
+            result = result.substring(2);
+        }
+        return result;
+    }
+
+    private static String normalizeEmail(String email){
+        return (email == null) ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+       The metadata of one key.
+     */
+    public static final class Entry{
+        private final String _fingerprint;
+        private final String _keyID;
+        private final String _userID;
+        private final String _email;
+        private final int _flags;
+        private final int _validity;
+        private final int _ownerTrust;
+        private final long _timestamp;
+        private final long _expires;
+        // only while building the index and for the gpg fallback
+        private final List<String> _ids;
+        private final List<String> _emails;
+
+        Entry(GnuPGKeySnapshot key){
+            _fingerprint = key.getFingerprint();
+            _keyID = key.getKeyID();
+            _userID = key.getUserID();
+            _email = (key.getEmail() == null) ? null : normalizeEmail(key.getEmail());
+            _flags = (key.isRevoked() ? REVOKED : 0)
+                | (key.isExpired() ? EXPIRED : 0)
+                | (key.isDisabled() ? DISABLED : 0)
+                | (key.isInvalid() ? INVALID : 0)
+                | (key.canEncrypt() ? CAN_ENCRYPT : 0)
+                | (key.canSign() ? CAN_SIGN : 0)
+                | (key.canCertify() ? CAN_CERTIFY : 0)
+                | (key.canAuthenticate() ? CAN_AUTHENTICATE : 0)
+                | (key.isSecret() ? SECRET : 0);
+            _validity = key.getUserIDs().isEmpty() ? GnuPGKeySnapshot.VALIDITY_UNKNOWN : key.getUserIDs().get(0).getValidity();
+            _ownerTrust = key.getOwnerTrust();
+            _timestamp = key.getTimestamp();
+            _expires = key.getExpires();
+            //the fingerprints and key-ids of the primary key and of all subkeys
+            _ids = new ArrayList<String>();
+            addID(_fingerprint);
+            addID(_keyID);
+            for(GnuPGKeySnapshot.Subkey subkey : key.getSubkeys()){
+                addID(subkey.getFingerprint());
+                addID(subkey.getKeyID());
+            }
+            _emails = new ArrayList<String>();
+            for(GnuPGKeySnapshot.UserID uid : key.getUserIDs()){
+                String email = normalizeEmail(uid.getEmail());
+                if(email.length() > 0 && !uid.isRevoked() && !_emails.contains(email)){
+                    _emails.add(email);
+                }
+            }
+        }
+
+        Entry(Mapping m, int record){
+            int at = m.recordsAt + record * RECORD_SIZE;
+            ByteBuffer buf = m.buf;
+            _fingerprint = m.string(buf.getInt(at));
+            _keyID = m.string(buf.getInt(at + 4));
+            _userID = m.string(buf.getInt(at + 8));
+            _email = m.string(buf.getInt(at + 12));
+            _flags = buf.getInt(at + 16);
+            _validity = buf.getInt(at + 20);
+            _ownerTrust = buf.getInt(at + 24);
+            _timestamp = buf.getLong(at + 32);
+            _expires = buf.getLong(at + 40);
+            _ids = null;
+            _emails = null;
+        }
+
+        private void addID(String id){
+            if(id == null){
+                return;
+            }
+            String normalized = normalizeID(id);
+            if(!_ids.contains(normalized)){
+                _ids.add(normalized);
+            }
+            if(normalized.length() == 16 && !_ids.contains(shortKeyID(normalized))){
+                _ids.add(shortKeyID(normalized));
+            }
+        }
+
+        /** @return fingerprint of the primary key */
+        public String getFingerprint(){
+            return _fingerprint;
+        }
+
+        /** @return key-id of the primary key */
+        public String getKeyID(){
+            return _keyID;
+        }
+
+        /** @return the default user-id */
+        public String getUserID(){
+            return _userID;
+        }
+
+        /** @return email-address of the default user-id (lower case) */
+        public String getEmail(){
+            return _email;
+        }
+
+        /** @return validity of the default user-id, one of the GnuPGKeySnapshot.VALIDITY_ constants */
+        public int getValidity(){
+            return _validity;
+        }
+
+        /** @return owner trust, one of the GnuPGKeySnapshot.VALIDITY_ constants */
+        public int getOwnerTrust(){
+            return _ownerTrust;
+        }
+
+        /** @return creation time in seconds since the epoch */
+        public long getTimestamp(){
+            return _timestamp;
+        }
+
+        /** @return expiration time in seconds since the epoch, 0 if it never expires */
+        public long getExpires(){
+            return _expires;
+        }
+
+        public boolean isRevoked(){
+            return (_flags & REVOKED) != 0;
+        }
+
+        /** @return true, if the key was expired when the index was built or its expiration time has passed since */
+        public boolean isExpired(){
+            return (_flags & EXPIRED) != 0
+                || (_expires != 0 && _expires * 1000 < System.currentTimeMillis());
+        }
+
+        public boolean isDisabled(){
+            return (_flags & DISABLED) != 0;
+        }
+
+        public boolean isInvalid(){
+            return (_flags & INVALID) != 0;
+        }
+
+        public boolean canEncrypt(){
+            return (_flags & CAN_ENCRYPT) != 0;
+        }
+
+        public boolean canSign(){
+            return (_flags & CAN_SIGN) != 0;
+        }
+
+        public boolean canCertify(){
+            return (_flags & CAN_CERTIFY) != 0;
+        }
+
+        public boolean canAuthenticate(){
+            return (_flags & CAN_AUTHENTICATE) != 0;
+        }
+
+        public boolean isSecret(){
+            return (_flags & SECRET) != 0;
+        }
+
+        /**
+           @return true, if the key can encrypt and is not revoked, expired, disabled or invalid
+         */
+        public boolean isUsableForEncryption(){
+            return canEncrypt() && !isRevoked() && !isExpired() && !isDisabled() && !isInvalid();
+        }
+
+        public String toString(){
+            return _fingerprint + " " + _userID;
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
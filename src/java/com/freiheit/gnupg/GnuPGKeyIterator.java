@@ -0,0 +1,107 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+   Iterates over the result of a key search. The keys are fetched one
+   by one from gpgme while you advance, so the complete result never
+   has to be held in memory.
+   <p>
+   While the iteration is running, the GnuPGContext that created this
+   iterator is busy with the key listing. Don't use the context for
+   anything else, until hasNext() returned false or you called close().
+   Call close() if you stop before the end (or use try-with-resources).
+
+   @see com.freiheit.gnupg.GnuPGContext#keyIterator(String)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGKeyIterator implements Iterator<GnuPGKey>, AutoCloseable{
+    private GnuPGContext _context;
+    private GnuPGKey _next = null;
+    private boolean _done = false;
+
+    /**
+       Use GnuPGContext.keyIterator() to generate an iterator.
+       The key listing must already be started on the context.
+     */
+    protected GnuPGKeyIterator(GnuPGContext context){
+        _context = context;
+    }
+
+    /**
+       Fetches the next key from gpgme, if not already done.
+
+       @return true, if there is another key
+     */
+    public boolean hasNext(){
+        if(_next == null && !_done){
+            //if this throws, gpgme has already ended the key listing
+            _done = true;
+            long ptr = _context.keylistNext();
+            if(ptr != 0){
+                _next = new GnuPGKey(ptr);
+                _done = false;
+            }
+        }
+        return _next != null;
+    }
+
+    /**
+       Returns the next key.
+
+       @return GnuPGKey the next key of the search result
+     */
+    public GnuPGKey next(){
+        if(!hasNext()){
+            throw new NoSuchElementException();
+        }
+        GnuPGKey result = _next;
+        _next = null;
+        return result;
+    }
+
+    /**
+       Keys can not be removed from the keyring with this iterator.
+       Use GnuPGContext.delete() instead.
+     */
+    public void remove(){
+        throw new UnsupportedOperationException("Use GnuPGContext.delete() to remove keys.");
+    }
+
+    /**
+       Stops the key listing early and frees the context for other
+       operations. Calling this after the last key does no harm.
+     */
+    public void close(){
+        if(!_done){
+            _done = true;
+            _context.keylistEnd();
+        }
+        if(_next != null){
+            _next.destroy();
+            _next = null;
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
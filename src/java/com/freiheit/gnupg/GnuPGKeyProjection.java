@@ -0,0 +1,62 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+/**
+   The parts of a key, that GnuPGContext.searchKeySnapshots() copies
+   into a snapshot. The primary key (with fingerprint and key-id) and
+   the flags of the key are always copied. Leaving out the rest saves
+   the copying and the memory, when you search many keys for one
+   attribute.
+
+   @see com.freiheit.gnupg.GnuPGContext#searchKeySnapshots(String, GnuPGKeyProjection)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public enum GnuPGKeyProjection{
+    /** only the primary key: no user-ids, no other subkeys */
+    FINGERPRINT(0),
+    /** the primary key and the default user-id */
+    PRIMARY_USER_ID(GnuPGKeyProjection.PRIMARY_UID),
+    /** the primary key and all subkeys, that can encrypt */
+    ENCRYPTION_SUBKEYS(GnuPGKeyProjection.ENCRYPT_SUBKEYS),
+    /** all user-ids and all subkeys */
+    ALL(GnuPGKeyProjection.ALL_UIDS | GnuPGKeyProjection.ALL_SUBKEYS);
+
+    //the flag bits, keep them in sync with gpgmeutils.h
+    private static final int PRIMARY_UID = 1;
+    private static final int ALL_UIDS = 2;
+    private static final int ENCRYPT_SUBKEYS = 4;
+    private static final int ALL_SUBKEYS = 8;
+
+    private final int _flags;
+
+    private GnuPGKeyProjection(int flags){
+        _flags = flags;
+    }
+
+    /**
+       @return the PROJECT_ flags of the JNI routines
+     */
+    int getFlags(){
+        return _flags;
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
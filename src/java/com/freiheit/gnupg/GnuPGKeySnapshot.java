@@ -0,0 +1,409 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+   An immutable copy of all attributes of a key: every user-id, every
+   subkey, the capabilities, the validity and the owner trust.
+   <p>
+   Other than GnuPGKey, a snapshot is filled in a single call to the
+   native library and holds no native datastructure. You don't have
+   to close it, you can keep it as long as you like and share it
+   between threads. It does not change, when the keyring changes.
+   <p>
+   <em>How to list the keyring?</em>
+   <pre>
+   {@code
+     for(GnuPGKeySnapshot key : ctx.searchKeySnapshots(null)){
+         System.out.println(key.getKeyID() + " " + key.getUserID());
+     }
+   }
+   </pre>
+
+   @see com.freiheit.gnupg.GnuPGContext#searchKeySnapshots(String)
+   @see com.freiheit.gnupg.GnuPGKey#getSnapshot()
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public final class GnuPGKeySnapshot{
+    /** validity (and owner trust) is unknown */
+    public static final int VALIDITY_UNKNOWN = 0;
+    /** validity (and owner trust) is not defined */
+    public static final int VALIDITY_UNDEFINED = 1;
+    /** never valid (never trusted) */
+    public static final int VALIDITY_NEVER = 2;
+    /** marginally valid (trusted) */
+    public static final int VALIDITY_MARGINAL = 3;
+    /** fully valid (trusted) */
+    public static final int VALIDITY_FULL = 4;
+    /** ultimately valid (trusted) */
+    public static final int VALIDITY_ULTIMATE = 5;
+
+    //the flag bits, keep them in sync with gpgmeutils.c
+    private static final int REVOKED = 1;
+    private static final int EXPIRED = 2;
+    private static final int DISABLED = 4;
+    private static final int INVALID = 8;
+    private static final int CAN_ENCRYPT = 16;
+    private static final int CAN_SIGN = 32;
+    private static final int CAN_CERTIFY = 64;
+    private static final int CAN_AUTHENTICATE = 128;
+    private static final int SECRET = 256;
+
+    private final int _flags;
+    private final int _protocol;
+    private final int _ownerTrust;
+    private final List<UserID> _userIDs;
+    private final List<Subkey> _subkeys;
+
+    /**
+       This constructor is only called from within the JNI routines.
+     */
+    GnuPGKeySnapshot(int flags, int protocol, int ownerTrust, UserID[] userIDs, Subkey[] subkeys){
+        _flags = flags;
+        _protocol = protocol;
+        _ownerTrust = ownerTrust;
+        _userIDs = Collections.unmodifiableList(Arrays.asList(userIDs));
+        _subkeys = Collections.unmodifiableList(Arrays.asList(subkeys));
+    }
+
+    /**
+       @return all user-ids, the first one is the default user-id
+     */
+    public List<UserID> getUserIDs(){
+        return _userIDs;
+    }
+
+    /**
+       @return all subkeys, the first one is the primary key
+     */
+    public List<Subkey> getSubkeys(){
+        return _subkeys;
+    }
+
+    /**
+       Get the Name of the default key/userid.
+     */
+    public String getName(){
+        return _userIDs.isEmpty() ? null : _userIDs.get(0).getName();
+    }
+
+    /**
+       Get the Email-Address of the default key/userid.
+     */
+    public String getEmail(){
+        return _userIDs.isEmpty() ? null : _userIDs.get(0).getEmail();
+    }
+
+    /**
+       Get the Comment of the default key/userid.
+     */
+    public String getComment(){
+        return _userIDs.isEmpty() ? null : _userIDs.get(0).getComment();
+    }
+
+    /**
+       Get the User-ID of the default key/userid.
+     */
+    public String getUserID(){
+        return _userIDs.isEmpty() ? null : _userIDs.get(0).getUserID();
+    }
+
+    /**
+       Get the Key-ID of the primary key.
+     */
+    public String getKeyID(){
+        return _subkeys.isEmpty() ? null : _subkeys.get(0).getKeyID();
+    }
+
+    /**
+       Get the Fingerprint of the primary key.
+     */
+    public String getFingerprint(){
+        return _subkeys.isEmpty() ? null : _subkeys.get(0).getFingerprint();
+    }
+
+    /**
+       @return creation time of the primary key in seconds since the epoch, 0 if unknown
+     */
+    public long getTimestamp(){
+        return _subkeys.isEmpty() ? 0 : _subkeys.get(0).getTimestamp();
+    }
+
+    /**
+       @return expiration time of the primary key in seconds since the epoch, 0 if it never expires
+     */
+    public long getExpires(){
+        return _subkeys.isEmpty() ? 0 : _subkeys.get(0).getExpires();
+    }
+
+    /**
+       @return protocol of the key (GnuPGContextPool.OPENPGP for OpenPGP keys)
+     */
+    public int getProtocol(){
+        return _protocol;
+    }
+
+    /**
+       @return how much the owner of the key is trusted, one of the VALIDITY_ constants
+     */
+    public int getOwnerTrust(){
+        return _ownerTrust;
+    }
+
+    /** @return true, if the key is revoked */
+    public boolean isRevoked(){
+        return (_flags & REVOKED) != 0;
+    }
+
+    /** @return true, if the key is expired */
+    public boolean isExpired(){
+        return (_flags & EXPIRED) != 0;
+    }
+
+    /** @return true, if the key is disabled */
+    public boolean isDisabled(){
+        return (_flags & DISABLED) != 0;
+    }
+
+    /** @return true, if the key is invalid */
+    public boolean isInvalid(){
+        return (_flags & INVALID) != 0;
+    }
+
+    /** @return true, if the key (or one of its subkeys) can encrypt */
+    public boolean canEncrypt(){
+        return (_flags & CAN_ENCRYPT) != 0;
+    }
+
+    /** @return true, if the key (or one of its subkeys) can sign */
+    public boolean canSign(){
+        return (_flags & CAN_SIGN) != 0;
+    }
+
+    /** @return true, if the key (or one of its subkeys) can certify */
+    public boolean canCertify(){
+        return (_flags & CAN_CERTIFY) != 0;
+    }
+
+    /** @return true, if the key (or one of its subkeys) can authenticate */
+    public boolean canAuthenticate(){
+        return (_flags & CAN_AUTHENTICATE) != 0;
+    }
+
+    /** @return true, if this is a secret key */
+    public boolean isSecret(){
+        return (_flags & SECRET) != 0;
+    }
+
+    /**
+       Same format as GnuPGKey.toString(), without the signatures.
+       @return String one line with the default user-id of this key
+     */
+    public String toString(){
+        StringBuffer buf = new StringBuffer();
+        buf.append(getKeyID()).
+            append(": ").
+            append(getName()).
+            append(", ").
+            append(getComment()).
+            append(", ").
+            append(getEmail()).
+            append(", ").
+            append("[").
+            append(getFingerprint()).
+            append("]");
+        return buf.toString();
+    }
+
+    /**
+       One user-id of a GnuPGKeySnapshot.
+     */
+    public static final class UserID{
+        private final String _uid;
+        private final String _name;
+        private final String _email;
+        private final String _comment;
+        private final int _validity;
+        private final int _flags;
+
+        /**
+           This constructor is only called from within the JNI routines.
+         */
+        UserID(String uid, String name, String email, String comment, int validity, int flags){
+            _uid = uid;
+            _name = name;
+            _email = email;
+            _comment = comment;
+            _validity = validity;
+            _flags = flags;
+        }
+
+        /** @return the complete user-id */
+        public String getUserID(){
+            return _uid;
+        }
+
+        /** @return the name part of the user-id */
+        public String getName(){
+            return _name;
+        }
+
+        /** @return the email part of the user-id */
+        public String getEmail(){
+            return _email;
+        }
+
+        /** @return the comment part of the user-id */
+        public String getComment(){
+            return _comment;
+        }
+
+        /** @return validity of the user-id, one of the VALIDITY_ constants */
+        public int getValidity(){
+            return _validity;
+        }
+
+        /** @return true, if the user-id is revoked */
+        public boolean isRevoked(){
+            return (_flags & REVOKED) != 0;
+        }
+
+        /** @return true, if the user-id is invalid */
+        public boolean isInvalid(){
+            return (_flags & INVALID) != 0;
+        }
+
+        public String toString(){
+            return _uid;
+        }
+    }
+
+    /**
+       One subkey of a GnuPGKeySnapshot. The first subkey is the
+       primary key.
+     */
+    public static final class Subkey{
+        private final String _keyid;
+        private final String _fpr;
+        private final int _algorithm;
+        private final int _length;
+        private final long _timestamp;
+        private final long _expires;
+        private final int _flags;
+
+        /**
+           This constructor is only called from within the JNI routines.
+         */
+        Subkey(String keyid, String fpr, int algorithm, int length, long timestamp, long expires, int flags){
+            _keyid = keyid;
+            _fpr = fpr;
+            _algorithm = algorithm;
+            _length = length;
+            _timestamp = timestamp;
+            _expires = expires;
+            _flags = flags;
+        }
+
+        /** @return the Key-ID of the subkey */
+        public String getKeyID(){
+            return _keyid;
+        }
+
+        /** @return the Fingerprint of the subkey */
+        public String getFingerprint(){
+            return _fpr;
+        }
+
+        /** @return public key algorithm (OpenPGP algorithm number, e.g. 1 for RSA) */
+        public int getAlgorithm(){
+            return _algorithm;
+        }
+
+        /** @return length of the subkey in bits */
+        public int getLength(){
+            return _length;
+        }
+
+        /** @return creation time in seconds since the epoch, 0 if unknown */
+        public long getTimestamp(){
+            return _timestamp;
+        }
+
+        /** @return expiration time in seconds since the epoch, 0 if it never expires */
+        public long getExpires(){
+            return _expires;
+        }
+
+        /** @return true, if the subkey is revoked */
+        public boolean isRevoked(){
+            return (_flags & REVOKED) != 0;
+        }
+
+        /** @return true, if the subkey is expired */
+        public boolean isExpired(){
+            return (_flags & EXPIRED) != 0;
+        }
+
+        /** @return true, if the subkey is disabled */
+        public boolean isDisabled(){
+            return (_flags & DISABLED) != 0;
+        }
+
+        /** @return true, if the subkey is invalid */
+        public boolean isInvalid(){
+            return (_flags & INVALID) != 0;
+        }
+
+        /** @return true, if the subkey can encrypt */
+        public boolean canEncrypt(){
+            return (_flags & CAN_ENCRYPT) != 0;
+        }
+
+        /** @return true, if the subkey can sign */
+        public boolean canSign(){
+            return (_flags & CAN_SIGN) != 0;
+        }
+
+        /** @return true, if the subkey can certify */
+        public boolean canCertify(){
+            return (_flags & CAN_CERTIFY) != 0;
+        }
+
+        /** @return true, if the subkey can authenticate */
+        public boolean canAuthenticate(){
+            return (_flags & CAN_AUTHENTICATE) != 0;
+        }
+
+        /** @return true, if this is a secret subkey */
+        public boolean isSecret(){
+            return (_flags & SECRET) != 0;
+        }
+
+        public String toString(){
+            return _keyid;
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
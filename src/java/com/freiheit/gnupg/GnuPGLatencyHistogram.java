@@ -0,0 +1,147 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+   A lock-free histogram of durations in nanoseconds. Recording is a
+   few atomic increments, so it can be called from many threads on
+   every operation.
+   <p>
+   Values are counted in buckets: 8 buckets for each power of two.
+   Percentiles are the upper bound of their bucket, so they are at
+   most 12.5% too high (but never above the maximum).
+
+   @see com.freiheit.gnupg.GnuPGMetrics
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGLatencyHistogram{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+       Counts one value.
+
+       @param nanos the duration, negative values count as 0
+     */
+    public void record(long nanos){
+        long value = Math.max(0, nanos);
+        _counts.incrementAndGet(bucket(value));
+        _count.incrementAndGet();
+        _total.addAndGet(value);
+        _max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+       @return number of recorded values
+     */
+    public long getCount(){
+        return _count.get();
+    }
+
+    /**
+       @return largest recorded value, 0 if nothing was recorded
+     */
+    public long getMax(){
+        return _max.get();
+    }
+
+    /**
+       @return average of the recorded values, 0 if nothing was recorded
+     */
+    public double getMean(){
+        long count = _count.get();
+        return (count == 0) ? 0 : (double)_total.get() / count;
+    }
+
+    /**
+       Returns the value, that the given fraction of all recorded
+       values does not exceed, e.g. getPercentile(0.99) for the p99.
+
+       @param fraction between 0 and 1
+       @return the percentile in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double fraction){
+        if(fraction < 0 || fraction > 1){
+            throw new IllegalArgumentException("Fraction must be between 0 and 1.");
+        }
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        //a consistent copy: _count may already be ahead of the buckets
+        for(int i = 0; i < BUCKETS; i++){
+            counts[i] = _counts.get(i);
+            count += counts[i];
+        }
+        if(count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(fraction * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts[i];
+            if(seen >= rank){
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+       Forgets all recorded values. Values recorded at the same time
+       may get lost.
+     */
+    public void reset(){
+        for(int i = 0; i < BUCKETS; i++){
+            _counts.set(i, 0);
+        }
+        _count.set(0);
+        _total.set(0);
+        _max.set(0);
+    }
+
+    private static int bucket(long value){
+        if(value < SUB_BUCKETS){
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket){
+        if(bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+        return lower + width - 1;
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
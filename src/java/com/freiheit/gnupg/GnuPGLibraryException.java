@@ -0,0 +1,43 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+/**
+   Thrown, if the native library of Java for GnuPG can not be loaded.
+   Other than GnuPGException, this is a checked exception: without the
+   native library, nothing in this package works.
+
+   @see com.freiheit.gnupg.GnuPGLibraryLoader
+
+   @author Stefan Richter, stefan@freiheit.com
+*/
+public class GnuPGLibraryException extends Exception{
+
+    private static final long serialVersionUID = 3620513388276301512L;
+
+    /**
+       @param msg describes, what was tried
+       @param cause the last failure
+     */
+    GnuPGLibraryException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
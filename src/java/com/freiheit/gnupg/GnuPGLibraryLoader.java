@@ -0,0 +1,313 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+   Loads the native library of Java for GnuPG. GnuPGContext does this
+   when it is loaded, so you normally don't need this class. Call
+   load() at startup, if you want to fail early with a proper error.
+   <p>
+   The library is searched in this order:
+   <ol>
+   <li>the file in the system property <em>javagnupg.library.path</em>, if set</li>
+   <li>javagnupg in the <em>java.library.path</em> (System.loadLibrary())</li>
+   <li>the library inside the jar file for the current architecture</li>
+   </ol>
+   It is not possible to load a shared library directly from a jar
+   file. So the library from the jar is copied once into a cache
+   directory, named after a hash of its content, and all later JVMs
+   load the same copy. The cache directory is the system property
+   <em>javagnupg.library.cache</em> (default: .javagnupg in the home
+   directory of the user). The cache directory and all directories in
+   it must belong to the current user and be accessible only by this
+   user (rwx------), and so must the library, otherwise the jar file is
+   not used. A cached copy is checked against the hash before it is
+   loaded.
+   <p>
+   What is tried and why it failed is logged to
+   java.util.logging (logger com.freiheit.gnupg.GnuPGLibraryLoader).
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public final class GnuPGLibraryLoader{
+    /** system property with the path of the native library file */
+    public static final String LIBRARY_PATH_PROPERTY = "javagnupg.library.path";
+    /** system property with the directory for the library copied from the jar */
+    public static final String CACHE_DIR_PROPERTY = "javagnupg.library.cache";
+
+    private static final String LIBRARY_NAME = "javagnupg";
+    private static final String PRIVATE = "rwx------";
+    private static final Logger LOG = Logger.getLogger(GnuPGLibraryLoader.class.getName());
+
+    private static String _loadedFrom = null;
+    private static GnuPGLibraryException _failure = null;
+
+    private GnuPGLibraryLoader(){
+    }
+
+    /**
+       Loads the native library, if not already done. Only the first
+       call really tries to load it: later calls return at once or
+       throw the same failure again.
+
+       @throws GnuPGLibraryException if the library could not be loaded from anywhere
+     */
+    public static synchronized void load() throws GnuPGLibraryException{
+        if(_loadedFrom != null){
+            return;
+        }
+        if(_failure != null){
+            throw _failure;
+        }
+        try{
+            _loadedFrom = loadFirstFound();
+            LOG.fine("Loaded native library from " + _loadedFrom);
+        }
+        catch(GnuPGLibraryException e){
+            _failure = e;
+            throw e;
+        }
+    }
+
+    /**
+       @return where the native library was loaded from, null if it is not loaded
+     */
+    public static synchronized String getLoadedFrom(){
+        return _loadedFrom;
+    }
+
+    private static String loadFirstFound() throws GnuPGLibraryException{
+        Throwable last = null;
+
+        String path = System.getProperty(LIBRARY_PATH_PROPERTY);
+        if(path != null){
+            try{
+                System.load(path);
+                return path;
+            }
+            catch(UnsatisfiedLinkError e){
+                LOG.log(Level.WARNING, "Unable to load native library " + path + " from " + LIBRARY_PATH_PROPERTY, e);
+                last = e;
+            }
+        }
+
+        try{
+            System.loadLibrary(LIBRARY_NAME);
+            return "java.library.path";
+        }
+        catch(UnsatisfiedLinkError e){
+            LOG.log(Level.FINE, "No native library in java.library.path, trying the jar file", e);
+            last = e;
+        }
+
+        String resource = getResourceName();
+        try{
+            Path lib = extract(resource);
+            System.load(lib.toString());
+            return lib.toString();
+        }
+        catch(IOException | UnsatisfiedLinkError e){
+            LOG.log(Level.SEVERE, "Unable to load native library " + resource + " from the jar file", e);
+            last = e;
+        }
+        throw new GnuPGLibraryException("Unable to load the native library: tried "
+                                        + (path != null ? path + ", " : "")
+                                        + "java.library.path and " + resource
+                                        + " (Java for GnuPG is platform dependent!)", last);
+    }
+
+    /**
+       Name of the library inside the jar file for this operating system
+       and architecture.
+     */
+    private static String getResourceName(){
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        if(os.startsWith("windows")){
+            return "/c/javagnupg.dll";
+        }
+        String arch = System.getProperty("os.arch", "");
+        String bits = arch.endsWith("64") ? "64" : "32";
+        return "/c/libjavagnupg." + bits + ".so";
+    }
+
+    /**
+       Copies the library from the jar to the cache directory, unless
+       an intact copy is already there.
+     */
+    private static Path extract(String resource) throws IOException{
+        byte[] content = readResource(resource);
+        String hash = hash(content);
+        String fileName = resource.substring(resource.lastIndexOf('/') + 1);
+        Path root = getCacheDir();
+        Path dir = root.resolve(hash);
+        Path lib = dir.resolve(fileName);
+
+        //nobody else may replace the library between the hash check and System.load()
+        createPrivateDirectories(root, dir);
+        if(Files.isRegularFile(lib, LinkOption.NOFOLLOW_LINKS)){
+            checkOwner(lib, false);
+            if(hash.equals(hash(Files.readAllBytes(lib)))){
+                LOG.fine("Reusing cached native library " + lib);
+                return lib;
+            }
+        }
+
+        //write to a temp file and rename: other JVMs never see half a library
+        Path temp = Files.createTempFile(dir, fileName, ".tmp");
+        try{
+            Files.write(temp, content);
+            try{
+                Files.move(temp, lib, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(FileAlreadyExistsException e){
+                //another JVM was faster
+            }
+        }
+        finally{
+            Files.deleteIfExists(temp);
+        }
+        LOG.fine("Extracted native library to " + lib);
+        return lib;
+    }
+
+    private static Path getCacheDir(){
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if(dir != null){
+            return Paths.get(dir).toAbsolutePath();
+        }
+        return Paths.get(System.getProperty("user.home"), "." + LIBRARY_NAME).toAbsolutePath();
+    }
+
+    /**
+       Creates the missing directories from root up to dir, readable
+       and writable only by the owner, and checks, that the existing
+       ones are private, too: nobody else may replace the library we
+       load.
+     */
+    private static void createPrivateDirectories(Path root, Path dir) throws IOException{
+        if(dir.equals(root)){
+            Path parent = root.getParent();
+            if(parent != null){
+                Files.createDirectories(parent);
+            }
+        }
+        else{
+            createPrivateDirectories(root, dir.getParent());
+        }
+        try{
+            Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(PRIVATE)));
+        }
+        catch(UnsupportedOperationException e){
+            //not a posix file system
+            Files.createDirectory(dir);
+        }
+        catch(FileAlreadyExistsException e){
+            //created before or by another JVM: must be ours all the same
+        }
+        checkOwner(dir, true);
+    }
+
+    /**
+       Refuses a file or directory, that is a symbolic link, that
+       belongs to another user or that others may change.
+
+       @param directory true for a directory, which must be rwx------
+     */
+    private static void checkOwner(Path path, boolean directory) throws IOException{
+        PosixFileAttributes attributes;
+        try{
+            attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(UnsupportedOperationException e){
+            //not a posix file system, e.g. windows: the home directory is private anyway
+            return;
+        }
+        UserPrincipal user = FileSystems.getDefault().getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+        if(!attributes.owner().equals(user)){
+            throw new IOException(path + " does not belong to " + user.getName() + " but to " + attributes.owner().getName());
+        }
+        if(directory){
+            if(!attributes.isDirectory() || !PosixFilePermissions.toString(attributes.permissions()).equals(PRIVATE)){
+                throw new IOException(path + " is not a private directory (" + PRIVATE + ")");
+            }
+        }
+        else if(!attributes.isRegularFile()
+                || attributes.permissions().contains(PosixFilePermission.GROUP_WRITE)
+                || attributes.permissions().contains(PosixFilePermission.OTHERS_WRITE)){
+            throw new IOException(path + " is not a regular file or writable by others");
+        }
+    }
+
+    private static byte[] readResource(String resource) throws IOException{
+        InputStream in = GnuPGLibraryLoader.class.getResourceAsStream(resource);
+        if(in == null){
+            throw new IOException("No native library " + resource + " in the jar file.");
+        }
+        try{
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[64 * 1024];
+            for(int i = in.read(buf); i != -1; i = in.read(buf)){
+                out.write(buf, 0, i);
+            }
+            return out.toByteArray();
+        }
+        finally{
+            in.close();
+        }
+    }
+
+    private static String hash(byte[] content){
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuffer buf = new StringBuffer();
+            for(byte b : Arrays.copyOf(digest, 16)){
+                buf.append(String.format("%02x", b & 0xff));
+            }
+            return buf.toString();
+        }
+        catch(NoSuchAlgorithmException e){
+            //every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
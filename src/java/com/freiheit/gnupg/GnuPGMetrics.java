@@ -0,0 +1,148 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+   A GnuPGMetricsListener, that collects statistics per operation:
+   latency histograms (with percentiles), the time spent in the
+   native library versus the passphrase listener, the bytes moved and
+   the gpgme errors. Recording is lock-free, one GnuPGMetrics can be
+   shared by all contexts of a program.
+   <p>
+   The statistics can be published as JMX MBeans, one per operation,
+   named <em>com.freiheit.gnupg:type=GnuPGMetrics,name=&lt;name&gt;,operation=&lt;OPERATION&gt;</em>.
+   Alert on the attribute P99Millis, for example.
+   <p>
+   <em>How to monitor a pool?</em>
+   <pre>
+   {@code
+     GnuPGMetrics metrics = new GnuPGMetrics();
+     metrics.registerMBeans("mail-signer");
+     pool.setMetricsListener(metrics);
+   }
+   </pre>
+
+   @see com.freiheit.gnupg.GnuPGOperationStatsMBean
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGMetrics implements GnuPGMetricsListener{
+    private final Map<Operation, GnuPGOperationStats> _stats =
+        new EnumMap<Operation, GnuPGOperationStats>(Operation.class);
+    private final List<ObjectName> _registered = new ArrayList<ObjectName>();
+
+    /**
+       Creates empty statistics for all operations.
+     */
+    public GnuPGMetrics(){
+        for(Operation op : Operation.values()){
+            _stats.put(op, new GnuPGOperationStats(op));
+        }
+    }
+
+    public void operationCompleted(Operation operation, long wallNanos, long passphraseNanos,
+                                   long bytesIn, long bytesOut, int errorCode){
+        _stats.get(operation).record(wallNanos, passphraseNanos, bytesIn, bytesOut, errorCode);
+    }
+
+    /**
+       @param operation the operation
+       @return statistics of the operation
+     */
+    public GnuPGOperationStats getStats(Operation operation){
+        return _stats.get(operation);
+    }
+
+    /**
+       Registers one MBean per operation with the platform MBean server.
+
+       @param name distinguishes these metrics from others in the same JVM
+       @throws GnuPGException if the name is invalid or already registered
+     */
+    public synchronized void registerMBeans(String name) throws GnuPGException{
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try{
+            for(Operation op : Operation.values()){
+                ObjectName objectName = new ObjectName("com.freiheit.gnupg:type=GnuPGMetrics,name="
+                                                       + ObjectName.quote(name) + ",operation=" + op.name());
+                server.registerMBean(_stats.get(op), objectName);
+                _registered.add(objectName);
+            }
+        }
+        catch(InstanceAlreadyExistsException e){
+            unregisterMBeans();
+            throw new GnuPGException("GnuPGMetrics " + name + " is already registered.");
+        }
+        catch(JMException e){
+            unregisterMBeans();
+            throw new GnuPGException("Unable to register GnuPGMetrics " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+       Removes the MBeans registered by registerMBeans().
+     */
+    public synchronized void unregisterMBeans(){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(ObjectName objectName : _registered){
+            try{
+                server.unregisterMBean(objectName);
+            }
+            catch(JMException e){
+                //already gone
+            }
+        }
+        _registered.clear();
+    }
+
+    /**
+       Starts counting from zero for all operations.
+     */
+    public void reset(){
+        for(GnuPGOperationStats stats : _stats.values()){
+            stats.reset();
+        }
+    }
+
+    /**
+       @return one line of statistics per operation, that was used
+     */
+    public String toString(){
+        StringBuffer buf = new StringBuffer();
+        for(GnuPGOperationStats stats : _stats.values()){
+            if(stats.getCount() > 0){
+                buf.append(stats).append("\n");
+            }
+        }
+        return buf.toString();
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
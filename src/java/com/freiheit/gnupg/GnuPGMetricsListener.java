@@ -0,0 +1,81 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+/**
+   Implement this interface, if you want to measure the operations
+   of a GnuPGContext. Register it with GnuPGContext.setMetricsListener()
+   or GnuPGContextPool.setMetricsListener().
+   <p>
+   The listener is called synchronously on the thread, that ran the
+   operation, after the operation completed or failed. For the
+   asynchronous operations, that is a completion thread of the event
+   loop, before the returned future completes. Keep it fast
+   and don't throw: exceptions of a listener are logged and ignored.
+   GnuPGMetrics is a ready made listener with latency histograms and
+   JMX support.
+
+   @see com.freiheit.gnupg.GnuPGMetrics
+   @see com.freiheit.gnupg.GnuPGContext#setMetricsListener(GnuPGMetricsListener)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public interface GnuPGMetricsListener{
+    /**
+       The measured operations of GnuPGContext.
+     */
+    public enum Operation{
+        /** encrypt() and encryptAsync() */
+        ENCRYPT,
+        /** decrypt() and decryptAsync() */
+        DECRYPT,
+        /** sign() and signAsync() */
+        SIGN,
+        /** verify() and verifyAsync() */
+        VERIFY,
+        /** searchKeys() and searchKeySnapshots() */
+        SEARCH_KEYS,
+        /** importKey() */
+        IMPORT,
+        /** encryptAndSign() */
+        ENCRYPT_SIGN,
+        /** decryptAndVerify() */
+        DECRYPT_VERIFY,
+        /** exportKeys(), once for each run of gpg */
+        EXPORT
+    }
+
+    /**
+       Called after each operation.
+       <p>
+       The time spent in the native library and the gpg engine is
+       wallNanos - passphraseNanos.
+
+       @param operation the operation
+       @param wallNanos duration of the complete operation
+       @param passphraseNanos part of wallNanos spent in the GnuPGPassphraseListener
+       @param bytesIn bytes read from the input data objects, -1 if unknown or not applicable
+       @param bytesOut bytes written to the output data object, -1 if unknown or not applicable
+       @param errorCode 0 on success, the gpgme error code (see GnuPGException.getErrorCode()) or -1 for other failures
+     */
+    public void operationCompleted(Operation operation, long wallNanos, long passphraseNanos,
+                                   long bytesIn, long bytesOut, int errorCode);
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -0,0 +1,181 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+   Keeps track of the gpgme datastructures held by GnuPGContext,
+   GnuPGData and GnuPGKey objects.
+   <p>
+   Every such object releases its datastructure in close() (or
+   destroy()). If you forget to close it, the datastructure is
+   released by a Cleaner after the object was garbage collected. This
+   works, but it is late and it is a leak in your program: watch
+   getReclaimedCount() to find such leaks in production.
+   <p>
+   <em>How to check for leaks?</em>
+   <pre>
+   {@code
+     long live = GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.DATA);
+     long leaked = GnuPGNativeHandles.getReclaimedCount(GnuPGNativeHandles.Kind.DATA);
+   }
+   </pre>
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public final class GnuPGNativeHandles{
+    /**
+       The kinds of gpgme datastructures.
+     */
+    public enum Kind{
+        /** gpgme_ctx_t of a GnuPGContext */
+        CONTEXT,
+        /** gpgme_data_t of a GnuPGData */
+        DATA,
+        /** gpgme_key_t reference of a GnuPGKey */
+        KEY,
+        /** native recipient array of a GnuPGBatchEncryptor */
+        RECIPIENTS
+    }
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final AtomicLong[] LIVE = newCounters();
+    private static final AtomicLong[] CREATED = newCounters();
+    private static final AtomicLong[] RECLAIMED = newCounters();
+
+    private GnuPGNativeHandles(){
+    }
+
+    /**
+       @param kind kind of datastructure
+       @return number of datastructures currently allocated
+     */
+    public static long getLiveCount(Kind kind){
+        return LIVE[kind.ordinal()].get();
+    }
+
+    /**
+       @param kind kind of datastructure
+       @return number of datastructures allocated since the library was loaded
+     */
+    public static long getCreatedCount(Kind kind){
+        return CREATED[kind.ordinal()].get();
+    }
+
+    /**
+       @param kind kind of datastructure
+       @return number of datastructures, that were not closed, but released after garbage collection
+     */
+    public static long getReclaimedCount(Kind kind){
+        return RECLAIMED[kind.ordinal()].get();
+    }
+
+    /**
+       @return live, created and reclaimed counts of all kinds
+     */
+    public static String getSummary(){
+        StringBuffer buf = new StringBuffer();
+        for(Kind kind : Kind.values()){
+            if(buf.length() > 0){
+                buf.append(", ");
+            }
+            buf.append(kind).append(": ").
+                append(getLiveCount(kind)).append(" live/").
+                append(getCreatedCount(kind)).append(" created/").
+                append(getReclaimedCount(kind)).append(" reclaimed");
+        }
+        return buf.toString();
+    }
+
+    /**
+       Registers a new datastructure. The release function must not
+       hold a reference on the owner, otherwise the owner is never
+       garbage collected.
+
+       @param owner the Java object holding the datastructure
+       @param kind kind of datastructure
+       @param ptr pointer to the datastructure
+       @param release frees the datastructure
+       @return Handle, close it to release the datastructure at once
+     */
+    static Handle register(Object owner, Kind kind, long ptr, Release release){
+        Handle handle = new Handle(kind, ptr, release);
+        handle._cleanable = CLEANER.register(owner, handle);
+        CREATED[kind.ordinal()].incrementAndGet();
+        LIVE[kind.ordinal()].incrementAndGet();
+        return handle;
+    }
+
+    private static AtomicLong[] newCounters(){
+        AtomicLong[] counters = new AtomicLong[Kind.values().length];
+        for(int i = 0; i < counters.length; i++){
+            counters[i] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    /**
+       Frees a gpgme datastructure.
+     */
+    interface Release{
+        void release(long ptr);
+    }
+
+    /**
+       The registration of one datastructure. Runs at most once:
+       either on close() or by the Cleaner.
+     */
+    static final class Handle implements Runnable{
+        private final Kind _kind;
+        private final long _ptr;
+        private final Release _release;
+        private Cleaner.Cleanable _cleanable;
+        private volatile boolean _closed = false;
+
+        private Handle(Kind kind, long ptr, Release release){
+            _kind = kind;
+            _ptr = ptr;
+            _release = release;
+        }
+
+        /**
+           Releases the datastructure now.
+         */
+        void close(){
+            _closed = true;
+            _cleanable.clean();
+        }
+
+        public void run(){
+            try{
+                _release.release(_ptr);
+            }
+            finally{
+                LIVE[_kind.ordinal()].decrementAndGet();
+                if(!_closed){
+                    RECLAIMED[_kind.ordinal()].incrementAndGet();
+                }
+            }
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
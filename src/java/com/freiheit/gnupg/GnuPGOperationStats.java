@@ -0,0 +1,141 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+   Statistics of one kind of operation, collected by GnuPGMetrics:
+   a latency histogram of the wall time, the native and passphrase
+   time, the bytes moved and the errors. Safe to update from many
+   threads without locking.
+
+   @see com.freiheit.gnupg.GnuPGMetrics#getStats(GnuPGMetricsListener.Operation)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGOperationStats implements GnuPGOperationStatsMBean{
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final GnuPGMetricsListener.Operation _operation;
+    private final GnuPGLatencyHistogram _wallTime = new GnuPGLatencyHistogram();
+    private final AtomicLong _nativeNanos = new AtomicLong();
+    private final AtomicLong _passphraseNanos = new AtomicLong();
+    private final AtomicLong _bytesIn = new AtomicLong();
+    private final AtomicLong _bytesOut = new AtomicLong();
+    private final AtomicLong _errors = new AtomicLong();
+    private volatile int _lastErrorCode = 0;
+
+    GnuPGOperationStats(GnuPGMetricsListener.Operation operation){
+        _operation = operation;
+    }
+
+    void record(long wallNanos, long passphraseNanos, long bytesIn, long bytesOut, int errorCode){
+        _wallTime.record(wallNanos);
+        _nativeNanos.addAndGet(Math.max(0, wallNanos - passphraseNanos));
+        _passphraseNanos.addAndGet(passphraseNanos);
+        if(bytesIn > 0){
+            _bytesIn.addAndGet(bytesIn);
+        }
+        if(bytesOut > 0){
+            _bytesOut.addAndGet(bytesOut);
+        }
+        if(errorCode != 0){
+            _errors.incrementAndGet();
+            _lastErrorCode = errorCode;
+        }
+    }
+
+    /**
+       @return histogram of the wall time of the operations in nanoseconds
+     */
+    public GnuPGLatencyHistogram getWallTime(){
+        return _wallTime;
+    }
+
+    public String getOperation(){
+        return _operation.name();
+    }
+
+    public long getCount(){
+        return _wallTime.getCount();
+    }
+
+    public long getErrorCount(){
+        return _errors.get();
+    }
+
+    public int getLastErrorCode(){
+        return _lastErrorCode;
+    }
+
+    public double getMeanMillis(){
+        return _wallTime.getMean() / NANOS_PER_MILLI;
+    }
+
+    public double getP50Millis(){
+        return _wallTime.getPercentile(0.5) / NANOS_PER_MILLI;
+    }
+
+    public double getP99Millis(){
+        return _wallTime.getPercentile(0.99) / NANOS_PER_MILLI;
+    }
+
+    public double getP999Millis(){
+        return _wallTime.getPercentile(0.999) / NANOS_PER_MILLI;
+    }
+
+    public double getMaxMillis(){
+        return _wallTime.getMax() / NANOS_PER_MILLI;
+    }
+
+    public double getNativeMillis(){
+        return _nativeNanos.get() / NANOS_PER_MILLI;
+    }
+
+    public double getPassphraseMillis(){
+        return _passphraseNanos.get() / NANOS_PER_MILLI;
+    }
+
+    public long getBytesIn(){
+        return _bytesIn.get();
+    }
+
+    public long getBytesOut(){
+        return _bytesOut.get();
+    }
+
+    public void reset(){
+        _wallTime.reset();
+        _nativeNanos.set(0);
+        _passphraseNanos.set(0);
+        _bytesIn.set(0);
+        _bytesOut.set(0);
+        _errors.set(0);
+        _lastErrorCode = 0;
+    }
+
+    public String toString(){
+        return String.format("%s: %d ops, %d errors, mean %.3f ms, p99 %.3f ms, max %.3f ms",
+                             getOperation(), getCount(), getErrorCount(),
+                             getMeanMillis(), getP99Millis(), getMaxMillis());
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -0,0 +1,60 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+/**
+   JMX view of the statistics of one operation, registered by
+   GnuPGMetrics.registerMBeans(). All times are in milliseconds.
+
+   @see com.freiheit.gnupg.GnuPGOperationStats
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public interface GnuPGOperationStatsMBean{
+    /** @return name of the operation */
+    public String getOperation();
+    /** @return number of completed operations, including failed ones */
+    public long getCount();
+    /** @return number of failed operations */
+    public long getErrorCount();
+    /** @return gpgme error code of the last failure, 0 if none */
+    public int getLastErrorCode();
+    /** @return average wall time */
+    public double getMeanMillis();
+    /** @return median wall time */
+    public double getP50Millis();
+    /** @return 99th percentile of the wall time */
+    public double getP99Millis();
+    /** @return 99.9th percentile of the wall time */
+    public double getP999Millis();
+    /** @return maximum wall time */
+    public double getMaxMillis();
+    /** @return total time spent in the native library and the engine */
+    public double getNativeMillis();
+    /** @return total time spent in the passphrase listener */
+    public double getPassphraseMillis();
+    /** @return total number of input bytes */
+    public long getBytesIn();
+    /** @return total number of output bytes */
+    public long getBytesOut();
+    /** Starts counting from zero. */
+    public void reset();
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -0,0 +1,214 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+   Runs one task per item in parallel, each on a context borrowed
+   from a pool, and returns the results in the order of the items.
+   Used by GnuPGBatchEncryptor and GnuPGBulkVerifier.
+
+   @see com.freiheit.gnupg.GnuPGBatchEncryptor
+   @see com.freiheit.gnupg.GnuPGBulkVerifier
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+class GnuPGOrderedExecutor<I, O>{
+    private final String _name;
+    private final GnuPGContextPool _pool;
+    private final boolean _ownPool;
+    private final int _parallelism;
+    private final Task<I, O> _task;
+    private final ExecutorService _executor;
+    // guarded by this: no submit after the shutdown
+    private boolean _closed = false;
+
+    /**
+       The work for one item.
+     */
+    interface Task<I, O>{
+        O run(GnuPGContext ctx, I item) throws GnuPGException;
+    }
+
+    /**
+       @param name of the owner, for the error messages
+       @param pool lends the contexts
+       @param ownPool true, if the pool is closed with this executor
+       @param parallelism number of items processed at the same time
+       @param task processes one item
+     */
+    GnuPGOrderedExecutor(String name, GnuPGContextPool pool, boolean ownPool, int parallelism, Task<I, O> task){
+        if(pool == null){
+            throw new GnuPGException("Parameters not complete or null.");
+        }
+        if(parallelism < 1){
+            throw new GnuPGException("Parallelism must be positive.");
+        }
+        _name = name;
+        _pool = pool;
+        _ownPool = ownPool;
+        _parallelism = parallelism;
+        _task = task;
+        //a forgotten close() must not keep the JVM alive
+        _executor = Executors.newFixedThreadPool(parallelism, new GnuPGEventLoop.DaemonThreadFactory("gnupg-" + name + "-"));
+    }
+
+    /**
+       Processes all items and waits for all results.
+     */
+    List<O> runAll(List<I> items) throws GnuPGException{
+        List<Future<O>> pending = new ArrayList<Future<O>>(items.size());
+        try{
+            for(I item : items){
+                pending.add(submit(item));
+            }
+            List<O> result = new ArrayList<O>(items.size());
+            for(Future<O> future : pending){
+                result.add(await(future));
+            }
+            return result;
+        }
+        finally{
+            //after a failure, don't waste the engine on the rest; a no-op for finished ones
+            for(Future<O> future : pending){
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+       Processes the items while the returned stream is consumed. At
+       most twice the parallelism of items are in flight, so the items
+       are read only as fast as they are processed.
+     */
+    Stream<O> runAll(final Stream<I> items) throws GnuPGException{
+        final Iterator<I> source = items.iterator();
+        final ArrayDeque<Future<O>> window = new ArrayDeque<Future<O>>();
+        Iterator<O> results = new Iterator<O>(){
+                public boolean hasNext(){
+                    while(window.size() < 2 * _parallelism && source.hasNext()){
+                        window.addLast(submit(source.next()));
+                    }
+                    return !window.isEmpty();
+                }
+
+                public O next(){
+                    if(!hasNext()){
+                        throw new NoSuchElementException();
+                    }
+                    return await(window.removeFirst());
+                }
+            };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(new Runnable(){
+                    public void run(){
+                        for(Future<O> future : window){
+                            future.cancel(false);
+                        }
+                        window.clear();
+                        items.close();
+                    }
+                });
+    }
+
+    private Future<O> submit(final I item){
+        if(item == null){
+            throw new GnuPGException("Item is null.");
+        }
+        Callable<O> call = new Callable<O>(){
+                public O call() throws Exception{
+                    try(GnuPGContextPool.Lease lease = _pool.borrow()){
+                        return _task.run(lease.getContext(), item);
+                    }
+                }
+            };
+        //under the lock of close(): the executor never rejects the task
+        synchronized(this){
+            if(_closed){
+                throw new GnuPGException(_name + " is closed.");
+            }
+            return _executor.submit(call);
+        }
+    }
+
+    private O await(Future<O> future){
+        try{
+            return future.get();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new GnuPGException("Interrupted while waiting for " + _name + ".");
+        }
+        catch(ExecutionException e){
+            if(e.getCause() instanceof GnuPGException){
+                throw (GnuPGException)e.getCause();
+            }
+            throw new GnuPGException(_name + " failed: " + e.getCause());
+        }
+    }
+
+    /**
+       Waits for the running tasks. A pool owned by this executor is
+       closed, too.
+
+       @return true, if no task is running anymore (false after an interruption)
+     */
+    boolean close(){
+        synchronized(this){
+            _closed = true;
+            _executor.shutdown();
+        }
+        boolean terminated = false;
+        try{
+            terminated = _executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        if(_ownPool){
+            _pool.close();
+        }
+        return terminated;
+    }
+
+    /**
+       Creates a data object with the bytes, also for an empty array.
+     */
+    static GnuPGData newData(GnuPGContext ctx, byte[] data){
+        //the factory refuses empty arrays
+        return (data.length == 0) ? ctx.createDataObject() : ctx.createDataObject(data);
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -0,0 +1,213 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+   Remembers the passphrases of another GnuPGPassphraseListener, so
+   that it is asked only once for each key. Use it, if your listener is
+   slow, e.g. because it fetches passphrases from a remote vault.
+   <p>
+   Passphrases are cached per key, as identified by the hint and the
+   passphrase info from gpgme. A passphrase is forgotten after a time
+   to live or after a maximum number of uses, whatever comes first.
+   If gpgme reports, that a cached passphrase was wrong, it is
+   forgotten at once and the wrapped listener is asked again.
+   <p>
+   Passphrases are held as char[] only and are zeroed, when they are
+   forgotten. Override getPassphraseChars() in the wrapped listener,
+   if it should never create a String either.
+   <p>
+   <em>How to cache passphrases for five minutes?</em>
+   <pre>
+   {@code
+     GnuPGPassphraseCache cache = new GnuPGPassphraseCache(vaultListener, 5 * 60 * 1000, 100);
+     ctx.setPassphraseListener(cache);
+   }
+   </pre>
+   A cache is safe to share between contexts and threads.
+
+   @see com.freiheit.gnupg.GnuPGPassphraseListener
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGPassphraseCache implements GnuPGPassphraseListener{
+    private final GnuPGPassphraseListener _listener;
+    private final long _timeToLive;
+    private final int _maxUses;
+    private final Map<String, Entry> _entries = new HashMap<String, Entry>();
+
+    private long _hits = 0;
+    private long _misses = 0;
+
+    /**
+       Creates a new cache for the passphrases of the given listener.
+
+       @param listener asked for passphrases, that are not in the cache
+       @param timeToLive milliseconds a passphrase stays in the cache after it was fetched
+       @param maxUses number of operations a cached passphrase is used for, before the listener is asked again
+     */
+    public GnuPGPassphraseCache(GnuPGPassphraseListener listener, long timeToLive, int maxUses){
+        if(listener == null){
+            throw new GnuPGException("No GnuPGPassphraseListener to cache.");
+        }
+        if(timeToLive < 1 || maxUses < 1){
+            throw new GnuPGException("Time to live and maximum uses must be positive.");
+        }
+        _listener = listener;
+        _timeToLive = timeToLive;
+        _maxUses = maxUses;
+    }
+
+    /**
+       Only for listeners, that don't support char[]. The passphrase
+       becomes a String here, prefer getPassphraseChars().
+     */
+    public String getPassphrase(String hint, String passphraseInfo, long wasBad){
+        char[] passphrase = getPassphraseChars(hint, passphraseInfo, wasBad);
+        if(passphrase == null){
+            return null;
+        }
+        String result = new String(passphrase);
+        Arrays.fill(passphrase, '\0');
+        return result;
+    }
+
+    /**
+       Returns the cached passphrase for the key or asks the wrapped
+       listener. The result is always a fresh copy, that the caller
+       may zero.
+     */
+    public char[] getPassphraseChars(String hint, String passphraseInfo, long wasBad){
+        String id = hint + "\n" + passphraseInfo;
+        synchronized(this){
+            if(wasBad != 0){
+                //the cached passphrase (if any) was the wrong one
+                evict(id);
+            }
+            else{
+                Entry entry = _entries.get(id);
+                if(entry != null && isAlive(entry)){
+                    _hits++;
+                    entry.uses++;
+                    char[] passphrase = entry.passphrase.clone();
+                    if(entry.uses >= _maxUses){
+                        evict(id);
+                    }
+                    return passphrase;
+                }
+                evict(id);
+            }
+            _misses++;
+        }
+
+        //ask outside of the lock, the listener may be slow
+        char[] passphrase = _listener.getPassphraseChars(hint, passphraseInfo, wasBad);
+        if(passphrase == null){
+            return null;
+        }
+        //the first use is this one
+        if(_maxUses > 1){
+            synchronized(this){
+                evict(id);
+                _entries.put(id, new Entry(passphrase.clone(), System.currentTimeMillis() + _timeToLive));
+            }
+        }
+        return passphrase;
+    }
+
+    /**
+       Forgets all passphrases.
+     */
+    public synchronized void invalidateAll(){
+        for(Entry entry : _entries.values()){
+            entry.wipe();
+        }
+        _entries.clear();
+    }
+
+    /**
+       Forgets all passphrases, that are expired. This happens
+       anyway when they are needed next time, call it to zero them
+       earlier.
+     */
+    public synchronized void evictExpired(){
+        Iterator<Entry> iter = _entries.values().iterator();
+        while(iter.hasNext()){
+            Entry entry = iter.next();
+            if(!isAlive(entry)){
+                entry.wipe();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+       @return number of cached passphrases (including expired ones, that were not evicted yet)
+     */
+    public synchronized int size(){
+        return _entries.size();
+    }
+
+    /**
+       @return number of passphrases answered from the cache
+     */
+    public synchronized long getHits(){
+        return _hits;
+    }
+
+    /**
+       @return number of passphrases fetched from the wrapped listener
+     */
+    public synchronized long getMisses(){
+        return _misses;
+    }
+
+    private boolean isAlive(Entry entry){
+        return entry.expires > System.currentTimeMillis();
+    }
+
+    private void evict(String id){
+        Entry entry = _entries.remove(id);
+        if(entry != null){
+            entry.wipe();
+        }
+    }
+
+    private static final class Entry{
+        final char[] passphrase;
+        final long expires;
+        int uses = 1;
+
+        Entry(char[] passphrase, long expires){
+            this.passphrase = passphrase;
+            this.expires = expires;
+        }
+
+        void wipe(){
+            Arrays.fill(passphrase, '\0');
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
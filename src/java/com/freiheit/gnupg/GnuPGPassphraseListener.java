@@ -33,15 +33,44 @@ public interface GnuPGPassphraseListener{
        Implement this interface and register it with the GnuPGContext
        on which you are operating.
 
-       @param hint TODO
-       @param passphraseInfo TODO
-       @param wasBad TODO
+       @param hint user-id hint of the key, e.g. "KEYID Name &lt;email&gt;", may be null
+       @param passphraseInfo key-id, main key-id, algorithm and length of the key, may be null
+       @param wasBad not 0, if the passphrase returned last time for this key was wrong
 
-       @return passphrase to be supplied to gpgme callback (MUST include a \n at the end of the string)
+       @return passphrase to be supplied to gpgme callback, or null to cancel the operation
+       (a trailing \n is accepted, but not necessary)
 
        @see com.freiheit.gnupg.GnuPGContext
      */
     public String getPassphrase(String hint, String passphraseInfo, long wasBad);
+
+    /**
+       Same as getPassphrase(), but the passphrase never has to pass
+       through a String. This is what gpgme actually calls. The
+       returned array is handed over: it is zeroed as soon as the
+       passphrase was written to gpgme, so return a copy, if you keep
+       the passphrase yourself.
+       <p>
+       The default implementation calls getPassphrase(). Override it
+       to keep passphrases off the heap.
+
+       @param hint user-id hint of the key, may be null
+       @param passphraseInfo key-id, main key-id, algorithm and length of the key, may be null
+       @param wasBad not 0, if the passphrase returned last time for this key was wrong
+
+       @return passphrase without a trailing newline, or null to cancel the operation
+     */
+    public default char[] getPassphraseChars(String hint, String passphraseInfo, long wasBad){
+        String passphrase = getPassphrase(hint, passphraseInfo, wasBad);
+        if(passphrase == null){
+            return null;
+        }
+        //the native code adds the newline for gpgme
+        int len = passphrase.endsWith("\n") ? passphrase.length() - 1 : passphrase.length();
+        char[] chars = new char[len];
+        passphrase.getChars(0, len, chars, 0);
+        return chars;
+    }
 }
 /*
  * Local variables:
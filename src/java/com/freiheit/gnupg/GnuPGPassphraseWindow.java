@@ -13,6 +13,8 @@
  */
 package com.freiheit.gnupg;
 
+import java.util.Arrays;
+
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
@@ -58,6 +60,20 @@ public class GnuPGPassphraseWindow implements GnuPGPassphraseListener{
        Opens a Swing modal dialog, asks for the passphrase and returns it to gpgme.
      */
     public String getPassphrase(String hint, String passphraseInfo, long wasBad){
+        char[] passphrase = getPassphraseChars(hint, passphraseInfo, wasBad);
+        if(passphrase == null){
+            return null;
+        }
+        String result = new String(passphrase);
+        Arrays.fill(passphrase, '\0');
+        return result;
+    }
+
+    /**
+       Same as getPassphrase(), but the passphrase from the dialog
+       never becomes a String.
+     */
+    public char[] getPassphraseChars(String hint, String passphraseInfo, long wasBad){
         JPasswordField passwordField = new JPasswordField(20);
         JOptionPane optionPane = new JOptionPane();
         optionPane.setMessage( new Object[] { hint, passwordField } );
@@ -65,26 +81,18 @@ public class GnuPGPassphraseWindow implements GnuPGPassphraseListener{
         optionPane.setOptionType( JOptionPane.OK_CANCEL_OPTION );
         JDialog dialog = optionPane.createDialog( _win, "Enter GnuPG Passphrase and click OK..." );
         dialog.setVisible(true);
-        Integer value = (Integer)optionPane.getValue();
-        if (value.intValue() == JOptionPane.CANCEL_OPTION || value.intValue() == JOptionPane.CLOSED_OPTION ){
-            dialog.dispose();
-            if(_internalWin){
-                _win.dispose();
-            }
-            return null;
+        Object value = optionPane.getValue();
+        char[] passphrase = null;
+        //the native code adds the newline for gpgme
+        if(value instanceof Integer && ((Integer)value).intValue() == JOptionPane.OK_OPTION){
+            passphrase = passwordField.getPassword();
         }
-        else{
-            StringBuffer buf = new StringBuffer();
-            //the newline is REALLY important for gpgme. Don't remove it!
-            //FIXME: I also add one newline in the native code, but there is still an error condition
-            buf.append(passwordField.getPassword()).append("\n");
-            String passphrase = buf.toString();
-            dialog.dispose();
-            if(_internalWin){
-                _win.dispose();
-            }
-            return passphrase;
+        passwordField.setText("");
+        dialog.dispose();
+        if(_internalWin){
+            _win.dispose();
         }
+        return passphrase;
     }
 }
 /*
@@ -0,0 +1,422 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+   A java.util.concurrent.Flow stage, that encrypts, decrypts, signs
+   or verifies a stream of ByteBuffers. The chunks from upstream are
+   fed to gpgme while they arrive, and the output of gpgme is emitted
+   downstream chunk by chunk, so a message is never buffered
+   completely.
+   <p>
+   Both sides honor the demand: at most WINDOW chunks are requested
+   from upstream ahead of gpgme, and gpgme is stalled while the
+   subscriber has no outstanding demand. The operation runs on a
+   thread of the given executor, which is blocked while the stage
+   waits for input or demand; the Flow signals themselves never block.
+   <p>
+   <em>How to encrypt a stream of chunks?</em>
+   <pre>
+   {@code
+     GnuPGProcessor encrypt = GnuPGProcessor.encrypt(ctx, recipients, executor);
+     source.subscribe(encrypt);
+     encrypt.subscribe(sink);
+     encrypt.getResult().join(); //done or failed
+   }
+   </pre>
+   A stage processes one stream with one subscriber. The context must
+   not be used otherwise until getResult() is done.
+
+   @see com.freiheit.gnupg.GnuPGContext#createDataObject(InputStream)
+   @see com.freiheit.gnupg.GnuPGContext#createDataObject(OutputStream)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGProcessor implements Flow.Processor<ByteBuffer, ByteBuffer>{
+    /** number of chunks requested from upstream ahead of gpgme */
+    public static final int WINDOW = 4;
+
+    // the operation on the streams, returns a GnuPGVerifyResult for verify
+    private interface Operation{
+        GnuPGVerifyResult run(GnuPGContext ctx, GnuPGData in, GnuPGData out) throws GnuPGException;
+    }
+
+    // marks the end of the upstream in the input queue
+    private static final byte[] END = new byte[0];
+
+    private final GnuPGContext _context;
+    private final Executor _executor;
+    private final Operation _operation;
+    private final CompletableFuture<GnuPGVerifyResult> _result = new CompletableFuture<GnuPGVerifyResult>();
+
+    // upstream side
+    private final LinkedBlockingQueue<byte[]> _input = new LinkedBlockingQueue<byte[]>();
+    private final AtomicBoolean _subscribed = new AtomicBoolean();
+    private final AtomicReference<Flow.Subscription> _upstream = new AtomicReference<Flow.Subscription>();
+    private volatile Throwable _upstreamError = null;
+
+    // downstream side, guarded by this
+    private Flow.Subscriber<? super ByteBuffer> _subscriber = null;
+    private long _demand = 0;
+    private boolean _cancelled = false;
+    private Throwable _protocolError = null;
+
+    private GnuPGProcessor(GnuPGContext context, Executor executor, Operation operation){
+        if(context == null || executor == null){
+            throw new GnuPGException("Parameters not complete or null.");
+        }
+        _context = context;
+        _executor = executor;
+        _operation = operation;
+    }
+
+    /**
+       Creates a stage, that encrypts the stream for the recipients.
+
+       @param context runs the operation
+       @param recipients public keys of all recipients
+       @param executor runs the operation, one thread per stage while it runs
+       @return GnuPGProcessor the stage
+     */
+    public static GnuPGProcessor encrypt(GnuPGContext context, final GnuPGKey[] recipients, Executor executor) throws GnuPGException{
+        if(recipients == null || recipients.length == 0) throw new GnuPGException("Encryption-Arguments not complete.");
+        return new GnuPGProcessor(context, executor, (ctx, in, out) -> {
+                ctx.encrypt(recipients, in, out);
+                return null;
+            });
+    }
+
+    /**
+       Creates a stage, that decrypts the stream. The passphrase
+       listener of the context is called on the executor thread.
+
+       @param context runs the operation
+       @param executor runs the operation, one thread per stage while it runs
+       @return GnuPGProcessor the stage
+     */
+    public static GnuPGProcessor decrypt(GnuPGContext context, Executor executor) throws GnuPGException{
+        return new GnuPGProcessor(context, executor, (ctx, in, out) -> {
+                ctx.decrypt(in, out);
+                return null;
+            });
+    }
+
+    /**
+       Creates a stage, that signs the stream with the signers of the
+       context. The output is the signature (or the signed message,
+       depending on the context settings).
+
+       @param context runs the operation
+       @param executor runs the operation, one thread per stage while it runs
+       @return GnuPGProcessor the stage
+     */
+    public static GnuPGProcessor sign(GnuPGContext context, Executor executor) throws GnuPGException{
+        return new GnuPGProcessor(context, executor, (ctx, in, out) -> {
+                ctx.sign(in, out);
+                return null;
+            });
+    }
+
+    /**
+       Creates a stage, that verifies a signed message. The output is
+       the signed text, getResult() is completed with the
+       GnuPGVerifyResult. Check it before you trust the output.
+
+       @param context runs the operation
+       @param executor runs the operation, one thread per stage while it runs
+       @return GnuPGProcessor the stage
+     */
+    public static GnuPGProcessor verify(GnuPGContext context, Executor executor) throws GnuPGException{
+        return new GnuPGProcessor(context, executor, (ctx, in, out) -> ctx.verify(in, null, out));
+    }
+
+    /**
+       Completed, when the operation is done and the output was
+       emitted completely, or with the failure of the stage.
+
+       @return future, with the GnuPGVerifyResult of a verify stage, null for the others
+     */
+    public CompletableFuture<GnuPGVerifyResult> getResult(){
+        return _result;
+    }
+
+    /* Flow.Subscriber: the upstream side */
+
+    public void onSubscribe(Flow.Subscription subscription){
+        if(subscription == null){
+            throw new NullPointerException("subscription");
+        }
+        if(!_upstream.compareAndSet(null, subscription)){
+            //only one upstream per stage (rule 2.5), even if two subscribe at once
+            subscription.cancel();
+            return;
+        }
+        subscription.request(WINDOW);
+    }
+
+    public void onNext(ByteBuffer item){
+        if(item == null){
+            throw new NullPointerException("item");
+        }
+        //the publisher may reuse its buffer after onNext
+        byte[] chunk = new byte[item.remaining()];
+        item.get(chunk);
+        if(chunk.length == 0){
+            //END is the only empty chunk in the queue
+            _upstream.get().request(1);
+            return;
+        }
+        _input.add(chunk);
+    }
+
+    public void onError(Throwable throwable){
+        if(throwable == null){
+            throw new NullPointerException("throwable");
+        }
+        _upstreamError = throwable;
+        _input.add(END);
+    }
+
+    public void onComplete(){
+        _input.add(END);
+    }
+
+    /* Flow.Publisher: the downstream side */
+
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber){
+        if(subscriber == null){
+            throw new NullPointerException("subscriber");
+        }
+        if(!_subscribed.compareAndSet(false, true)){
+            subscriber.onSubscribe(new Flow.Subscription(){
+                    public void request(long n){}
+                    public void cancel(){}
+                });
+            subscriber.onError(new IllegalStateException("GnuPGProcessor allows only one subscriber."));
+            return;
+        }
+        synchronized(this){
+            _subscriber = subscriber;
+        }
+        subscriber.onSubscribe(new Downstream());
+        try{
+            _executor.execute(this::process);
+        }
+        catch(RejectedExecutionException e){
+            fail(e);
+        }
+    }
+
+    private final class Downstream implements Flow.Subscription{
+        public void request(long n){
+            boolean illegal = n <= 0;
+            synchronized(GnuPGProcessor.this){
+                if(illegal){
+                    //reported by the processing thread, signals must not overlap (rule 3.9)
+                    _protocolError = new IllegalArgumentException("Non-positive request: " + n);
+                    _cancelled = true;
+                }
+                else{
+                    _demand = (_demand + n < 0) ? Long.MAX_VALUE : _demand + n;
+                }
+                GnuPGProcessor.this.notifyAll();
+            }
+            if(illegal){
+                _input.add(END);
+            }
+        }
+
+        public void cancel(){
+            synchronized(GnuPGProcessor.this){
+                _cancelled = true;
+                GnuPGProcessor.this.notifyAll();
+            }
+            //wakes a reader waiting for input
+            _input.add(END);
+        }
+    }
+
+    /**
+       Runs the operation on the executor thread and signals the end
+       of the stream.
+     */
+    private void process(){
+        GnuPGData in = null;
+        GnuPGData out = null;
+        try{
+            in = _context.createDataObject(new Input());
+            out = _context.createDataObject(new Output());
+            GnuPGVerifyResult result = _operation.run(_context, in, out);
+            Flow.Subscriber<? super ByteBuffer> subscriber = subscriberIfActive();
+            if(subscriber == null){
+                fail(new GnuPGException("GnuPGProcessor was cancelled."));
+                return;
+            }
+            subscriber.onComplete();
+            _result.complete(result);
+        }
+        catch(Exception e){
+            fail(e);
+        }
+        finally{
+            if(in != null){
+                in.destroy();
+            }
+            if(out != null){
+                out.destroy();
+            }
+        }
+    }
+
+    /**
+       Cancels the upstream and reports the failure downstream. The
+       error of the upstream or of the subscriber is reported in place
+       of the failure of gpgme it caused.
+     */
+    private void fail(Throwable failure){
+        Flow.Subscription upstream = _upstream.get();
+        if(upstream != null){
+            upstream.cancel();
+        }
+        Throwable error = (_upstreamError != null) ? _upstreamError : failure;
+        Flow.Subscriber<? super ByteBuffer> subscriber;
+        synchronized(this){
+            if(_protocolError != null){
+                //the subscriber broke the rules, it still gets the error
+                error = _protocolError;
+                _protocolError = null;
+                subscriber = _subscriber;
+            }
+            else{
+                subscriber = _cancelled ? null : _subscriber;
+            }
+            _cancelled = true;
+        }
+        if(subscriber != null){
+            subscriber.onError(error);
+        }
+        _result.completeExceptionally(error);
+    }
+
+    private synchronized Flow.Subscriber<? super ByteBuffer> subscriberIfActive(){
+        return (_cancelled || _protocolError != null) ? null : _subscriber;
+    }
+
+    /**
+       The upstream chunks as stream, read by gpgme. Every consumed
+       chunk is replaced by a new request, so WINDOW chunks are in
+       flight.
+     */
+    private final class Input extends InputStream{
+        private byte[] _chunk = null;
+        private int _pos = 0;
+
+        public int read() throws IOException{
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException{
+            if(len == 0){
+                return 0;
+            }
+            if(_chunk == null){
+                try{
+                    _chunk = _input.take();
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for input.");
+                }
+                _pos = 0;
+            }
+            if(_chunk == END){
+                //stays at the end: later reads see it, too
+                _input.add(END);
+                _chunk = null;
+                if(_upstreamError != null || subscriberIfActive() == null){
+                    throw new IOException("Input aborted.");
+                }
+                return -1;
+            }
+            int n = Math.min(len, _chunk.length - _pos);
+            System.arraycopy(_chunk, _pos, b, off, n);
+            _pos += n;
+            if(_pos == _chunk.length){
+                _chunk = null;
+                _upstream.get().request(1);
+            }
+            return n;
+        }
+    }
+
+    /**
+       The output of gpgme, emitted as one chunk per write as soon
+       as the subscriber has demand.
+     */
+    private final class Output extends OutputStream{
+        public void write(int b) throws IOException{
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException{
+            if(len == 0){
+                return;
+            }
+            Flow.Subscriber<? super ByteBuffer> subscriber;
+            synchronized(GnuPGProcessor.this){
+                while(_demand == 0 && !_cancelled){
+                    try{
+                        GnuPGProcessor.this.wait();
+                    }
+                    catch(InterruptedException e){
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for demand.");
+                    }
+                }
+                if(_cancelled){
+                    throw new IOException("Output cancelled.");
+                }
+                if(_demand != Long.MAX_VALUE){
+                    _demand--;
+                }
+                subscriber = _subscriber;
+            }
+            byte[] chunk = new byte[len];
+            System.arraycopy(b, off, chunk, 0, len);
+            //outside of the lock: the subscriber may request more right away
+            subscriber.onNext(ByteBuffer.wrap(chunk));
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
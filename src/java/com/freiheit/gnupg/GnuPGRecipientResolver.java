@@ -0,0 +1,370 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+   Maps email-addresses to the key, that messages to this address
+   should be encrypted for. Many addresses are resolved at once: all
+   addresses, that are not cached, are searched in a single pass over
+   the keyring (up to BATCH_SIZE addresses per pass).
+   <p>
+   For each address the best key is chosen: the key must have a user-id
+   with exactly this email-address, that is neither revoked nor invalid,
+   and a subkey, that can encrypt and is neither revoked, expired,
+   disabled nor invalid. If several keys qualify, the key with the
+   higher user-id validity wins, then the one with the newer encryption
+   subkey.
+   <p>
+   Both found keys and addresses without a usable key are cached for
+   timeToLive milliseconds, so a repeated miss doesn't run gpg again.
+   The cache is cleared, when keys are imported into or deleted from
+   the keyring of the pool through a GnuPGContext.
+   <p>
+   <em>How to resolve the recipients of a message?</em>
+   <pre>
+   {@code
+     GnuPGRecipientResolver resolver = new GnuPGRecipientResolver(pool, 10000, 60 * 1000);
+     for(GnuPGRecipientResolver.Recipient r : resolver.resolve(addresses).values()){
+         if(!r.isResolved()){
+             reject(r.getEmail());
+         }
+     }
+   }
+   </pre>
+   A resolver is safe to share between threads.
+
+   @see com.freiheit.gnupg.GnuPGKeyCache
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public class GnuPGRecipientResolver{
+    /** maximum number of addresses searched in one keylist pass */
+    public static final int BATCH_SIZE = 256;
+
+    private final GnuPGContextPool _pool;
+    private final int _maxSize;
+    private final long _timeToLive;
+
+    // insertion ordered: the eldest entry expires first
+    private final LinkedHashMap<String, Entry> _cache;
+
+    private long _hits = 0;
+    private long _misses = 0;
+    private long _passes = 0;
+
+    // registered with GnuPGContext, lives as long as this resolver
+    private final GnuPGContext.KeyringListener _keyringListener = deleted -> invalidateAll();
+
+    /**
+       Creates a new resolver, that searches the keys with the
+       contexts of the given pool.
+
+       @param pool lends the contexts for the searches
+       @param maxSize maximum number of addresses in the cache
+       @param timeToLive milliseconds a result (found or not) stays in the cache
+     */
+    public GnuPGRecipientResolver(GnuPGContextPool pool, int maxSize, long timeToLive){
+        if(pool == null){
+            throw new GnuPGException("Parameters not complete or null.");
+        }
+        if(maxSize < 1 || timeToLive < 1){
+            throw new GnuPGException("Cache size and time to live must be positive.");
+        }
+        _pool = pool;
+        _maxSize = maxSize;
+        _timeToLive = timeToLive;
+        _cache = new LinkedHashMap<String, Entry>(16, 0.75f, false){
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest){
+                return size() > _maxSize;
+            }
+        };
+        GnuPGContext.addKeyringListener(pool.getHomeDir(), _keyringListener);
+    }
+
+    /**
+       Resolves one address, see resolve(Collection).
+
+       @param email email-address (case is ignored)
+       @return Recipient the key for this address, never null
+     */
+    public Recipient resolve(String email) throws GnuPGException{
+        return resolve(Collections.singletonList(email)).get(email);
+    }
+
+    /**
+       Resolves all addresses. Cached results are returned at once,
+       the other addresses are searched in as few keylist passes as
+       possible.
+
+       @param emails email-addresses (case is ignored)
+       @return Map a Recipient for each of the given addresses (also the ones without a key),
+       in the order of the addresses
+     */
+    public Map<String, Recipient> resolve(Collection<String> emails) throws GnuPGException{
+        if(emails == null) throw new GnuPGException("Parameters not complete or null.");
+        Map<String, Recipient> result = new LinkedHashMap<String, Recipient>();
+        List<String> missing = new ArrayList<String>();
+        long now = System.currentTimeMillis();
+        synchronized(this){
+            for(String email : emails){
+                if(email == null) throw new GnuPGException("Parameters not complete or null.");
+                String normalized = normalizeEmail(email);
+                Entry entry = _cache.get(normalized);
+                if(entry != null && entry.loaded + _timeToLive > now){
+                    _hits++;
+                    result.put(email, entry.recipient);
+                }
+                else if(!missing.contains(normalized)){
+                    _misses++;
+                    missing.add(normalized);
+                }
+            }
+        }
+
+        //search outside of the lock, the engine is slow
+        Map<String, Recipient> found = new LinkedHashMap<String, Recipient>();
+        for(int i = 0; i < missing.size(); i += BATCH_SIZE){
+            found.putAll(search(missing.subList(i, Math.min(i + BATCH_SIZE, missing.size()))));
+        }
+
+        synchronized(this){
+            for(Recipient recipient : found.values()){
+                _cache.remove(recipient.getEmail());
+                _cache.put(recipient.getEmail(), new Entry(recipient, now));
+            }
+        }
+        for(String email : emails){
+            if(!result.containsKey(email)){
+                result.put(email, found.get(normalizeEmail(email)));
+            }
+        }
+        return result;
+    }
+
+    /**
+       Removes an address from the cache.
+
+       @param email email-address (case is ignored)
+     */
+    public synchronized void invalidate(String email){
+        _cache.remove(normalizeEmail(email));
+    }
+
+    /**
+       Removes all addresses from the cache.
+     */
+    public synchronized void invalidateAll(){
+        _cache.clear();
+    }
+
+    /**
+       @return number of addresses in the cache, including expired ones
+     */
+    public synchronized int size(){
+        return _cache.size();
+    }
+
+    /**
+       @return number of addresses answered from the cache
+     */
+    public synchronized long getHitCount(){
+        return _hits;
+    }
+
+    /**
+       @return number of addresses searched in the keyring
+     */
+    public synchronized long getMissCount(){
+        return _misses;
+    }
+
+    /**
+       @return number of keylist passes over the keyring
+     */
+    public synchronized long getPassCount(){
+        return _passes;
+    }
+
+    /**
+       Searches the keys of all given addresses in one keylist pass.
+     */
+    private Map<String, Recipient> search(List<String> emails) throws GnuPGException{
+        List<String> patterns = new ArrayList<String>(emails.size());
+        for(String email : emails){
+            //exact match on the email-address of a user-id
+            patterns.add("<" + email + ">");
+        }
+        GnuPGKeySnapshot[] keys;
+        try(GnuPGContextPool.Lease lease = _pool.borrow()){
+            keys = lease.getContext().searchKeySnapshotsAny(patterns, GnuPGKeyProjection.ALL);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new GnuPGException("Interrupted while waiting for a context.");
+        }
+        synchronized(this){
+            _passes++;
+        }
+
+        Map<String, Recipient> best = new LinkedHashMap<String, Recipient>();
+        for(String email : emails){
+            best.put(email, new Recipient(email, null, null, GnuPGKeySnapshot.VALIDITY_UNKNOWN));
+        }
+        for(GnuPGKeySnapshot key : keys){
+            if(key.isRevoked() || key.isExpired() || key.isDisabled() || key.isInvalid()){
+                continue;
+            }
+            GnuPGKeySnapshot.Subkey subkey = encryptionSubkey(key);
+            if(subkey == null){
+                continue;
+            }
+            //one pass returns the keys of all addresses: assign them by their user-ids
+            for(GnuPGKeySnapshot.UserID uid : key.getUserIDs()){
+                String email = normalizeEmail(uid.getEmail());
+                Recipient current = best.get(email);
+                if(current == null || uid.isRevoked() || uid.isInvalid()
+                   || uid.getValidity() == GnuPGKeySnapshot.VALIDITY_NEVER){
+                    continue;
+                }
+                Recipient candidate = new Recipient(email, key, subkey, uid.getValidity());
+                if(candidate.isBetterThan(current)){
+                    best.put(email, candidate);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+       @return the newest usable encryption subkey or null
+     */
+    private static GnuPGKeySnapshot.Subkey encryptionSubkey(GnuPGKeySnapshot key){
+        GnuPGKeySnapshot.Subkey best = null;
+        for(GnuPGKeySnapshot.Subkey subkey : key.getSubkeys()){
+            if(subkey.canEncrypt() && !subkey.isRevoked() && !subkey.isExpired()
+               && !subkey.isDisabled() && !subkey.isInvalid()
+               && (best == null || subkey.getTimestamp() > best.getTimestamp())){
+                best = subkey;
+            }
+        }
+        return best;
+    }
+
+    private static String normalizeEmail(String email){
+        return (email == null) ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Entry{
+        final Recipient recipient;
+        final long loaded;
+
+        Entry(Recipient recipient, long loaded){
+            this.recipient = recipient;
+            this.loaded = loaded;
+        }
+    }
+
+    /**
+       The key for one email-address, or the note, that there is none.
+     */
+    public static final class Recipient{
+        private final String _email;
+        private final GnuPGKeySnapshot _key;
+        private final GnuPGKeySnapshot.Subkey _subkey;
+        private final int _validity;
+
+        Recipient(String email, GnuPGKeySnapshot key, GnuPGKeySnapshot.Subkey subkey, int validity){
+            _email = email;
+            _key = key;
+            _subkey = subkey;
+            _validity = validity;
+        }
+
+        private boolean isBetterThan(Recipient other){
+            if(other._key == null){
+                return true;
+            }
+            if(_validity != other._validity){
+                return _validity > other._validity;
+            }
+            return _subkey.getTimestamp() > other._subkey.getTimestamp();
+        }
+
+        /**
+           @return the email-address (lower case)
+         */
+        public String getEmail(){
+            return _email;
+        }
+
+        /**
+           @return true, if a usable key was found for this address
+         */
+        public boolean isResolved(){
+            return _key != null;
+        }
+
+        /**
+           @return the chosen key or null
+         */
+        public GnuPGKeySnapshot getKey(){
+            return _key;
+        }
+
+        /**
+           @return the encryption subkey of the chosen key or null
+         */
+        public GnuPGKeySnapshot.Subkey getSubkey(){
+            return _subkey;
+        }
+
+        /**
+           Use this with GnuPGContext.getKeyByFingerprint() to get the
+           key for encrypt().
+
+           @return fingerprint of the primary key or null
+         */
+        public String getFingerprint(){
+            return (_key == null) ? null : _key.getFingerprint();
+        }
+
+        /**
+           @return validity of the user-id with this address, one of the GnuPGKeySnapshot.VALIDITY_ constants
+         */
+        public int getValidity(){
+            return _validity;
+        }
+
+        public String toString(){
+            return _email + " -> " + (_key == null ? "no key" : _key.getFingerprint() + "/" + _subkey.getKeyID());
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
@@ -24,6 +24,8 @@ package com.freiheit.gnupg;
    This class accesses directly the corresponding structure "under the hood"
    and stores no data in java members. This means, that every call of
    a method also results in a native call to access gpgme memory.
+   GnuPGKey.getSignatureSnapshots() copies all signatures of a key
+   at once instead.
    
    @author Stefan Richter, stefan@freiheit.com
 
@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+/**
+   A signature on a key, copied into java members.
+   <p>
+   Other than the plain GnuPGSignature, a snapshot makes no native
+   calls: all signatures of a key are copied in a single call by
+   GnuPGKey.getSignatureSnapshots(). It stays valid after the key
+   was destroyed.
+
+   @see com.freiheit.gnupg.GnuPGKey#getSignatureSnapshots()
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public final class GnuPGSignatureSnapshot extends GnuPGSignature{
+    private final String _signedUserID;
+    private final String _keyid;
+    private final String _uid;
+    private final String _name;
+    private final String _email;
+    private final String _comment;
+    private final boolean _revoked;
+    private final boolean _expired;
+    private final boolean _invalid;
+    private final boolean _exportable;
+    private final long _timestamp;
+    private final long _expires;
+    private final int _sigClass;
+
+    /**
+       This constructor is only called from within the JNI routines.
+     */
+    GnuPGSignatureSnapshot(String signedUserID, String keyid, String uid, String name, String email, String comment,
+                           boolean revoked, boolean expired, boolean invalid, boolean exportable,
+                           long timestamp, long expires, int sigClass){
+        super(0);
+        _signedUserID = signedUserID;
+        _keyid = keyid;
+        _uid = uid;
+        _name = name;
+        _email = email;
+        _comment = comment;
+        _revoked = revoked;
+        _expired = expired;
+        _invalid = invalid;
+        _exportable = exportable;
+        _timestamp = timestamp;
+        _expires = expires;
+        _sigClass = sigClass;
+    }
+
+    /**
+       Returns the User-ID of the key, that is signed by this signature.
+
+       @return User-ID of the signed key
+     */
+    public String getSignedUserID(){
+        return _signedUserID;
+    }
+
+    public boolean isRevoked(){
+        return _revoked;
+    }
+
+    public boolean isExpired(){
+        return _expired;
+    }
+
+    public boolean isInvalid(){
+        return _invalid;
+    }
+
+    public boolean isExportable(){
+        return _exportable;
+    }
+
+    public String getKeyID(){
+        return _keyid;
+    }
+
+    public String getUserID(){
+        return _uid;
+    }
+
+    public String getName(){
+        return _name;
+    }
+
+    public String getEmail(){
+        return _email;
+    }
+
+    public String getComment(){
+        return _comment;
+    }
+
+    /**
+       @return creation time in seconds since the epoch, 0 if unknown
+     */
+    public long getTimestamp(){
+        return _timestamp;
+    }
+
+    /**
+       @return expiration time in seconds since the epoch, 0 if it never expires
+     */
+    public long getExpires(){
+        return _expires;
+    }
+
+    /**
+       @return OpenPGP signature class, e.g. 0x10 to 0x13 for certifications
+     */
+    public int getSigClass(){
+        return _sigClass;
+    }
+
+    public boolean hasDetails(){
+        return _name != null && _name.length() > 0;
+    }
+
+    /**
+       A snapshot is not linked to other signatures.
+
+       @return null
+     */
+    protected GnuPGSignature getNextSignature(){
+        return null;
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
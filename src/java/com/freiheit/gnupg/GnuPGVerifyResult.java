@@ -0,0 +1,252 @@
+/*
+ * $Id$
+ * (c) Copyright 2005 freiheit.com technologies gmbh, Germany.
+ *
+ * This file is part of Java for GnuPG  (http://www.freiheit.com).
+ *
+ * Java for GnuPG is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * Please see COPYING for the complete licence.
+ */
+package com.freiheit.gnupg;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+   The result of a signature verification: one entry for each
+   signature found in the data. It is copied from gpgme when the
+   operation completes and holds no native datastructure.
+   <p>
+   A bad signature is not an error of the operation: the operation
+   succeeds and the result tells you, which signatures are good.
+   <p>
+   <em>How to check a signed and encrypted message?</em>
+   <pre>
+   {@code
+     GnuPGVerifyResult result = ctx.decryptAndVerify(cipher, plain);
+     if(!result.isValid()){
+         throw new SecurityException("Bad signature: " + result);
+     }
+   }
+   </pre>
+
+   @see com.freiheit.gnupg.GnuPGContext#decryptAndVerify(GnuPGData, GnuPGData)
+
+   @author Stefan Richter, stefan@freiheit.com
+ */
+public final class GnuPGVerifyResult{
+    private final String _fileName;
+    private final List<Signature> _signatures;
+
+    /**
+       This constructor is only called from within the JNI routines.
+     */
+    GnuPGVerifyResult(String fileName, Signature[] signatures){
+        _fileName = fileName;
+        _signatures = Collections.unmodifiableList(Arrays.asList(signatures));
+    }
+
+    /**
+       @return all signatures in the data, empty if the data was not signed
+     */
+    public List<Signature> getSignatures(){
+        return _signatures;
+    }
+
+    /**
+       @return true, if the data has at least one signature and all signatures are good
+     */
+    public boolean isValid(){
+        if(_signatures.isEmpty()){
+            return false;
+        }
+        for(Signature sig : _signatures){
+            if(!sig.isGood()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+       @return original file name of the signed data, if it was stored in the data, otherwise null
+     */
+    public String getFileName(){
+        return _fileName;
+    }
+
+    /**
+       @return String one line per signature
+     */
+    public String toString(){
+        StringBuffer buf = new StringBuffer();
+        for(Signature sig : _signatures){
+            buf.append(sig).append("\n");
+        }
+        return buf.toString();
+    }
+
+    /**
+       One signature found by the verification.
+     */
+    public static final class Signature{
+        /** the signature is fully valid */
+        public static final int SUMMARY_VALID = 0x0001;
+        /** the signature is good, but the key is not fully trusted */
+        public static final int SUMMARY_GREEN = 0x0002;
+        /** the signature is bad */
+        public static final int SUMMARY_RED = 0x0004;
+        /** one key has been revoked */
+        public static final int SUMMARY_KEY_REVOKED = 0x0010;
+        /** one key has expired */
+        public static final int SUMMARY_KEY_EXPIRED = 0x0020;
+        /** the signature has expired */
+        public static final int SUMMARY_SIG_EXPIRED = 0x0040;
+        /** can't verify: the key is missing */
+        public static final int SUMMARY_KEY_MISSING = 0x0080;
+
+        private final String _fpr;
+        private final int _status;
+        private final String _statusText;
+        private final int _summary;
+        private final long _timestamp;
+        private final long _expires;
+        private final int _validity;
+        private final int _validityReason;
+        private final int _pubkeyAlgorithm;
+        private final int _hashAlgorithm;
+        private final boolean _wrongKeyUsage;
+
+        /**
+           This constructor is only called from within the JNI routines.
+         */
+        Signature(String fpr, int status, String statusText, int summary, long timestamp, long expires,
+                  int validity, int validityReason, int pubkeyAlgorithm, int hashAlgorithm, boolean wrongKeyUsage){
+            _fpr = fpr;
+            _status = status;
+            _statusText = statusText;
+            _summary = summary;
+            _timestamp = timestamp;
+            _expires = expires;
+            _validity = validity;
+            _validityReason = validityReason;
+            _pubkeyAlgorithm = pubkeyAlgorithm;
+            _hashAlgorithm = hashAlgorithm;
+            _wrongKeyUsage = wrongKeyUsage;
+        }
+
+        /**
+           @return fingerprint (or key-id, if the key is missing) of the signing key
+         */
+        public String getFingerprint(){
+            return _fpr;
+        }
+
+        /**
+           @return true, if the signature is cryptographically good (the status is 0)
+         */
+        public boolean isGood(){
+            return _status == 0;
+        }
+
+        /**
+           @return gpgme error code of the signature, 0 if it is good (e.g. 8 for GPG_ERR_BAD_SIGNATURE, 9 for GPG_ERR_NO_PUBKEY)
+         */
+        public int getStatus(){
+            return _status;
+        }
+
+        /**
+           @return gpgme error message of the status, null if the signature is good
+         */
+        public String getStatusText(){
+            return _statusText;
+        }
+
+        /**
+           @return the SUMMARY_ flags of the signature
+         */
+        public int getSummary(){
+            return _summary;
+        }
+
+        /**
+           @return true, if gpgme considers the signature fully valid (SUMMARY_VALID)
+         */
+        public boolean isValid(){
+            return (_summary & SUMMARY_VALID) != 0;
+        }
+
+        /**
+           @return true, if the signing key is not in the keyring (SUMMARY_KEY_MISSING)
+         */
+        public boolean isKeyMissing(){
+            return (_summary & SUMMARY_KEY_MISSING) != 0;
+        }
+
+        /**
+           @return creation time in seconds since the epoch, 0 if unknown
+         */
+        public long getTimestamp(){
+            return _timestamp;
+        }
+
+        /**
+           @return expiration time in seconds since the epoch, 0 if it never expires
+         */
+        public long getExpires(){
+            return _expires;
+        }
+
+        /**
+           @return validity of the signing key, one of the GnuPGKeySnapshot.VALIDITY_ constants
+         */
+        public int getValidity(){
+            return _validity;
+        }
+
+        /**
+           @return gpgme error code, why the validity is not full, 0 if unknown
+         */
+        public int getValidityReason(){
+            return _validityReason;
+        }
+
+        /**
+           @return public key algorithm of the signing key (OpenPGP algorithm number)
+         */
+        public int getPubkeyAlgorithm(){
+            return _pubkeyAlgorithm;
+        }
+
+        /**
+           @return hash algorithm of the signature (OpenPGP algorithm number)
+         */
+        public int getHashAlgorithm(){
+            return _hashAlgorithm;
+        }
+
+        /**
+           @return true, if the key was not meant for signing
+         */
+        public boolean isWrongKeyUsage(){
+            return _wrongKeyUsage;
+        }
+
+        public String toString(){
+            return _fpr + ": " + (isGood() ? "good" : _statusText) + ", summary 0x" + Integer.toHexString(_summary);
+        }
+    }
+}
+/*
+ * Local variables:
+ * c-basic-offset: 4
+ * indent-tabs-mode: nil
+ * compile-command: "ant -emacs -find build.xml"
+ * End:
+ */
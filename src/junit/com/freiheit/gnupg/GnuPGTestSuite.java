@@ -13,8 +13,28 @@
  */
 package com.freiheit.gnupg;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -93,6 +113,13 @@ public class GnuPGTestSuite extends TestCase{
         ctx.getRequiredVersion();
     }
 
+    public void testLibraryLoader() throws GnuPGLibraryException{
+        new GnuPGContext().destroy();
+        //loaded already: returns at once
+        GnuPGLibraryLoader.load();
+        assertNotNull(GnuPGLibraryLoader.getLoadedFrom());
+    }
+
     public void testContextSetterAndGetter(){
         GnuPGContext ctx = new GnuPGContext();
 
@@ -119,12 +146,339 @@ public class GnuPGTestSuite extends TestCase{
 
         for(int i=0; keys != null && i < keys.length; i++){
             assertNotNull(keys[i]);
-            Iterator iter = keys[i].getSignatures();
+            Iterator<GnuPGSignature> iter = keys[i].getSignatures();
             System.out.println(keys[i]);//Uncomment to print each key
             while(iter.hasNext()){
-                assertNotNull((GnuPGSignature)iter.next());
+                assertNotNull(iter.next());
+            }
+        }
+    }
+
+    public void testKeyIterator(){
+        GnuPGContext ctx = new GnuPGContext();
+        GnuPGKey[] keys = ctx.searchKeys("stefan");
+        assertNotNull(keys);
+
+        int count = 0;
+        GnuPGKeyIterator iter = ctx.keyIterator("stefan");
+        while(iter.hasNext()){
+            assertEquals(keys[count++].getFingerprint(), iter.next().getFingerprint());
+        }
+        assertEquals(keys.length, count);
+
+        //stop early, the context must be usable again afterwards
+        iter = ctx.keyIterator(null);
+        assertTrue(iter.hasNext());
+        iter.close();
+        assertNotNull(ctx.searchKeys("stefan"));
+    }
+
+    public void testKeySnapshots(){
+        GnuPGContext ctx = new GnuPGContext();
+        GnuPGKey[] keys = ctx.searchKeys("stefan");
+        GnuPGKeySnapshot[] snapshots = ctx.searchKeySnapshots("stefan");
+        assertNotNull(snapshots);
+        assertEquals(keys.length, snapshots.length);
+
+        for(int i = 0; i < keys.length; i++){
+            assertEquals(keys[i].getFingerprint(), snapshots[i].getFingerprint());
+            assertEquals(keys[i].getKeyID(), snapshots[i].getKeyID());
+            assertEquals(keys[i].getUserID(), snapshots[i].getUserID());
+            assertEquals(keys[i].getEmail(), snapshots[i].getEmail());
+            assertFalse(snapshots[i].getSubkeys().isEmpty());
+            assertEquals(keys[i].getFingerprint(), keys[i].getSnapshot().getFingerprint());
+        }
+
+        assertEquals(0, ctx.searchKeySnapshots("no-such-key@nowhere.invalid").length);
+    }
+
+    public void testKeylistMode(){
+        GnuPGContext ctx = new GnuPGContext();
+        int mode = ctx.getKeylistMode();
+        assertEquals(GnuPGContext.KEYLIST_MODE_LOCAL | GnuPGContext.KEYLIST_MODE_SIGS, mode);
+
+        //without signatures for this search only
+        GnuPGKey[] keys = ctx.searchKeys("stefan", GnuPGContext.KEYLIST_MODE_LOCAL);
+        assertTrue(keys.length > 0);
+        assertFalse(keys[0].getSignatures().hasNext());
+        assertEquals(mode, ctx.getKeylistMode());
+
+        ctx.setKeylistMode(GnuPGContext.KEYLIST_MODE_LOCAL);
+        assertEquals(GnuPGContext.KEYLIST_MODE_LOCAL, ctx.getKeylistMode());
+    }
+
+    public void testKeyProjections(){
+        GnuPGContext ctx = new GnuPGContext();
+        GnuPGKeySnapshot full = ctx.searchKeySnapshots(SR_FPR)[0];
+
+        GnuPGKeySnapshot fpr = ctx.searchKeySnapshots(SR_FPR, GnuPGKeyProjection.FINGERPRINT)[0];
+        assertEquals(SR_FPR, fpr.getFingerprint());
+        assertEquals(1, fpr.getSubkeys().size());
+        assertTrue(fpr.getUserIDs().isEmpty());
+        assertNull(fpr.getUserID());
+
+        GnuPGKeySnapshot uid = ctx.searchKeySnapshots(SR_FPR, GnuPGKeyProjection.PRIMARY_USER_ID)[0];
+        assertEquals(1, uid.getUserIDs().size());
+        assertEquals(full.getUserID(), uid.getUserID());
+
+        GnuPGKeySnapshot enc = ctx.searchKeySnapshots(SR_FPR, GnuPGKeyProjection.ENCRYPTION_SUBKEYS)[0];
+        assertEquals(SR_FPR, enc.getFingerprint());
+        for(GnuPGKeySnapshot.Subkey sub : enc.getSubkeys().subList(1, enc.getSubkeys().size())){
+            assertTrue(sub.canEncrypt());
+        }
+        assertEquals(full.getUserIDs().size(), ctx.searchKeySnapshots(SR_FPR, GnuPGKeyProjection.ALL)[0].getUserIDs().size());
+
+        //the signatures were left out for the projections only
+        assertEquals(GnuPGContext.KEYLIST_MODE_LOCAL | GnuPGContext.KEYLIST_MODE_SIGS, ctx.getKeylistMode());
+    }
+
+    public void testKeyIndex() throws IOException{
+        GnuPGContext ctx = new GnuPGContext();
+        Path file = Files.createTempFile("javagnupg", ".idx");
+        Files.delete(file);
+        GnuPGKeyIndex index = new GnuPGKeyIndex(null, file);
+        assertNull(index.lookup(SR_FPR));
+
+        GnuPGKeySnapshot key = ctx.searchKeySnapshots(SR_FPR)[0];
+        GnuPGKeyIndex.Entry entry = index.getEntry(ctx, SR_FPR);
+        assertEquals(1, index.getRebuildCount());
+        assertEquals(key.getFingerprint(), entry.getFingerprint());
+        assertEquals(key.canEncrypt(), entry.canEncrypt());
+        assertEquals(key.getExpires(), entry.getExpires());
+        assertEquals(SR_FPR, index.lookup(key.getKeyID()).getFingerprint());
+        assertEquals(SR_FPR, index.lookup("0x" + key.getKeyID().substring(8).toLowerCase()).getFingerprint());
+        assertNotNull(index.getEntryByEmail(ctx, key.getEmail().toUpperCase()));
+        assertNull(index.getEntry(ctx, "0000000000000000000000000000000000000000"));
+        //subkeys are indexed, too: no fallback to gpg, no rebuild
+        GnuPGKeySnapshot.Subkey subkey = key.getSubkeys().get(key.getSubkeys().size() - 1);
+        assertEquals(SR_FPR, index.getEntry(ctx, subkey.getKeyID()).getFingerprint());
+        assertEquals(SR_FPR, index.getEntry(ctx, subkey.getFingerprint()).getFingerprint());
+        assertNull(index.getEntry(ctx, key.getName()));
+        assertEquals(1, index.getRebuildCount());
+
+        //a second index maps the same file
+        GnuPGKeyIndex reopened = new GnuPGKeyIndex(null, file);
+        assertEquals(index.size(), reopened.size());
+        assertEquals(SR_FPR, reopened.lookup(SR_FPR).getFingerprint());
+        assertFalse(reopened.refresh(ctx));
+
+        //an import marks the index stale
+        GnuPGData keydata = ctx.createDataObject();
+        ctx.export(SR_FPR, 0, keydata);
+        ctx.importKeys(keydata);
+        assertTrue(index.refresh(ctx));
+        Files.delete(file);
+    }
+
+    public void testRecipientResolver(){
+        GnuPGContext ctx = new GnuPGContext();
+        String email = ctx.searchKeySnapshots(SR_FPR)[0].getEmail();
+        GnuPGContextPool pool = new GnuPGContextPool(2);
+        GnuPGRecipientResolver resolver = new GnuPGRecipientResolver(pool, 100, 60 * 1000);
+
+        String unknown = "nobody@javagnupg.invalid";
+        Map<String, GnuPGRecipientResolver.Recipient> result =
+            resolver.resolve(Arrays.asList(email.toUpperCase(), unknown));
+        assertEquals(2, result.size());
+        GnuPGRecipientResolver.Recipient found = result.get(email.toUpperCase());
+        assertTrue(found.isResolved());
+        assertEquals(SR_FPR, found.getFingerprint());
+        assertTrue(found.getSubkey().canEncrypt());
+        assertFalse(result.get(unknown).isResolved());
+        assertEquals(1, resolver.getPassCount());
+
+        //both the key and the miss are cached
+        assertFalse(resolver.resolve(unknown).isResolved());
+        assertTrue(resolver.resolve(email).isResolved());
+        assertEquals(1, resolver.getPassCount());
+        assertEquals(2, resolver.getHitCount());
+
+        resolver.invalidate(unknown);
+        resolver.resolve(unknown);
+        assertEquals(2, resolver.getPassCount());
+        pool.close();
+    }
+
+    public void testSignatureSnapshots(){
+        GnuPGContext ctx = new GnuPGContext();
+        GnuPGKey key = ctx.getKeyByFingerprint(SR_FPR);
+
+        GnuPGSignatureSnapshot[] all = key.getSignatureSnapshots();
+        assertNotNull(all);
+        int count = 0;
+        Iterator<GnuPGSignature> iter = key.getSignatures();
+        while(iter.hasNext()){
+            GnuPGSignature sig = iter.next();
+            assertNotNull(sig.getKeyID());
+            count++;
+        }
+        assertTrue(count <= all.length);
+        for(GnuPGSignatureSnapshot sig : all){
+            assertNotNull(sig.getSignedUserID());
+        }
+
+        //snapshots don't depend on the key
+        key.destroy();
+        if(all.length > 0){
+            assertNotNull(all[0].getKeyID());
+        }
+    }
+
+    public void testKeyCache(){
+        GnuPGContext ctx = new GnuPGContext();
+        GnuPGKeyCache cache = new GnuPGKeyCache(null, 10, 60 * 1000);
+        ctx.setKeyCache(cache);
+
+        GnuPGKey first = ctx.getKeyByFingerprint(SR_FPR);
+        GnuPGKey second = ctx.getKeyByFingerprint(SR_FPR);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        //both are independent references on the same key
+        first.destroy();
+        assertEquals(SR_FPR, second.getFingerprint());
+
+        GnuPGKey byKeyID = ctx.getKeyByFingerprint(second.getKeyID());
+        assertEquals(SR_FPR, byKeyID.getFingerprint());
+        GnuPGKey byEmail = cache.getKeyByEmail(ctx, second.getEmail().toUpperCase());
+        assertEquals(SR_FPR, byEmail.getFingerprint());
+        assertEquals(1, cache.getMisses());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(SR_FPR, second.getFingerprint());
+    }
+
+    public void testContextPool() throws InterruptedException{
+        GnuPGContextPool pool = new GnuPGContextPool(1);
+        pool.addSigner(SR_FPR);
+
+        GnuPGContext first;
+        try(GnuPGContextPool.Lease lease = pool.borrow()){
+            first = lease.getContext();
+            assertEquals(1, pool.getActiveCount());
+            assertEquals(1.0, pool.getUtilization(), 0.0);
+            //changes are reset, when the context is returned
+            first.setArmor(false);
+            first.clearSigners();
+            first.setEngineInfo(first.getProtocol(), null, HOME);
+            try{
+                pool.borrow(10, TimeUnit.MILLISECONDS);
+                fail("pool is exhausted");
             }
+            catch(GnuPGException e){
+                //expected
+            }
+        }
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        try(GnuPGContextPool.Lease lease = pool.borrow()){
+            assertSame(first, lease.getContext());
+            assertTrue(lease.getContext().isArmor());
+            assertNull(lease.getContext().getHomeDir());
+            lease.invalidate();
         }
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getDiscardedCount());
+        assertEquals(2, pool.getBorrowCount());
+        pool.close();
+    }
+
+    public void testPassphraseCache(){
+        final int[] asked = new int[1];
+        GnuPGPassphraseListener vault = new GnuPGPassphraseListener(){
+                public String getPassphrase(String hint, String passphraseInfo, long wasBad){
+                    asked[0]++;
+                    return "secret\n";
+                }
+            };
+        GnuPGPassphraseCache cache = new GnuPGPassphraseCache(vault, 60 * 1000, 3);
+
+        char[] first = cache.getPassphraseChars("hint", "info", 0);
+        assertEquals("secret", new String(first));
+        assertEquals("secret", new String(cache.getPassphraseChars("hint", "info", 0)));
+        assertEquals(1, asked[0]);
+
+        //the caller owns the copy: zeroing it does not touch the cache
+        Arrays.fill(first, '\0');
+        assertEquals("secret", new String(cache.getPassphraseChars("hint", "info", 0)));
+
+        //used 3 times: the listener is asked again
+        cache.getPassphraseChars("hint", "info", 0);
+        assertEquals(2, asked[0]);
+
+        //a wrong passphrase is never answered from the cache
+        cache.getPassphraseChars("hint", "info", 1);
+        assertEquals(3, asked[0]);
+
+        cache.getPassphraseChars("other", "info", 0);
+        assertEquals(4, asked[0]);
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    public void testNativeHandles(){
+        long contexts = GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.CONTEXT);
+        long data = GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.DATA);
+        long keys = GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.KEY);
+
+        try(GnuPGContext ctx = new GnuPGContext();
+            GnuPGData plain = ctx.createDataObject(PLAINTEXT);
+            GnuPGKey key = ctx.getKeyByFingerprint(SR_FPR)){
+            assertEquals(contexts + 1, GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.CONTEXT));
+            assertEquals(data + 1, GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.DATA));
+            assertEquals(keys + 1, GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.KEY));
+            assertEquals(PLAINTEXT, plain.toString());
+            assertEquals(SR_FPR, key.getFingerprint());
+        }
+        assertEquals(contexts, GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.CONTEXT));
+        assertEquals(data, GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.DATA));
+        assertEquals(keys, GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.KEY));
+    }
+
+    public void testLatencyHistogram(){
+        GnuPGLatencyHistogram histogram = new GnuPGLatencyHistogram();
+        for(long i = 1; i <= 1000; i++){
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 9 / 8);
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    public void testMetrics(){
+        GnuPGMetrics metrics = new GnuPGMetrics();
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setMetricsListener(metrics);
+        GnuPGData plain = ctx.createDataObject(PLAINTEXT);
+        GnuPGData cipher = ctx.createDataObject();
+        GnuPGKey[] recipient = ctx.searchKeys(SR_FPR);
+
+        ctx.encrypt(recipient, plain, cipher);
+        GnuPGOperationStats encrypt = metrics.getStats(GnuPGMetricsListener.Operation.ENCRYPT);
+        assertEquals(1, encrypt.getCount());
+        assertEquals(0, encrypt.getErrorCount());
+        assertEquals(PLAINTEXT.length(), encrypt.getBytesIn());
+        assertTrue(encrypt.getBytesOut() > 0);
+        assertEquals(1, metrics.getStats(GnuPGMetricsListener.Operation.SEARCH_KEYS).getCount());
+
+        //reported before the future completes
+        ctx.encryptAsync(recipient, ctx.createDataObject(PLAINTEXT), ctx.createDataObject()).join();
+        assertEquals(2, encrypt.getCount());
+        assertEquals(2 * PLAINTEXT.length(), encrypt.getBytesIn());
+
+        //GPG_ERR_CANCELED
+        metrics.operationCompleted(GnuPGMetricsListener.Operation.ENCRYPT, 1000, 0, -1, -1, 99);
+        assertEquals(1, encrypt.getErrorCount());
+        assertEquals(99, encrypt.getLastErrorCode());
+        assertEquals(3, encrypt.getCount());
     }
 
     public void testEncryptForOneRecipient(){
@@ -199,6 +553,39 @@ public class GnuPGTestSuite extends TestCase{
         assertNotNull(signature.toString());
     }
 
+    public void testVerify(){
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setPassphraseListener(new GnuPGPassphraseWindow());
+        GnuPGData plain = ctx.createDataObject(PLAINTEXT);
+        GnuPGData signature = ctx.createDataObject();
+
+        ctx.addSigner(ctx.getKeyByFingerprint(SR_FPR));
+        ctx.sign(plain, signature);
+
+        GnuPGData extracted = ctx.createDataObject();
+        GnuPGVerifyResult result = ctx.verify(signature, null, extracted);
+        assertTrue(result.isValid());
+        assertTrue(extracted.toString().startsWith(PLAINTEXT));
+        GnuPGVerifyResult.Signature sig = result.getSignatures().get(0);
+        assertTrue(SR_FPR.endsWith(sig.getFingerprint()));
+        assertTrue(sig.getHashAlgorithm() > 0);
+
+        //a changed text is a bad signature, not an exception
+        String tampered = signature.toString().replace(PLAINTEXT, PLAINTEXT.toUpperCase());
+        result = ctx.verify(ctx.createDataObject(tampered), null, ctx.createDataObject());
+        assertFalse(result.isValid());
+        assertFalse(result.getSignatures().get(0).isGood());
+        assertNotNull(result.getSignatures().get(0).getStatusText());
+
+        try{
+            ctx.verify(signature, null, null);
+            fail("verify without signed text and plain must fail");
+        }
+        catch(GnuPGException e){
+            //expected
+        }
+    }
+
     public void testEncrypt() {
         GnuPGContext ctx = new GnuPGContext();
         ctx.setPassphraseListener(new GnuPGPassphraseConsole());
@@ -223,40 +610,396 @@ public class GnuPGTestSuite extends TestCase{
 
     }
 
-//     public void testEncryptAndSign(){
-//         GnuPGContext ctx = new GnuPGContext();
-//         ctx.setPassphraseListener(new GnuPGPassphraseWindow());
-//         GnuPGData plain = new GnuPGData(PLAINTEXT);
-//         GnuPGData cipher = new GnuPGData();
-//
-//         GnuPGKey[] recipient = ctx.generateEmptyKeyArray(1);
-//         recipient[0] = ctx.getKeyByFingerprint(SR_FPR);
-//
-//         ctx.addSigner(recipient[0]);
-//
-//         ctx.encryptAndSign(recipient, plain, cipher);
-//
-//         assertNotNull(cipher.toString());
-//     }
-//
-//     public void testDecryptAndVerify(){
-//         GnuPGContext ctx = new GnuPGContext();
-//         ctx.setPassphraseListener(new GnuPGPassphraseWindow());
-//         GnuPGData plain = new GnuPGData(PLAINTEXT);
-//         GnuPGData cipher = new GnuPGData();
-//         GnuPGData decrypted = new GnuPGData();
-//
-//         GnuPGKey[] recipient = ctx.generateEmptyKeyArray(1);
-//         recipient[0] = ctx.getKeyByFingerprint(SR_FPR);
-//
-//         ctx.addSigner(recipient[0]);
-//
-//         ctx.encryptAndSign(recipient, plain, cipher);
-//
-//         ctx.decryptAndVerify(cipher, decrypted);
-//
-//         assertNotNull(decrypted.toString());
-//     }
+    public void testEncryptAndDecryptStreams(){
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setPassphraseListener(new GnuPGPassphraseWindow());
+        ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
+        GnuPGData plain = ctx.createDataObject(new ByteArrayInputStream(PLAINTEXT.getBytes()));
+        GnuPGData cipher = ctx.createDataObject(cipherOut);
+
+        GnuPGKey[] recipient = ctx.generateEmptyKeyArray(1);
+        recipient[0] = ctx.getKeyByFingerprint(SR_FPR);
+
+        ctx.encrypt(recipient, plain, cipher);
+        assertTrue(cipherOut.size() > 0);
+
+        ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+        ctx.decrypt(ctx.createDataObject(new ByteArrayInputStream(cipherOut.toByteArray())),
+                    ctx.createDataObject(plainOut));
+
+        assertEquals(PLAINTEXT, plainOut.toString());
+
+        //the IOException of a stream is the cause of the GnuPGException
+        final IOException broken = new IOException("broken stream");
+        GnuPGData failing = ctx.createDataObject(new InputStream(){
+                public int read() throws IOException{
+                    throw broken;
+                }
+            });
+        try{
+            ctx.encrypt(recipient, failing, ctx.createDataObject());
+            fail("IOException of the stream not reported");
+        }
+        catch(GnuPGException e){
+            assertSame(broken, e.getCause());
+        }
+    }
+
+    public void testEncryptAndDecryptAsync() throws Exception{
+        GnuPGContext first = new GnuPGContext();
+        GnuPGContext second = new GnuPGContext();
+        second.setPassphraseListener(new GnuPGPassphraseWindow());
+
+        GnuPGKey[] recipient = first.generateEmptyKeyArray(1);
+        recipient[0] = first.getKeyByFingerprint(SR_FPR);
+
+        //two operations run at the same time, on different contexts
+        CompletableFuture<GnuPGData> cipher1 =
+            first.encryptAsync(recipient, first.createDataObject(PLAINTEXT), first.createDataObject());
+        CompletableFuture<GnuPGData> cipher2 =
+            second.encryptAsync(recipient, second.createDataObject(PLAINTEXT), second.createDataObject());
+        assertNotSame(cipher1.get(), cipher2.get());
+
+        GnuPGData plain = second.decryptAsync(cipher2.get(), second.createDataObject()).get();
+        assertEquals(PLAINTEXT, plain.toString());
+    }
+
+    public void testEncryptAndDecryptProcessors() throws Exception{
+        GnuPGContext first = new GnuPGContext();
+        GnuPGContext second = new GnuPGContext();
+        second.setPassphraseListener(new GnuPGPassphraseWindow());
+        GnuPGKey[] recipient = first.generateEmptyKeyArray(1);
+        recipient[0] = first.getKeyByFingerprint(SR_FPR);
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        //plain chunks -> encrypt -> decrypt -> sink, one chunk of demand at a time
+        SubmissionPublisher<ByteBuffer> source = new SubmissionPublisher<ByteBuffer>(executor, 2);
+        GnuPGProcessor encrypt = GnuPGProcessor.encrypt(first, recipient, executor);
+        GnuPGProcessor decrypt = GnuPGProcessor.decrypt(second, executor);
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        source.subscribe(encrypt);
+        encrypt.subscribe(decrypt);
+        decrypt.subscribe(new Flow.Subscriber<ByteBuffer>(){
+                private Flow.Subscription _subscription;
+                public void onSubscribe(Flow.Subscription s){
+                    _subscription = s;
+                    s.request(1);
+                }
+                public void onNext(ByteBuffer item){
+                    sink.write(item.array(), item.position(), item.remaining());
+                    _subscription.request(1);
+                }
+                public void onError(Throwable t){}
+                public void onComplete(){}
+            });
+
+        StringBuilder expected = new StringBuilder();
+        for(int i = 0; i < 1000; i++){
+            source.submit(ByteBuffer.wrap(PLAINTEXT.getBytes()));
+            expected.append(PLAINTEXT);
+        }
+        source.close();
+
+        assertNull(decrypt.getResult().get(60, TimeUnit.SECONDS));
+        assertTrue(encrypt.getResult().isDone());
+        assertEquals(expected.toString(), sink.toString());
+        executor.shutdown();
+    }
+
+    public void testSignAndVerifyProcessors() throws Exception{
+        GnuPGContext signer = new GnuPGContext();
+        signer.setPassphraseListener(new GnuPGPassphraseWindow());
+        signer.addSigner(signer.getKeyByFingerprint(SR_FPR));
+        GnuPGContext verifier = new GnuPGContext();
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        SubmissionPublisher<ByteBuffer> source = new SubmissionPublisher<ByteBuffer>(executor, 2);
+        GnuPGProcessor sign = GnuPGProcessor.sign(signer, executor);
+        GnuPGProcessor verify = GnuPGProcessor.verify(verifier, executor);
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        source.subscribe(sign);
+        sign.subscribe(verify);
+        verify.subscribe(new Flow.Subscriber<ByteBuffer>(){
+                private Flow.Subscription _subscription;
+                public void onSubscribe(Flow.Subscription s){
+                    _subscription = s;
+                    s.request(1);
+                }
+                public void onNext(ByteBuffer item){
+                    sink.write(item.array(), item.position(), item.remaining());
+                    _subscription.request(1);
+                }
+                public void onError(Throwable t){}
+                public void onComplete(){}
+            });
+
+        for(int i = 0; i < 100; i++){
+            source.submit(ByteBuffer.wrap(PLAINTEXT.getBytes()));
+        }
+        source.close();
+
+        GnuPGVerifyResult result = verify.getResult().get(60, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertTrue(result.isValid());
+        assertTrue(SR_FPR.endsWith(result.getSignatures().get(0).getFingerprint()));
+        assertNull(sign.getResult().get(60, TimeUnit.SECONDS));
+        assertTrue(sink.toString().startsWith(PLAINTEXT));
+        executor.shutdown();
+    }
+
+    public void testBatchEncryption(){
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setPassphraseListener(new GnuPGPassphraseWindow());
+        GnuPGKey[] recipient = ctx.generateEmptyKeyArray(1);
+        recipient[0] = ctx.getKeyByFingerprint(SR_FPR);
+
+        List<byte[]> plains = new ArrayList<byte[]>();
+        for(int i = 0; i < 10; i++){
+            plains.add((PLAINTEXT + i).getBytes());
+        }
+
+        long arrays = GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.RECIPIENTS);
+        try(GnuPGBatchEncryptor batch = new GnuPGBatchEncryptor(recipient, 3)){
+            assertEquals(arrays + 1, GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.RECIPIENTS));
+            //the recipient array is copied, the key is no longer needed
+            recipient[0].destroy();
+
+            List<byte[]> ciphers = batch.encrypt(plains);
+            assertEquals(plains.size(), ciphers.size());
+            for(int i = 0; i < ciphers.size(); i++){
+                GnuPGData plain = ctx.createDataObject();
+                ctx.decrypt(ctx.createDataObject(ciphers.get(i)), plain);
+                assertEquals(PLAINTEXT + i, plain.toString());
+            }
+
+            try(Stream<byte[]> streamed = batch.encrypt(plains.stream())){
+                assertEquals(plains.size(), streamed.count());
+            }
+        }
+        assertEquals(arrays, GnuPGNativeHandles.getLiveCount(GnuPGNativeHandles.Kind.RECIPIENTS));
+    }
+
+    public void testBulkVerification(){
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setPassphraseListener(new GnuPGPassphraseWindow());
+        ctx.addSigner(ctx.getKeyByFingerprint(SR_FPR));
+
+        List<GnuPGBulkVerifier.Item> items = new ArrayList<GnuPGBulkVerifier.Item>();
+        for(int i = 0; i < 10; i++){
+            GnuPGData signature = ctx.createDataObject();
+            ctx.sign(ctx.createDataObject(PLAINTEXT + i), signature);
+            items.add(new GnuPGBulkVerifier.Item(signature.toString().getBytes()));
+        }
+        String tampered = new String(items.get(0).getSignature()).replace(PLAINTEXT, PLAINTEXT.toUpperCase());
+        items.add(new GnuPGBulkVerifier.Item(tampered.getBytes()));
+        items.add(new GnuPGBulkVerifier.Item(new byte[0]));
+
+        try(GnuPGBulkVerifier verifier = new GnuPGBulkVerifier(3)){
+            List<GnuPGBulkVerifier.Outcome> outcomes = verifier.verify(items);
+            assertEquals(items.size(), outcomes.size());
+            for(int i = 0; i < 10; i++){
+                assertSame(items.get(i), outcomes.get(i).getItem());
+                assertTrue(outcomes.get(i).isValid());
+            }
+            //neither the bad signature nor the broken item stops the batch
+            assertFalse(outcomes.get(10).isValid());
+            assertNotNull(outcomes.get(10).getResult());
+            assertNotNull(outcomes.get(11).getFailure());
+            assertEquals(10, verifier.getValidCount());
+            assertEquals(1, verifier.getInvalidCount());
+            assertEquals(1, verifier.getFailedCount());
+
+            try(Stream<GnuPGBulkVerifier.Outcome> streamed = verifier.verify(items.stream())){
+                assertEquals(10, streamed.filter(GnuPGBulkVerifier.Outcome::isValid).count());
+            }
+        }
+    }
+
+    public void testEncryptAndDecryptDirectByteBuffers(){
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setPassphraseListener(new GnuPGPassphraseWindow());
+        ByteBuffer plainBuffer = ByteBuffer.allocateDirect(PLAINTEXT.length());
+        plainBuffer.put(PLAINTEXT.getBytes()).flip();
+        GnuPGData plain = ctx.createDataObject(plainBuffer);
+        GnuPGData cipher = ctx.createOutputDataObject(ByteBuffer.allocateDirect(4096));
+        //nothing written yet: no uninitialized memory
+        assertEquals(0, cipher.getByteBuffer().remaining());
+
+        GnuPGKey[] recipient = ctx.generateEmptyKeyArray(1);
+        recipient[0] = ctx.getKeyByFingerprint(SR_FPR);
+
+        ctx.encrypt(recipient, plain, cipher);
+        assertTrue(cipher.getByteBuffer().remaining() > 0);
+
+        ByteBuffer decrypted = ByteBuffer.allocateDirect(4096);
+        GnuPGData decryptedData = ctx.createDataObject();
+        ctx.decrypt(ctx.createDataObject(cipher.getByteBuffer()), decryptedData);
+        decryptedData.write(decrypted);
+        decrypted.flip();
+
+        byte[] result = new byte[decrypted.remaining()];
+        decrypted.get(result);
+        assertEquals(PLAINTEXT, new String(result));
+    }
+
+    public void testEncryptAndDecryptFiles() throws IOException{
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setPassphraseListener(new GnuPGPassphraseWindow());
+        Path plainFile = Files.createTempFile("javagnupg", ".txt");
+        Path cipherFile = Files.createTempFile("javagnupg", ".gpg");
+        Path decryptedFile = Files.createTempFile("javagnupg", ".txt");
+        Files.write(plainFile, PLAINTEXT.getBytes());
+
+        GnuPGKey[] recipient = ctx.generateEmptyKeyArray(1);
+        recipient[0] = ctx.getKeyByFingerprint(SR_FPR);
+
+        GnuPGData plain = ctx.createMappedDataObject(plainFile);
+        GnuPGData cipher = ctx.createOutputDataObject(cipherFile);
+        ctx.encrypt(recipient, plain, cipher);
+        plain.destroy();
+        cipher.destroy();
+        assertTrue(Files.size(cipherFile) > 0);
+
+        //the data starts at the current position of the channel and keeps the header before it
+        FileChannel decryptedChannel = FileChannel.open(decryptedFile, StandardOpenOption.WRITE);
+        decryptedChannel.write(ByteBuffer.wrap("header:".getBytes()));
+        ctx.decrypt(ctx.createDataObject(cipherFile), ctx.createDataObject(decryptedChannel));
+        decryptedChannel.close();
+        assertEquals("header:" + PLAINTEXT, new String(Files.readAllBytes(decryptedFile)));
+
+        Files.delete(plainFile);
+        Files.delete(cipherFile);
+        Files.delete(decryptedFile);
+    }
+
+    public void testImportKeys() throws Exception{
+        //re-import the test key, exported with gpg itself
+        Process gpg = new ProcessBuilder("gpg", "--batch", "--export", SR_FPR).start();
+        GnuPGContext ctx = new GnuPGContext();
+        GnuPGImportResult result = ctx.importKeys(gpg.getInputStream());
+        assertEquals(0, gpg.waitFor());
+        assertEquals(1, result.getConsidered());
+        assertEquals(1, result.getUnchanged());
+        assertEquals(0, result.getNotImported());
+        assertEquals(1, result.getImports().size());
+        assertEquals(SR_FPR, result.getImports().get(0).getFingerprint());
+        assertTrue(result.getImports().get(0).isOk());
+
+        gpg = new ProcessBuilder("gpg", "--batch", "--export", "--armor", SR_FPR).start();
+        final List<GnuPGImportResult> batches = new ArrayList<GnuPGImportResult>();
+        GnuPGImportResult total = ctx.importKeys(gpg.getInputStream(), 1, new GnuPGImportListener(){
+                public void batchImported(int batch, GnuPGImportResult r, GnuPGImportResult sum){
+                    assertEquals(batches.size() + 1, batch);
+                    batches.add(r);
+                }
+            });
+        assertEquals(1, batches.size());
+        assertEquals(1, total.getConsidered());
+        assertTrue(total.getImports().isEmpty());
+    }
+
+    public void testExportKeys(){
+        GnuPGContext ctx = new GnuPGContext();
+        ByteArrayOutputStream armored = new ByteArrayOutputStream();
+        ctx.exportKeys(Arrays.asList(SR_FPR), armored, GnuPGExportMode.ARMOR);
+        assertTrue(armored.toString().startsWith("-----BEGIN PGP PUBLIC KEY BLOCK-----"));
+
+        ByteArrayOutputStream minimal = new ByteArrayOutputStream();
+        ctx.exportKeys(Arrays.asList(SR_FPR), minimal, GnuPGExportMode.MINIMAL);
+        assertTrue(minimal.size() > 0);
+        assertTrue((minimal.toByteArray()[0] & 0x80) != 0);
+        //the armor setting of the context is restored
+        assertTrue(ctx.isArmor());
+
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        ctx.exportKeys(null, all, GnuPGExportMode.BINARY);
+        assertTrue(all.size() >= minimal.size());
+
+        //more patterns than one run of gpg takes
+        List<String> many = new ArrayList<String>();
+        for(int i = 0; i <= GnuPGContext.EXPORT_BATCH_SIZE; i++){
+            many.add(SR_FPR);
+        }
+        ByteArrayOutputStream batched = new ByteArrayOutputStream();
+        ctx.exportKeys(many, batched, GnuPGExportMode.BINARY);
+        GnuPGImportResult reimported = ctx.importKeys(new ByteArrayInputStream(batched.toByteArray()));
+        assertEquals(0, reimported.getNotImported());
+    }
+
+    public void testKeyBatchReader() throws Exception{
+        byte[] dump = {
+            //new format public key, uid and signature
+            (byte)0xC6, 2, 1, 2, (byte)0xCD, 1, 'a', (byte)0xC2, 0,
+            //old format public key with one length octet, uid with two
+            (byte)0x98, 1, 3, (byte)0xB5, 0, 2, 'b', 'c',
+            //new format secret key with a two octet length
+            (byte)0xC5, (byte)0xC0, 0
+        };
+        byte[] body = new byte[192];
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        in.write(dump);
+        in.write(body);
+
+        GnuPGKeyBatchReader reader = new GnuPGKeyBatchReader(new ByteArrayInputStream(in.toByteArray()), 2);
+        assertEquals(17, reader.next().length);
+        assertEquals(3 + 192, reader.next().length);
+        assertNull(reader.next());
+
+        String armored = "-----BEGIN PGP PUBLIC KEY BLOCK-----\nA\n-----END PGP PUBLIC KEY BLOCK-----\n";
+        reader = new GnuPGKeyBatchReader(new ByteArrayInputStream((armored + armored + armored).getBytes()), 2);
+        assertEquals(2 * armored.length(), reader.next().length);
+        assertEquals(armored.length(), reader.next().length);
+        assertNull(reader.next());
+    }
+
+    public void testEncryptAndSign(){
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setPassphraseListener(new GnuPGPassphraseWindow());
+        GnuPGData plain = ctx.createDataObject(PLAINTEXT);
+        GnuPGData cipher = ctx.createDataObject();
+
+        GnuPGKey[] recipient = ctx.generateEmptyKeyArray(1);
+        recipient[0] = ctx.getKeyByFingerprint(SR_FPR);
+
+        ctx.addSigner(recipient[0]);
+
+        ctx.encryptAndSign(recipient, plain, cipher);
+
+        assertTrue(cipher.toString().length() > 0);
+    }
+
+    public void testDecryptAndVerify(){
+        GnuPGContext ctx = new GnuPGContext();
+        ctx.setPassphraseListener(new GnuPGPassphraseWindow());
+        GnuPGData plain = ctx.createDataObject(PLAINTEXT);
+        GnuPGData cipher = ctx.createDataObject();
+        GnuPGData decrypted = ctx.createDataObject();
+
+        GnuPGKey[] recipient = ctx.generateEmptyKeyArray(1);
+        recipient[0] = ctx.getKeyByFingerprint(SR_FPR);
+
+        ctx.addSigner(recipient[0]);
+
+        ctx.encryptAndSign(recipient, plain, cipher);
+
+        GnuPGVerifyResult result = ctx.decryptAndVerify(cipher, decrypted);
+
+        assertEquals(PLAINTEXT, decrypted.toString());
+        assertTrue(result.isValid());
+        assertEquals(1, result.getSignatures().size());
+        GnuPGVerifyResult.Signature sig = result.getSignatures().get(0);
+        assertTrue(sig.isGood());
+        assertNull(sig.getStatusText());
+        assertTrue(SR_FPR.endsWith(sig.getFingerprint()));
+        assertTrue(sig.getTimestamp() > 0);
+
+        //unsigned data has no signatures
+        GnuPGData unsigned = ctx.createDataObject();
+        ctx.encrypt(recipient, ctx.createDataObject(PLAINTEXT), unsigned);
+        result = ctx.decryptAndVerify(unsigned, ctx.createDataObject());
+        assertTrue(result.getSignatures().isEmpty());
+        assertFalse(result.isValid());
+    }
 
 //    public void testGenKey(){
 //        final String dirName = "/home/stefan/tmp/.gnupg";